@@ -11,7 +11,6 @@ import gov.nasa.worldwind.awt.*;
 import gov.nasa.worldwind.event.*;
 import gov.nasa.worldwind.exception.WWAbsentRequirementException;
 import gov.nasa.worldwind.layers.*;
-import gov.nasa.worldwind.layers.placename.PlaceNameLayer;
 import gov.nasa.worldwind.util.*;
 import gov.nasa.worldwindx.examples.ClickAndGoSelectListener;
 import gov.nasa.worldwindx.examples.LayerPanel;
@@ -20,6 +19,7 @@ import gov.nasa.worldwindx.examples.util.*;
 import javax.swing.*;
 
 import java.awt.*;
+import java.util.Collection;
 
 /**
  * Provides a base application framework for simple WorldWind examples. Examine other examples in this package to see
@@ -227,59 +227,37 @@ public class ApplicationTemplate
         }
     }
 
+    // These go through the layer list's LayerInserter, which caches where the compass and place names are instead of
+    // searching the list on every insertion.
+
     public static void insertBeforeCompass(WorldWindow wwd, Layer layer)
     {
         // Insert the layer into the layer list just before the compass.
-        int compassPosition = 0;
-        LayerList layers = wwd.getModel().getLayers();
-        for (Layer l : layers)
-        {
-            if (l instanceof CompassLayer)
-                compassPosition = layers.indexOf(l);
-        }
-        layers.add(compassPosition, layer);
+        LayerInserter.of(wwd.getModel().getLayers()).insertBeforeCompass(layer);
     }
 
     public static void insertBeforePlacenames(WorldWindow wwd, Layer layer)
     {
         // Insert the layer into the layer list just before the placenames.
-        int compassPosition = 0;
-        LayerList layers = wwd.getModel().getLayers();
-        for (Layer l : layers)
-        {
-            if (l instanceof PlaceNameLayer)
-                compassPosition = layers.indexOf(l);
-        }
-        layers.add(compassPosition, layer);
+        LayerInserter.of(wwd.getModel().getLayers()).insertBeforePlacenames(layer);
     }
 
     public static void insertAfterPlacenames(WorldWindow wwd, Layer layer)
     {
         // Insert the layer into the layer list just after the placenames.
-        int compassPosition = 0;
-        LayerList layers = wwd.getModel().getLayers();
-        for (Layer l : layers)
-        {
-            if (l instanceof PlaceNameLayer)
-                compassPosition = layers.indexOf(l);
-        }
-        layers.add(compassPosition + 1, layer);
+        LayerInserter.of(wwd.getModel().getLayers()).insertAfterPlacenames(layer);
     }
 
     public static void insertBeforeLayerName(WorldWindow wwd, Layer layer, String targetName)
     {
         // Insert the layer into the layer list just before the target layer.
-        int targetPosition = 0;
-        LayerList layers = wwd.getModel().getLayers();
-        for (Layer l : layers)
-        {
-            if (l.getName().indexOf(targetName) != -1)
-            {
-                targetPosition = layers.indexOf(l);
-                break;
-            }
-        }
-        layers.add(targetPosition, layer);
+        LayerInserter.of(wwd.getModel().getLayers()).insertBeforeLayerName(layer, targetName);
+    }
+
+    public static void insertAllBeforeCompass(WorldWindow wwd, Collection<? extends Layer> layers)
+    {
+        // Insert the layers into the layer list just before the compass, changing the list once.
+        LayerInserter.of(wwd.getModel().getLayers()).insertAllBeforeCompass(layers);
     }
 
     static
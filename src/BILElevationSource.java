@@ -0,0 +1,155 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads elevations from a local BIL file, the band-interleaved raster that USGS and most GIS tools export, described by
+ * an ESRI <code>.hdr</code> file beside it.
+ * <p/>
+ * The header is read for <code>NROWS</code>, <code>NCOLS</code>, <code>NBITS</code> (16 or 32),
+ * <code>PIXELTYPE</code> (<code>SIGNEDINT</code> or <code>FLOAT</code>), <code>BYTEORDER</code> (<code>I</code> for
+ * little-endian, <code>M</code> for big-endian), <code>ULXMAP</code> and <code>ULYMAP</code> (the center of the upper
+ * left sample, in degrees), <code>XDIM</code> and <code>YDIM</code> (the sample spacing, in degrees),
+ * <code>NODATA</code> and <code>SKIPBYTES</code>. Only the first band is used. Samples are read a tile at a time with
+ * positional reads, so the file is never loaded whole and several threads can read at once.
+ */
+public class BILElevationSource extends TiledElevationSource implements Closeable
+{
+    protected final FileChannel channel;
+    protected final int bytesPerSample;
+    protected final boolean floatingPoint;
+    protected final ByteOrder byteOrder;
+    protected final double noData;
+    protected final long skipBytes;
+
+    /**
+     * Opens a BIL file whose header has the same name with a <code>.hdr</code> extension.
+     *
+     * @param file the BIL file.
+     *
+     * @return the source.
+     *
+     * @throws IOException if either file cannot be read or the header does not describe a supported raster.
+     */
+    public static BILElevationSource open(File file) throws IOException
+    {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        File header = new File(file.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".hdr");
+
+        return new BILElevationSource(file, readHeader(header), DEFAULT_CACHE_TILES);
+    }
+
+    protected BILElevationSource(File file, Map<String, String> header, int cacheTiles) throws IOException
+    {
+        super(number(header, "ULYMAP"), number(header, "ULXMAP"), number(header, "YDIM"), number(header, "XDIM"),
+            (int) number(header, "NROWS"), (int) number(header, "NCOLS"), DEFAULT_TILE_SIZE, cacheTiles);
+
+        int bits = header.containsKey("NBITS") ? (int) number(header, "NBITS") : 16;
+        String pixelType = header.containsKey("PIXELTYPE") ? header.get("PIXELTYPE") : "SIGNEDINT";
+        if (bits == 16 && !pixelType.equals("FLOAT"))
+            this.floatingPoint = false;
+        else if (bits == 32 && pixelType.equals("FLOAT"))
+            this.floatingPoint = true;
+        else
+            throw new IOException("Unsupported BIL sample type " + bits + " bit " + pixelType);
+
+        this.bytesPerSample = bits / 8;
+        this.byteOrder = "M".equals(header.get("BYTEORDER")) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        this.noData = header.containsKey("NODATA") ? number(header, "NODATA") : Double.NaN;
+        this.skipBytes = header.containsKey("SKIPBYTES") ? (long) number(header, "SKIPBYTES") : 0;
+        this.channel = new FileInputStream(file).getChannel();
+
+        long expected = this.skipBytes + (long) this.rows * this.columns * this.bytesPerSample;
+        if (this.channel.size() < expected)
+        {
+            this.channel.close();
+            throw new IOException(file + " holds " + this.channel.size() + " bytes, the header describes " + expected);
+        }
+    }
+
+    protected float[] readTile(int tileRow, int tileColumn) throws IOException
+    {
+        float[] tile = new float[this.tileSize * this.tileSize];
+        Arrays.fill(tile, Float.NaN);
+
+        int firstRow = tileRow * this.tileSize;
+        int firstColumn = tileColumn * this.tileSize;
+        int width = Math.min(this.tileSize, this.columns - firstColumn);
+        ByteBuffer buffer = ByteBuffer.allocate(width * this.bytesPerSample).order(this.byteOrder);
+
+        for (int r = 0; r < this.tileSize && firstRow + r < this.rows; r++)
+        {
+            long position = this.skipBytes
+                + ((long) (firstRow + r) * this.columns + firstColumn) * this.bytesPerSample;
+
+            buffer.clear();
+            while (buffer.hasRemaining())
+            {
+                if (this.channel.read(buffer, position + buffer.position()) < 0)
+                    throw new IOException("Unexpected end of elevation file");
+            }
+            buffer.flip();
+
+            for (int c = 0; c < width; c++)
+            {
+                float value = this.floatingPoint ? buffer.getFloat() : buffer.getShort();
+                tile[r * this.tileSize + c] = value == this.noData ? Float.NaN : value;
+            }
+        }
+
+        return tile;
+    }
+
+    public void close() throws IOException
+    {
+        this.channel.close();
+    }
+
+    /**
+     * Reads the keys and values of an ESRI header, upper-casing the keys and values.
+     */
+    protected static Map<String, String> readHeader(File header) throws IOException
+    {
+        Map<String, String> values = new HashMap<String, String>();
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new FileInputStream(header), Charset.forName("US-ASCII"))))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length >= 2)
+                    values.put(fields[0].toUpperCase(Locale.US), fields[1].toUpperCase(Locale.US));
+            }
+        }
+        return values;
+    }
+
+    private static double number(Map<String, String> header, String key) throws IOException
+    {
+        String value = header.get(key);
+        if (value == null)
+            throw new IOException("The elevation header has no " + key);
+
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException("The elevation header's " + key + " is not a number: " + value);
+        }
+    }
+}
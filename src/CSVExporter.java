@@ -0,0 +1,112 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exports placemarks as comma separated values, one placemark a row under a header of
+ * <code>name,latitude,longitude</code> and, when the placemarks are not clamped to the ground, <code>altitude</code>.
+ * <p/>
+ * Rows end in CRLF and names holding a comma, quote or line break are quoted with their quotes doubled, as RFC 4180
+ * has it, so spreadsheets and databases read the file as it is.
+ */
+public class CSVExporter implements PlacemarkExporter
+{
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    public String getName()
+    {
+        return "CSV";
+    }
+
+    public String[] getFileExtensions()
+    {
+        return new String[] {"csv"};
+    }
+
+    public Output open(OutputStream out, long placemarkCount, boolean absoluteAltitudes)
+    {
+        return new CSVOutput(out, absoluteAltitudes);
+    }
+
+    protected static class CSVOutput implements Output
+    {
+        protected final Writer writer;
+        protected final boolean absoluteAltitudes;
+
+        public CSVOutput(OutputStream out, boolean absoluteAltitudes)
+        {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            this.absoluteAltitudes = absoluteAltitudes;
+        }
+
+        public void start() throws IOException
+        {
+            this.writer.write(this.absoluteAltitudes ? "name,latitude,longitude,altitude\r\n"
+                : "name,latitude,longitude\r\n");
+        }
+
+        public void write(String name, double longitude, double latitude, double altitude) throws IOException
+        {
+            if (name != null)
+                writeField(this.writer, name);
+            this.writer.write(',');
+            this.writer.write(Double.toString(latitude));
+            this.writer.write(',');
+            this.writer.write(Double.toString(longitude));
+            if (this.absoluteAltitudes)
+            {
+                this.writer.write(',');
+                this.writer.write(Double.toString(altitude));
+            }
+            this.writer.write("\r\n");
+        }
+
+        public void end() throws IOException
+        {
+            this.writer.flush();
+        }
+
+        public void close() throws IOException
+        {
+            this.writer.close();
+        }
+    }
+
+    /**
+     * Writes a field, quoted if it holds a comma, quote or line break.
+     *
+     * @param writer the writer to write to.
+     * @param text   the field.
+     *
+     * @throws IOException if the writer fails.
+     */
+    static void writeField(Writer writer, String text) throws IOException
+    {
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++)
+        {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote)
+        {
+            writer.write(text);
+            return;
+        }
+
+        writer.write('"');
+        int start = 0;
+        for (int i = text.indexOf('"'); i >= 0; i = text.indexOf('"', i + 1))
+        {
+            writer.write(text, start, i + 1 - start);
+            writer.write('"');
+            start = i + 1;
+        }
+        writer.write(text, start, text.length() - start);
+        writer.write('"');
+    }
+}
@@ -0,0 +1,158 @@
+import gov.nasa.worldwind.event.RenderingEvent;
+import gov.nasa.worldwind.event.RenderingListener;
+import gov.nasa.worldwind.geom.Position;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stores digitizing clicks in the session, tells the listeners, and measures how long each click takes to reach the
+ * screen.
+ * <p/>
+ * The mouse listener calls {@link #capture(Position)} on the event dispatch thread, which adds the click to the
+ * {@link DigitizingSession} there and then. The session stays confined to that thread, as the points layer reads it
+ * while rendering, so there is no queue to hand clicks to another thread; a click costs a store append, an index
+ * insert and a journal record, a few microseconds at a million placemarks apart from the odd array growth.
+ * <p/>
+ * Two histograms are kept: click to placemark stored, and click to the end of the first frame that shows it, measured
+ * by registering the pipeline as a <code>RenderingListener</code> on the World Window.
+ */
+public class ClickPipeline implements RenderingListener
+{
+    /**
+     * Told after each click has been added to the session.
+     */
+    public interface Listener
+    {
+        /**
+         * Called on the event dispatch thread after a click is added.
+         *
+         * @param position the position clicked.
+         */
+        void clickApplied(Position position);
+    }
+
+    protected final DigitizingSession session;
+    protected final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    protected final LatencyHistogram storedLatency = new LatencyHistogram();
+    protected final LatencyHistogram visibleLatency = new LatencyHistogram();
+
+    // The most clicks tracked to the screen per frame. Many more than a hand clicks in a frame, and a bound for when no
+    // frames are drawn, such as while the window is minimized; clicks beyond it go untracked.
+    protected static final int MAX_TRACKED_CLICKS = 256;
+
+    // capture times of the clicks stored since the last frame began, and of those in the frame being drawn
+    protected final long[] awaitingFrame = new long[MAX_TRACKED_CLICKS];
+    protected int awaitingCount = 0;
+    protected final long[] inFrame = new long[MAX_TRACKED_CLICKS];
+    protected int inFrameCount = 0;
+
+    /**
+     * Creates a pipeline feeding a session.
+     *
+     * @param session the session clicks are added to.
+     */
+    public ClickPipeline(DigitizingSession session)
+    {
+        this.session = session;
+
+        // the first flight recorder event a JVM creates sets up JFR, a few hundred milliseconds better spent while
+        // the globe is built than on the first click
+        new ViewerEvents.ClickEvent();
+    }
+
+    public void addListener(Listener listener)
+    {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener)
+    {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Adds a click to the session and notifies the listeners. Runs on the event dispatch thread.
+     *
+     * @param position the position clicked.
+     */
+    public void capture(Position position)
+    {
+        long capturedNanos = System.nanoTime();
+
+        ViewerEvents.ClickEvent event = new ViewerEvents.ClickEvent();
+        event.begin();
+
+        this.session.addPoint(position.getLatitude().getDegrees(), position.getLongitude().getDegrees(),
+            position.getElevation());
+
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.placemarks = this.session.getPlacemarkStore().count();
+            event.commit();
+        }
+
+        this.storedLatency.record(System.nanoTime() - capturedNanos);
+
+        synchronized (this.awaitingFrame)
+        {
+            if (this.awaitingCount < MAX_TRACKED_CLICKS)
+                this.awaitingFrame[this.awaitingCount++] = capturedNanos;
+        }
+
+        for (Listener listener : this.listeners)
+        {
+            listener.clickApplied(position);
+        }
+    }
+
+    /**
+     * Follows the World Window's frames: clicks stored before a frame begins are visible once its buffers are swapped.
+     *
+     * @param event the rendering event.
+     */
+    public void stageChanged(RenderingEvent event)
+    {
+        synchronized (this.awaitingFrame)
+        {
+            if (RenderingEvent.BEFORE_RENDERING.equals(event.getStage()))
+            {
+                int count = Math.min(this.awaitingCount, MAX_TRACKED_CLICKS - this.inFrameCount);
+                System.arraycopy(this.awaitingFrame, 0, this.inFrame, this.inFrameCount, count);
+                this.inFrameCount += count;
+                this.awaitingCount = 0;
+            }
+            else if (RenderingEvent.AFTER_BUFFER_SWAP.equals(event.getStage()) && this.inFrameCount > 0)
+            {
+                long now = System.nanoTime();
+                for (int i = 0; i < this.inFrameCount; i++)
+                {
+                    this.visibleLatency.record(now - this.inFrame[i]);
+                }
+                this.inFrameCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the latencies from a click to its placemark being in the session.
+     *
+     * @return the histogram.
+     */
+    public LatencyHistogram getStoredLatency()
+    {
+        return this.storedLatency;
+    }
+
+    /**
+     * Returns the latencies from a click to the end of the first frame drawn with its placemark.
+     *
+     * @return the histogram.
+     */
+    public LatencyHistogram getVisibleLatency()
+    {
+        return this.visibleLatency;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * A ground control point: a feature's location as it appears on a map being georeferenced, paired with its true
+ * location.
+ * <p/>
+ * Both are latitudes and longitudes in degrees. The source is where the feature lies on the globe as the map is
+ * placed now, for a scan its corner placement, and the target is where the feature really is.
+ */
+public class ControlPoint
+{
+    protected final double sourceLatitude;
+    protected final double sourceLongitude;
+    protected final double targetLatitude;
+    protected final double targetLongitude;
+
+    public ControlPoint(double sourceLatitude, double sourceLongitude, double targetLatitude, double targetLongitude)
+    {
+        this.sourceLatitude = sourceLatitude;
+        this.sourceLongitude = sourceLongitude;
+        this.targetLatitude = targetLatitude;
+        this.targetLongitude = targetLongitude;
+    }
+
+    public double getSourceLatitude()
+    {
+        return this.sourceLatitude;
+    }
+
+    public double getSourceLongitude()
+    {
+        return this.sourceLongitude;
+    }
+
+    public double getTargetLatitude()
+    {
+        return this.targetLatitude;
+    }
+
+    public double getTargetLongitude()
+    {
+        return this.targetLongitude;
+    }
+}
@@ -0,0 +1,409 @@
+import gov.nasa.worldwind.WorldWindow;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.layers.Layer;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Frame;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * A non-modal window for georeferencing with control points. Each pair is picked with two clicks on the globe, first
+ * on a feature as the map shows it and then on where the feature really is, for example on the imagery or an imported
+ * survey point, and can be corrected by typing in the table.
+ * <p/>
+ * The transform is fitted again on every change, which takes well under a millisecond for a few dozen points, so the
+ * residuals and their RMS follow each edit. The fitted transform can then place a scanned map layer, or move the points
+ * digitized off the map before it was corrected.
+ */
+public class ControlPointDialog extends JDialog
+{
+    private static final long serialVersionUID = -2260394833167730615L;
+
+    protected static final String[] COLUMNS = {"Map latitude", "Map longitude", "True latitude", "True longitude",
+        "Residual (m)"};
+
+    protected final WorldWindow wwd;
+    protected final Globe lineBuilder;
+    protected final List<ControlPoint> points = new ArrayList<ControlPoint>();
+    protected final ControlPointTableModel tableModel = new ControlPointTableModel();
+    protected final JTable table = new JTable(this.tableModel);
+    protected final JComboBox<ControlPointTransform.Type> typeBox =
+        new JComboBox<ControlPointTransform.Type>(ControlPointTransform.Type.values());
+    protected final JComboBox<ScannedImageLayer> scanBox = new JComboBox<ScannedImageLayer>();
+    protected final JLabel statusLabel = new JLabel(" ");
+    protected final JButton pickButton = new JButton("Pick Pair");
+
+    protected ControlPointTransform transform;
+    protected String fitMessage = " ";
+
+    // 0 when not picking, 1 waiting for the map location, 2 for the true one
+    protected int pickStage = 0;
+    protected Position pickedSource;
+
+    public ControlPointDialog(Frame owner, WorldWindow wwd, Globe lineBuilder)
+    {
+        super(owner, "Control Points", false);
+        this.wwd = wwd;
+        this.lineBuilder = lineBuilder;
+
+        this.tableModel.addTableModelListener(new TableModelListener()
+        {
+            public void tableChanged(TableModelEvent e)
+            {
+                // the residual column is filled in by the fit, so only edits to the points refit
+                if (e.getColumn() != COLUMNS.length - 1)
+                    refit();
+            }
+        });
+        this.typeBox.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                refit();
+            }
+        });
+
+        this.pickButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                startPicking();
+            }
+        });
+
+        JButton removeButton = new JButton("Remove Selected");
+        removeButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                removeSelected();
+            }
+        });
+
+        JButton applyButton = new JButton("Apply to Scan");
+        applyButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                applyToScan();
+            }
+        });
+
+        JButton resetButton = new JButton("Reset Scan");
+        resetButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                resetScan((ScannedImageLayer) scanBox.getSelectedItem());
+            }
+        });
+
+        JButton reprojectButton = new JButton("Reproject Points");
+        reprojectButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                reprojectPoints();
+            }
+        });
+
+        JPanel options = new JPanel(new GridLayout(2, 2, 5, 5));
+        options.add(new JLabel("Transform"));
+        options.add(this.typeBox);
+        options.add(new JLabel("Scanned map"));
+        options.add(this.scanBox);
+
+        JPanel pointButtons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        pointButtons.add(this.pickButton);
+        pointButtons.add(removeButton);
+
+        JPanel north = new JPanel(new BorderLayout(5, 5));
+        north.add(options, BorderLayout.NORTH);
+        north.add(pointButtons, BorderLayout.SOUTH);
+
+        JPanel applyButtons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        applyButtons.add(applyButton);
+        applyButtons.add(resetButton);
+        applyButtons.add(reprojectButton);
+
+        JPanel south = new JPanel(new BorderLayout(5, 5));
+        south.add(this.statusLabel, BorderLayout.NORTH);
+        south.add(applyButtons, BorderLayout.SOUTH);
+
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(9, 9, 9, 9));
+        content.add(north, BorderLayout.NORTH);
+        content.add(new JScrollPane(this.table), BorderLayout.CENTER);
+        content.add(south, BorderLayout.SOUTH);
+        this.setContentPane(content);
+        this.setPreferredSize(new Dimension(640, 420));
+        this.pack();
+        this.setLocationRelativeTo(owner);
+
+        this.wwd.getInputHandler().addMouseListener(new MouseAdapter()
+        {
+            public void mouseClicked(MouseEvent mouseEvent)
+            {
+                if (pickStage != 0 && mouseEvent.getButton() == MouseEvent.BUTTON1)
+                {
+                    picked(ControlPointDialog.this.wwd.getCurrentPosition());
+                    mouseEvent.consume();
+                }
+            }
+        });
+
+        this.refit();
+    }
+
+    public List<ControlPoint> getControlPoints()
+    {
+        return new ArrayList<ControlPoint>(this.points);
+    }
+
+    /**
+     * Returns the transform fitted to the control points.
+     *
+     * @return the transform, or null if the points do not determine one.
+     */
+    public ControlPointTransform getTransform()
+    {
+        return this.transform;
+    }
+
+    /**
+     * Lists the scanned map layers to choose from again, keeping the chosen one if it is still open.
+     */
+    public void refreshScans()
+    {
+        Object selected = this.scanBox.getSelectedItem();
+        this.scanBox.removeAllItems();
+        for (Layer layer : this.wwd.getModel().getLayers())
+        {
+            if (layer instanceof ScannedImageLayer)
+                this.scanBox.addItem((ScannedImageLayer) layer);
+        }
+        if (selected != null)
+            this.scanBox.setSelectedItem(selected);
+    }
+
+    public void setVisible(boolean visible)
+    {
+        if (visible)
+            this.refreshScans();
+        else
+            this.pickStage = 0;
+        super.setVisible(visible);
+    }
+
+    protected void startPicking()
+    {
+        if (this.lineBuilder.isArmed())
+        {
+            JOptionPane.showMessageDialog(this, "Pause digitizing before picking control points.", this.getTitle(),
+                JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        // the map locations are picked on the scan as it was first placed, which the transform is fitted to
+        ScannedImageLayer scan = (ScannedImageLayer) this.scanBox.getSelectedItem();
+        if (scan != null && scan.getGeoreference() instanceof TransformedGeoreference)
+            this.resetScan(scan);
+
+        this.pickStage = 1;
+        this.pickButton.setEnabled(false);
+        this.statusLabel.setText("Click the feature on the map");
+    }
+
+    protected void picked(Position position)
+    {
+        if (position == null)
+            return; // off the globe, wait for another click
+
+        if (this.pickStage == 1)
+        {
+            this.pickedSource = position;
+            this.pickStage = 2;
+            this.statusLabel.setText("Click where the feature really is");
+            return;
+        }
+
+        this.pickStage = 0;
+        this.pickButton.setEnabled(true);
+        this.points.add(new ControlPoint(this.pickedSource.getLatitude().degrees,
+            this.pickedSource.getLongitude().degrees, position.getLatitude().degrees,
+            position.getLongitude().degrees));
+        this.tableModel.fireTableRowsInserted(this.points.size() - 1, this.points.size() - 1);
+    }
+
+    protected void removeSelected()
+    {
+        int[] rows = this.table.getSelectedRows();
+        Arrays.sort(rows);
+        for (int i = rows.length - 1; i >= 0; i--)
+        {
+            this.points.remove(this.table.convertRowIndexToModel(rows[i]));
+        }
+        this.tableModel.fireTableDataChanged();
+    }
+
+    /**
+     * Fits the chosen transform to the control points and shows the residuals.
+     */
+    protected void refit()
+    {
+        ControlPointTransform.Type type = (ControlPointTransform.Type) this.typeBox.getSelectedItem();
+        long start = System.nanoTime();
+        try
+        {
+            this.transform = ControlPointTransform.fit(type, this.points);
+            this.fitMessage = String.format("RMS error %.2f m over %d points, fitted in %.2f ms",
+                this.transform.getRMSError(), this.points.size(), (System.nanoTime() - start) / 1e6);
+        }
+        catch (IllegalArgumentException e)
+        {
+            this.transform = null;
+            this.fitMessage = e.getMessage();
+        }
+
+        if (this.pickStage == 0)
+            this.statusLabel.setText(this.fitMessage);
+        this.tableModel.fireTableChanged(new TableModelEvent(this.tableModel, 0, Integer.MAX_VALUE,
+            COLUMNS.length - 1));
+    }
+
+    protected boolean checkTransform()
+    {
+        if (this.transform != null)
+            return true;
+
+        JOptionPane.showMessageDialog(this, this.fitMessage, this.getTitle(), JOptionPane.ERROR_MESSAGE);
+        return false;
+    }
+
+    protected void applyToScan()
+    {
+        ScannedImageLayer scan = (ScannedImageLayer) this.scanBox.getSelectedItem();
+        if (scan == null)
+        {
+            JOptionPane.showMessageDialog(this, "No scanned map is open.", this.getTitle(),
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (!this.checkTransform())
+            return;
+
+        ImageGeoreference base = scan.getGeoreference();
+        if (base instanceof TransformedGeoreference)
+            base = ((TransformedGeoreference) base).getBase();
+
+        scan.setGeoreference(new TransformedGeoreference(base, this.transform, scan.getPyramid(),
+            Runtime.getRuntime().availableProcessors()));
+        RedrawScheduler.of(this.wwd).requestRedraw();
+    }
+
+    protected void resetScan(ScannedImageLayer scan)
+    {
+        if (scan == null || !(scan.getGeoreference() instanceof TransformedGeoreference))
+            return;
+
+        scan.setGeoreference(((TransformedGeoreference) scan.getGeoreference()).getBase());
+        RedrawScheduler.of(this.wwd).requestRedraw();
+    }
+
+    protected void reprojectPoints()
+    {
+        if (!this.checkTransform())
+            return;
+
+        int answer = JOptionPane.showConfirmDialog(this,
+            "Move every digitized point from the map's placement to the corrected one?", this.getTitle(),
+            JOptionPane.OK_CANCEL_OPTION);
+        if (answer != JOptionPane.OK_OPTION)
+            return;
+
+        long start = System.nanoTime();
+        int moved = this.lineBuilder.reproject(this.transform);
+        this.statusLabel.setText(String.format("Moved %d points in %.1f ms", moved,
+            (System.nanoTime() - start) / 1e6));
+    }
+
+    protected class ControlPointTableModel extends AbstractTableModel
+    {
+        private static final long serialVersionUID = 5107325791468150632L;
+
+        public int getRowCount()
+        {
+            return points.size();
+        }
+
+        public int getColumnCount()
+        {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int column)
+        {
+            return COLUMNS[column];
+        }
+
+        public Class<?> getColumnClass(int column)
+        {
+            return column == COLUMNS.length - 1 ? String.class : Double.class;
+        }
+
+        public boolean isCellEditable(int row, int column)
+        {
+            return column != COLUMNS.length - 1;
+        }
+
+        public Object getValueAt(int row, int column)
+        {
+            ControlPoint point = points.get(row);
+            switch (column)
+            {
+                case 0:
+                    return point.getSourceLatitude();
+                case 1:
+                    return point.getSourceLongitude();
+                case 2:
+                    return point.getTargetLatitude();
+                case 3:
+                    return point.getTargetLongitude();
+                default:
+                    return transform != null ? String.format("%.2f", transform.getResiduals()[row]) : "";
+            }
+        }
+
+        public void setValueAt(Object value, int row, int column)
+        {
+            ControlPoint point = points.get(row);
+            double[] values = {point.getSourceLatitude(), point.getSourceLongitude(), point.getTargetLatitude(),
+                point.getTargetLongitude()};
+            values[column] = ((Number) value).doubleValue();
+            points.set(row, new ControlPoint(values[0], values[1], values[2], values[3]));
+            this.fireTableCellUpdated(row, column);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+import gov.nasa.worldwind.geom.LatLon;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A transform fitted to {@link ControlPoint}s, taking locations on a map as it is placed now to where they really are.
+ * <p/>
+ * Locations are treated as planar x and y, longitude and latitude, which suits the extent of a map sheet. Before
+ * fitting they are centered on the control points and scaled to unit spread, so the polynomial terms stay well
+ * conditioned. Least squares transforms report how far each control point lands from its target, as the residual, and
+ * their root mean square; a thin plate spline passes through every control point, so its residuals are zero.
+ * <p/>
+ * A transform is immutable once fitted and safe to use from several threads.
+ */
+public abstract class ControlPointTransform
+{
+    /**
+     * The kinds of transform.
+     */
+    public enum Type
+    {
+        AFFINE("Affine", 3),
+        POLYNOMIAL_2("2nd order polynomial", 6),
+        POLYNOMIAL_3("3rd order polynomial", 10),
+        THIN_PLATE_SPLINE("Thin plate spline", 3);
+
+        private final String label;
+        private final int minimumPoints;
+
+        Type(String label, int minimumPoints)
+        {
+            this.label = label;
+            this.minimumPoints = minimumPoints;
+        }
+
+        /**
+         * Returns the fewest control points the transform can be fitted to.
+         *
+         * @return the number of points.
+         */
+        public int getMinimumPoints()
+        {
+            return this.minimumPoints;
+        }
+
+        public String toString()
+        {
+            return this.label;
+        }
+    }
+
+    /** Points transformed per task by {@link #transformAll}. */
+    protected static final int CHUNK_SIZE = 8192;
+
+    protected final Type type;
+    protected final int pointCount;
+
+    // centers and scales taking source and target degrees to the fitting coordinates
+    protected double sourceX, sourceY, sourceScale;
+    protected double targetX, targetY, targetScale;
+
+    protected double[] residuals;
+    protected double rmsError;
+
+    protected ControlPointTransform(Type type, List<ControlPoint> points)
+    {
+        this.type = type;
+        this.pointCount = points.size();
+
+        double sx = 0, sy = 0, tx = 0, ty = 0;
+        for (ControlPoint point : points)
+        {
+            sx += point.getSourceLongitude();
+            sy += point.getSourceLatitude();
+            tx += point.getTargetLongitude();
+            ty += point.getTargetLatitude();
+        }
+        this.sourceX = sx / this.pointCount;
+        this.sourceY = sy / this.pointCount;
+        this.targetX = tx / this.pointCount;
+        this.targetY = ty / this.pointCount;
+
+        double sourceSpread = 0, targetSpread = 0;
+        for (ControlPoint point : points)
+        {
+            sourceSpread += square(point.getSourceLongitude() - this.sourceX)
+                + square(point.getSourceLatitude() - this.sourceY);
+            targetSpread += square(point.getTargetLongitude() - this.targetX)
+                + square(point.getTargetLatitude() - this.targetY);
+        }
+        this.sourceScale = Math.max(Math.sqrt(sourceSpread / this.pointCount), 1e-9);
+        this.targetScale = Math.max(Math.sqrt(targetSpread / this.pointCount), 1e-9);
+    }
+
+    /**
+     * Fits a transform.
+     *
+     * @param type   the kind of transform.
+     * @param points the control points.
+     *
+     * @return the fitted transform.
+     *
+     * @throws IllegalArgumentException if there are too few points for the type, or they are placed so that the
+     *                                  transform is undetermined, such as all in a line or two at the same place.
+     */
+    public static ControlPointTransform fit(Type type, List<ControlPoint> points)
+    {
+        if (points.size() < type.getMinimumPoints())
+            throw new IllegalArgumentException(type + " needs at least " + type.getMinimumPoints()
+                + " control points");
+
+        ControlPointTransform transform;
+        switch (type)
+        {
+            case AFFINE:
+                transform = new PolynomialTransform(type, points, 1);
+                break;
+            case POLYNOMIAL_2:
+                transform = new PolynomialTransform(type, points, 2);
+                break;
+            case POLYNOMIAL_3:
+                transform = new PolynomialTransform(type, points, 3);
+                break;
+            default:
+                transform = new ThinPlateSplineTransform(points);
+                break;
+        }
+
+        transform.computeResiduals(points);
+        return transform;
+    }
+
+    public Type getType()
+    {
+        return this.type;
+    }
+
+    /**
+     * Returns how far each control point's source lands from its target.
+     *
+     * @return the residuals in meters, in the order the points were given.
+     */
+    public double[] getResiduals()
+    {
+        return this.residuals.clone();
+    }
+
+    /**
+     * Returns the root mean square of the residuals.
+     *
+     * @return the error in meters.
+     */
+    public double getRMSError()
+    {
+        return this.rmsError;
+    }
+
+    /**
+     * Transforms one location.
+     *
+     * @param latitude  the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     *
+     * @return the transformed location.
+     */
+    public LatLon transform(double latitude, double longitude)
+    {
+        double[] lats = {latitude};
+        double[] lons = {longitude};
+        this.transform(lats, lons, 0, 1);
+        return LatLon.fromDegrees(lats[0], lons[0]);
+    }
+
+    /**
+     * Transforms a range of locations in place.
+     *
+     * @param lats the latitudes in degrees.
+     * @param lons the longitudes in degrees.
+     * @param from the first location.
+     * @param to   one past the last location.
+     */
+    public void transform(double[] lats, double[] lons, int from, int to)
+    {
+        double[] result = new double[2];
+        for (int i = from; i < to; i++)
+        {
+            this.transformFitted((lons[i] - this.sourceX) / this.sourceScale,
+                (lats[i] - this.sourceY) / this.sourceScale, result);
+            lons[i] = this.targetX + result[0] * this.targetScale;
+            lats[i] = this.targetY + result[1] * this.targetScale;
+        }
+    }
+
+    /**
+     * Transforms every location in place, split across threads.
+     *
+     * @param lats    the latitudes in degrees.
+     * @param lons    the longitudes in degrees.
+     * @param threads the number of threads.
+     */
+    public void transformAll(final double[] lats, final double[] lons, int threads)
+    {
+        inChunks(lats.length, threads, new Chunk()
+        {
+            public void run(int from, int to)
+            {
+                transform(lats, lons, from, to);
+            }
+        });
+    }
+
+    /**
+     * A range of the locations being transformed by {@link #inChunks}.
+     */
+    protected interface Chunk
+    {
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs a task over <code>count</code> locations in chunks of {@link #CHUNK_SIZE}, on up to <code>threads</code>
+     * threads, and waits for them.
+     */
+    protected static void inChunks(int count, int threads, final Chunk task)
+    {
+        if (threads <= 1 || count <= CHUNK_SIZE)
+        {
+            task.run(0, count);
+            return;
+        }
+
+        try
+        {
+            ParallelTasks.inChunks("Control point transform", threads, count, CHUNK_SIZE,
+                new ParallelTasks.Chunk<Void>()
+                {
+                    public Void run(int from, int to)
+                    {
+                        task.run(from, to);
+                        return null;
+                    }
+                });
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while transforming", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Unable to transform", e.getCause());
+        }
+    }
+
+    /**
+     * Transforms a location in the fitting coordinates.
+     *
+     * @param x      the centered and scaled source longitude.
+     * @param y      the centered and scaled source latitude.
+     * @param result receives the centered and scaled target longitude and latitude.
+     */
+    protected abstract void transformFitted(double x, double y, double[] result);
+
+    protected double normalizeSourceX(ControlPoint point)
+    {
+        return (point.getSourceLongitude() - this.sourceX) / this.sourceScale;
+    }
+
+    protected double normalizeSourceY(ControlPoint point)
+    {
+        return (point.getSourceLatitude() - this.sourceY) / this.sourceScale;
+    }
+
+    protected double normalizeTargetX(ControlPoint point)
+    {
+        return (point.getTargetLongitude() - this.targetX) / this.targetScale;
+    }
+
+    protected double normalizeTargetY(ControlPoint point)
+    {
+        return (point.getTargetLatitude() - this.targetY) / this.targetScale;
+    }
+
+    protected void computeResiduals(List<ControlPoint> points)
+    {
+        this.residuals = new double[points.size()];
+        double sum = 0;
+        for (int i = 0; i < points.size(); i++)
+        {
+            ControlPoint point = points.get(i);
+            LatLon fitted = this.transform(point.getSourceLatitude(), point.getSourceLongitude());
+            this.residuals[i] = PlacemarkIndex.distance(fitted.getLatitude().degrees, fitted.getLongitude().degrees,
+                point.getTargetLatitude(), point.getTargetLongitude());
+            sum += this.residuals[i] * this.residuals[i];
+        }
+        this.rmsError = Math.sqrt(sum / points.size());
+    }
+
+    private static double square(double value)
+    {
+        return value * value;
+    }
+}
@@ -0,0 +1,133 @@
+import gov.nasa.worldwind.geom.LatLon;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Georeferences an image by the locations of its four corners, interpolating bilinearly between them. The corners need
+ * not form a rectangle, so a scan that is rotated or a little skewed still lines up at its corners.
+ */
+public class CornerGeoreference implements ImageGeoreference
+{
+    protected final int width;
+    protected final int height;
+
+    // upper left, upper right, lower right and lower left, as latitude then longitude in degrees
+    protected final double[] corners;
+
+    /**
+     * Creates a georeference.
+     *
+     * @param width      the image width in pixels.
+     * @param height     the image height in pixels.
+     * @param upperLeft  the location of the image's upper left corner.
+     * @param upperRight the location of its upper right corner.
+     * @param lowerRight the location of its lower right corner.
+     * @param lowerLeft  the location of its lower left corner.
+     */
+    public CornerGeoreference(int width, int height, LatLon upperLeft, LatLon upperRight, LatLon lowerRight,
+        LatLon lowerLeft)
+    {
+        this.width = width;
+        this.height = height;
+        this.corners = new double[] {
+            upperLeft.getLatitude().degrees, upperLeft.getLongitude().degrees,
+            upperRight.getLatitude().degrees, upperRight.getLongitude().degrees,
+            lowerRight.getLatitude().degrees, lowerRight.getLongitude().degrees,
+            lowerLeft.getLatitude().degrees, lowerLeft.getLongitude().degrees};
+    }
+
+    /**
+     * Reads a georeference saved by {@link #write(File)}.
+     *
+     * @param file   the file.
+     * @param width  the image width in pixels.
+     * @param height the image height in pixels.
+     *
+     * @return the georeference, or null if the file does not exist.
+     *
+     * @throws IOException if the file cannot be read or does not hold four corners.
+     */
+    public static CornerGeoreference read(File file, int width, int height) throws IOException
+    {
+        if (!file.exists())
+            return null;
+
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file))
+        {
+            properties.load(in);
+        }
+
+        LatLon[] corners = new LatLon[4];
+        for (int i = 0; i < corners.length; i++)
+        {
+            String value = properties.getProperty("corner." + i);
+            String[] fields = value != null ? value.split(",") : new String[0];
+            if (fields.length != 2)
+                throw new IOException(file + " does not hold the image corners");
+
+            try
+            {
+                corners[i] = LatLon.fromDegrees(Double.parseDouble(fields[0]), Double.parseDouble(fields[1]));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException(file + " does not hold the image corners", e);
+            }
+        }
+
+        return new CornerGeoreference(width, height, corners[0], corners[1], corners[2], corners[3]);
+    }
+
+    /**
+     * Saves the corners, so the image can be reopened in place.
+     *
+     * @param file the file to write.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(File file) throws IOException
+    {
+        Properties properties = new Properties();
+        for (int i = 0; i < 4; i++)
+        {
+            properties.setProperty("corner." + i, this.corners[2 * i] + "," + this.corners[2 * i + 1]);
+        }
+
+        try (OutputStream out = new FileOutputStream(file))
+        {
+            properties.store(out, "Upper left, upper right, lower right and lower left corners");
+        }
+    }
+
+    /**
+     * Returns a corner.
+     *
+     * @param index 0 for the upper left corner, then clockwise.
+     *
+     * @return the corner's location.
+     */
+    public LatLon getCorner(int index)
+    {
+        return LatLon.fromDegrees(this.corners[2 * index], this.corners[2 * index + 1]);
+    }
+
+    public LatLon toGeographic(double x, double y)
+    {
+        double u = x / this.width;
+        double v = y / this.height;
+
+        double topLat = this.corners[0] + (this.corners[2] - this.corners[0]) * u;
+        double topLon = this.corners[1] + (this.corners[3] - this.corners[1]) * u;
+        double bottomLat = this.corners[6] + (this.corners[4] - this.corners[6]) * u;
+        double bottomLon = this.corners[7] + (this.corners[5] - this.corners[7]) * u;
+
+        return LatLon.fromDegrees(topLat + (bottomLat - topLat) * v, topLon + (bottomLon - topLon) * v);
+    }
+}
@@ -8,11 +8,12 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 
 class CustomFileChooser extends JFileChooser {
   private String extension;
-  public CustomFileChooser(String extension) {
+  public CustomFileChooser(String... extensions) {
     super();
-    this.extension = extension;
-    addChoosableFileFilter(new FileNameExtensionFilter(
-      String.format("%1$s Images (*.%1$s)", extension), extension));
+    this.extension = extensions[0];
+    for (String extension : extensions)
+      addChoosableFileFilter(new FileNameExtensionFilter(
+        String.format("%1$s Images (*.%1$s)", extension), extension));
   }
 
   @Override public File getSelectedFile() {
@@ -22,12 +23,19 @@ class CustomFileChooser extends JFileChooser {
       String name = selectedFile.getName();
       if (!name.contains("."))
         selectedFile = new File(selectedFile.getParentFile(), 
-          name + '.' + extension);
+          name + '.' + selectedExtension());
     }
 
     return selectedFile;
   }
 
+  // the extension of the chosen filter, or the first one for "All Files"
+  private String selectedExtension() {
+    if (getFileFilter() instanceof FileNameExtensionFilter)
+      return ((FileNameExtensionFilter) getFileFilter()).getExtensions()[0];
+    return extension;
+  }
+
   @Override public void approveSelection() {
     if (getDialogType() == SAVE_DIALOG) {
       File selectedFile = getSelectedFile();
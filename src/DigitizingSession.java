@@ -0,0 +1,883 @@
+import gov.nasa.worldwind.util.Logging;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The model behind the digitizer: every digitized and imported placemark, how digitized points are numbered, undo, and
+ * export. {@link Globe} feeds it clicks and displays it, but nothing here needs a window or OpenGL, so a session can be
+ * driven and measured on a headless machine. Besides the JDK it only uses World Wind's logging.
+ * <p/>
+ * Digitized points are labeled with the prefix followed by the current number, which then counts up, or with just the
+ * prefix when sequential numbering is off. Imported points keep their own names and are told apart by a source number
+ * from {@link #nextSource()}.
+ * <p/>
+ * Points are added and removed on one thread, the event dispatch thread in the viewer. That thread changes the store
+ * only while holding the write half of {@link #getStoreLock()}, so an import worker can read it under the read half.
+ */
+public class DigitizingSession
+{
+    // every digitized and imported placemark, for display and exporting
+    private final PlacemarkStore placemarks = new PlacemarkStore();
+    private final ReadWriteLock storeLock = new ReentrantReadWriteLock();
+
+    // spatial index over the placemarks, keyed by their id in the store
+    private final PlacemarkIndex placemarkIndex = new PlacemarkIndex();
+
+    // the same placemarks indexed by source, so a layer showing one source only walks that source's points
+    private final Map<Integer, PlacemarkIndex> sourceIndexes = new HashMap<Integer, PlacemarkIndex>();
+
+    // source numbers handed to imports; 0 is the digitizing session
+    private final AtomicInteger lastSource = new AtomicInteger(PlacemarkStore.SESSION_SOURCE);
+
+    // ids of the digitized placemarks in the order they were clicked, for undo
+    private int[] digitizedIds = new int[64];
+    private int digitizedCount = 0;
+
+    private int numPoints = 1; // the current point number p1,p2,p3
+    private String prefix = "P";
+    private boolean hasPostfix = true;
+
+    // records the session so it can be recovered if the application dies before it is exported
+    private SessionJournal journal;
+
+    // samples terrain elevations for exports, or null to export clamped to the ground
+    private ElevationSource elevationSource;
+
+    // drops imported placemarks that were already imported, or null to keep them all
+    private volatile PlacemarkDeduplicator deduplicator;
+
+    // import sources still shown, or null if every source is
+    private volatile Set<Integer> liveSources;
+
+    public PlacemarkStore getPlacemarkStore()
+    {
+        return this.placemarks;
+    }
+
+    /**
+     * Returns the lock the store is changed under. Threads other than the one adding and removing points hold its read
+     * half while reading the store.
+     *
+     * @return the lock.
+     */
+    public ReadWriteLock getStoreLock()
+    {
+        return this.storeLock;
+    }
+
+    public PlacemarkIndex getPlacemarkIndex()
+    {
+        return this.placemarkIndex;
+    }
+
+    /**
+     * Returns the spatial index over the placemarks of one source, kept up to date with the store. Safe to call from
+     * any thread, though the index itself is only for use on the event dispatch thread.
+     *
+     * @param source the source number, such as {@link PlacemarkStore#SESSION_SOURCE} or one from {@link
+     *               #nextSource()}.
+     *
+     * @return the source's index, empty if the source has no placemarks yet.
+     */
+    public PlacemarkIndex getSourceIndex(int source)
+    {
+        synchronized (this.sourceIndexes)
+        {
+            PlacemarkIndex index = this.sourceIndexes.get(source);
+            if (index == null)
+            {
+                index = new PlacemarkIndex();
+                this.sourceIndexes.put(source, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Returns a new source number for the placemarks of an import. Safe to call from any thread.
+     *
+     * @return the source number.
+     */
+    public int nextSource()
+    {
+        return this.lastSource.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of digitized points still in the session.
+     *
+     * @return the number of digitized points.
+     */
+    public int getDigitizedCount()
+    {
+        return this.digitizedCount;
+    }
+
+    public int getNumPoints()
+    {
+        return this.numPoints;
+    }
+
+    public void setNumPoints(int numPoints)
+    {
+        this.numPoints = numPoints;
+    }
+
+    public String getPrefix()
+    {
+        return this.prefix;
+    }
+
+    public void setPrefix(String prefix)
+    {
+        this.prefix = prefix;
+    }
+
+    public boolean isHasPostfix()
+    {
+        return this.hasPostfix;
+    }
+
+    public void setHasPostfix(boolean hasPostfix)
+    {
+        this.hasPostfix = hasPostfix;
+    }
+
+    public ElevationSource getElevationSource()
+    {
+        return this.elevationSource;
+    }
+
+    /**
+     * Sets where exports take their altitudes from. With a source, every placemark is exported at the terrain
+     * elevation under it with an absolute altitude mode; without one, placemarks are exported clamped to the ground.
+     *
+     * @param elevationSource the elevations, or null to export clamped to the ground.
+     */
+    public void setElevationSource(ElevationSource elevationSource)
+    {
+        this.elevationSource = elevationSource;
+    }
+
+    public PlacemarkDeduplicator getDeduplicator()
+    {
+        return this.deduplicator;
+    }
+
+    /**
+     * Sets how imports are checked for placemarks that duplicate earlier imports. Placemarks imported before are
+     * compared with too. Safe to call from any thread.
+     *
+     * @param deduplicator the deduplicator over this session's store, or null to keep every imported placemark.
+     */
+    public void setDeduplicator(PlacemarkDeduplicator deduplicator)
+    {
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * Records the session in a journal from now on, first restoring the points the journal recovered. The prefix and
+     * sequential numbering are taken from the last point recovered, so the next click carries on where it left off.
+     *
+     * @param journal the journal, or null to stop recording.
+     *
+     * @return the number of points restored.
+     */
+    public int setJournal(SessionJournal journal)
+    {
+        this.journal = null;
+        if (journal == null)
+            return 0;
+
+        List<SessionJournal.Entry> entries = journal.getRecovered();
+        for (SessionJournal.Entry entry : entries)
+        {
+            this.storePoint(entry.latitude, entry.longitude, entry.altitude, entry.prefix, entry.number);
+            if (entry.number != PlacemarkStore.NO_NUMBER)
+                this.numPoints = entry.number + 1;
+        }
+
+        if (!entries.isEmpty())
+        {
+            SessionJournal.Entry last = entries.get(entries.size() - 1);
+            this.prefix = last.prefix;
+            this.hasPostfix = last.number != PlacemarkStore.NO_NUMBER;
+        }
+
+        this.journal = journal;
+        return entries.size();
+    }
+
+    /**
+     * Ends the session normally: the journal, if any, is emptied and closed, so the next launch starts a new session.
+     */
+    public void closeJournal()
+    {
+        if (this.journal == null)
+            return;
+
+        this.journal.close();
+        this.journal = null;
+    }
+
+    /**
+     * Adds a digitized point, labeled and numbered by the current prefix and numbering.
+     *
+     * @param lat the latitude in degrees.
+     * @param lon the longitude in degrees.
+     * @param alt the altitude in meters.
+     *
+     * @return the point's id in the store.
+     */
+    public int addPoint(double lat, double lon, double alt)
+    {
+        int number = this.hasPostfix ? this.numPoints : PlacemarkStore.NO_NUMBER;
+        int id = this.storePoint(lat, lon, alt, this.prefix, number);
+
+        // only queued here, the journal writes on its own thread
+        if (this.journal != null)
+            this.journal.add(lat, lon, alt, this.prefix, number);
+
+        if (this.hasPostfix)
+            this.numPoints++;
+
+        return id;
+    }
+
+    /**
+     * Removes the most recently digitized point that is still in the session, and steps the numbering back.
+     *
+     * @return true if a point was removed, false if none was left.
+     */
+    public boolean removeLastPoint()
+    {
+        if (this.digitizedCount == 0)
+            return false;
+
+        if (this.numPoints > 1)
+            this.numPoints--;
+
+        // ids stay valid when a placemark is removed, so imports appended since do not matter
+        int id = this.digitizedIds[--this.digitizedCount];
+        this.storeLock.writeLock().lock();
+        try
+        {
+            this.placemarks.remove(id);
+        }
+        finally
+        {
+            this.storeLock.writeLock().unlock();
+        }
+        this.placemarkIndex.remove(id);
+        this.getSourceIndex(PlacemarkStore.SESSION_SOURCE).remove(id);
+
+        if (this.journal != null)
+            this.journal.removeLast();
+
+        return true;
+    }
+
+    /**
+     * Removes every digitized and imported point and restarts the numbering at 1.
+     */
+    public void clear()
+    {
+        this.storeLock.writeLock().lock();
+        try
+        {
+            this.placemarks.clear();
+        }
+        finally
+        {
+            this.storeLock.writeLock().unlock();
+        }
+        this.placemarkIndex.clear();
+        // layers hold on to their source's index, so the indexes are emptied rather than dropped
+        synchronized (this.sourceIndexes)
+        {
+            for (PlacemarkIndex index : this.sourceIndexes.values())
+            {
+                index.clear();
+            }
+        }
+        this.digitizedCount = 0;
+        this.numPoints = 1;
+
+        PlacemarkDeduplicator deduplicator = this.deduplicator;
+        if (deduplicator != null)
+            deduplicator.reset();
+
+        if (this.journal != null)
+            this.journal.clear();
+    }
+
+    /**
+     * Moves every digitized point through a control point transform, for points digitized off a map whose placement
+     * was then corrected. Imported points keep their locations. The points are transformed on <code>threads</code>
+     * threads, then moved and re-indexed, and the journal is rewritten with the new locations.
+     *
+     * @param transform the transform from the old placement to the corrected one.
+     * @param threads   the number of threads to transform on.
+     *
+     * @return the number of points moved.
+     */
+    public int reproject(ControlPointTransform transform, int threads)
+    {
+        int count = this.digitizedCount;
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        for (int i = 0; i < count; i++)
+        {
+            lats[i] = this.placemarks.getLatitude(this.digitizedIds[i]);
+            lons[i] = this.placemarks.getLongitude(this.digitizedIds[i]);
+        }
+
+        transform.transformAll(lats, lons, threads);
+
+        PlacemarkIndex sessionIndex = this.getSourceIndex(PlacemarkStore.SESSION_SOURCE);
+        this.storeLock.writeLock().lock();
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                this.placemarks.setLocation(this.digitizedIds[i], lats[i], lons[i]);
+            }
+        }
+        finally
+        {
+            this.storeLock.writeLock().unlock();
+        }
+        for (int i = 0; i < count; i++)
+        {
+            int id = this.digitizedIds[i];
+            this.placemarkIndex.insert(id, lats[i], lons[i]);
+            sessionIndex.insert(id, lats[i], lons[i]);
+        }
+
+        if (this.journal != null)
+        {
+            this.journal.clear();
+            for (int i = 0; i < count; i++)
+            {
+                int id = this.digitizedIds[i];
+                this.journal.add(lats[i], lons[i], this.placemarks.getAltitude(id),
+                    this.placemarks.getLabelPrefix(id), this.placemarks.getLabelNumber(id));
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Drops the placemarks of a batch about to be imported that duplicate earlier imports, if a deduplicator is set.
+     * Safe to call from any thread, and meant for the thread that read the batch, since checking a large batch takes a
+     * while; call it once before the batch is handed to {@link #addImported(PlacemarkStore, int)}.
+     *
+     * @param batch the placemarks about to be imported, whose duplicates are marked deleted.
+     *
+     * @return the number of placemarks dropped.
+     */
+    public int deduplicate(PlacemarkStore batch)
+    {
+        PlacemarkDeduplicator deduplicator = this.deduplicator;
+        if (deduplicator == null)
+            return 0;
+
+        int merged = deduplicator.deduplicate(batch, Runtime.getRuntime().availableProcessors());
+        if (merged > 0)
+            Logging.logger().info(String.format("Merged %d duplicate placemarks of %d imported", merged,
+                batch.size()));
+        return merged;
+    }
+
+    /**
+     * Appends a batch of imported placemarks to the store and indexes them. Placemarks marked deleted in the batch,
+     * such as those {@link #deduplicate(PlacemarkStore)} dropped, are left out.
+     *
+     * @param batch  the placemarks to add.
+     * @param source the source number of the import.
+     *
+     * @return the id of the first placemark added.
+     */
+    public int addImported(PlacemarkStore batch, int source)
+    {
+        int first;
+        this.storeLock.writeLock().lock();
+        try
+        {
+            first = this.placemarks.addAll(batch, source);
+        }
+        finally
+        {
+            this.storeLock.writeLock().unlock();
+        }
+
+        PlacemarkDeduplicator deduplicator = this.deduplicator;
+        if (deduplicator != null)
+            deduplicator.added(batch, first);
+
+        PlacemarkIndex sourceIndex = this.getSourceIndex(source);
+        for (int id = first; id < this.placemarks.size(); id++)
+        {
+            double lat = this.placemarks.getLatitude(id);
+            double lon = this.placemarks.getLongitude(id);
+            this.placemarkIndex.insert(id, lat, lon);
+            sourceIndex.insert(id, lat, lon);
+        }
+        return first;
+    }
+
+    /**
+     * Says a batch that went through {@link #deduplicate(PlacemarkStore)} will never be added, such as when its import
+     * is cancelled, so later imports are no longer checked against it.
+     *
+     * @param batch the batch dropped.
+     */
+    public void dropImported(PlacemarkStore batch)
+    {
+        PlacemarkDeduplicator deduplicator = this.deduplicator;
+        if (deduplicator != null)
+            deduplicator.dropped(batch);
+    }
+
+    /**
+     * Removes every placemark of an import, such as one cancelled part way through. Their ids are not reused.
+     *
+     * @param source the source number of the import.
+     *
+     * @return the number of placemarks removed.
+     */
+    public int removeImported(int source)
+    {
+        if (source == PlacemarkStore.SESSION_SOURCE)
+            throw new IllegalArgumentException("Not an import source: " + source);
+
+        PlacemarkIndex sourceIndex = this.getSourceIndex(source);
+        int[] ids = sourceIndex.range(-90, -180, 90, 180);
+        this.storeLock.writeLock().lock();
+        try
+        {
+            for (int id : ids)
+            {
+                this.placemarks.remove(id);
+            }
+        }
+        finally
+        {
+            this.storeLock.writeLock().unlock();
+        }
+
+        for (int id : ids)
+        {
+            this.placemarkIndex.remove(id);
+        }
+        // the source's layer may still hold its index, so it is emptied rather than dropped
+        sourceIndex.clear();
+        return ids.length;
+    }
+
+    /**
+     * Finds the ids of the placemarks inside a latitude/longitude box. A box whose western edge is east of its eastern
+     * edge crosses the antimeridian.
+     */
+    public int[] getPlacemarksInBox(double minLat, double minLon, double maxLat, double maxLon)
+    {
+        return this.placemarkIndex.range(minLat, minLon, maxLat, maxLon);
+    }
+
+    /**
+     * Finds the ids of the <code>k</code> placemarks closest to a location, nearest first.
+     */
+    public int[] getNearestPlacemarks(double lat, double lon, int k)
+    {
+        return this.placemarkIndex.nearest(lat, lon, k);
+    }
+
+    /**
+     * Finds the ids of the placemarks within <code>meters</code> of a location.
+     */
+    public int[] getPlacemarksWithinRadius(double lat, double lon, double meters)
+    {
+        return this.placemarkIndex.withinRadius(lat, lon, meters);
+    }
+
+    /**
+     * Sets the import sources still shown. Placemarks of other imports stay in the store and are exported, but are
+     * not snapped to, since they are no longer drawn. The set is read as it changes, so whatever tracks the imported
+     * layers can keep it.
+     *
+     * @param sources the live sources, or null to treat every source as live.
+     */
+    public void setLiveSources(Set<Integer> sources)
+    {
+        this.liveSources = sources;
+    }
+
+    /**
+     * Identifies whether a source's placemarks are still shown. Digitized placemarks always are.
+     *
+     * @param source the source number.
+     *
+     * @return true unless the source is an import that is no longer live.
+     */
+    public boolean isLiveSource(int source)
+    {
+        Set<Integer> sources = this.liveSources;
+        return source == PlacemarkStore.SESSION_SOURCE || sources == null || sources.contains(source);
+    }
+
+    /**
+     * Finds the nearest imported placemark that is still shown, for snapping a click onto a feature that already
+     * exists.
+     *
+     * @param lat    the latitude in degrees.
+     * @param lon    the longitude in degrees.
+     * @param meters the furthest a placemark may be.
+     *
+     * @return the placemark's id, or -1 if no imported placemark is that close.
+     */
+    public int findNearestImported(double lat, double lon, double meters)
+    {
+        // digitized and removed points share the index, so look further while the nearest ones are all skipped
+        for (int k = 4; ; k *= 4)
+        {
+            int[] ids = this.placemarkIndex.nearest(lat, lon, k, meters);
+            for (int id : ids)
+            {
+                int source = this.placemarks.getSource(id);
+                if (source != PlacemarkStore.SESSION_SOURCE && this.isLiveSource(source))
+                    return id;
+            }
+            if (ids.length < k)
+                return -1;
+        }
+    }
+
+    /**
+     * Exports every placemark to a KML file.
+     *
+     * @param path the file to write.
+     *
+     * @return the number of placemarks written.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public long exportKML(String path) throws IOException
+    {
+        return this.export(Collections.singletonList(path),
+            Collections.<PlacemarkExporter>singletonList(new KMLExporter()));
+    }
+
+    /**
+     * Exports the placemarks as a KMZ archive holding a single doc.kml. Large exports are compressed on all cores.
+     *
+     * @param path the file to write.
+     *
+     * @return the number of placemarks written.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public long exportKMZ(String path) throws IOException
+    {
+        return this.export(Collections.singletonList(path),
+            Collections.<PlacemarkExporter>singletonList(new KMZExporter()));
+    }
+
+    /**
+     * Exports the placemarks as a KMZ archive holding a single doc.kml. The document is deflated as it is written,
+     * so it is never held in memory.
+     *
+     * @param path     the file to write.
+     * @param parallel true to deflate blocks of the document on all cores, false to use a single zip stream.
+     *
+     * @return the number of placemarks written.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public long exportKMZ(String path, final boolean parallel) throws IOException
+    {
+        PlacemarkExporter exporter = new KMZExporter()
+        {
+            public Output open(OutputStream out, long placemarkCount, boolean absoluteAltitudes) throws IOException
+            {
+                return this.open(out, parallel, absoluteAltitudes);
+            }
+        };
+        return this.export(Collections.singletonList(path), Collections.singletonList(exporter));
+    }
+
+    /**
+     * Exports every placemark to one or more files, each in the format its extension names, such as
+     * <code>.geojson</code> or <code>.gpx</code>.
+     *
+     * @param paths the files to write.
+     *
+     * @return the number of placemarks written to each file.
+     *
+     * @throws IOException if a file has no known format or cannot be written.
+     */
+    public long export(List<String> paths) throws IOException
+    {
+        List<PlacemarkExporter> exporters = new ArrayList<PlacemarkExporter>();
+        for (String path : paths)
+        {
+            PlacemarkExporter exporter = PlacemarkExporters.forPath(path);
+            if (exporter == null)
+                throw new IOException("No export format for " + path);
+            exporters.add(exporter);
+        }
+        return this.export(paths, exporters);
+    }
+
+    /**
+     * Exports every placemark to several files in one pass: elevations are sampled once, and each placemark is read
+     * once and handed to every file's output in turn. Outputs stream what they are handed, so memory stays constant
+     * however many placemarks and files there are.
+     *
+     * @param paths     the files to write.
+     * @param exporters the format of each file.
+     *
+     * @return the number of placemarks written to each file.
+     *
+     * @throws IOException if a file cannot be written.
+     */
+    public long export(List<String> paths, List<PlacemarkExporter> exporters) throws IOException
+    {
+        String destination = paths.size() == 1 ? paths.get(0) : paths.toString();
+        List<ViewerEvents.ExportEvent> events = new ArrayList<ViewerEvents.ExportEvent>();
+        for (int i = 0; i < paths.size(); i++)
+        {
+            ViewerEvents.ExportEvent event = new ViewerEvents.ExportEvent();
+            event.begin();
+            events.add(event);
+        }
+
+        long start = System.nanoTime();
+        try
+        {
+            double[] altitudes = this.sampleElevations();
+
+            long count;
+            List<PlacemarkExporter.Output> outputs = new ArrayList<PlacemarkExporter.Output>();
+            try
+            {
+                for (int i = 0; i < paths.size(); i++)
+                {
+                    FileOutputStream file = new FileOutputStream(paths.get(i));
+                    try
+                    {
+                        outputs.add(exporters.get(i).open(file, this.placemarks.count(), altitudes != null));
+                    }
+                    catch (IOException e)
+                    {
+                        file.close();
+                        throw e;
+                    }
+                }
+
+                count = writePlacemarks(this.placemarks, altitudes, outputs, destination);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                closeAll(outputs, e);
+                throw e;
+            }
+            closeAll(outputs, null);
+
+            long totalBytes = 0;
+            for (int i = 0; i < paths.size(); i++)
+            {
+                long bytes = new File(paths.get(i)).length();
+                boolean compressed = exporters.get(i) instanceof KMZExporter;
+                if (compressed)
+                    Logging.logger().info(String.format("Compressed %s to %d bytes", paths.get(i), bytes));
+                commitExport(events.get(i), paths.get(i), exporters.get(i).getName(), count, bytes, compressed);
+                totalBytes += bytes;
+            }
+            ViewerMetrics.get().exportFinished(System.nanoTime() - start, totalBytes, count);
+            return count;
+        }
+        catch (IOException e)
+        {
+            ViewerMetrics.get().exportFailed(destination, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Closes every output, throwing the first failure once all have been tried, or adding the failures to one
+     * already being thrown.
+     */
+    private static void closeAll(List<? extends Closeable> outputs, Throwable pending) throws IOException
+    {
+        IOException failure = null;
+        for (Closeable output : outputs)
+        {
+            try
+            {
+                output.close();
+            }
+            catch (IOException e)
+            {
+                if (pending != null)
+                    pending.addSuppressed(e);
+                else if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+    private double[] sampleElevations() throws IOException
+    {
+        if (this.elevationSource == null)
+            return null;
+
+        return ElevationSampler.sample(this.placemarks, this.elevationSource,
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    private static void commitExport(ViewerEvents.ExportEvent event, String path, String format, long count,
+        long bytes, boolean compressed)
+    {
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.path = path;
+            event.format = format;
+            event.placemarks = count;
+            event.bytes = bytes;
+            event.compressed = compressed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Streams every placemark in a store to a KML document and closes the stream.
+     *
+     * @param store the placemarks to write.
+     * @param out   the stream to write the document to.
+     * @param path  the destination, for logging.
+     *
+     * @return the number of placemarks written.
+     *
+     * @throws IOException if the document cannot be written.
+     */
+    public static long writePlacemarks(PlacemarkStore store, OutputStream out, String path) throws IOException
+    {
+        return writePlacemarks(store, null, out, path);
+    }
+
+    /**
+     * Streams every placemark in a store to a KML document and closes the stream.
+     *
+     * @param store     the placemarks to write.
+     * @param altitudes the altitude of each placemark, indexed by id, or null to clamp them to the ground.
+     * @param out       the stream to write the document to.
+     * @param path      the destination, for logging.
+     *
+     * @return the number of placemarks written.
+     *
+     * @throws IOException if the document cannot be written.
+     */
+    public static long writePlacemarks(PlacemarkStore store, double[] altitudes, OutputStream out, String path)
+        throws IOException
+    {
+        try (PlacemarkExporter.Output output = new KMLExporter().open(out, store.count(), altitudes != null))
+        {
+            return writePlacemarks(store, altitudes, Collections.singletonList(output), path);
+        }
+    }
+
+    /**
+     * Streams every placemark in a store to several outputs in one pass, leaving them open.
+     *
+     * @param store       the placemarks to write.
+     * @param altitudes   the altitude of each placemark, indexed by id, or null to clamp them to the ground.
+     * @param outputs     the outputs to write every placemark to.
+     * @param destination where the outputs go, for logging.
+     *
+     * @return the number of placemarks written to each output.
+     *
+     * @throws IOException if an output cannot be written.
+     */
+    public static long writePlacemarks(PlacemarkStore store, double[] altitudes,
+        List<? extends PlacemarkExporter.Output> outputs, String destination) throws IOException
+    {
+        long start = System.nanoTime();
+        PlacemarkExporter.Output[] targets = outputs.toArray(new PlacemarkExporter.Output[outputs.size()]);
+        for (PlacemarkExporter.Output output : targets)
+        {
+            output.start();
+        }
+
+        // Stream each placemark straight to every output; nothing is buffered beyond the writers themselves.
+        long count = 0;
+        for (int id = 0; id < store.size(); id++)
+        {
+            if (store.isDeleted(id))
+                continue;
+
+            String label = store.getLabel(id);
+            double lon = store.getLongitude(id);
+            double lat = store.getLatitude(id);
+            double alt = altitudes != null ? altitudes[id] : 0;
+            for (PlacemarkExporter.Output output : targets)
+            {
+                output.write(label, lon, lat, alt);
+            }
+            count++;
+        }
+
+        for (PlacemarkExporter.Output output : targets)
+        {
+            output.end();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        Logging.logger().info(String.format("Exported %d placemarks to %s in %.1f ms (%.0f placemarks/sec)",
+            count, destination, elapsed / 1e6, elapsed > 0 ? count * 1e9 / elapsed : 0));
+
+        return count;
+    }
+
+    private int storePoint(double lat, double lon, double alt, String prefix, int number)
+    {
+        int id;
+        this.storeLock.writeLock().lock();
+        try
+        {
+            id = this.placemarks.add(lat, lon, alt, prefix, number, PlacemarkStore.SESSION_SOURCE);
+        }
+        finally
+        {
+            this.storeLock.writeLock().unlock();
+        }
+        this.placemarkIndex.insert(id, lat, lon);
+        this.getSourceIndex(PlacemarkStore.SESSION_SOURCE).insert(id, lat, lon);
+
+        if (this.digitizedCount == this.digitizedIds.length)
+            this.digitizedIds = Arrays.copyOf(this.digitizedIds, this.digitizedCount * 2);
+        this.digitizedIds[this.digitizedCount++] = id;
+
+        return id;
+    }
+}
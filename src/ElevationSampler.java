@@ -0,0 +1,114 @@
+import gov.nasa.worldwind.util.Logging;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Samples terrain elevations for every placemark of a store in one batch.
+ * <p/>
+ * The placemarks are first ordered by a coarse grid cell, so points near each other are sampled together and each
+ * elevation tile is read once while it is still cached rather than once per scattered point. The ordered points are
+ * then split into chunks that are sampled on all cores.
+ */
+public class ElevationSampler
+{
+    /** Size of the cells placemarks are grouped by, in degrees; a 256 sample tile of 1 arc second data is about 1/14. */
+    protected static final double CELL_DEGREES = 1d / 16;
+
+    /** Placemarks sampled per task. */
+    protected static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Samples the elevation under every placemark in a store.
+     *
+     * @param store   the placemarks. It must not change while sampling.
+     * @param source  the elevations.
+     * @param threads the number of threads to sample on.
+     *
+     * @return the elevation of each placemark, indexed by id, with 0 for deleted placemarks and where the source has
+     *         no data.
+     *
+     * @throws IOException if the elevations cannot be read.
+     */
+    public static double[] sample(final PlacemarkStore store, final ElevationSource source, int threads)
+        throws IOException
+    {
+        long start = System.nanoTime();
+        final double[] altitudes = new double[store.size()];
+        final long[] order = order(store);
+
+        int missing = 0;
+        try
+        {
+            for (int chunk : ParallelTasks.inChunks("Elevation sampler", threads, order.length, CHUNK_SIZE,
+                new ParallelTasks.Chunk<Integer>()
+                {
+                    public Integer run(int from, int to) throws IOException
+                    {
+                        return sampleRange(store, source, order, from, to, altitudes);
+                    }
+                }))
+            {
+                missing += chunk;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sampling elevations", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Unable to sample elevations: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        Logging.logger().info(String.format("Sampled elevations for %d placemarks in %.1f ms, %d without data",
+            order.length, (System.nanoTime() - start) / 1e6, missing));
+
+        return altitudes;
+    }
+
+    /**
+     * Returns the ids of the live placemarks, ordered by grid cell. Each entry holds the cell in its high 32 bits and
+     * the id in its low 32 bits, so one primitive sort orders them.
+     */
+    protected static long[] order(PlacemarkStore store)
+    {
+        long[] order = new long[store.count()];
+        int columns = (int) Math.ceil(360 / CELL_DEGREES);
+        int n = 0;
+        for (int id = 0; id < store.size() && n < order.length; id++)
+        {
+            if (store.isDeleted(id))
+                continue;
+
+            long row = (long) ((90 - store.getLatitude(id)) / CELL_DEGREES);
+            long column = (long) ((store.getLongitude(id) + 180) / CELL_DEGREES);
+            order[n++] = ((row * columns + column) << 32) | id;
+        }
+
+        Arrays.sort(order, 0, n);
+        return n == order.length ? order : Arrays.copyOf(order, n);
+    }
+
+    protected static int sampleRange(PlacemarkStore store, ElevationSource source, long[] order, int from, int to,
+        double[] altitudes) throws IOException
+    {
+        int missing = 0;
+        for (int i = from; i < to; i++)
+        {
+            int id = (int) order[i];
+            double elevation = source.getElevation(store.getLatitude(id), store.getLongitude(id));
+            if (Double.isNaN(elevation))
+            {
+                elevation = 0;
+                missing++;
+            }
+            altitudes[id] = elevation;
+        }
+        return missing;
+    }
+}
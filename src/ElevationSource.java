@@ -0,0 +1,20 @@
+import java.io.IOException;
+
+/**
+ * Supplies terrain elevations for exported placemarks. Implementations must be safe to call from several threads at
+ * once, as {@link ElevationSampler} samples on all cores.
+ */
+public interface ElevationSource
+{
+    /**
+     * Returns the elevation at a location.
+     *
+     * @param latitude  the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     *
+     * @return the elevation in meters, or <code>Double.NaN</code> if the source has no data there.
+     *
+     * @throws IOException if the elevations cannot be read.
+     */
+    double getElevation(double latitude, double longitude) throws IOException;
+}
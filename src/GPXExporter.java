@@ -0,0 +1,94 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exports placemarks as GPX 1.1 waypoints, for GPS units and the tools that load their files. Waypoints not clamped
+ * to the ground carry their altitude as an elevation.
+ * <p/>
+ * GPX coordinates are schema decimals, which have no exponent, so the few values <code>Double.toString</code> would
+ * write in scientific notation, those within a thousandth of a degree of zero, are written out in full.
+ */
+public class GPXExporter implements PlacemarkExporter
+{
+    public static final String GPX_NAMESPACE = "http://www.topografix.com/GPX/1/1";
+
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    public String getName()
+    {
+        return "GPX";
+    }
+
+    public String[] getFileExtensions()
+    {
+        return new String[] {"gpx"};
+    }
+
+    public Output open(OutputStream out, long placemarkCount, boolean absoluteAltitudes)
+    {
+        return new GPXOutput(out, absoluteAltitudes);
+    }
+
+    protected static class GPXOutput implements Output
+    {
+        protected final Writer writer;
+        protected final boolean absoluteAltitudes;
+
+        public GPXOutput(OutputStream out, boolean absoluteAltitudes)
+        {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            this.absoluteAltitudes = absoluteAltitudes;
+        }
+
+        public void start() throws IOException
+        {
+            this.writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            this.writer.write("<gpx version=\"1.1\" creator=\"KMLViewer\" xmlns=\"" + GPX_NAMESPACE + "\">\n");
+        }
+
+        public void write(String name, double longitude, double latitude, double altitude) throws IOException
+        {
+            this.writer.write("    <wpt lat=\"");
+            this.writer.write(toDecimal(latitude));
+            this.writer.write("\" lon=\"");
+            this.writer.write(toDecimal(longitude));
+            this.writer.write("\">");
+            // the schema puts the elevation before the name
+            if (this.absoluteAltitudes)
+            {
+                this.writer.write("<ele>");
+                this.writer.write(toDecimal(altitude));
+                this.writer.write("</ele>");
+            }
+            if (name != null)
+            {
+                this.writer.write("<name>");
+                KMLPlacemarkWriter.writeEscaped(this.writer, name);
+                this.writer.write("</name>");
+            }
+            this.writer.write("</wpt>\n");
+        }
+
+        public void end() throws IOException
+        {
+            this.writer.write("</gpx>\n");
+            this.writer.flush();
+        }
+
+        public void close() throws IOException
+        {
+            this.writer.close();
+        }
+    }
+
+    private static String toDecimal(double value)
+    {
+        String text = Double.toString(value);
+        return text.indexOf('E') < 0 ? text : new BigDecimal(text).toPlainString();
+    }
+}
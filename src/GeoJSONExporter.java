@@ -0,0 +1,130 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exports placemarks as a GeoJSON FeatureCollection of Point features, each named by a <code>name</code> property.
+ * <p/>
+ * Features are written one per line as they are handed in, between the collection's opening and closing brackets, so
+ * the collection is never held in memory. Placemarks clamped to the ground have two coordinates, longitude and
+ * latitude; others have their altitude as a third.
+ */
+public class GeoJSONExporter implements PlacemarkExporter
+{
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    public String getName()
+    {
+        return "GeoJSON";
+    }
+
+    public String[] getFileExtensions()
+    {
+        return new String[] {"geojson", "json"};
+    }
+
+    public Output open(OutputStream out, long placemarkCount, boolean absoluteAltitudes)
+    {
+        return new GeoJSONOutput(out, absoluteAltitudes);
+    }
+
+    protected static class GeoJSONOutput implements Output
+    {
+        protected final Writer writer;
+        protected final boolean absoluteAltitudes;
+        protected boolean first = true;
+
+        public GeoJSONOutput(OutputStream out, boolean absoluteAltitudes)
+        {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            this.absoluteAltitudes = absoluteAltitudes;
+        }
+
+        public void start() throws IOException
+        {
+            this.writer.write("{\"type\":\"FeatureCollection\",\"features\":[");
+        }
+
+        public void write(String name, double longitude, double latitude, double altitude) throws IOException
+        {
+            this.writer.write(this.first ? "\n" : ",\n");
+            this.first = false;
+
+            this.writer.write("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[");
+            this.writer.write(Double.toString(longitude));
+            this.writer.write(',');
+            this.writer.write(Double.toString(latitude));
+            if (this.absoluteAltitudes)
+            {
+                this.writer.write(',');
+                this.writer.write(Double.toString(altitude));
+            }
+            this.writer.write("]},\"properties\":{");
+            if (name != null)
+            {
+                this.writer.write("\"name\":");
+                writeString(this.writer, name);
+            }
+            this.writer.write("}}");
+        }
+
+        public void end() throws IOException
+        {
+            this.writer.write("\n]}\n");
+            this.writer.flush();
+        }
+
+        public void close() throws IOException
+        {
+            this.writer.close();
+        }
+    }
+
+    /**
+     * Writes a JSON string, quoted, escaping quotes, backslashes and control characters.
+     *
+     * @param writer the writer to write to.
+     * @param text   the text to write.
+     *
+     * @throws IOException if the writer fails.
+     */
+    static void writeString(Writer writer, String text) throws IOException
+    {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20)
+                continue;
+
+            writer.write(text, start, i - start);
+            switch (c)
+            {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    writer.write(String.format("\\u%04x", (int) c));
+            }
+            start = i + 1;
+        }
+        writer.write(text, start, text.length() - start);
+        writer.write('"');
+    }
+}
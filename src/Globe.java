@@ -5,30 +5,30 @@
  */
 
 
+import gov.nasa.worldwind.View;
 import gov.nasa.worldwind.WorldWind;
 import gov.nasa.worldwind.WorldWindow;
+import gov.nasa.worldwind.event.PositionEvent;
+import gov.nasa.worldwind.event.PositionListener;
 import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Vec4;
 import gov.nasa.worldwind.layers.RenderableLayer;
 import gov.nasa.worldwind.ogc.collada.ColladaRoot;
 import gov.nasa.worldwind.render.PointPlacemark;
+import gov.nasa.worldwind.render.PointPlacemarkAttributes;
 import gov.nasa.worldwind.render.Polyline;
 import gov.nasa.worldwind.util.Logging;
 
+import java.awt.Color;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.BufferedWriter;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.Writer;
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
 
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 
 
@@ -38,24 +38,36 @@ public class Globe extends ApplicationTemplate
     
     private boolean armed = false;// when the new button is clicked the plotting is 'armed'
     
-    private ArrayList<Position> positions = new ArrayList<Position>();
     private boolean active = false;
 
     private final RenderableLayer layer;
+
+    // coalesces the redraws of click bursts and bulk changes into one per frame
+    private final RedrawScheduler redrawScheduler;
+
+    // carries clicks from the mouse listener to the session in batches
+    private final ClickPipeline clickPipeline;
     private final Polyline line;
     //private boolean active = false;
     
-    private int numPoints = 1;// the current point number p1,p2,p3
+    // the placemarks, numbering and export behind the digitizer, kept free of the UI
+    private static final DigitizingSession session = new DigitizingSession();
     
-    private ArrayList<RenderableLayer> pointsLayers = new ArrayList<RenderableLayer>();
+    // one layer shows every digitized placemark so the layer list does not grow with each click
+    private final PlacemarkLayer pointsLayer = new PlacemarkLayer(session.getPlacemarkStore(),
+        session.getSourceIndex(PlacemarkStore.SESSION_SOURCE), PlacemarkStore.SESSION_SOURCE);
     
+    // snaps clicks onto imported placemarks within a distance on screen, previewing the target as the mouse moves
+    private boolean snapping = false;
+    private int snapTolerance = Integer.getInteger("kmlviewer.snap.pixels", 10);
+    private int snapTarget = -1;
+    private final RenderableLayer snapLayer = new RenderableLayer();
+    private final PointPlacemark snapPreview = new PointPlacemark(Position.fromDegrees(0, 0));
+
     // results of the 3pp solver to return to the gui
     private double strike, dip, dipaz;
     private String quad;
     
-    // arraylist to hold the placemarks for exporting
-    private static ArrayList<PointPlacemark> placemarks = new ArrayList<PointPlacemark>(); 
-    
     // arraylist to hold the models for exporting
     private ArrayList<ColladaRoot> models = new ArrayList<ColladaRoot>();
 
@@ -64,10 +76,6 @@ public class Globe extends ApplicationTemplate
     
     private boolean scopeIsThirdPoint = false;
     
-    private String prefix = "P";
-    
-    private boolean hasPostfix = true;
-
     //private RenderableLayer pointsLayer;
    
     
@@ -75,6 +83,7 @@ public class Globe extends ApplicationTemplate
     public Globe(final WorldWindow wwd, RenderableLayer lineLayer, Polyline polyline) 
     {
         this.wwd = wwd;
+        this.redrawScheduler = RedrawScheduler.of(wwd);
         //pointsLayer = new RenderableLayer();
 
         
@@ -91,6 +100,64 @@ public class Globe extends ApplicationTemplate
         //this.layer.addRenderable(this.line);
         this.wwd.getModel().getLayers().add(this.layer);
 
+        this.pointsLayer.setName("Digitized Placemarks");
+        insertBeforeCompass(this.wwd, this.pointsLayer);
+
+        PointPlacemarkAttributes snapAttributes = new PointPlacemarkAttributes();
+        snapAttributes.setUsePointAsDefaultImage(true);
+        snapAttributes.setImageColor(Color.YELLOW);
+        snapAttributes.setScale(10d);
+        this.snapPreview.setAttributes(snapAttributes);
+        this.snapPreview.setAltitudeMode(WorldWind.CLAMP_TO_GROUND);
+        this.snapPreview.setLineEnabled(false);
+        this.snapLayer.setName("Snap Preview");
+        this.snapLayer.setPickEnabled(false);
+        this.snapLayer.setEnabled(false);
+        this.snapLayer.addRenderable(this.snapPreview);
+        insertBeforeCompass(this.wwd, this.snapLayer);
+
+        // exact copies are merged unless configured otherwise, so importing a file twice does not double its points
+        configureDeduplication();
+
+        if (session.setJournal(openJournal()) > 0)
+            this.redrawScheduler.requestRedraw();
+
+        this.clickPipeline = new ClickPipeline(session);
+        this.clickPipeline.addListener(new ClickPipeline.Listener()
+        {
+            public void clickApplied(Position clicked)
+            {
+                redrawScheduler.requestRedraw();
+            }
+        });
+        this.wwd.addRenderingListener(this.clickPipeline);
+        ViewerMetrics.get().setSession(session);
+        ViewerMetrics.get().setClickLatency(this.clickPipeline.getStoredLatency(),
+            this.clickPipeline.getVisibleLatency());
+        // the scheduler is read here rather than looked up, so a JMX thread never creates one
+        ViewerMetrics.get().setRendering(new ViewerMetrics.RenderingProvider()
+        {
+            public int getLayerCount()
+            {
+                return wwd.getModel().getLayers().size();
+            }
+
+            public long getRedrawsRequested()
+            {
+                return redrawScheduler.getRequestedCount();
+            }
+
+            public long getRedrawsPerformed()
+            {
+                return redrawScheduler.getPerformedCount();
+            }
+
+            public double getRedrawsPerSecond()
+            {
+                return redrawScheduler.getPerformedPerSecond();
+            }
+        });
+
         this.wwd.getInputHandler().addMouseListener(new MouseAdapter()
         {
             public void mousePressed(MouseEvent mouseEvent)
@@ -113,8 +180,6 @@ public class Globe extends ApplicationTemplate
             {
                 if (armed && mouseEvent.getButton() == MouseEvent.BUTTON1)
                 {
-                    if (positions.size() == 1)
-                        removePosition();
                     active = false;
                     mouseEvent.consume();
                 }
@@ -123,17 +188,22 @@ public class Globe extends ApplicationTemplate
             public void mouseClicked(MouseEvent mouseEvent)
             {
                 if (armed && mouseEvent.getButton() == MouseEvent.BUTTON1)
-                {
-                    if (mouseEvent.isControlDown())
-                        removePosition();
                     mouseEvent.consume();
-                }
             }
 
             
         });
 
 
+        // the snap target follows the mouse, and the preview is only redrawn when the target changes
+        this.wwd.addPositionListener(new PositionListener()
+        {
+            public void moved(PositionEvent event)
+            {
+                updateSnapPreview(event.getPosition());
+            }
+        });
+
 /*
         this.wwd.addPositionListener(new PositionListener()
         {
@@ -150,6 +220,49 @@ public class Globe extends ApplicationTemplate
         });*/
     }
     
+    private static void configureDeduplication()
+    {
+        String mode = System.getProperty("kmlviewer.dedup.mode", PlacemarkDeduplicator.Mode.EXACT.name());
+        String tolerance = System.getProperty("kmlviewer.dedup.tolerance", "1");
+        if (mode.equalsIgnoreCase("NONE"))
+            return;
+
+        try
+        {
+            double meters = Double.parseDouble(tolerance);
+            if (!(meters >= 0) || Double.isInfinite(meters))
+                throw new IllegalArgumentException("Tolerance " + tolerance + " is not a distance");
+            setDeduplication(PlacemarkDeduplicator.Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT)), meters);
+        }
+        catch (IllegalArgumentException e)
+        {
+            Logging.logger().warning("Unable to use kmlviewer.dedup.mode " + mode + " and kmlviewer.dedup.tolerance "
+                + tolerance + ", merging exact copies instead: " + e.getMessage());
+            setDeduplication(PlacemarkDeduplicator.Mode.EXACT, 1);
+        }
+    }
+
+    private static SessionJournal openJournal()
+    {
+        try
+        {
+            return SessionJournal.openDefault();
+        }
+        catch (Exception e)
+        {
+            Logging.logger().warning("Unable to open the session journal, the session will not be recoverable: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the session holding the digitized and imported placemarks.
+     */
+    public static DigitizingSession getSession()
+    {
+        return session;
+    }
+    
     public void getAllPlacemarks(){
     	
     	
@@ -203,6 +316,7 @@ public class Globe extends ApplicationTemplate
     public void setArmed(boolean armed)
     {
         this.armed = armed;
+        this.updateSnapPreview(this.wwd.getCurrentPosition());
     }
 
     /**
@@ -214,109 +328,125 @@ public class Globe extends ApplicationTemplate
     
     public void setNumPoints(int num)
     {
-    	numPoints = num;
+    	session.setNumPoints(num);
     }
     
     public int getNumPoints(){
     	
-    	return numPoints;
+    	return session.getNumPoints();
     }
     
     public void setPrefix(String pre){
-    	prefix = pre;
+    	session.setPrefix(pre);
+    }
+
+    public String getPrefix(){
+    	return session.getPrefix();
+    }
+
+    /**
+     * Ends the digitizing session normally, when the viewer is closed, so it is not recovered at the next launch.
+     */
+    public void closeSession(){
+    	session.closeJournal();
     }
     
-    private void addPosition()
+    /**
+     * Tells whether clicks snap onto imported placemarks.
+     *
+     * @return true if snapping.
+     */
+    public boolean isSnapping()
     {
-        Position curPos = this.wwd.getCurrentPosition();
-        
-        System.out.println(curPos);// put out the lat/long/alt for debugging purposes
-        
-        
-        
-        
-       
-        
-        if (curPos == null)
-            return;
+        return this.snapping;
+    }
 
-        this.positions.add(curPos);
-        this.line.setPositions(this.positions);
-        this.wwd.redraw();
-        
-       
-        
-       plotPoint(curPos);
-       
-       if(hasPostfix)
-    	   numPoints++;
-       
-        
+    /**
+     * Turns snapping on or off. When on, a click within the snap tolerance of an imported placemark digitizes the
+     * placemark's location instead of the clicked one, and the placemark it would snap to is marked as the mouse
+     * moves, so features re-digitized from a reference file do not come out as near-duplicates.
+     *
+     * @param snapping true to snap clicks.
+     */
+    public void setSnapping(boolean snapping)
+    {
+        this.snapping = snapping;
+        this.updateSnapPreview(this.wwd.getCurrentPosition());
     }
-    
+
     /**
-     * 
-     * @param curPos
-     * @param isThirdPoint
-     * @param point2
-     * @param results
-     * @param hldist
-     * Plots a point on the globe.
+     * Looks for the placemark a click would snap to again, after imported placemarks are hidden or removed.
      */
-    private void plotPoint(Position curPos){
-    	
-    	
-    	PointPlacemark pmStandard = new PointPlacemark(curPos);// the placemark
-        
-    	if(hasPostfix)
-    		pmStandard.setLabelText(prefix + Integer.toString(numPoints));
-    	else
-    		pmStandard.setLabelText(prefix);
+    public void refreshSnapPreview()
+    {
+        this.updateSnapPreview(this.wwd.getCurrentPosition());
+    }
 
-        pmStandard.setLineEnabled(false);
-        
-        // important must be clamped to ground
-        pmStandard.setAltitudeMode(WorldWind.CLAMP_TO_GROUND);
-        
-        RenderableLayer pointsLayer = new RenderableLayer();
-        
-        pointsLayers.add(pointsLayer);
-        
-        placemarks.add(pmStandard);
+    /**
+     * Returns how close on screen a click must be to a placemark to snap to it.
+     *
+     * @return the distance in pixels.
+     */
+    public int getSnapTolerance()
+    {
+        return this.snapTolerance;
+    }
 
-        pointsLayer.addRenderable(pmStandard);
-        insertBeforeCompass(this.wwd, pointsLayer);
-        
-        
+    public void setSnapTolerance(int pixels)
+    {
+        this.snapTolerance = pixels;
     }
 
-    private void replacePosition()
+    /**
+     * Finds the imported placemark a click at a position would snap to.
+     *
+     * @return the placemark's id, or -1 if not snapping or none is close enough.
+     */
+    private int findSnapTarget(Position position)
     {
-        Position curPos = this.wwd.getCurrentPosition();
-        if (curPos == null)
-            return;
+        if (!this.snapping || position == null)
+            return -1;
+
+        // the tolerance in meters is the size of that many pixels at the clicked point's distance from the eye
+        View view = this.wwd.getView();
+        Vec4 point = this.wwd.getModel().getGlobe().computePointFromLocation(position);
+        double meters = this.snapTolerance * view.computePixelSizeAtDistance(view.getEyePoint().distanceTo3(point));
+
+        return session.findNearestImported(position.getLatitude().degrees, position.getLongitude().degrees, meters);
+    }
 
-        int index = this.positions.size() - 1;
-        if (index < 0)
-            index = 0;
+    private void updateSnapPreview(Position position)
+    {
+        int target = this.armed ? this.findSnapTarget(position) : -1;
+        if (target == this.snapTarget)
+            return;
 
-        //Position currentLastPosition = this.positions.get(index);
-        this.positions.set(index, curPos);
-        this.line.setPositions(this.positions);
-        //this.firePropertyChange("LineBuilder.ReplacePosition", currentLastPosition, curPos);
-        this.wwd.redraw();
+        this.snapTarget = target;
+        if (target >= 0)
+        {
+            PlacemarkStore store = session.getPlacemarkStore();
+            this.snapPreview.setPosition(Position.fromDegrees(store.getLatitude(target), store.getLongitude(target)));
+        }
+        this.snapLayer.setEnabled(target >= 0);
+        this.redrawScheduler.requestRedraw();
     }
 
-    private void removePosition()
+    private void addPosition()
     {
-        if (this.positions.size() == 0)
+        Position curPos = this.wwd.getCurrentPosition();
+        if (curPos == null)
             return;
 
-        //Position currentLastPosition = this.positions.get(this.positions.size() - 1);
-        this.positions.remove(this.positions.size() - 1);
-        this.line.setPositions(this.positions);
-       // this.firePropertyChange("LineBuilder.RemovePosition", currentLastPosition, null);
-        this.wwd.redraw();
+        int target = this.findSnapTarget(curPos);
+        if (target >= 0)
+        {
+            PlacemarkStore store = session.getPlacemarkStore();
+            curPos = Position.fromDegrees(store.getLatitude(target), store.getLongitude(target),
+                curPos.getElevation());
+        }
+
+        // the pipeline stores the placemark and updates the display
+        this.clickPipeline.capture(curPos);
     }
 
     // ===================== Control Panel ======================= //
@@ -326,132 +456,114 @@ public class Globe extends ApplicationTemplate
     
     public void clearPoints(){
     	
-    	for(RenderableLayer r : pointsLayers)
-    	{
-    		
-    		r.removeAllRenderables();
-        	r.dispose();
-        	placemarks.clear();
-        	models.clear();
-    	}
-    	
-    	numPoints = 1;
+    	session.clear();
+    	models.clear();
 
-        this.wwd.redraw();
+        this.redrawScheduler.requestRedraw();
 
     	
     }
     
     public void clearLastPoint(){
     	
+    	if (!session.removeLastPoint())
+    		return;
 
-    		
-    		RenderableLayer r = pointsLayers.get(pointsLayers.size()-1);
-	    	pointsLayers.remove(pointsLayers.size()-1);
-	    	
-	    	r.dispose();
-
-	    	if(numPoints > 1)
-	    		numPoints--;
-	    	
-	    	if(placemarks.size() > 1)
-	    		placemarks.remove(placemarks.size()-1);
-	    	
-
-	    	
-	    	this.wwd.redraw();
-    
-    	
+    	this.redrawScheduler.requestRedraw();
     	
     }
     
+    /**
+     * Moves the digitized points through a control point transform, after the map they were digitized from has been
+     * georeferenced again.
+     *
+     * @param transform the transform from the old placement to the corrected one.
+     *
+     * @return the number of points moved.
+     */
+    public int reproject(ControlPointTransform transform)
+    {
+        int moved = session.reproject(transform, Runtime.getRuntime().availableProcessors());
+
+        this.redrawScheduler.requestRedraw();
+        return moved;
+    }
+
+    public ClickPipeline getClickPipeline(){
+    	return clickPipeline;
+    }
+    
     public Position getPoint2(){
     	return point2Pos;
     }
     
     
-	public void exportKML(String path, ArrayList<String> names) {
+	public void exportKML(String path) {
 		try{
-	    	
-		    // Create a StringWriter to collect KML in a string buffer
-           // Writer stringWriter = new StringWriter();
-
-            // Create a document builder that will write KML to the StringWriter
-           // KMLDocumentBuilder kmlBuilder = new KMLDocumentBuilder(stringWriter);
-
-			//for(String name : names)
-        	//{
-        	///	(
-        	//}
-		/*	for(String name : names){
-				RenderableLayer rl = (RenderableLayer)(wwd.getModel().getLayers().getLayerByName(name));
-				for(Renderable r : rl.getRenderables()){
-					if(r instanceof PointPlacemark)
-					{
-						PointPlacemark p = (PointPlacemark)r;
-						System.out.println(p.getLabelText());
-					}
-					
-				}
-			}*/
-			for(String name : names)
-			{
-				for(Object o : this.wwd.getModel().getLayers().getLayerByName(name).getValues()){
-		    			System.out.println(name + o.toString());
-		    	}
-			}
-			
-			
-            String xmlString = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
-								"<kml xmlns=\"http://www.opengis.net/kml/2.2\">" +
-								"<Document>" +
-									"<name>Placemarks</name>" +
-									"<Folder>" +
-										"<name>Annotations</name>";
-
-         // Export the placemarks
-            for(PointPlacemark p : placemarks){
-            	
-            	String placemarkString = "<Placemark>";
-            	
-            	placemarkString += "<name>" + p.getLabelText() + "</name>";
-            	placemarkString += "<Point>" + 
-            		"<coordinates>" + p.getPosition().getLongitude().getDegrees() + "," + p.getPosition().getLatitude().getDegrees() + "," + 0 + "</coordinates>";
-    			placemarkString += "</Point>";
-    			placemarkString += "</Placemark>";
-    			
-    			xmlString += placemarkString;
-                        
-            }
-            
-      
-            
-            
-            xmlString += "</Folder>" +
-				         "</Document>" +
-				         "</kml>";
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-
-           // String results = "";
-            
-            StringWriter stringWriter = new StringWriter();
-            transformer.transform(new StreamSource(new StringReader(xmlString)), new StreamResult(stringWriter));
-            
-            
-            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), "utf-8"))) {
-            	writer.write(stringWriter.toString());
-            }
-            catch (Exception e){
-            	System.err.println("Writing error.");
-      }
+            session.exportKML(path);
             
 		} catch (Exception e)
         {
             String message = Logging.getMessage("generic.ExceptionAttemptingToWriteXml", e.toString());
-            Logging.logger().severe(message);
-            e.printStackTrace();
+            Logging.logger().log(Level.SEVERE, message, e);
+        }
+    }
+
+    /**
+     * Sets where exports take their altitudes from.
+     *
+     * @param source the terrain elevations, or null to export the placemarks clamped to the ground.
+     */
+    public void setElevationSource(ElevationSource source)
+    {
+        ElevationSource previous = session.getElevationSource();
+        session.setElevationSource(source);
+
+        if (previous instanceof Closeable)
+        {
+            try
+            {
+                ((Closeable) previous).close();
+            }
+            catch (IOException e)
+            {
+                Logging.logger().log(Level.WARNING, "Unable to close the elevation file", e);
+            }
+        }
+    }
+
+    /**
+     * Exports the placemarks as a KMZ archive holding a single doc.kml. Large exports are compressed on all cores.
+     *
+     * @param path the file to write.
+     */
+    public void exportKMZ(String path)
+    {
+        try
+        {
+            session.exportKMZ(path);
+        }
+        catch (Exception e)
+        {
+            String message = Logging.getMessage("generic.ExceptionAttemptingToWriteXml", e.toString());
+            Logging.logger().log(Level.SEVERE, message, e);
+        }
+    }
+
+    /**
+     * Exports the placemarks to several files in one pass, each in the format its extension names.
+     *
+     * @param paths the files to write, such as a .kml, a .geojson and a .csv.
+     */
+    public void export(List<String> paths)
+    {
+        try
+        {
+            session.export(paths);
+        }
+        catch (Exception e)
+        {
+            Logging.logger().log(Level.SEVERE, "Unable to export the placemarks to " + paths, e);
         }
     }
 
@@ -523,8 +635,94 @@ public class Globe extends ApplicationTemplate
 	
 	
 	
-	public static void addToPlacemarkList(PointPlacemark p){
-		placemarks.add(p);
+	/**
+	 * Returns the store holding every digitized and imported placemark.
+	 * Only use it on the EDT.
+	 */
+	public static PlacemarkStore getPlacemarkStore(){
+		return session.getPlacemarkStore();
+	}
+	
+	/**
+	 * Returns the spatial index over the ids in the placemark store.
+	 */
+	public static PlacemarkIndex getPlacemarkIndex(){
+		return session.getPlacemarkIndex();
+	}
+	
+	/**
+	 * Returns the spatial index over the placemarks of one source.
+	 * Safe to call from any thread.
+	 */
+	public static PlacemarkIndex getSourceIndex(int source){
+		return session.getSourceIndex(source);
+	}
+	
+	/**
+	 * Returns a new source number for the placemarks of an import.
+	 * Safe to call from any thread.
+	 */
+	public static int nextSource(){
+		return session.nextSource();
+	}
+	
+	/**
+	 * Sets how imports are checked for placemarks that were already
+	 * imported, comparing with every placemark imported so far.
+	 *
+	 * @param mode what makes placemarks duplicates, or null to keep them all.
+	 * @param tolerance the furthest apart in meters duplicates may be.
+	 */
+	public static void setDeduplication(PlacemarkDeduplicator.Mode mode, double tolerance){
+		session.setDeduplicator(mode == null ? null
+			: new PlacemarkDeduplicator(session.getPlacemarkStore(), session.getStoreLock(), mode,
+				tolerance));
+	}
+	
+	/**
+	 * Returns the number of imported placemarks dropped as duplicates since
+	 * deduplication was last set.
+	 */
+	public static long getMergedCount(){
+		PlacemarkDeduplicator deduplicator = session.getDeduplicator();
+		return deduplicator == null ? 0 : deduplicator.getMergedCount();
+	}
+	
+	/**
+	 * Drops the placemarks of a batch about to be imported that duplicate
+	 * earlier imports. Call it on the thread that read the batch, before
+	 * handing it to {@link #addToPlacemarkList(PlacemarkStore, int)}.
+	 *
+	 * @return the number of placemarks dropped.
+	 */
+	public static int deduplicate(PlacemarkStore batch){
+		return session.deduplicate(batch);
+	}
+	
+	/**
+	 * Appends a batch of imported placemarks to the store and indexes them.
+	 *
+	 * @return the id of the first placemark added.
+	 */
+	public static int addToPlacemarkList(PlacemarkStore batch, int source){
+		return session.addImported(batch, source);
+	}
+	
+	/**
+	 * Says a batch that went through {@link #deduplicate(PlacemarkStore)}
+	 * will never be handed to {@link #addToPlacemarkList(PlacemarkStore, int)}.
+	 */
+	public static void dropImported(PlacemarkStore batch){
+		session.dropImported(batch);
+	}
+	
+	/**
+	 * Removes every placemark of an import.
+	 *
+	 * @return the number of placemarks removed.
+	 */
+	public static int removeImported(int source){
+		return session.removeImported(source);
 	}
 	
 	public boolean getIsThirdPoint(){
@@ -532,10 +730,10 @@ public class Globe extends ApplicationTemplate
 	}
 
 	public boolean isHasPostfix() {
-		return hasPostfix;
+		return session.isHasPostfix();
 	}
 
 	public void setHasPostfix(boolean hasPostfix) {
-		this.hasPostfix = hasPostfix;
+		session.setHasPostfix(hasPostfix);
 	}
 }
@@ -0,0 +1,21 @@
+import gov.nasa.worldwind.geom.LatLon;
+
+/**
+ * Places a scanned map or image on the globe by mapping its pixels to geographic locations.
+ * <p/>
+ * Pixel coordinates are those of the full resolution image: x counts columns east from its left edge and y counts rows
+ * down from its top edge, both in pixels, with fractions between pixels. Locations outside the image must be mapped
+ * too, by extending the same mapping, as tiles on the image's edges reach past it.
+ */
+public interface ImageGeoreference
+{
+    /**
+     * Returns the location of a point on the image.
+     *
+     * @param x the column, in pixels from the left edge.
+     * @param y the row, in pixels from the top edge.
+     *
+     * @return the location.
+     */
+    LatLon toGeographic(double x, double y);
+}
@@ -0,0 +1,257 @@
+import gov.nasa.worldwind.util.Logging;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Frame;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.logging.Level;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * A non-modal window for downloading the imagery of a region ahead of time with a {@link TilePrefetcher}, for working
+ * offline in the field. The region can be typed in, or taken from the extent of the imported placemarks. Progress is
+ * refreshed on a timer rather than on every tile, as in {@link KMLImportDialog}.
+ */
+public class ImageryPrefetchDialog extends JDialog
+{
+    private static final long serialVersionUID = 3049185260717243561L;
+
+    protected static final int REFRESH_MILLIS = 250;
+
+    /** Degrees added around a single point, so a box around it covers a few kilometers. */
+    protected static final double POINT_MARGIN = 0.05;
+
+    protected final TilePrefetcher prefetcher;
+    protected final JTextField minLatField = new JTextField(8);
+    protected final JTextField minLonField = new JTextField(8);
+    protected final JTextField maxLatField = new JTextField(8);
+    protected final JTextField maxLonField = new JTextField(8);
+    protected final SpinnerNumberModel firstLevel;
+    protected final SpinnerNumberModel lastLevel;
+    protected final JProgressBar progressBar = new JProgressBar();
+    protected final JButton startButton = new JButton("Start");
+    protected final JButton cancelButton = new JButton("Cancel");
+    protected final Timer refreshTimer;
+    protected Thread prefetchThread;
+
+    public ImageryPrefetchDialog(Frame owner, TilePrefetcher prefetcher)
+    {
+        super(owner, "Prefetch Imagery", false);
+        this.prefetcher = prefetcher;
+
+        int levels = prefetcher.getTileSource().getLevelCount();
+        this.firstLevel = new SpinnerNumberModel(0, 0, levels - 1, 1);
+        this.lastLevel = new SpinnerNumberModel(Math.min(12, levels - 1), 0, levels - 1, 1);
+
+        JPanel fields = new JPanel(new GridLayout(6, 2, 5, 5));
+        fields.add(new JLabel("South latitude"));
+        fields.add(this.minLatField);
+        fields.add(new JLabel("West longitude"));
+        fields.add(this.minLonField);
+        fields.add(new JLabel("North latitude"));
+        fields.add(this.maxLatField);
+        fields.add(new JLabel("East longitude"));
+        fields.add(this.maxLonField);
+        fields.add(new JLabel("First level"));
+        fields.add(new JSpinner(this.firstLevel));
+        fields.add(new JLabel("Last level"));
+        fields.add(new JSpinner(this.lastLevel));
+
+        JButton importedButton = new JButton("Imported Extents");
+        importedButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                useImportedExtents();
+            }
+        });
+
+        this.startButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                start();
+            }
+        });
+
+        this.cancelButton.setEnabled(false);
+        this.cancelButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                ImageryPrefetchDialog.this.prefetcher.cancel();
+            }
+        });
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(importedButton);
+        buttons.add(this.startButton);
+        buttons.add(this.cancelButton);
+
+        this.progressBar.setStringPainted(true);
+        this.progressBar.setString("");
+
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(9, 9, 9, 9));
+        content.add(fields, BorderLayout.NORTH);
+        content.add(this.progressBar, BorderLayout.CENTER);
+        content.add(buttons, BorderLayout.SOUTH);
+        this.setContentPane(content);
+        this.setPreferredSize(new Dimension(420, 300));
+        this.pack();
+        this.setLocationRelativeTo(owner);
+
+        this.refreshTimer = new Timer(REFRESH_MILLIS, new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                refresh();
+            }
+        });
+    }
+
+    /**
+     * Sets the region to a small box around a point, such as the navigation fields' location.
+     *
+     * @param latitude  the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     */
+    public void setCenter(double latitude, double longitude)
+    {
+        this.setRegion(latitude - POINT_MARGIN, longitude - POINT_MARGIN, latitude + POINT_MARGIN,
+            longitude + POINT_MARGIN);
+    }
+
+    public void setRegion(double minLat, double minLon, double maxLat, double maxLon)
+    {
+        this.minLatField.setText(Double.toString(Math.max(-90, minLat)));
+        this.minLonField.setText(Double.toString(Math.max(-180, minLon)));
+        this.maxLatField.setText(Double.toString(Math.min(90, maxLat)));
+        this.maxLonField.setText(Double.toString(Math.min(180, maxLon)));
+    }
+
+    /**
+     * Sets the region to the bounding box of every imported placemark still shown.
+     */
+    protected void useImportedExtents()
+    {
+        DigitizingSession session = Globe.getSession();
+        PlacemarkStore store = session.getPlacemarkStore();
+        double minLat = 90, minLon = 180, maxLat = -90, maxLon = -180;
+        boolean found = false;
+        for (int id = 0; id < store.size(); id++)
+        {
+            int source = store.getSource(id);
+            if (store.isDeleted(id) || source == PlacemarkStore.SESSION_SOURCE || !session.isLiveSource(source))
+                continue;
+
+            double lat = store.getLatitude(id);
+            double lon = store.getLongitude(id);
+            minLat = Math.min(minLat, lat);
+            maxLat = Math.max(maxLat, lat);
+            minLon = Math.min(minLon, lon);
+            maxLon = Math.max(maxLon, lon);
+            found = true;
+        }
+
+        if (!found)
+        {
+            JOptionPane.showMessageDialog(this, "No placemarks have been imported.", this.getTitle(),
+                JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        // a little margin, so points on the edge have imagery around them too
+        this.setRegion(minLat - POINT_MARGIN / 10, minLon - POINT_MARGIN / 10, maxLat + POINT_MARGIN / 10,
+            maxLon + POINT_MARGIN / 10);
+    }
+
+    protected void start()
+    {
+        final double minLat, minLon, maxLat, maxLon;
+        try
+        {
+            minLat = Double.parseDouble(this.minLatField.getText().trim());
+            minLon = Double.parseDouble(this.minLonField.getText().trim());
+            maxLat = Double.parseDouble(this.maxLatField.getText().trim());
+            maxLon = Double.parseDouble(this.maxLonField.getText().trim());
+        }
+        catch (NumberFormatException e)
+        {
+            JOptionPane.showMessageDialog(this, "The region must be four numbers in degrees.", this.getTitle(),
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        final int first = this.firstLevel.getNumber().intValue();
+        final int last = this.lastLevel.getNumber().intValue();
+
+        this.startButton.setEnabled(false);
+        this.cancelButton.setEnabled(true);
+
+        this.prefetchThread = new Thread("Imagery prefetch")
+        {
+            public void run()
+            {
+                try
+                {
+                    prefetcher.prefetch(minLat, minLon, maxLat, maxLon, first, last, null);
+                }
+                catch (final IllegalArgumentException e)
+                {
+                    // a bad region or too many tiles, which the user can fix
+                    SwingUtilities.invokeLater(new Runnable()
+                    {
+                        public void run()
+                        {
+                            JOptionPane.showMessageDialog(ImageryPrefetchDialog.this, e.getMessage(),
+                                ImageryPrefetchDialog.this.getTitle(),
+                                JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+                }
+                catch (Exception e)
+                {
+                    Logging.logger().log(Level.SEVERE, "Imagery prefetch failed", e);
+                }
+            }
+        };
+        this.prefetchThread.setDaemon(true);
+        this.prefetchThread.start();
+        this.refreshTimer.start();
+    }
+
+    protected void refresh()
+    {
+        long total = this.prefetcher.getTotalCount();
+        long finished = this.prefetcher.getFinishedCount();
+
+        this.progressBar.setMaximum((int) Math.max(1, total));
+        this.progressBar.setValue((int) finished);
+        this.progressBar.setString(String.format("%d of %d tiles, %d downloaded, %d cached, %d failed", finished,
+            total, this.prefetcher.getDownloadedCount(), this.prefetcher.getCachedCount(),
+            this.prefetcher.getFailedCount()));
+
+        if (this.prefetchThread != null && this.prefetchThread.isAlive())
+            return;
+
+        this.refreshTimer.stop();
+        this.startButton.setEnabled(true);
+        this.cancelButton.setEnabled(false);
+    }
+}
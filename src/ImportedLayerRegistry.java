@@ -0,0 +1,202 @@
+import gov.nasa.worldwind.layers.Layer;
+import gov.nasa.worldwind.layers.LayerList;
+import gov.nasa.worldwind.ogc.kml.impl.KMLController;
+import gov.nasa.worldwind.util.layertree.LayerTreeNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the layers created for imported documents, so they can be found and changed without searching the
+ * model's layer list by name.
+ * <p/>
+ * Each import is registered under an id with its layer, its KML controller if it has one, its node in the layer tree
+ * and the source number of its points in the {@link PlacemarkStore}. Operations over every import touch each entry
+ * once and leave redrawing to the caller, so a change to hundreds of layers costs one pass and one redraw. All use is
+ * expected on the event dispatch thread, except reading the {@link #getLiveSources() live sources}.
+ */
+public class ImportedLayerRegistry
+{
+    /**
+     * The parts of one imported document.
+     */
+    public static class Entry
+    {
+        protected final int id;
+        protected final Layer layer;
+        protected final KMLController controller;
+        protected final LayerTreeNode node;
+        protected final int source;
+
+        protected Entry(int id, Layer layer, KMLController controller, LayerTreeNode node, int source)
+        {
+            this.id = id;
+            this.layer = layer;
+            this.controller = controller;
+            this.node = node;
+            this.source = source;
+        }
+
+        public int getId()
+        {
+            return this.id;
+        }
+
+        public Layer getLayer()
+        {
+            return this.layer;
+        }
+
+        /**
+         * Returns the controller rendering the document.
+         *
+         * @return the controller, or null for a points-only import.
+         */
+        public KMLController getController()
+        {
+            return this.controller;
+        }
+
+        public LayerTreeNode getNode()
+        {
+            return this.node;
+        }
+
+        public int getSource()
+        {
+            return this.source;
+        }
+    }
+
+    private final Map<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>();
+    private int lastId = 0;
+
+    // source numbers of the registered documents, readable from any thread
+    private final Set<Integer> liveSources = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    /**
+     * Registers an imported document.
+     *
+     * @param layer      the layer displaying it.
+     * @param controller the controller rendering it, or null if the layer draws the points itself.
+     * @param node       its node in the layer tree.
+     * @param source     the source number of its points in the placemark store.
+     *
+     * @return the new entry.
+     */
+    public Entry register(Layer layer, KMLController controller, LayerTreeNode node, int source)
+    {
+        Entry entry = new Entry(++this.lastId, layer, controller, node, source);
+        this.entries.put(entry.id, entry);
+        this.liveSources.add(source);
+        return entry;
+    }
+
+    /**
+     * Returns the source numbers of the registered documents. The set follows registrations and removals, so it can
+     * be handed out once, for example to {@link DigitizingSession#setLiveSources(Set)}. The points of a removed
+     * document stay in the placemark store and are still exported.
+     *
+     * @return a read-only view of the sources.
+     */
+    public Set<Integer> getLiveSources()
+    {
+        return Collections.unmodifiableSet(this.liveSources);
+    }
+
+    /**
+     * Returns a registered document.
+     *
+     * @param id the document's id.
+     *
+     * @return the entry, or null if no document has the id.
+     */
+    public Entry get(int id)
+    {
+        return this.entries.get(id);
+    }
+
+    /**
+     * Returns every registered document, in the order they were registered.
+     *
+     * @return a copy of the entries.
+     */
+    public List<Entry> getEntries()
+    {
+        return new ArrayList<Entry>(this.entries.values());
+    }
+
+    public int size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * Sets the opacity of every imported layer.
+     *
+     * @param opacity the opacity, from 0 to 1.
+     */
+    public void setOpacity(double opacity)
+    {
+        for (Entry entry : this.entries.values())
+        {
+            entry.layer.setOpacity(opacity);
+        }
+    }
+
+    /**
+     * Removes one document's layer from a layer list, disposes of it and forgets it.
+     *
+     * @param id     the document's id.
+     * @param layers the layer list holding the layer.
+     *
+     * @return the removed entry, or null if no document has the id.
+     */
+    public Entry remove(int id, LayerList layers)
+    {
+        Entry entry = this.entries.remove(id);
+        if (entry == null)
+            return null;
+
+        this.liveSources.remove(entry.source);
+        layers.remove(entry.layer);
+        entry.layer.dispose();
+        return entry;
+    }
+
+    /**
+     * Removes every imported layer from a layer list in one pass, disposes of them and forgets them.
+     *
+     * @param layers the layer list holding the layers.
+     *
+     * @return the removed entries.
+     */
+    public List<Entry> removeAll(LayerList layers)
+    {
+        List<Entry> removed = this.getEntries();
+        if (removed.isEmpty())
+            return removed;
+
+        Set<Layer> toRemove = Collections.newSetFromMap(new IdentityHashMap<Layer, Boolean>());
+        for (Entry entry : removed)
+        {
+            toRemove.add(entry.layer);
+        }
+
+        layers.removeAll(toRemove);
+        for (Entry entry : removed)
+        {
+            entry.layer.dispose();
+        }
+        this.entries.clear();
+        this.liveSources.clear();
+
+        return removed;
+    }
+}
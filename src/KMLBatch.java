@@ -0,0 +1,265 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Merges the point placemarks of several KML or KMZ files into one exported document without a display.
+ * <p/>
+ * Inputs are read with {@link KMLPointReader}, the streaming reader behind the viewer's points-only import, on a pool
+ * of threads. Their points are written with {@link KMLPlacemarkWriter} in the same document layout the viewer exports,
+ * in input order, as each input finishes loading, so only the inputs being read or waiting their turn are held in
+ * memory. Nothing here touches AWT or OpenGL, so it runs on a server with no display.
+ * <p/>
+ * The document is written to a temporary file next to the output and moved into place once it is complete, so a run
+ * that fails part way leaves any earlier output as it was rather than a truncated document.
+ * <p/>
+ * Placemarks keep their names unless a prefix is given, in which case they are renamed as the viewer names digitized
+ * points: the prefix followed by a number counting up from the start number, or just the prefix when sequential
+ * numbering is turned off.
+ * <p/>
+ * Usage: <code>java KMLBatch [options] -o output.kml|output.kmz input...</code>, where the options are
+ * <ul> <li><code>--prefix text</code> to rename every placemark,</li> <li><code>--start n</code> for the first number,
+ * 1 by default,</li> <li><code>--no-sequence</code> to name every placemark just the prefix, and</li>
+ * <li><code>--threads n</code> for the number of inputs read at once, the number of processors by default.</li>
+ * </ul> Inputs may be file paths or URLs. The exit status is 0 on success, 1 if an input or the output fails, and 2 for
+ * a usage error.
+ */
+public class KMLBatch
+{
+    protected File output;
+    protected List<String> inputs = new ArrayList<String>();
+    protected String prefix;
+    protected boolean hasPostfix = true;
+    protected int numPoints = 1;
+    protected int threads = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args)
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        KMLBatch batch = new KMLBatch();
+        try
+        {
+            batch.parseArguments(args);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java KMLBatch [--prefix text] [--start n] [--no-sequence] [--threads n] "
+                + "-o output.kml|output.kmz input...");
+            System.exit(2);
+        }
+
+        try
+        {
+            long start = System.nanoTime();
+            long count = batch.run();
+            System.err.println(String.format("Wrote %d placemarks from %d inputs to %s in %.1f s", count,
+                batch.inputs.size(), batch.output, (System.nanoTime() - start) / 1e9));
+        }
+        catch (Exception e)
+        {
+            System.err.println("KMLBatch failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    protected void parseArguments(String[] args)
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (arg.equals("-o") || arg.equals("--output"))
+                this.output = new File(value(args, ++i, arg));
+            else if (arg.equals("--prefix"))
+                this.prefix = value(args, ++i, arg);
+            else if (arg.equals("--start"))
+                this.numPoints = intValue(args, ++i, arg);
+            else if (arg.equals("--no-sequence"))
+                this.hasPostfix = false;
+            else if (arg.equals("--threads"))
+                this.threads = Math.max(1, intValue(args, ++i, arg));
+            else if (arg.startsWith("-") && arg.length() > 1)
+                throw new IllegalArgumentException("Unknown option " + arg);
+            else
+                this.inputs.add(arg);
+        }
+
+        if (this.output == null)
+            throw new IllegalArgumentException("No output file given");
+        if (this.inputs.isEmpty())
+            throw new IllegalArgumentException("No input files given");
+    }
+
+    /**
+     * Reads every input and writes the merged document.
+     *
+     * @return the number of placemarks written.
+     *
+     * @throws IOException if an input cannot be read or the output cannot be written.
+     */
+    public long run() throws IOException
+    {
+        ExecutorService executor = ParallelTasks.newPool("KML batch reader", this.threads);
+
+        // Keep a few inputs loaded ahead of the writer, but not all of them
+        int maxAhead = this.threads * 2;
+        ArrayDeque<Future<PlacemarkStore>> pending = new ArrayDeque<Future<PlacemarkStore>>();
+        int next = 0;
+
+        File temp = File.createTempFile("kmlbatch", ".tmp", this.output.getAbsoluteFile().getParentFile());
+        try
+        {
+            long count;
+            try (KMLPlacemarkWriter kmlWriter = new KMLPlacemarkWriter(this.openOutput(temp), true))
+            {
+                kmlWriter.startDocument(KMLPlacemarkWriter.EXPORT_DOCUMENT_NAME,
+                    KMLPlacemarkWriter.EXPORT_FOLDER_NAME);
+
+                for (int i = 0; i < this.inputs.size(); i++)
+                {
+                    while (next < this.inputs.size() && pending.size() < maxAhead)
+                    {
+                        pending.add(executor.submit(read(this.inputs.get(next++))));
+                    }
+
+                    this.write(kmlWriter, this.inputs.get(i), pending.remove());
+                }
+
+                kmlWriter.endDocument();
+                count = kmlWriter.getPlacemarkCount();
+            }
+
+            // only once the document is complete and closed
+            try
+            {
+                Files.move(temp.toPath(), this.output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp.toPath(), this.output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return count;
+        }
+        finally
+        {
+            executor.shutdownNow();
+            temp.delete();
+        }
+    }
+
+    protected void write(KMLPlacemarkWriter kmlWriter, String input, Future<PlacemarkStore> loaded) throws IOException
+    {
+        PlacemarkStore points;
+        try
+        {
+            points = loaded.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + input, e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Unable to read " + input + ": " + e.getCause().getMessage(), e.getCause());
+        }
+
+        for (int id = 0; id < points.size(); id++)
+        {
+            // Placemarks are exported clamped to the ground, as the viewer does
+            kmlWriter.writePlacemark(this.nextLabel(points, id), points.getLongitude(id), points.getLatitude(id), 0);
+        }
+    }
+
+    /**
+     * Returns the name for the next placemark written, following the viewer's prefix and numbering rules.
+     *
+     * @param points the store holding the placemark.
+     * @param id     the placemark.
+     *
+     * @return the placemark's own name if no prefix was given, otherwise its new name.
+     */
+    protected String nextLabel(PlacemarkStore points, int id)
+    {
+        if (this.prefix == null)
+            return points.getLabel(id);
+
+        if (!this.hasPostfix)
+            return this.prefix;
+
+        return this.prefix + Integer.toString(this.numPoints++);
+    }
+
+    /**
+     * Opens a file for the document, compressed as a KMZ archive when the output's name ends in .kmz.
+     *
+     * @param file the file to write, usually a temporary one beside the output.
+     */
+    protected OutputStream openOutput(File file) throws IOException
+    {
+        if (!this.output.getName().toLowerCase().endsWith(".kmz"))
+            return new FileOutputStream(file);
+
+        if (this.threads > 1)
+            return new ParallelKMZOutputStream(new FileOutputStream(file), "doc.kml", this.threads);
+
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        zip.putNextEntry(new ZipEntry("doc.kml"));
+        return zip;
+    }
+
+    protected static Callable<PlacemarkStore> read(final String input)
+    {
+        return new Callable<PlacemarkStore>()
+        {
+            public PlacemarkStore call() throws Exception
+            {
+                final PlacemarkStore points = new PlacemarkStore();
+                KMLPointReader.read(input, new KMLPointReader.PointHandler()
+                {
+                    public void point(String name, double longitude, double latitude, double altitude)
+                    {
+                        points.add(latitude, longitude, altitude, name, PlacemarkStore.SESSION_SOURCE);
+                    }
+                });
+                points.trimToSize();
+                return points;
+            }
+        };
+    }
+
+    private static String value(String[] args, int i, String option)
+    {
+        if (i >= args.length)
+            throw new IllegalArgumentException(option + " needs a value");
+
+        return args[i];
+    }
+
+    private static int intValue(String[] args, int i, String option)
+    {
+        try
+        {
+            return Integer.parseInt(value(args, i, option));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException(option + " needs a number");
+        }
+    }
+}
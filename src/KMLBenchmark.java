@@ -0,0 +1,1216 @@
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Sector;
+import gov.nasa.worldwind.layers.CompassLayer;
+import gov.nasa.worldwind.layers.Layer;
+import gov.nasa.worldwind.layers.LayerList;
+import gov.nasa.worldwind.layers.RenderableLayer;
+import gov.nasa.worldwind.layers.WorldMapLayer;
+import gov.nasa.worldwind.layers.placename.PlaceNameLayer;
+import gov.nasa.worldwind.ogc.kml.KMLRoot;
+import gov.nasa.worldwind.render.PointPlacemark;
+import gov.nasa.worldwind.render.Renderable;
+import gov.nasa.worldwind.util.Logging;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the import, export, numbering and placemark list operations over generated placemarks of several sizes,
+ * and writes the results as JSON so they can be compared across releases.
+ * <p/>
+ * There is no build to host a JMH module, so this follows JMH's conventions by hand: each benchmark runs warmup
+ * iterations and then measured iterations of at least a second, reports the average time per operation with a 99.9%
+ * confidence interval, and writes results in the layout of JMH's JSON result format, so the usual JMH result viewers
+ * and comparison scripts can read them. Setup that is not part of the measured operation, such as generating documents
+ * or refilling a cleared list, happens outside the timed region.
+ * <p/>
+ * Usage: <code>java KMLBenchmark [-p 1000,100000,1000000] [-wi 3] [-i 5] [-rff results.json] [regex]</code>, where
+ * <code>-p</code> lists the placemark counts, <code>-wi</code> and <code>-i</code> are the warmup and measurement
+ * iteration counts, <code>-rff</code> names the JSON result file, and the regular expression selects benchmarks by
+ * name. The layer insertion benchmarks read the sizes as layer counts and skip those above 100,000, so click cost
+ * against layer count is best measured with something like <code>-p 100,1000,10000,100000 insertLayer</code>.
+ */
+public class KMLBenchmark
+{
+    /**
+     * One benchmarked operation.
+     */
+    protected abstract static class Benchmark
+    {
+        protected final String name;
+
+        protected Benchmark(String name)
+        {
+            this.name = name;
+        }
+
+        /** Prepares state for a number of placemarks. Not timed. */
+        protected void setUp(int size) throws Exception
+        {
+        }
+
+        /**
+         * Prepares each timed batch of invocations, for operations that use up their state. Not timed. Quick operations
+         * run several times after one preparation, up to {@link #getMaxBatch()}.
+         */
+        protected void prepare() throws Exception
+        {
+        }
+
+        /** The measured operation. Its result is consumed so it is not optimized away. */
+        protected abstract Object run() throws Exception;
+
+        protected void tearDown()
+        {
+        }
+
+        /** The largest size this benchmark runs at, for operations whose sizes count something heavier than points. */
+        protected int getMaxSize()
+        {
+            return Integer.MAX_VALUE;
+        }
+
+        /** The most invocations timed after one preparation; 1 for operations that only run once per preparation. */
+        protected int getMaxBatch()
+        {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * The measured result of one benchmark at one size.
+     */
+    protected static class Result
+    {
+        protected final String benchmark;
+        protected final int size;
+        protected final double[] scores;
+
+        protected Result(String benchmark, int size, double[] scores)
+        {
+            this.benchmark = benchmark;
+            this.size = size;
+            this.scores = scores;
+        }
+
+        protected double mean()
+        {
+            double sum = 0;
+            for (double score : this.scores)
+            {
+                sum += score;
+            }
+            return sum / this.scores.length;
+        }
+
+        /** The half-width of the 99.9% confidence interval, as JMH reports it. */
+        protected double error()
+        {
+            int n = this.scores.length;
+            if (n < 2)
+                return Double.NaN;
+
+            double mean = this.mean();
+            double squares = 0;
+            for (double score : this.scores)
+            {
+                squares += (score - mean) * (score - mean);
+            }
+
+            return studentT999(n - 1) * Math.sqrt(squares / (n - 1)) / Math.sqrt(n);
+        }
+    }
+
+    // Two-sided 99.9% quantiles of Student's t distribution for 1 to 10 degrees of freedom
+    private static final double[] T_999 = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59};
+
+    protected static final String PREFIX = "P";
+
+    // Layer benchmarks stop here; a real layer list holds hundreds of layers, not millions
+    protected static final int MAX_LAYERS = 100000;
+
+    // Operations quicker than this are timed in batches, as a single call would be lost in the cost and granularity of
+    // System.nanoTime
+    protected static final long MIN_TIMED_NANOS = 10000;
+
+    // The view of the frame benchmarks, about what a regional map being digitized shows
+    protected static final Sector VIEW = Sector.fromDegrees(20, 50, -120, -90);
+
+    protected int[] sizes = {1000, 100000, 1000000};
+    protected int warmupIterations = 3;
+    protected int iterations = 5;
+    protected long iterationMillis = 1000;
+    protected int batchSize;
+    protected File resultFile = new File("kml-benchmark.json");
+    protected Pattern filter = Pattern.compile(".*");
+
+    // Held so the level set on it is not lost if the logging framework drops the logger
+    protected static final Logger LOGGER = Logging.logger();
+
+    // Results of measured operations end up here so the JIT cannot drop them
+    protected volatile Object sink;
+
+    public static void main(String[] args) throws Exception
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        KMLBenchmark harness = new KMLBenchmark();
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("-p"))
+            {
+                String[] values = args[++i].split(",");
+                harness.sizes = new int[values.length];
+                for (int j = 0; j < values.length; j++)
+                {
+                    harness.sizes[j] = Integer.parseInt(values[j].trim());
+                }
+            }
+            else if (args[i].equals("-wi"))
+                harness.warmupIterations = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-i"))
+                harness.iterations = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-rff"))
+                harness.resultFile = new File(args[++i]);
+            else
+                harness.filter = Pattern.compile(args[i]);
+        }
+
+        harness.run();
+    }
+
+    public void run() throws Exception
+    {
+        // Exports log their throughput, which would swamp the output
+        LOGGER.setLevel(Level.WARNING);
+
+        ArrayList<Result> results = new ArrayList<Result>();
+        for (Benchmark benchmark : this.createBenchmarks())
+        {
+            if (!this.filter.matcher(benchmark.name).find())
+                continue;
+
+            for (int size : this.sizes)
+            {
+                if (size <= benchmark.getMaxSize())
+                    results.add(this.measure(benchmark, size));
+            }
+        }
+
+        try (PrintStream out = new PrintStream(new FileOutputStream(this.resultFile), false, "UTF-8"))
+        {
+            this.writeJSON(out, results);
+        }
+        System.out.println("Results written to " + this.resultFile.getAbsolutePath());
+    }
+
+    protected Result measure(Benchmark benchmark, int size) throws Exception
+    {
+        System.out.println(String.format("# %s, size = %d", benchmark.name, size));
+        benchmark.setUp(size);
+        this.batchSize = 1;
+        try
+        {
+            for (int i = 0; i < this.warmupIterations; i++)
+            {
+                System.out.println(String.format("Warmup %d: %.3f ms/op", i + 1, this.iteration(benchmark)));
+            }
+
+            double[] scores = new double[this.iterations];
+            for (int i = 0; i < this.iterations; i++)
+            {
+                scores[i] = this.iteration(benchmark);
+                System.out.println(String.format("Iteration %d: %.3f ms/op", i + 1, scores[i]));
+            }
+
+            Result result = new Result(benchmark.name, size, scores);
+            System.out.println(String.format("Result: %.3f +- %.3f ms/op", result.mean(), result.error()));
+            return result;
+        }
+        finally
+        {
+            benchmark.tearDown();
+        }
+    }
+
+    /**
+     * Runs an operation until an iteration's time has passed, at least once. Like JMH's batched modes, operations that
+     * take less than {@link #MIN_TIMED_NANOS} are run in batches timed as a whole, the batch doubling until it takes
+     * that long or reaches the benchmark's largest batch.
+     *
+     * @return the average time of one operation, in milliseconds.
+     */
+    protected double iteration(Benchmark benchmark) throws Exception
+    {
+        long timed = 0;
+        long operations = 0;
+        long deadline = System.nanoTime() + this.iterationMillis * 1000000L;
+
+        do
+        {
+            benchmark.prepare();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < this.batchSize; i++)
+            {
+                this.sink = benchmark.run();
+            }
+            long elapsed = System.nanoTime() - start;
+            timed += elapsed;
+            operations += this.batchSize;
+
+            if (elapsed < MIN_TIMED_NANOS && this.batchSize < benchmark.getMaxBatch())
+                this.batchSize = (int) Math.min(2L * this.batchSize, benchmark.getMaxBatch());
+        }
+        while (System.nanoTime() < deadline);
+
+        return timed / 1e6 / operations;
+    }
+
+    protected Iterable<Benchmark> createBenchmarks()
+    {
+        return Arrays.asList(
+
+            // Export, as Globe.exportKML does it but without the file system
+            new Benchmark("exportKML")
+            {
+                PlacemarkStore store;
+
+                protected void setUp(int size)
+                {
+                    this.store = generateStore(size);
+                }
+
+                protected Object run() throws IOException
+                {
+                    return DigitizingSession.writePlacemarks(this.store, new NullOutputStream(), "benchmark");
+                }
+            },
+
+            // Export to KML, GeoJSON, CSV and GPX in the one pass of DigitizingSession.export
+            new Benchmark("exportAllFormats")
+            {
+                PlacemarkStore store;
+
+                protected void setUp(int size)
+                {
+                    this.store = generateStore(size);
+                }
+
+                protected Object run() throws IOException
+                {
+                    List<PlacemarkExporter.Output> outputs = new ArrayList<PlacemarkExporter.Output>();
+                    for (String extension : new String[] {"kml", "geojson", "csv", "gpx"})
+                    {
+                        outputs.add(PlacemarkExporters.forPath("benchmark." + extension)
+                            .open(new NullOutputStream(), this.store.count(), false));
+                    }
+                    long count = DigitizingSession.writePlacemarks(this.store, null, outputs, "benchmark");
+                    for (PlacemarkExporter.Output output : outputs)
+                    {
+                        output.close();
+                    }
+                    return count;
+                }
+            },
+
+            // KMLRoot.createAndParse, as the styled import does
+            new Benchmark("createAndParse")
+            {
+                File file;
+
+                protected void setUp(int size) throws IOException
+                {
+                    this.file = generateDocument(size);
+                }
+
+                protected Object run() throws Exception
+                {
+                    return KMLRoot.createAndParse(this.file);
+                }
+
+                protected void tearDown()
+                {
+                    this.file.delete();
+                }
+            },
+
+            // The point extraction walk of AppFrame.addKMLLayer
+            new Benchmark("collectPoints")
+            {
+                KMLRoot root;
+
+                protected void setUp(int size) throws Exception
+                {
+                    File file = generateDocument(size);
+                    this.root = KMLRoot.createAndParse(file);
+                    file.delete();
+                }
+
+                protected Object run()
+                {
+                    return KMLPointCollector.collect(this.root);
+                }
+
+                protected void tearDown()
+                {
+                    this.root = null;
+                }
+            },
+
+            // The points-only import
+            new Benchmark("streamPoints")
+            {
+                File file;
+
+                protected void setUp(int size) throws IOException
+                {
+                    this.file = generateDocument(size);
+                }
+
+                protected Object run() throws Exception
+                {
+                    final PlacemarkStore store = new PlacemarkStore();
+                    KMLPointReader.read(this.file, new KMLPointReader.PointHandler()
+                    {
+                        public void point(String name, double longitude, double latitude, double altitude)
+                        {
+                            store.add(latitude, longitude, altitude, name, PlacemarkStore.SESSION_SOURCE);
+                        }
+                    });
+                    return store;
+                }
+
+                protected void tearDown()
+                {
+                    this.file.delete();
+                }
+            },
+
+            // DigitizingSession.addPoint for each click: number, store and index the point
+            new Benchmark("plotPoint")
+            {
+                double[] lats;
+                double[] lons;
+
+                protected void setUp(int size)
+                {
+                    Random random = new Random(size);
+                    this.lats = new double[size];
+                    this.lons = new double[size];
+                    for (int i = 0; i < size; i++)
+                    {
+                        this.lats[i] = random.nextDouble() * 180 - 90;
+                        this.lons[i] = random.nextDouble() * 360 - 180;
+                    }
+                }
+
+                protected Object run()
+                {
+                    DigitizingSession session = new DigitizingSession();
+                    for (int i = 0; i < this.lats.length; i++)
+                    {
+                        session.addPoint(this.lats[i], this.lons[i], 0);
+                    }
+                    return session;
+                }
+            },
+
+            // A burst of 100 clicks through the ClickPipeline into a session already holding the placemarks
+            new Benchmark("clickBurst")
+            {
+                ClickPipeline pipeline;
+                Position[] clicks = new Position[100];
+
+                protected void setUp(int size)
+                {
+                    this.pipeline = new ClickPipeline(generateSession(size));
+
+                    Random random = new Random(size);
+                    for (int i = 0; i < this.clicks.length; i++)
+                    {
+                        this.clicks[i] = Position.fromDegrees(random.nextDouble() * 180 - 90,
+                            random.nextDouble() * 360 - 180, 0);
+                    }
+                }
+
+                protected Object run()
+                {
+                    for (Position click : this.clicks)
+                    {
+                        this.pipeline.capture(click);
+                    }
+                    return this.pipeline.getStoredLatency();
+                }
+
+                protected void tearDown()
+                {
+                    LOGGER.warning("clickBurst stored latency: " + this.pipeline.getStoredLatency());
+                    this.pipeline = null;
+                }
+            },
+
+            // A click in view followed by the next frame's PlacemarkLayer update, the work between a click and its
+            // placemark being ready to draw
+            new Benchmark("clickToFrame")
+            {
+                ClickPipeline pipeline;
+                PlacemarkLayer layer;
+                Random random;
+
+                protected void setUp(int size)
+                {
+                    DigitizingSession session = generateSession(size);
+                    this.pipeline = new ClickPipeline(session);
+                    this.layer = new PlacemarkLayer(session.getPlacemarkStore(),
+                        session.getSourceIndex(PlacemarkStore.SESSION_SOURCE), PlacemarkStore.SESSION_SOURCE);
+                    this.layer.update(VIEW);
+                    this.random = new Random(size);
+                }
+
+                protected Object run()
+                {
+                    this.pipeline.capture(Position.fromDegrees(
+                        VIEW.getMinLatitude().degrees + this.random.nextDouble() * VIEW.getDeltaLatDegrees(),
+                        VIEW.getMinLongitude().degrees + this.random.nextDouble() * VIEW.getDeltaLonDegrees(), 0));
+                    return this.layer.update(VIEW);
+                }
+
+                protected void tearDown()
+                {
+                    LOGGER.warning("clickToFrame stored latency: " + this.pipeline.getStoredLatency());
+                    this.pipeline = null;
+                    this.layer = null;
+                }
+            },
+
+            // Building every label, as display and export do
+            new Benchmark("labels")
+            {
+                PlacemarkStore store;
+
+                protected void setUp(int size)
+                {
+                    this.store = generateStore(size);
+                }
+
+                protected Object run()
+                {
+                    int length = 0;
+                    for (int id = 0; id < this.store.size(); id++)
+                    {
+                        length += this.store.getLabel(id).length();
+                    }
+                    return length;
+                }
+            },
+
+            // Globe.clearLastPoint until the session is empty
+            new Benchmark("clearLastPoint")
+            {
+                int size;
+                DigitizingSession session;
+
+                protected void setUp(int size)
+                {
+                    this.size = size;
+                }
+
+                protected void prepare()
+                {
+                    this.session = generateSession(this.size);
+                }
+
+                protected Object run()
+                {
+                    while (this.session.removeLastPoint())
+                    {
+                    }
+                    return this.session;
+                }
+
+                protected int getMaxBatch()
+                {
+                    return 1;
+                }
+            },
+
+            // Globe.clearPoints
+            new Benchmark("clearPoints")
+            {
+                int size;
+                DigitizingSession session;
+
+                protected void setUp(int size)
+                {
+                    this.size = size;
+                }
+
+                protected void prepare()
+                {
+                    this.session = generateSession(this.size);
+                }
+
+                protected Object run()
+                {
+                    this.session.clear();
+                    return this.session;
+                }
+
+                protected int getMaxBatch()
+                {
+                    return 1;
+                }
+            },
+
+            // A click that adds a layer before the compass, as ApplicationTemplate.insertBeforeCompass did before
+            // LayerInserter: search the layer list for the compass, then insert
+            new Benchmark("insertLayerScan")
+            {
+                LayerList layers;
+                List<Layer> inserted = new ArrayList<Layer>();
+
+                protected void setUp(int size)
+                {
+                    this.layers = generateLayers(size);
+                }
+
+                protected void prepare()
+                {
+                    for (Layer layer : this.inserted)
+                    {
+                        this.layers.remove(layer);
+                    }
+                    this.inserted.clear();
+                }
+
+                protected Object run()
+                {
+                    int compassPosition = 0;
+                    for (Layer l : this.layers)
+                    {
+                        if (l instanceof CompassLayer)
+                            compassPosition = this.layers.indexOf(l);
+                    }
+                    Layer layer = new RenderableLayer();
+                    this.layers.add(compassPosition, layer);
+                    this.inserted.add(layer);
+                    return this.layers;
+                }
+
+                protected int getMaxSize()
+                {
+                    return MAX_LAYERS;
+                }
+            },
+
+            // The same click through LayerInserter's cached compass position
+            new Benchmark("insertLayer")
+            {
+                LayerInserter inserter;
+                List<Layer> inserted = new ArrayList<Layer>();
+
+                protected void setUp(int size)
+                {
+                    this.inserter = LayerInserter.of(generateLayers(size));
+                }
+
+                protected void prepare()
+                {
+                    for (Layer layer : this.inserted)
+                    {
+                        this.inserter.remove(layer);
+                    }
+                    this.inserted.clear();
+                }
+
+                protected Object run()
+                {
+                    Layer layer = new RenderableLayer();
+                    this.inserter.insertBeforeCompass(layer);
+                    this.inserted.add(layer);
+                    return this.inserter;
+                }
+
+                protected int getMaxSize()
+                {
+                    return MAX_LAYERS;
+                }
+            },
+
+            // Adding 100 layers before the compass at once
+            new Benchmark("insertLayersBulk")
+            {
+                LayerInserter inserter;
+                // distinct layers for each run of a timed batch, as a layer is only added once
+                List<List<Layer>> batches = new ArrayList<List<Layer>>();
+                int used;
+
+                protected void setUp(int size)
+                {
+                    this.inserter = LayerInserter.of(generateLayers(size));
+                    for (int i = 0; i < 16; i++)
+                    {
+                        List<Layer> batch = new ArrayList<Layer>();
+                        for (int j = 0; j < 100; j++)
+                        {
+                            batch.add(new RenderableLayer());
+                        }
+                        this.batches.add(batch);
+                    }
+                }
+
+                protected void prepare()
+                {
+                    for (int i = 0; i < this.used; i++)
+                    {
+                        this.inserter.getLayers().removeAll(this.batches.get(i));
+                    }
+                    this.used = 0;
+                }
+
+                protected Object run()
+                {
+                    this.inserter.insertAllBeforeCompass(this.batches.get(this.used++));
+                    return this.inserter;
+                }
+
+                protected void tearDown()
+                {
+                    this.batches.clear();
+                }
+
+                protected int getMaxBatch()
+                {
+                    return this.batches.size();
+                }
+
+                protected int getMaxSize()
+                {
+                    return MAX_LAYERS;
+                }
+            },
+
+            // One frame's walk over the layer list when each digitized placemark had a layer of its own, as
+            // Globe.plotPoint did before PlacemarkLayer. Only the walk is timed, without World Wind's per-layer and
+            // per-placemark culling and drawing, so this is the least such a frame cost
+            new Benchmark("frameLayerPerPoint")
+            {
+                LayerList layers;
+
+                protected void setUp(int size)
+                {
+                    Random random = new Random(size);
+                    this.layers = generateLayers(size + 3);
+                    for (int i = 0; i < size; i++)
+                    {
+                        ((RenderableLayer) this.layers.get(i)).addRenderable(new PointPlacemark(
+                            Position.fromDegrees(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, 0)));
+                    }
+                }
+
+                protected Object run()
+                {
+                    int renderables = 0;
+                    for (Layer layer : this.layers)
+                    {
+                        if (!layer.isEnabled() || !(layer instanceof RenderableLayer))
+                            continue;
+
+                        for (Renderable renderable : ((RenderableLayer) layer).getRenderables())
+                        {
+                            renderables++;
+                        }
+                    }
+                    return renderables;
+                }
+
+                protected void tearDown()
+                {
+                    LOGGER.warning("frameLayerPerPoint layers: " + this.layers.size());
+                    this.layers = null;
+                }
+
+                protected int getMaxSize()
+                {
+                    return MAX_LAYERS;
+                }
+            },
+
+            // One frame of the digitized points in a PlacemarkLayer while the view stays put
+            new Benchmark("frameLayer")
+            {
+                PlacemarkLayer layer;
+
+                protected void setUp(int size)
+                {
+                    DigitizingSession session = generateSession(size);
+                    this.layer = new PlacemarkLayer(session.getPlacemarkStore(),
+                        session.getSourceIndex(PlacemarkStore.SESSION_SOURCE), PlacemarkStore.SESSION_SOURCE);
+                    this.layer.update(VIEW);
+                }
+
+                protected Object run()
+                {
+                    return this.layer.update(VIEW);
+                }
+
+                protected void tearDown()
+                {
+                    LOGGER.warning("frameLayer placemarks drawn: " + this.layer.getDisplayedCount());
+                    this.layer = null;
+                }
+            },
+
+            // One frame of the digitized points in a PlacemarkLayer while the view pans a degree a frame, so the
+            // placemarks in view are looked up again every frame
+            new Benchmark("frameLayerPan")
+            {
+                PlacemarkLayer layer;
+                // the view panned a degree a frame across the globe, made up front so only the update is timed
+                Sector[] sectors = new Sector[330];
+                int frame;
+
+                protected void setUp(int size)
+                {
+                    DigitizingSession session = generateSession(size);
+                    this.layer = new PlacemarkLayer(session.getPlacemarkStore(),
+                        session.getSourceIndex(PlacemarkStore.SESSION_SOURCE), PlacemarkStore.SESSION_SOURCE);
+                    for (int i = 0; i < this.sectors.length; i++)
+                    {
+                        this.sectors[i] = Sector.fromDegrees(VIEW.getMinLatitude().degrees,
+                            VIEW.getMaxLatitude().degrees, i - 180, i - 180 + VIEW.getDeltaLon().degrees);
+                    }
+                }
+
+                protected Object run()
+                {
+                    return this.layer.update(this.sectors[this.frame++ % this.sectors.length]);
+                }
+
+                protected void tearDown()
+                {
+                    LOGGER.warning("frameLayerPan placemarks drawn: " + this.layer.getDisplayedCount());
+                    this.layer = null;
+                }
+            },
+
+            // Elevating every point of an export from a 1 arc second BIL file, starting from a cold tile cache
+            new Benchmark("sampleElevations")
+            {
+                File file;
+                PlacemarkStore store;
+
+                protected void setUp(int size) throws IOException
+                {
+                    this.file = generateElevationFile(3601);
+                    Random random = new Random(size);
+                    this.store = new PlacemarkStore();
+                    for (int i = 0; i < size; i++)
+                    {
+                        this.store.add(45 + random.nextDouble(), 7 + random.nextDouble(), 0, PREFIX, i + 1,
+                            PlacemarkStore.SESSION_SOURCE);
+                    }
+                }
+
+                protected Object run() throws IOException
+                {
+                    try (BILElevationSource source = BILElevationSource.open(this.file))
+                    {
+                        return ElevationSampler.sample(this.store, source,
+                            Runtime.getRuntime().availableProcessors());
+                    }
+                }
+
+                protected void tearDown()
+                {
+                    this.file.delete();
+                    new File(this.file.getPath().replace(".bil", ".hdr")).delete();
+                }
+            },
+
+            // 1000 snap lookups of clicks over a sheet densely covered with imported placemarks
+            new Benchmark("snapToImported")
+            {
+                DigitizingSession session;
+                double[] lats = new double[1000];
+                double[] lons = new double[1000];
+
+                protected void setUp(int size)
+                {
+                    Random random = new Random(size);
+                    PlacemarkStore batch = new PlacemarkStore();
+                    for (int i = 0; i < size; i++)
+                    {
+                        batch.add(45 + random.nextDouble(), 7 + random.nextDouble(), 0, PREFIX, i + 1,
+                            PlacemarkStore.SESSION_SOURCE);
+                    }
+                    this.session = new DigitizingSession();
+                    this.session.addImported(batch, this.session.nextSource());
+
+                    for (int i = 0; i < this.lats.length; i++)
+                    {
+                        this.lats[i] = 45 + random.nextDouble();
+                        this.lons[i] = 7 + random.nextDouble();
+                    }
+                }
+
+                protected Object run()
+                {
+                    int found = 0;
+                    for (int i = 0; i < this.lats.length; i++)
+                    {
+                        if (this.session.findNearestImported(this.lats[i], this.lons[i], 50) >= 0)
+                            found++;
+                    }
+                    return found;
+                }
+            },
+
+            // Importing a file that overlaps an earlier import, merging placemarks within a meter of each other
+            new Benchmark("deduplicateImport")
+            {
+                DigitizingSession session;
+                PlacemarkDeduplicator deduplicator;
+                PlacemarkStore overlapping;
+                PlacemarkStore batch;
+
+                protected void setUp(int size)
+                {
+                    Random random = new Random(size);
+                    PlacemarkStore imported = new PlacemarkStore();
+                    this.overlapping = new PlacemarkStore();
+                    for (int i = 0; i < size; i++)
+                    {
+                        double lat = 45 + random.nextDouble();
+                        double lon = 7 + random.nextDouble();
+                        imported.add(lat, lon, 0, PREFIX, i + 1, PlacemarkStore.SESSION_SOURCE);
+                        // every other point again, half a meter off
+                        if (i % 2 == 0)
+                            this.overlapping.add(lat + 0.0000045, lon, 0, PREFIX, i + 1,
+                                PlacemarkStore.SESSION_SOURCE);
+                        else
+                            this.overlapping.add(45 + random.nextDouble(), 7 + random.nextDouble(), 0, PREFIX, i + 1,
+                                PlacemarkStore.SESSION_SOURCE);
+                    }
+
+                    this.session = new DigitizingSession();
+                    this.session.addImported(imported, this.session.nextSource());
+                }
+
+                protected void prepare()
+                {
+                    // a fresh deduplicator each time, since a checked batch is remembered as imported
+                    this.deduplicator = new PlacemarkDeduplicator(this.session.getPlacemarkStore(),
+                        this.session.getStoreLock(), PlacemarkDeduplicator.Mode.DISTANCE, 1);
+                    this.batch = new PlacemarkStore();
+                    this.batch.addAll(this.overlapping, PlacemarkStore.SESSION_SOURCE);
+                }
+
+                protected Object run()
+                {
+                    return this.deduplicator.deduplicate(this.batch, Runtime.getRuntime().availableProcessors());
+                }
+
+                protected int getMaxBatch()
+                {
+                    return 1;
+                }
+            },
+
+            // Importing placemarks just east of the antimeridian that each have a twin just west of it, within 50 m,
+            // in an earlier import; every placemark of the batch should be merged
+            new Benchmark("deduplicateAntimeridian")
+            {
+                DigitizingSession session;
+                PlacemarkDeduplicator deduplicator;
+                PlacemarkStore twins;
+                PlacemarkStore batch;
+                int merged;
+
+                protected void setUp(int size)
+                {
+                    Random random = new Random(size);
+                    PlacemarkStore imported = new PlacemarkStore();
+                    this.twins = new PlacemarkStore();
+                    for (int i = 0; i < size; i++)
+                    {
+                        // three ten thousandths of a degree either side is at most 34 m apart at 60 degrees
+                        double lat = 60 + random.nextDouble();
+                        imported.add(lat, 180 - random.nextDouble() * 0.0003, 0, PREFIX, i + 1,
+                            PlacemarkStore.SESSION_SOURCE);
+                        this.twins.add(lat, -180 + random.nextDouble() * 0.0003, 0, PREFIX, i + 1,
+                            PlacemarkStore.SESSION_SOURCE);
+                    }
+
+                    this.session = new DigitizingSession();
+                    this.session.addImported(imported, this.session.nextSource());
+                }
+
+                protected void prepare()
+                {
+                    this.deduplicator = new PlacemarkDeduplicator(this.session.getPlacemarkStore(),
+                        this.session.getStoreLock(), PlacemarkDeduplicator.Mode.DISTANCE, 50);
+                    this.batch = new PlacemarkStore();
+                    this.batch.addAll(this.twins, PlacemarkStore.SESSION_SOURCE);
+                }
+
+                protected Object run()
+                {
+                    this.merged = this.deduplicator.deduplicate(this.batch, Runtime.getRuntime().availableProcessors());
+                    return this.merged;
+                }
+
+                protected void tearDown()
+                {
+                    if (this.merged != this.twins.size())
+                        LOGGER.warning("deduplicateAntimeridian merged " + this.merged + " of " + this.twins.size());
+                }
+
+                protected int getMaxBatch()
+                {
+                    return 1;
+                }
+            },
+
+            // Fitting a thin plate spline to 40 control points on a warped map and moving every point through it
+            new Benchmark("refitControlPoints")
+            {
+                List<ControlPoint> points = new ArrayList<ControlPoint>();
+                double[] lats, lons, movedLats, movedLons;
+
+                protected void setUp(int size)
+                {
+                    Random random = new Random(size);
+                    for (int i = 0; i < 40; i++)
+                    {
+                        double lat = 45 + random.nextDouble();
+                        double lon = 7 + random.nextDouble();
+                        this.points.add(new ControlPoint(lat, lon, lat + 0.002 * Math.sin(lon * 6),
+                            lon + 0.003 * Math.cos(lat * 5)));
+                    }
+
+                    this.lats = new double[size];
+                    this.lons = new double[size];
+                    for (int i = 0; i < size; i++)
+                    {
+                        this.lats[i] = 45 + random.nextDouble();
+                        this.lons[i] = 7 + random.nextDouble();
+                    }
+                }
+
+                protected void prepare()
+                {
+                    this.movedLats = this.lats.clone();
+                    this.movedLons = this.lons.clone();
+                }
+
+                protected Object run()
+                {
+                    ControlPointTransform transform = ControlPointTransform.fit(
+                        ControlPointTransform.Type.THIN_PLATE_SPLINE, this.points);
+                    transform.transformAll(this.movedLats, this.movedLons,
+                        Runtime.getRuntime().availableProcessors());
+                    return this.movedLats;
+                }
+
+                protected void tearDown()
+                {
+                    this.points.clear();
+                }
+            });
+    }
+
+    /**
+     * Writes a BIL file and its header covering one degree square north-east of 45N 7E with a number of samples along
+     * each side, holding a gentle synthetic surface.
+     */
+    protected static File generateElevationFile(int samples) throws IOException
+    {
+        File file = File.createTempFile("kml-benchmark-", ".bil");
+        file.deleteOnExit();
+        File header = new File(file.getPath().replace(".bil", ".hdr"));
+        header.deleteOnExit();
+
+        double spacing = 1d / (samples - 1);
+        try (PrintStream out = new PrintStream(new FileOutputStream(header), false, "US-ASCII"))
+        {
+            out.println("BYTEORDER I");
+            out.println("NROWS " + samples);
+            out.println("NCOLS " + samples);
+            out.println("NBITS 16");
+            out.println("ULXMAP 7");
+            out.println("ULYMAP 46");
+            out.println("XDIM " + spacing);
+            out.println("YDIM " + spacing);
+            out.println("NODATA -9999");
+        }
+
+        ByteBuffer row = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            for (int r = 0; r < samples; r++)
+            {
+                row.clear();
+                for (int c = 0; c < samples; c++)
+                {
+                    row.putShort((short) (1000 + 500 * Math.sin(r * 0.01) * Math.cos(c * 0.01)));
+                }
+                out.write(row.array());
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Builds a layer list of a number of layers, ending with place names, the compass and the world map as World
+     * Wind's default model does.
+     */
+    protected static LayerList generateLayers(int size)
+    {
+        ArrayList<Layer> layers = new ArrayList<Layer>(size);
+        for (int i = 0; i < size - 3; i++)
+        {
+            layers.add(new RenderableLayer());
+        }
+        layers.add(new PlaceNameLayer());
+        layers.add(new CompassLayer());
+        layers.add(new WorldMapLayer());
+
+        LayerList layerList = new LayerList();
+        layerList.addAll(layers);
+        return layerList;
+    }
+
+    protected static DigitizingSession generateSession(int size)
+    {
+        Random random = new Random(size);
+        DigitizingSession session = new DigitizingSession();
+        for (int i = 0; i < size; i++)
+        {
+            session.addPoint(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, 0);
+        }
+        return session;
+    }
+
+    protected static PlacemarkStore generateStore(int size)
+    {
+        Random random = new Random(size);
+        PlacemarkStore store = new PlacemarkStore();
+        for (int i = 0; i < size; i++)
+        {
+            store.add(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, 0, PREFIX, i + 1,
+                PlacemarkStore.SESSION_SOURCE);
+        }
+        return store;
+    }
+
+    /**
+     * Writes a KML document of numbered points to a temporary file.
+     */
+    protected static File generateDocument(int size) throws IOException
+    {
+        File file = File.createTempFile("kml-benchmark-", ".kml");
+        file.deleteOnExit();
+
+        PlacemarkStore store = generateStore(size);
+        try (KMLPlacemarkWriter writer = new KMLPlacemarkWriter(new FileOutputStream(file), true))
+        {
+            writer.startDocument(KMLPlacemarkWriter.EXPORT_DOCUMENT_NAME, KMLPlacemarkWriter.EXPORT_FOLDER_NAME);
+            for (int id = 0; id < store.size(); id++)
+            {
+                writer.writePlacemark(store.getLabel(id), store.getLongitude(id), store.getLatitude(id), 0);
+            }
+            writer.endDocument();
+        }
+        return file;
+    }
+
+    /**
+     * Writes results in the layout of JMH's JSON result format.
+     */
+    protected void writeJSON(PrintStream out, Iterable<Result> results)
+    {
+        String jvm = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        out.println("[");
+        boolean first = true;
+        for (Result result : results)
+        {
+            if (!first)
+                out.println(",");
+            first = false;
+
+            out.println("    {");
+            out.println("        \"benchmark\" : \"KMLBenchmark." + result.benchmark + "\",");
+            out.println("        \"mode\" : \"avgt\",");
+            out.println("        \"threads\" : 1,");
+            out.println("        \"forks\" : 1,");
+            out.println("        \"jvm\" : " + quote(jvm) + ",");
+            out.println("        \"jdkVersion\" : " + quote(System.getProperty("java.version")) + ",");
+            out.println("        \"warmupIterations\" : " + this.warmupIterations + ",");
+            out.println("        \"measurementIterations\" : " + result.scores.length + ",");
+            out.println("        \"params\" : {");
+            out.println("            \"size\" : \"" + result.size + "\"");
+            out.println("        },");
+            out.println("        \"primaryMetric\" : {");
+            out.println("            \"score\" : " + number(result.mean()) + ",");
+            out.println("            \"scoreError\" : " + number(result.error()) + ",");
+            out.println("            \"scoreUnit\" : \"ms/op\",");
+            StringBuilder raw = new StringBuilder();
+            for (double score : result.scores)
+            {
+                raw.append(raw.length() == 0 ? "" : ", ").append(number(score));
+            }
+            out.println("            \"rawData\" : [ [ " + raw + " ] ]");
+            out.println("        }");
+            out.print("    }");
+        }
+        out.println();
+        out.println("]");
+    }
+
+    private static double studentT999(int degreesOfFreedom)
+    {
+        return degreesOfFreedom <= T_999.length ? T_999[degreesOfFreedom - 1] : 3.29 + 9.0 / degreesOfFreedom;
+    }
+
+    private static String number(double value)
+    {
+        return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static String quote(String text)
+    {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Discards everything written to it, so exports are measured without the disk.
+     */
+    protected static class NullOutputStream extends OutputStream
+    {
+        @Override
+        public void write(int b)
+        {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Exports placemarks as a KML document through a {@link KMLPlacemarkWriter}, in the layout the viewer has always
+ * exported.
+ */
+public class KMLExporter implements PlacemarkExporter
+{
+    public String getName()
+    {
+        return "KML";
+    }
+
+    public String[] getFileExtensions()
+    {
+        return new String[] {"kml"};
+    }
+
+    public Output open(OutputStream out, long placemarkCount, boolean absoluteAltitudes) throws IOException
+    {
+        return new KMLOutput(out, absoluteAltitudes);
+    }
+
+    protected static class KMLOutput implements Output
+    {
+        protected final KMLPlacemarkWriter writer;
+
+        public KMLOutput(OutputStream out, boolean absoluteAltitudes)
+        {
+            this.writer = new KMLPlacemarkWriter(out, true);
+            if (absoluteAltitudes)
+                this.writer.setAltitudeMode("absolute");
+        }
+
+        public void start() throws IOException
+        {
+            this.writer.startDocument(KMLPlacemarkWriter.EXPORT_DOCUMENT_NAME, KMLPlacemarkWriter.EXPORT_FOLDER_NAME);
+        }
+
+        public void write(String name, double longitude, double latitude, double altitude) throws IOException
+        {
+            this.writer.writePlacemark(name, longitude, latitude, altitude);
+        }
+
+        public void end() throws IOException
+        {
+            this.writer.endDocument();
+        }
+
+        public void close() throws IOException
+        {
+            this.writer.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Frame;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.Timer;
+
+/**
+ * A non-modal window listing the jobs of a {@link KMLImportScheduler} with their state and the points each has read so
+ * far, and letting the user cancel them. The list is refreshed on a timer rather than on every state change, so a
+ * large batch does not flood the EDT. The window hides itself once every job has finished, unless one of them failed.
+ */
+public class KMLImportDialog extends JDialog
+{
+    private static final long serialVersionUID = -6170263904182276950L;
+
+    protected static final int REFRESH_MILLIS = 250;
+
+    protected final KMLImportScheduler scheduler;
+    protected final DefaultListModel<KMLImportScheduler.Job> listModel = new DefaultListModel<>();
+    protected final JList<KMLImportScheduler.Job> jobList = new JList<>(this.listModel);
+    protected final JProgressBar progressBar = new JProgressBar();
+    protected final Timer refreshTimer;
+    // duplicates merged before these imports, so only theirs are shown
+    protected long mergedAtStart;
+
+    public KMLImportDialog(Frame owner, final KMLImportScheduler scheduler)
+    {
+        super(owner, "Importing KML", false);
+        this.scheduler = scheduler;
+
+        this.progressBar.setStringPainted(true);
+
+        JButton cancelSelected = new JButton("Cancel Selected");
+        cancelSelected.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                for (KMLImportScheduler.Job job : jobList.getSelectedValuesList())
+                {
+                    scheduler.cancel(job);
+                }
+                refresh();
+            }
+        });
+
+        JButton cancelAll = new JButton("Cancel All");
+        cancelAll.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                scheduler.cancelAll();
+                refresh();
+            }
+        });
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(cancelSelected);
+        buttons.add(cancelAll);
+
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(9, 9, 9, 9));
+        content.add(this.progressBar, BorderLayout.NORTH);
+        content.add(new JScrollPane(this.jobList), BorderLayout.CENTER);
+        content.add(buttons, BorderLayout.SOUTH);
+        this.setContentPane(content);
+        this.setPreferredSize(new Dimension(450, 300));
+        this.pack();
+        this.setLocationRelativeTo(owner);
+
+        this.refreshTimer = new Timer(REFRESH_MILLIS, new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                refresh();
+            }
+        });
+    }
+
+    /**
+     * Shows the window and starts following the scheduler's jobs.
+     */
+    public void showProgress()
+    {
+        if (!this.refreshTimer.isRunning())
+            this.mergedAtStart = Globe.getMergedCount();
+        this.setTitle("Importing KML");
+        this.refresh();
+        this.setVisible(true);
+        this.refreshTimer.start();
+    }
+
+    protected void refresh()
+    {
+        List<KMLImportScheduler.Job> jobs = this.scheduler.getJobs();
+
+        int finished = 0;
+        long points = 0;
+        boolean failed = false;
+        for (KMLImportScheduler.Job job : jobs)
+        {
+            if (job.isFinished())
+                finished++;
+            if (job.getState() != KMLImportScheduler.State.CANCELLED)
+                points += job.getPointsRead();
+            if (job.getState() == KMLImportScheduler.State.FAILED)
+                failed = true;
+        }
+
+        int[] selection = this.jobList.getSelectedIndices();
+        this.listModel.clear();
+        for (KMLImportScheduler.Job job : jobs)
+        {
+            this.listModel.addElement(job);
+        }
+        this.jobList.setSelectedIndices(selection);
+
+        this.progressBar.setMaximum(Math.max(1, jobs.size()));
+        this.progressBar.setValue(finished);
+        long merged = Globe.getMergedCount() - this.mergedAtStart;
+        this.progressBar.setString(finished + " of " + jobs.size() + " files, " + points + " points"
+            + (merged > 0 ? ", " + merged + " duplicate placemarks merged" : ""));
+
+        if (finished < jobs.size())
+            return;
+
+        this.refreshTimer.stop();
+        this.scheduler.clearFinished();
+        if (failed)
+            this.setTitle("Import finished with errors");
+        else
+            this.setVisible(false);
+    }
+}
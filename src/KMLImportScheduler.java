@@ -0,0 +1,429 @@
+import gov.nasa.worldwind.util.Logging;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Loads KML sources into a {@link KMLViewer.AppFrame} on a fixed number of threads.
+ * <p/>
+ * Each source becomes a {@link Job} that can be watched and cancelled. Loaded content is not posted to the EDT one
+ * document at a time; it goes into a bounded hand-off queue that the EDT drains in batches. When the EDT falls behind
+ * the queue fills up and the loading threads wait, so no more than the thread count plus the queue capacity of loaded
+ * documents are ever held in memory at once.
+ * <p/>
+ * Cancelling a job drops whatever it has queued for the EDT, and takes what it already added, its layer and its points,
+ * back off the globe and out of the store, so a cancelled import is neither shown nor exported.
+ * <p/>
+ * The thread count defaults to the number of processors and can be set with the
+ * <code>kmlviewer.import.parallelism</code> system property. The hand-off queue capacity defaults to twice the thread
+ * count and can be set with <code>kmlviewer.import.queueSize</code>.
+ */
+public class KMLImportScheduler
+{
+    /** The states a {@link Job} passes through. */
+    public enum State
+    {
+        QUEUED, LOADING, DONE, FAILED, CANCELLED
+    }
+
+    /**
+     * One KML source submitted to the scheduler.
+     */
+    public static class Job
+    {
+        protected final Object source;
+        protected final String name;
+        protected volatile State state = State.QUEUED;
+        protected volatile Throwable error;
+        protected volatile Future<?> future;
+        protected volatile KMLViewer.WorkerThread worker;
+
+        protected Job(Object source)
+        {
+            this.source = source;
+            this.name = displayName(source);
+        }
+
+        public Object getSource()
+        {
+            return this.source;
+        }
+
+        public String getName()
+        {
+            return this.name;
+        }
+
+        public State getState()
+        {
+            return this.state;
+        }
+
+        /**
+         * Returns the reason the job failed.
+         *
+         * @return the failure, or null if the job has not failed.
+         */
+        public Throwable getError()
+        {
+            return this.error;
+        }
+
+        /**
+         * Returns the number of point placemarks read so far.
+         *
+         * @return the number of points, 0 before loading starts.
+         */
+        public int getPointsRead()
+        {
+            KMLViewer.WorkerThread worker = this.worker;
+            return worker != null ? worker.getPointsRead() : 0;
+        }
+
+        public boolean isFinished()
+        {
+            return this.state == State.DONE || this.state == State.FAILED || this.state == State.CANCELLED;
+        }
+
+        @Override
+        public String toString()
+        {
+            String text = this.name + " - " + this.state.name().toLowerCase();
+            int points = this.getPointsRead();
+            if (points > 0 && this.state != State.CANCELLED)
+                text += ", " + points + " points";
+            return this.error != null ? text + " (" + this.error.getMessage() + ")" : text;
+        }
+    }
+
+    /**
+     * A task for the EDT and the job it belongs to.
+     */
+    protected static class HandOff
+    {
+        protected final Job job;
+        protected final Runnable command;
+
+        protected HandOff(Job job, Runnable command)
+        {
+            this.job = job;
+            this.command = command;
+        }
+    }
+
+    protected final KMLViewer.AppFrame appFrame;
+    protected final ExecutorService executor;
+    protected final BlockingQueue<HandOff> handOffQueue;
+    protected final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    protected final List<Job> jobs = new CopyOnWriteArrayList<Job>();
+
+    /**
+     * Creates a scheduler configured from the system properties described above.
+     *
+     * @param appFrame the frame loaded content is added to.
+     */
+    public KMLImportScheduler(KMLViewer.AppFrame appFrame)
+    {
+        this(appFrame, Integer.getInteger("kmlviewer.import.parallelism",
+            Runtime.getRuntime().availableProcessors()), Integer.getInteger("kmlviewer.import.queueSize", 0));
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param appFrame    the frame loaded content is added to.
+     * @param parallelism the number of sources loaded at once.
+     * @param queueSize   the number of loaded documents or point batches that may wait for the EDT, or 0 or less for
+     *                    twice the parallelism.
+     */
+    public KMLImportScheduler(KMLViewer.AppFrame appFrame, int parallelism, int queueSize)
+    {
+        final int threads = Math.max(1, parallelism);
+
+        this.appFrame = appFrame;
+        this.handOffQueue = new ArrayBlockingQueue<HandOff>(queueSize > 0 ? queueSize : threads * 2);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "KML import " + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues KML sources for loading.
+     *
+     * @param sources the sources to load. Each may be a {@link File}, a {@link URL}, or a {@link String} identifying a
+     *                file path or URL.
+     *
+     * @return a job for each source, in the same order.
+     */
+    public List<Job> submit(Collection<?> sources)
+    {
+        List<Job> submitted = new ArrayList<Job>(sources.size());
+        for (Object source : sources)
+        {
+            final Job job = new Job(source);
+            this.jobs.add(job);
+            submitted.add(job);
+
+            job.future = this.executor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    load(job);
+                }
+            });
+        }
+
+        return submitted;
+    }
+
+    /**
+     * Cancels a job. A queued job never starts; a loading job stops handing content to the frame, the content it
+     * already queued for the EDT is dropped, and its layer and points are removed on the EDT.
+     *
+     * @param job the job to cancel.
+     */
+    public void cancel(final Job job)
+    {
+        synchronized (job)
+        {
+            if (job.isFinished())
+                return;
+            job.state = State.CANCELLED;
+        }
+
+        if (job.future != null)
+            job.future.cancel(true);
+
+        final KMLViewer.WorkerThread worker = job.worker;
+        if (worker == null)
+            return;
+
+        // after any drain already under way, so nothing the job added is missed
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                int source = worker.getPlacemarkSource();
+                if (source >= 0)
+                    appFrame.removeImport(source);
+            }
+        });
+    }
+
+    /**
+     * Cancels every job that has not finished.
+     */
+    public void cancelAll()
+    {
+        for (Job job : this.jobs)
+        {
+            this.cancel(job);
+        }
+    }
+
+    /**
+     * Returns the jobs submitted since the last call to {@link #clearFinished()}.
+     *
+     * @return the jobs in submission order.
+     */
+    public List<Job> getJobs()
+    {
+        return new ArrayList<Job>(this.jobs);
+    }
+
+    /**
+     * Forgets the jobs that have finished.
+     */
+    public void clearFinished()
+    {
+        for (Job job : this.jobs)
+        {
+            if (job.isFinished())
+                this.jobs.remove(job);
+        }
+    }
+
+    /**
+     * Cancels all jobs and stops the loading threads.
+     */
+    public void shutdown()
+    {
+        this.cancelAll();
+        this.executor.shutdownNow();
+    }
+
+    protected void load(final Job job)
+    {
+        KMLViewer.WorkerThread worker = new KMLViewer.WorkerThread(job.source, this.appFrame, new Executor()
+        {
+            public void execute(Runnable command)
+            {
+                handOff(job, command);
+            }
+        });
+
+        synchronized (job)
+        {
+            if (job.state == State.CANCELLED)
+                return;
+            job.state = State.LOADING;
+            job.worker = worker;
+        }
+
+        try
+        {
+            worker.load();
+
+            synchronized (job)
+            {
+                if (job.state == State.LOADING)
+                    job.state = State.DONE;
+            }
+        }
+        catch (CancellationException e)
+        {
+            job.state = State.CANCELLED;
+        }
+        catch (Exception e)
+        {
+            if (job.state == State.CANCELLED)
+                return;
+
+            job.error = e;
+            job.state = State.FAILED;
+            ViewerMetrics.get().importFailed(job.name, e);
+            Logging.logger().warning("Unable to import " + job.name + ": " + e);
+        }
+    }
+
+    /**
+     * Puts a task for the EDT into the hand-off queue, waiting while the queue is full.
+     *
+     * @param job     the job the task belongs to.
+     * @param command the task.
+     *
+     * @throws CancellationException if the job is cancelled while waiting.
+     */
+    protected void handOff(Job job, Runnable command)
+    {
+        if (job.state == State.CANCELLED)
+        {
+            discard(command);
+            throw new CancellationException();
+        }
+
+        try
+        {
+            this.handOffQueue.put(new HandOff(job, command));
+        }
+        catch (InterruptedException e)
+        {
+            discard(command);
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+
+        if (this.drainScheduled.compareAndSet(false, true))
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    drain();
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs everything waiting in the hand-off queue on the EDT, then redraws once. The tasks of cancelled jobs are
+     * discarded.
+     */
+    protected void drain()
+    {
+        this.drainScheduled.set(false);
+
+        List<HandOff> batch = new ArrayList<HandOff>();
+        this.handOffQueue.drainTo(batch);
+
+        // Redraws the commands ask for are held back and made once the batch is done
+        RedrawScheduler redrawScheduler = RedrawScheduler.of(this.appFrame.getWwd());
+        redrawScheduler.suspend();
+        try
+        {
+            for (HandOff handOff : batch)
+            {
+                if (handOff.job.state == State.CANCELLED)
+                {
+                    discard(handOff.command);
+                    continue;
+                }
+
+                try
+                {
+                    handOff.command.run();
+                }
+                catch (Exception e)
+                {
+                    Logging.logger().log(Level.WARNING, "Unable to add imported content", e);
+                }
+            }
+        }
+        finally
+        {
+            redrawScheduler.resume();
+        }
+
+        if (!batch.isEmpty())
+            redrawScheduler.requestRedraw();
+    }
+
+    /**
+     * Lets go of a task that will never run, so any placemarks it was to add stop being checked for duplicates.
+     */
+    protected static void discard(Runnable command)
+    {
+        if (command instanceof KMLViewer.PointsHandOff)
+            ((KMLViewer.PointsHandOff) command).discard();
+    }
+
+    protected static String displayName(Object source)
+    {
+        if (source instanceof File)
+            return ((File) source).getName();
+
+        if (source instanceof URL)
+            return ((URL) source).getPath();
+
+        return String.valueOf(source);
+    }
+}
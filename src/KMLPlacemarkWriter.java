@@ -0,0 +1,243 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes point placemarks to a KML document in a single streaming pass.
+ * <p/>
+ * Each placemark is written straight to a buffered stream as it is handed in, so memory use stays constant no matter
+ * how many placemarks are exported. Indentation is produced while writing, which avoids building the document as a
+ * string and re-parsing it just to pretty-print it.
+ * <p/>
+ * Usage is <code>startDocument</code>, any number of <code>writePlacemark</code> calls, then
+ * <code>endDocument</code> and <code>close</code>.
+ */
+public class KMLPlacemarkWriter implements Closeable
+{
+    public static final String KML_NAMESPACE = "http://www.opengis.net/kml/2.2";
+
+    /** The Document name of exported placemarks, shared by the viewer's export and the batch tool. */
+    public static final String EXPORT_DOCUMENT_NAME = "Placemarks";
+    /** The Folder name of exported placemarks. */
+    public static final String EXPORT_FOLDER_NAME = "Annotations";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String INDENT = "    ";
+    private static final String[] INDENTS = new String[8];
+
+    static
+    {
+        INDENTS[0] = "";
+        for (int i = 1; i < INDENTS.length; i++)
+            INDENTS[i] = INDENTS[i - 1] + INDENT;
+    }
+
+    private final Writer writer;
+    private final boolean prettyPrint;
+    private String altitudeMode;
+
+    private long placemarkCount = 0;
+    private long startTime;
+    private long endTime;
+
+    /**
+     * Creates a writer that encodes the document as UTF-8 to the given stream.
+     *
+     * @param out         the stream to write to. It is closed when this writer is closed.
+     * @param prettyPrint true to put every element on its own indented line, false for the most compact output.
+     */
+    public KMLPlacemarkWriter(OutputStream out, boolean prettyPrint)
+    {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        this.prettyPrint = prettyPrint;
+    }
+
+    /**
+     * Sets the altitudeMode written with every point. Without one, KML viewers clamp the points to the ground and
+     * ignore their altitudes.
+     *
+     * @param altitudeMode the altitude mode, such as <code>absolute</code>, or null to write none.
+     */
+    public void setAltitudeMode(String altitudeMode)
+    {
+        this.altitudeMode = altitudeMode;
+    }
+
+    /**
+     * Writes the XML declaration and opens the kml, Document and Folder elements.
+     *
+     * @param documentName the name of the Document element.
+     * @param folderName   the name of the Folder holding the placemarks.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    public void startDocument(String documentName, String folderName) throws IOException
+    {
+        this.startTime = System.nanoTime();
+
+        this.writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        this.newLine(0);
+        this.writer.write("<kml xmlns=\"" + KML_NAMESPACE + "\">");
+        this.newLine(1);
+        this.writer.write("<Document>");
+        this.newLine(2);
+        this.writeName(documentName);
+        this.newLine(2);
+        this.writer.write("<Folder>");
+        this.newLine(3);
+        this.writeName(folderName);
+    }
+
+    /**
+     * Writes one point placemark.
+     *
+     * @param name      the placemark name, or null to leave it unnamed.
+     * @param longitude the longitude in degrees.
+     * @param latitude  the latitude in degrees.
+     * @param altitude  the altitude in meters.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    public void writePlacemark(String name, double longitude, double latitude, double altitude) throws IOException
+    {
+        this.newLine(3);
+        this.writer.write("<Placemark>");
+        if (name != null)
+        {
+            this.newLine(4);
+            this.writeName(name);
+        }
+        this.newLine(4);
+        this.writer.write("<Point>");
+        if (this.altitudeMode != null)
+        {
+            this.newLine(5);
+            this.writer.write("<altitudeMode>");
+            this.writer.write(this.altitudeMode);
+            this.writer.write("</altitudeMode>");
+        }
+        this.newLine(5);
+        this.writer.write("<coordinates>");
+        this.writer.write(Double.toString(longitude));
+        this.writer.write(',');
+        this.writer.write(Double.toString(latitude));
+        this.writer.write(',');
+        this.writer.write(Double.toString(altitude));
+        this.writer.write("</coordinates>");
+        this.newLine(4);
+        this.writer.write("</Point>");
+        this.newLine(3);
+        this.writer.write("</Placemark>");
+
+        this.placemarkCount++;
+    }
+
+    /**
+     * Closes the Folder, Document and kml elements and flushes the stream.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    public void endDocument() throws IOException
+    {
+        this.newLine(2);
+        this.writer.write("</Folder>");
+        this.newLine(1);
+        this.writer.write("</Document>");
+        this.newLine(0);
+        this.writer.write("</kml>");
+        this.newLine(0);
+        this.writer.flush();
+
+        this.endTime = System.nanoTime();
+    }
+
+    public void close() throws IOException
+    {
+        this.writer.close();
+    }
+
+    public long getPlacemarkCount()
+    {
+        return this.placemarkCount;
+    }
+
+    /**
+     * Returns the time between <code>startDocument</code> and <code>endDocument</code>.
+     *
+     * @return the elapsed time in nanoseconds, or 0 if the document has not been ended.
+     */
+    public long getElapsedNanos()
+    {
+        return this.endTime > this.startTime ? this.endTime - this.startTime : 0;
+    }
+
+    /**
+     * Returns the export throughput once the document has been ended.
+     *
+     * @return placemarks written per second, or 0 if the document has not been ended.
+     */
+    public double getPlacemarksPerSecond()
+    {
+        long elapsed = this.getElapsedNanos();
+        return elapsed > 0 ? this.placemarkCount * 1e9 / elapsed : 0;
+    }
+
+    private void writeName(String name) throws IOException
+    {
+        this.writer.write("<name>");
+        writeEscaped(this.writer, name);
+        this.writer.write("</name>");
+    }
+
+    private void newLine(int depth) throws IOException
+    {
+        if (!this.prettyPrint)
+            return;
+
+        this.writer.write('\n');
+        this.writer.write(INDENTS[depth]);
+    }
+
+    /**
+     * Writes text content, escaping the characters that are not allowed to appear literally in XML.
+     *
+     * @param writer the writer to write to.
+     * @param text   the text to escape.
+     *
+     * @throws IOException if the writer fails.
+     */
+    static void writeEscaped(Writer writer, String text) throws IOException
+    {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++)
+        {
+            String replacement;
+            switch (text.charAt(i))
+            {
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                default:
+                    continue;
+            }
+
+            writer.write(text, start, i - start);
+            writer.write(replacement);
+            start = i + 1;
+        }
+        writer.write(text, start, text.length() - start);
+    }
+}
@@ -0,0 +1,199 @@
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.ogc.kml.KMLAbstractContainer;
+import gov.nasa.worldwind.ogc.kml.KMLAbstractFeature;
+import gov.nasa.worldwind.ogc.kml.KMLAbstractGeometry;
+import gov.nasa.worldwind.ogc.kml.KMLMultiGeometry;
+import gov.nasa.worldwind.ogc.kml.KMLNetworkLink;
+import gov.nasa.worldwind.ogc.kml.KMLPlacemark;
+import gov.nasa.worldwind.ogc.kml.KMLPoint;
+import gov.nasa.worldwind.ogc.kml.KMLRoot;
+import gov.nasa.worldwind.util.Logging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Collects every KML Point in a parsed KML document into a {@link PlacemarkStore}.
+ * <p/>
+ * The whole feature tree is visited: Documents and Folders at any depth, loaded NetworkLink content, Placemarks and
+ * the Points inside MultiGeometries. Each container is handed to its own fork-join task that fills a private store,
+ * and the stores are only concatenated once the traversal is done, so the result is in document order without any
+ * shared state between tasks.
+ */
+public class KMLPointCollector extends RecursiveTask<List<PlacemarkStore>>
+{
+    private static final long serialVersionUID = 4076530985211963727L;
+
+    /** Sibling features beyond this count are split across tasks. */
+    protected static final int SPLIT_THRESHOLD = 256;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    protected final List<? extends KMLAbstractFeature> features;
+    protected final int start;
+    protected final int end;
+
+    protected KMLPointCollector(List<? extends KMLAbstractFeature> features, int start, int end)
+    {
+        this.features = features;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Collects the points of a parsed KML document.
+     *
+     * @param kmlRoot the document to traverse.
+     *
+     * @return a store holding every point in the document, labeled with its KML placemark name. The points' source is
+     *         {@link PlacemarkStore#SESSION_SOURCE} until they are added to another store.
+     */
+    public static PlacemarkStore collect(KMLRoot kmlRoot)
+    {
+        ViewerEvents.CollectPointsEvent event = new ViewerEvents.CollectPointsEvent();
+        event.begin();
+        long start = System.nanoTime();
+
+        // a document without a root feature has no points, but is still timed and recorded like any other
+        KMLAbstractFeature rootFeature = kmlRoot.getFeature();
+        List<PlacemarkStore> buffers = rootFeature == null ? Collections.<PlacemarkStore>emptyList()
+            : POOL.invoke(new KMLPointCollector(Collections.singletonList(rootFeature), 0, 1));
+        long traversed = System.nanoTime();
+
+        PlacemarkStore points = buffers.size() == 1 ? buffers.get(0) : new PlacemarkStore();
+        for (PlacemarkStore buffer : buffers)
+        {
+            if (buffer != points)
+                points.addAll(buffer, PlacemarkStore.SESSION_SOURCE);
+        }
+        int size = points.count();
+
+        Logging.logger().info(String.format("Collected %d points from %d buffers: traversal %.1f ms, merge %.1f ms",
+            size, buffers.size(), (traversed - start) / 1e6, (System.nanoTime() - traversed) / 1e6));
+
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.placemarks = size;
+            event.commit();
+        }
+
+        return points;
+    }
+
+    @Override
+    protected List<PlacemarkStore> compute()
+    {
+        if (this.end - this.start > SPLIT_THRESHOLD)
+        {
+            int mid = (this.start + this.end) >>> 1;
+            KMLPointCollector left = new KMLPointCollector(this.features, this.start, mid);
+            left.fork();
+            List<PlacemarkStore> right = new KMLPointCollector(this.features, mid, this.end).compute();
+
+            List<PlacemarkStore> buffers = left.join();
+            buffers.addAll(right);
+            return buffers;
+        }
+
+        // Placemarks go in the current buffer. Each container gets a task of its own and starts a new buffer after
+        // it, which keeps document order when the results are concatenated. A buffer still empty at a container is
+        // carried past it rather than replaced, and new ones start with no room, so a document of many folders holding
+        // few points does not pay for a buffer per folder.
+        List<Object> parts = new ArrayList<Object>();
+        PlacemarkStore buffer = new PlacemarkStore(0);
+
+        for (int i = this.start; i < this.end; i++)
+        {
+            KMLAbstractFeature feature = this.features.get(i);
+
+            if (feature instanceof KMLPlacemark)
+            {
+                KMLPlacemark placemark = (KMLPlacemark) feature;
+                addPoints(placemark.getName(), placemark.getGeometry(), buffer);
+                continue;
+            }
+
+            List<? extends KMLAbstractFeature> children = getChildren(feature);
+            if (children == null || children.isEmpty())
+                continue;
+
+            KMLPointCollector task = new KMLPointCollector(children, 0, children.size());
+            task.fork();
+
+            if (buffer.size() > 0)
+            {
+                parts.add(buffer);
+                buffer = new PlacemarkStore(0);
+            }
+            parts.add(task);
+        }
+        parts.add(buffer);
+
+        List<PlacemarkStore> buffers = new ArrayList<PlacemarkStore>();
+        for (Object part : parts)
+        {
+            if (part instanceof KMLPointCollector)
+            {
+                buffers.addAll(((KMLPointCollector) part).join());
+            }
+            else
+            {
+                PlacemarkStore points = (PlacemarkStore) part;
+                if (points.count() > 0)
+                    buffers.add(points);
+            }
+        }
+
+        return buffers;
+    }
+
+    /**
+     * Returns the features contained by a feature, following network links whose content has been loaded.
+     *
+     * @param feature the feature to inspect.
+     *
+     * @return the contained features, or null if the feature holds none.
+     */
+    protected static List<? extends KMLAbstractFeature> getChildren(KMLAbstractFeature feature)
+    {
+        if (feature instanceof KMLAbstractContainer)
+            return ((KMLAbstractContainer) feature).getFeatures();
+
+        if (feature instanceof KMLNetworkLink)
+        {
+            KMLRoot linked = ((KMLNetworkLink) feature).getNetworkResource();
+            if (linked != null && linked.getFeature() != null)
+                return Collections.singletonList(linked.getFeature());
+        }
+
+        return null;
+    }
+
+    protected static void addPoints(String name, KMLAbstractGeometry geometry, PlacemarkStore buffer)
+    {
+        if (geometry instanceof KMLPoint)
+        {
+            Position position = ((KMLPoint) geometry).getCoordinates();
+            if (position != null && isFinite(position.getLatitude().getDegrees())
+                && isFinite(position.getLongitude().getDegrees()))
+                buffer.add(position.getLatitude().getDegrees(), position.getLongitude().getDegrees(),
+                    position.getElevation(), name, PlacemarkStore.SESSION_SOURCE);
+        }
+        else if (geometry instanceof KMLMultiGeometry)
+        {
+            for (KMLAbstractGeometry inner : ((KMLMultiGeometry) geometry).getGeometries())
+            {
+                addPoints(name, inner, buffer);
+            }
+        }
+    }
+
+    private static boolean isFinite(double degrees)
+    {
+        return !Double.isNaN(degrees) && !Double.isInfinite(degrees);
+    }
+}
@@ -0,0 +1,402 @@
+import gov.nasa.worldwind.util.Logging;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Pulls point placemarks out of a KML or KMZ document without building the KML object model.
+ * <p/>
+ * The document is read with a StAX cursor and only <code>Placemark/name</code> and <code>Point/coordinates</code>
+ * are kept, so memory use is bounded by the largest single placemark rather than by the document. Every other
+ * element, including styles, is skipped. Use {@link gov.nasa.worldwind.ogc.kml.KMLRoot} instead when the document
+ * has to be rendered with its styling.
+ * <p/>
+ * A point whose coordinates are not numbers is left out and counted, and the count is logged once the document has
+ * been read, so one bad placemark does not lose the rest of the file.
+ */
+public class KMLPointReader
+{
+    /**
+     * Receives the points found by a {@link KMLPointReader}, in document order.
+     */
+    public interface PointHandler
+    {
+        /**
+         * Called once for each Point geometry. A placemark holding a MultiGeometry produces one call per point.
+         *
+         * @param name      the placemark name, or null if it has none.
+         * @param longitude the longitude in degrees.
+         * @param latitude  the latitude in degrees.
+         * @param altitude  the altitude in meters, 0 if the tuple has none.
+         */
+        void point(String name, double longitude, double latitude, double altitude);
+    }
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static
+    {
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private KMLPointReader()
+    {
+    }
+
+    /**
+     * Reads every point in a KML or KMZ source.
+     *
+     * @param kmlSource the document to read. May be a {@link File}, a {@link URL}, an {@link InputStream}, or a
+     *                  {@link String} identifying a file path or URL. KMZ archives are recognized by content.
+     * @param handler   receives each point.
+     *
+     * @return the number of points read.
+     *
+     * @throws IOException        if the source cannot be read.
+     * @throws XMLStreamException if the document is not well formed.
+     */
+    public static long read(Object kmlSource, PointHandler handler) throws IOException, XMLStreamException
+    {
+        InputStream in = openSource(kmlSource);
+        try
+        {
+            return read(in, handler);
+        }
+        finally
+        {
+            if (!(kmlSource instanceof InputStream))
+                in.close();
+        }
+    }
+
+    /**
+     * Reads every point in a KML or KMZ stream. The stream is not closed.
+     *
+     * @param in      the stream to read.
+     * @param handler receives each point.
+     *
+     * @return the number of points read.
+     *
+     * @throws IOException        if the stream cannot be read.
+     * @throws XMLStreamException if the document is not well formed.
+     */
+    public static long read(InputStream in, PointHandler handler) throws IOException, XMLStreamException
+    {
+        InputStream kml = openKMZEntry(in.markSupported() ? in : new BufferedInputStream(in));
+
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(kml);
+        try
+        {
+            return read(reader, handler);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private static long read(XMLStreamReader reader, PointHandler handler) throws XMLStreamException
+    {
+        long count = 0;
+        long skipped = 0;
+        String firstSkipped = null;
+        int depth = 0;
+        int placemarkDepth = -1; // depth of the open Placemark element, -1 outside one
+        boolean inPoint = false;
+        boolean capture = false;
+
+        String name = null;
+        StringBuilder text = new StringBuilder();
+        double[] tuple = new double[3];
+        // Points seen in the current placemark. The name may follow the geometry, so they wait for the end tag.
+        double[] pending = new double[3];
+        int numPending = 0;
+
+        while (reader.hasNext())
+        {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+            {
+                depth++;
+                String element = reader.getLocalName();
+                if (placemarkDepth < 0)
+                {
+                    if ("Placemark".equals(element))
+                    {
+                        placemarkDepth = depth;
+                        name = null;
+                        numPending = 0;
+                    }
+                }
+                else if ("Point".equals(element))
+                {
+                    inPoint = true;
+                }
+                else if ((inPoint && "coordinates".equals(element))
+                    || (depth == placemarkDepth + 1 && "name".equals(element)))
+                {
+                    capture = true;
+                    text.setLength(0);
+                }
+            }
+            else if (capture && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                || event == XMLStreamConstants.SPACE))
+            {
+                text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                String element = reader.getLocalName();
+                if (capture)
+                {
+                    capture = false;
+                    if ("name".equals(element))
+                    {
+                        name = text.toString().trim();
+                    }
+                    else if (parseCoordinates(text, 0, text.length(), tuple) >= 2)
+                    {
+                        if (numPending * 3 == pending.length)
+                            pending = Arrays.copyOf(pending, pending.length * 2);
+                        System.arraycopy(tuple, 0, pending, numPending * 3, 3);
+                        numPending++;
+                    }
+                    else
+                    {
+                        // one bad point is left out rather than failing the document
+                        if (skipped++ == 0)
+                            firstSkipped = text.toString().trim();
+                    }
+                }
+                else if ("Point".equals(element))
+                {
+                    inPoint = false;
+                }
+                else if (depth == placemarkDepth)
+                {
+                    for (int i = 0; i < numPending; i++)
+                    {
+                        handler.point(name, pending[i * 3], pending[i * 3 + 1], pending[i * 3 + 2]);
+                    }
+                    count += numPending;
+                    placemarkDepth = -1;
+                    inPoint = false;
+                }
+                depth--;
+            }
+        }
+
+        if (skipped > 0)
+        {
+            if (firstSkipped.length() > 80)
+                firstSkipped = firstSkipped.substring(0, 80) + "...";
+            Logging.logger().warning(String.format(
+                "Skipped %d points whose coordinates could not be read, the first \"%s\"", skipped, firstSkipped));
+        }
+
+        return count;
+    }
+
+    /**
+     * Parses the first coordinate tuple of a KML <code>coordinates</code> string, <code>lon,lat[,alt]</code>.
+     * Surrounding whitespace is ignored, as is whitespace next to the commas, which hand-edited files often have, and
+     * any further tuples are not read.
+     *
+     * @param s     the characters to parse.
+     * @param start the index of the first character.
+     * @param end   the index after the last character.
+     * @param out   receives longitude, latitude and altitude. The altitude is set to 0 when it is absent.
+     *
+     * @return the number of components parsed: 0 if no tuple was found or a component is not a finite number,
+     *         otherwise 2 or 3.
+     */
+    public static int parseCoordinates(CharSequence s, int start, int end, double[] out)
+    {
+        int i = skipWhitespace(s, start, end);
+
+        out[2] = 0;
+        int n = 0;
+        while (n < 3 && i < end)
+        {
+            int tokenEnd = i;
+            char c;
+            while (tokenEnd < end && (c = s.charAt(tokenEnd)) != ',' && !Character.isWhitespace(c))
+                tokenEnd++;
+
+            if (tokenEnd == i)
+                break;
+
+            try
+            {
+                out[n] = parseDouble(s, i, tokenEnd);
+            }
+            catch (NumberFormatException e)
+            {
+                return 0;
+            }
+            // NaN and Infinity parse, but are no place to put a point
+            if (Double.isNaN(out[n]) || Double.isInfinite(out[n]))
+                return 0;
+            n++;
+
+            // a comma, possibly with whitespace around it, continues the tuple; anything else ends it
+            int next = skipWhitespace(s, tokenEnd, end);
+            if (next >= end || s.charAt(next) != ',')
+                break;
+            i = skipWhitespace(s, next + 1, end);
+        }
+
+        return n >= 2 ? n : 0;
+    }
+
+    private static int skipWhitespace(CharSequence s, int i, int end)
+    {
+        while (i < end && Character.isWhitespace(s.charAt(i)))
+            i++;
+        return i;
+    }
+
+    /**
+     * Parses a decimal number. Values whose digits fit in a long and whose decimal exponent is small are computed
+     * exactly from a single multiplication or division; anything else is handed to {@link Double#parseDouble}.
+     *
+     * @param s     the characters to parse.
+     * @param start the index of the first character.
+     * @param end   the index after the last character.
+     *
+     * @return the parsed value.
+     *
+     * @throws NumberFormatException if the characters are not a number.
+     */
+    static double parseDouble(CharSequence s, int start, int end)
+    {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+            negative = s.charAt(i++) == '-';
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < end; i++)
+        {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9')
+            {
+                seenDigit = true;
+                if (mantissa == 0 && c == '0')
+                {
+                    if (seenPoint)
+                        scale++;
+                    continue;
+                }
+                if (++digits > 18)
+                    return Double.parseDouble(s.subSequence(start, end).toString());
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenPoint)
+                    scale++;
+            }
+            else if (c == '.' && !seenPoint)
+            {
+                seenPoint = true;
+            }
+            else
+            {
+                // Exponents and anything unusual take the slow path.
+                return Double.parseDouble(s.subSequence(start, end).toString());
+            }
+        }
+
+        if (!seenDigit)
+            throw new NumberFormatException(s.subSequence(start, end).toString());
+
+        double value;
+        if (mantissa == 0)
+            value = 0;
+        else if (mantissa < (1L << 53) && scale < POWERS_OF_TEN.length)
+            value = mantissa / POWERS_OF_TEN[scale];
+        else
+            return Double.parseDouble(s.subSequence(start, end).toString());
+
+        return negative ? -value : value;
+    }
+
+    private static InputStream openSource(Object kmlSource) throws IOException
+    {
+        if (kmlSource instanceof InputStream)
+            return (InputStream) kmlSource;
+
+        if (kmlSource instanceof File)
+            return new BufferedInputStream(new FileInputStream((File) kmlSource));
+
+        if (kmlSource instanceof URL)
+            return new BufferedInputStream(((URL) kmlSource).openStream());
+
+        if (kmlSource instanceof String)
+        {
+            File file = new File((String) kmlSource);
+            if (file.exists())
+                return new BufferedInputStream(new FileInputStream(file));
+
+            try
+            {
+                return new BufferedInputStream(new URL((String) kmlSource).openStream());
+            }
+            catch (MalformedURLException e)
+            {
+                throw new IOException("Cannot open KML source " + kmlSource, e);
+            }
+        }
+
+        throw new IllegalArgumentException("Unsupported KML source " + kmlSource);
+    }
+
+    /**
+     * Positions a KMZ archive on its first KML entry. Streams that are not zip archives are returned as is.
+     */
+    private static InputStream openKMZEntry(InputStream in) throws IOException
+    {
+        in.mark(4);
+        int b0 = in.read(), b1 = in.read(), b2 = in.read(), b3 = in.read();
+        in.reset();
+
+        if (b0 != 'P' || b1 != 'K' || b2 != 3 || b3 != 4)
+            return in;
+
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null)
+        {
+            if (!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".kml"))
+                return zip;
+        }
+
+        throw new IOException("KMZ archive contains no KML document");
+    }
+}
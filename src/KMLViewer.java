@@ -8,22 +8,21 @@ import gov.nasa.worldwind.WorldWind;
 import gov.nasa.worldwind.WorldWindow;
 import gov.nasa.worldwind.avlist.AVKey;
 import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.layers.Layer;
+import gov.nasa.worldwind.layers.LayerList;
 import gov.nasa.worldwind.layers.RenderableLayer;
+import gov.nasa.worldwind.layers.TiledImageLayer;
 import gov.nasa.worldwind.ogc.kml.KMLAbstractFeature;
-import gov.nasa.worldwind.ogc.kml.KMLAbstractGeometry;
-import gov.nasa.worldwind.ogc.kml.KMLDocument;
-import gov.nasa.worldwind.ogc.kml.KMLFolder;
-import gov.nasa.worldwind.ogc.kml.KMLPlacemark;
-import gov.nasa.worldwind.ogc.kml.KMLPoint;
 import gov.nasa.worldwind.ogc.kml.KMLRoot;
 import gov.nasa.worldwind.ogc.kml.impl.KMLController;
 import gov.nasa.worldwind.render.Offset;
-import gov.nasa.worldwind.render.PointPlacemark;
 import gov.nasa.worldwind.retrieve.RetrievalService;
+import gov.nasa.worldwind.util.Logging;
 import gov.nasa.worldwind.util.WWIO;
 import gov.nasa.worldwind.util.WWUtil;
 import gov.nasa.worldwind.util.layertree.KMLLayerTreeNode;
 import gov.nasa.worldwind.util.layertree.KMLNetworkLinkTreeNode;
+import gov.nasa.worldwind.util.layertree.LayerTreeNode;
 import gov.nasa.worldwind.util.layertree.LayerTree;
 import gov.nasa.worldwindx.examples.ApplicationTemplate;
 import gov.nasa.worldwindx.examples.kml.KMLApplicationController;
@@ -43,18 +42,25 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
@@ -108,16 +114,43 @@ public class KMLViewer extends ApplicationTemplate {
 
 		private int layerCount = 0;
 
-		private static ArrayList<String> names = new ArrayList<>();
+		// the layers of imported documents, for changing them all at once
+		private static final ImportedLayerRegistry importedLayers = new ImportedLayerRegistry();
+
+		// when set, imports skip the styled KML model and only read point
+		// placemarks
+		private volatile boolean pointsOnlyImport = false;
+
+		// loads opened files on a bounded number of threads
+		protected KMLImportScheduler importScheduler;
+		protected KMLImportDialog importDialog;
+
+		// downloads imagery ahead of time for working offline, made when
+		// first opened
+		protected ImageryPrefetchDialog prefetchDialog;
+		// georeferences scans and digitized points, made when first opened
+		protected ControlPointDialog controlPointDialog;
+		protected Globe lineBuilder;
+		protected LinePanel linePanel;
 
 		public AppFrame() {
 			super(true, false, false); // Don't include the layer panel; we're
 										// using the on-screen layer tree.
 
-			Globe lineBuilder = new Globe(this.getWwd(), null, null);
-			this.getContentPane().add(
-					new LinePanel(this.getWwd(), lineBuilder),
-					BorderLayout.WEST);
+			this.lineBuilder = new Globe(this.getWwd(), null, null);
+			// removed imports stay exported but are no longer snapped to
+			Globe.getSession().setLiveSources(importedLayers.getLiveSources());
+			this.linePanel = new LinePanel(this.getWwd(), this.lineBuilder);
+
+			// closing the window ends the session normally; a session
+			// ended any other way is recovered at the next launch
+			this.addWindowListener(new WindowAdapter() {
+				@Override
+				public void windowClosing(WindowEvent e) {
+					lineBuilder.closeSession();
+				}
+			});
+			this.getContentPane().add(this.linePanel, BorderLayout.WEST);
 
 			// Add the on-screen layer tree, refreshing model with the
 			// WorldWindow's current layer list. We
@@ -133,8 +166,7 @@ public class KMLViewer extends ApplicationTemplate {
 			this.getWwd().getModel().getLayers().getLayerByName("Bing Imagery")
 					.setEnabled(true);
 
-			this.layerTree.getModel().refresh(
-					this.getWwd().getModel().getLayers());
+			refreshLayerTree(this.getWwd().getModel().getLayers());
 
 			// Set up a layer to display the on-screen layer tree in the
 			// WorldWindow. This layer is not displayed in
@@ -175,6 +207,17 @@ public class KMLViewer extends ApplicationTemplate {
 			this.pack();
 			WWUtil.alignComponent(null, this, AVKey.CENTER);
 
+			this.importScheduler = new KMLImportScheduler(this);
+			this.importDialog = new KMLImportDialog(this, this.importScheduler);
+
+			// publish the counters over JMX for monitoring long sessions; the
+			// globe attached the session and rendering figures
+			ViewerMetrics.get().register();
+
+			// time each frame for flight recordings
+			this.getWwd().addRenderingListener(
+					new ViewerEvents.FrameRecorder());
+
 			makeMenu(this);
 
 			// Set up to receive SSLHandshakeExceptions that occur during
@@ -202,6 +245,150 @@ public class KMLViewer extends ApplicationTemplate {
 		 *            the KMLRoot to add a new layer for.
 		 */
 		protected void addKMLLayer(KMLRoot kmlRoot) {
+			PlacemarkStore points = KMLPointCollector.collect(kmlRoot);
+			Globe.deduplicate(points);
+			this.addKMLLayer(kmlRoot, points);
+		}
+
+		/**
+		 * Opens a large scanned map or image as a tiled layer, building its
+		 * tile pyramid in World Wind's file store the first time.
+		 *
+		 * @param image
+		 *            the scan.
+		 */
+		protected void openScannedMap(File image) {
+			File cacheRoot = new File(WorldWind.getDataFileStore()
+					.getWriteLocation(), "ScannedMaps");
+			new ScannedMapImporter(this, this.getWwd(), cacheRoot).importScan(
+					image, this.linePanel.getNavigationPosition());
+		}
+
+		/**
+		 * Shows the window for prefetching the Bing imagery of a region into
+		 * World Wind's file store, starting from the location in the
+		 * navigation fields.
+		 */
+		protected void showPrefetchDialog() {
+			if (this.prefetchDialog == null) {
+				Layer layer = this.getWwd().getModel().getLayers()
+						.getLayerByName("Bing Imagery");
+				if (!(layer instanceof TiledImageLayer)) {
+					JOptionPane.showMessageDialog(this,
+							"There is no imagery layer to prefetch.",
+							"Prefetch Imagery", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+
+				TilePrefetcher prefetcher = new TilePrefetcher(
+						new LayerTileSource((TiledImageLayer) layer),
+						WorldWind.getDataFileStore().getWriteLocation());
+				this.prefetchDialog = new ImageryPrefetchDialog(this,
+						prefetcher);
+			}
+
+			Position center = this.linePanel.getNavigationPosition();
+			if (center != null && !this.prefetchDialog.isVisible())
+				this.prefetchDialog.setCenter(center.getLatitude().degrees,
+						center.getLongitude().degrees);
+
+			this.prefetchDialog.setVisible(true);
+		}
+
+		/**
+		 * Asks how imports are checked for placemarks that were already
+		 * imported, showing how many have been merged.
+		 */
+		protected void showDeduplicationOptions() {
+			PlacemarkDeduplicator current = Globe.getSession()
+					.getDeduplicator();
+
+			JComboBox<Object> modeBox = new JComboBox<Object>();
+			modeBox.addItem("Keep every placemark");
+			for (PlacemarkDeduplicator.Mode mode : PlacemarkDeduplicator.Mode
+					.values())
+				modeBox.addItem(mode);
+			if (current != null)
+				modeBox.setSelectedItem(current.getMode());
+			JTextField toleranceField = new JTextField(
+					current != null ? Double.toString(current.getTolerance())
+							: "1.0", 8);
+
+			JPanel panel = new JPanel(new GridLayout(3, 2, 5, 5));
+			panel.add(new JLabel("Merge imports with"));
+			panel.add(modeBox);
+			panel.add(new JLabel("Tolerance (m)"));
+			panel.add(toleranceField);
+			panel.add(new JLabel("Merged so far"));
+			panel.add(new JLabel(Long.toString(Globe.getMergedCount())));
+
+			if (JOptionPane.showConfirmDialog(this, panel,
+					"Duplicate Placemarks", JOptionPane.OK_CANCEL_OPTION,
+					JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+				return;
+
+			double tolerance;
+			try {
+				tolerance = Double.parseDouble(toleranceField.getText().trim());
+			} catch (NumberFormatException e) {
+				JOptionPane.showMessageDialog(this,
+						"The tolerance must be a number of meters.",
+						"Duplicate Placemarks", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+
+			Object selected = modeBox.getSelectedItem();
+			Globe.setDeduplication(
+					selected instanceof PlacemarkDeduplicator.Mode ? (PlacemarkDeduplicator.Mode) selected
+							: null, tolerance);
+		}
+
+		/**
+		 * Shows the window for fitting a transform to control points and
+		 * applying it to a scanned map or the digitized points.
+		 */
+		protected void showControlPointDialog() {
+			if (this.controlPointDialog == null)
+				this.controlPointDialog = new ControlPointDialog(this,
+						this.getWwd(), this.lineBuilder);
+
+			this.controlPointDialog.setVisible(true);
+		}
+
+		/**
+		 * Adds the specified <code>kmlRoot</code> as
+		 * {@link #addKMLLayer(KMLRoot)} does, using point placemarks already
+		 * collected from it with {@link KMLPointCollector} and checked with
+		 * {@link Globe#deduplicate(PlacemarkStore)}. This lets the traversal
+		 * and the duplicate check run off the EDT.
+		 *
+		 * @param kmlRoot
+		 *            the KMLRoot to add a new layer for.
+		 * @param points
+		 *            the points collected from the KMLRoot.
+		 */
+		protected void addKMLLayer(KMLRoot kmlRoot, PlacemarkStore points) {
+			this.addKMLLayer(kmlRoot, points, Globe.nextSource());
+		}
+
+		/**
+		 * Adds the specified <code>kmlRoot</code> as
+		 * {@link #addKMLLayer(KMLRoot, PlacemarkStore)} does, under a source
+		 * number already taken from {@link Globe#nextSource()}, so the caller
+		 * knows which points to remove if the import is cancelled.
+		 *
+		 * @param kmlRoot
+		 *            the KMLRoot to add a new layer for.
+		 * @param points
+		 *            the points collected from the KMLRoot.
+		 * @param source
+		 *            the source number of the points.
+		 */
+		protected void addKMLLayer(KMLRoot kmlRoot, PlacemarkStore points,
+				int source) {
+			ViewerEvents.AddLayerEvent event = new ViewerEvents.AddLayerEvent();
+			event.begin();
+
 			// Create a KMLController to adapt the KMLRoot to the World Wind
 			// renderable interface.
 			KMLController kmlController = new KMLController(kmlRoot);
@@ -217,42 +404,10 @@ public class KMLViewer extends ApplicationTemplate {
 			layer.setOpacity(.5);
 			layer.addRenderable(kmlController);
 
-			names.add((String) kmlRoot.getField(AVKey.DISPLAY_NAME) + ""
-					+ layerCount);
-
 			this.getWwd().getModel().getLayers().add(layer);
 
-			KMLAbstractFeature feature = kmlController.getKmlRoot()
-					.getFeature();
-			List<KMLAbstractFeature> features = ((KMLDocument) feature)
-					.getFeatures();
-
-			for (int i = 0; i < features.size(); i++) {
-				KMLAbstractFeature featureInner = features.get(i);
-				List<KMLAbstractFeature> featuresInner = null;
-
-				if (featureInner instanceof KMLFolder) {
-					featuresInner = ((KMLFolder) featureInner).getFeatures();
-
-					for (int z = 0; z < featuresInner.size(); z++) {
-						KMLPlacemark k = (KMLPlacemark) featuresInner.get(z);
-						KMLAbstractGeometry geom = ((KMLPlacemark) k)
-								.getGeometry();
-						if (geom instanceof KMLPoint) {
-							System.out.println("Point placemark at: "
-									+ ((KMLPoint) geom).getCoordinates());
-
-							PointPlacemark incoming = new PointPlacemark(
-									((KMLPoint) geom).getCoordinates());
-							incoming.setAltitudeMode(WorldWind.CLAMP_TO_GROUND);
-							incoming.setLabelText(k.getName());
-
-							Globe.addToPlacemarkList(incoming);
-						} else {
-						}
-					}
-				}
-			}
+			// Merge the document's points into the export list in one batch
+			Globe.addToPlacemarkList(points, source);
 
 			// Adds a new layer tree node for the KMLRoot to the on-screen layer
 			// tree, and makes the new node visible
@@ -264,6 +419,16 @@ public class KMLViewer extends ApplicationTemplate {
 			this.layerTree.makeVisible(layerNode.getPath());
 			layerNode.expandOpenContainers(this.layerTree);
 
+			importedLayers.register(layer, kmlController, layerNode, source);
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.layer = layer.getName();
+				event.placemarks = points.size();
+				event.layers = this.getWwd().getModel().getLayers().size();
+				event.commit();
+			}
+
 			// Listens to refresh property change events from KML network link
 			// nodes. Upon receiving such an event this
 			// expands any tree paths that represent open KML containers. When a
@@ -286,7 +451,8 @@ public class KMLViewer extends ApplicationTemplate {
 										((KMLNetworkLinkTreeNode) event
 												.getSource())
 												.expandOpenContainers(layerTree);
-										getWwd().redraw();
+										RedrawScheduler.of(getWwd())
+												.requestRedraw();
 									}
 								});
 							}
@@ -294,10 +460,115 @@ public class KMLViewer extends ApplicationTemplate {
 					});
 		}
 
+		/**
+		 * Adds a layer that shows the streamed points added by
+		 * {@link #addPoints(PlacemarkLayer, PlacemarkStore)}, and a node for
+		 * it to the on-screen layer tree.
+		 *
+		 * @param layer
+		 *            the layer to add.
+		 * @param displayName
+		 *            a display name suitable for use as a layer name.
+		 */
+		protected void addPointLayer(PlacemarkLayer layer, String displayName) {
+			layerCount++;
+
+			layer.setName(displayName + "" + layerCount);
+
+			this.getWwd().getModel().getLayers().add(layer);
+
+			LayerTreeNode layerNode = new LayerTreeNode(layer);
+			this.layerTree.getModel().addLayer(layerNode);
+			this.layerTree.makeVisible(layerNode.getPath());
+
+			importedLayers.register(layer, null, layerNode, layer.getSource());
+		}
+
+		/**
+		 * Appends a batch of streamed points to the placemarks that are
+		 * exported, under the source shown by a layer added by
+		 * {@link #addPointLayer(PlacemarkLayer, String)}.
+		 *
+		 * @param layer
+		 *            the layer showing the points.
+		 * @param points
+		 *            the points to append.
+		 */
+		protected void addPoints(PlacemarkLayer layer, PlacemarkStore points) {
+			Globe.addToPlacemarkList(points, layer.getSource());
+
+			RedrawScheduler.of(this.getWwd()).requestRedraw();
+		}
+
+		/**
+		 * Takes an import's layers off the globe and its points out of the
+		 * store, so they are neither shown nor exported. Used when an import
+		 * is cancelled part way through.
+		 *
+		 * @param source
+		 *            the source number of the import's points.
+		 */
+		protected void removeImport(int source) {
+			LayerList layers = this.getWwd().getModel().getLayers();
+			for (ImportedLayerRegistry.Entry entry : importedLayers
+					.getEntries()) {
+				if (entry.getSource() == source)
+					importedLayers.remove(entry.getId(), layers);
+			}
+			refreshLayerTree(layers);
+
+			Globe.removeImported(source);
+			this.lineBuilder.refreshSnapPreview();
+			RedrawScheduler.of(this.getWwd()).requestRedraw();
+		}
+
+		/**
+		 * Loads KML sources through this frame's import scheduler and shows
+		 * their progress.
+		 *
+		 * @param sources
+		 *            the sources to load.
+		 */
+		public void importKML(List<?> sources) {
+			this.importScheduler.submit(sources);
+			this.importDialog.showProgress();
+		}
+
+		public boolean isPointsOnlyImport() {
+			return pointsOnlyImport;
+		}
+
+		public void setPointsOnlyImport(boolean pointsOnlyImport) {
+			this.pointsOnlyImport = pointsOnlyImport;
+		}
+
 		public static LayerTree getLayerTree() {
 			return layerTree;
 		}
 
+		public static ImportedLayerRegistry getImportedLayers() {
+			return importedLayers;
+		}
+
+		/**
+		 * Rebuilds the on-screen layer tree's model from a layer list.
+		 *
+		 * @param layers
+		 *            the layers to show in the tree.
+		 */
+		public static void refreshLayerTree(LayerList layers) {
+			ViewerEvents.LayerTreeRefreshEvent event = new ViewerEvents.LayerTreeRefreshEvent();
+			event.begin();
+
+			layerTree.getModel().refresh(layers);
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.layers = layers.size();
+				event.commit();
+			}
+		}
+
 	}
 
 	// ===================== Control Panel ======================= //
@@ -328,7 +599,7 @@ public class KMLViewer extends ApplicationTemplate {
 
 		private JPanel lowerPanel = new JPanel(new GridLayout(1, 1));
 		private JPanel navPanel = new JPanel(new GridLayout(1, 3, 2, 0));
-		private JPanel lowerButtPanel = new JPanel(new GridLayout(4, 1, 0, 5));
+		private JPanel lowerButtPanel = new JPanel(new GridLayout(6, 1, 0, 5));
 
 		private JSlider transp = new JSlider();
 
@@ -348,6 +619,8 @@ public class KMLViewer extends ApplicationTemplate {
 				+ placemarkNumber);
 
 		private JCheckBox append = new JCheckBox("Use Sequential");
+		private JCheckBox exportElevations = new JCheckBox("Export Elevations");
+		private JCheckBox snapToImported = new JCheckBox("Snap to Imported");
 
 		private static final int SPINNER_MAX = Integer.MAX_VALUE;
 
@@ -357,25 +630,44 @@ public class KMLViewer extends ApplicationTemplate {
 			this.lineBuilder = lineBuilder;
 			this.makePanel(new Dimension(200, 400));
 
-			// add the same mouse listener but use the globe methods to interact
-			wwd.getInputHandler().addMouseListener(new MouseAdapter() {
-
-				public void mouseReleased(MouseEvent mouseEvent) {
-					if (mouseEvent.getButton() == MouseEvent.BUTTON1) {
-						if (!newButton.isEnabled()) {
+			// a recovered session continues from where it left off, with its
+			// prefix and numbering
+			placemarkNumber = lineBuilder.getNumPoints();
+			placemarkName = lineBuilder.getPrefix();
+			prefixInput.setText(placemarkName);
+			append.setSelected(lineBuilder.isHasPostfix());
+			if (lineBuilder.isHasPostfix())
+				nextPlacemarkString.setText(placemarkName + "" + placemarkNumber);
+			else
+				nextPlacemarkString.setText(placemarkName);
+
+			// show the next placemark's name once the clicks are stored
+			lineBuilder.getClickPipeline().addListener(
+					new ClickPipeline.Listener() {
+						public void clickApplied(Position clicked) {
 							if (lineBuilder.isHasPostfix())
 								nextPlacemarkString.setText(placemarkName + ""
 										+ lineBuilder.getNumPoints());
-							else {
+							else
 								nextPlacemarkString.setText(placemarkName);
-
-							}
 						}
+					});
 
-					}
-				}
-			});
+		}
 
+		/**
+		 * Returns the location typed into the navigation fields.
+		 *
+		 * @return the location, or null if the fields do not hold numbers.
+		 */
+		public Position getNavigationPosition() {
+			try {
+				return Position.fromDegrees(
+						Double.parseDouble(latInputField.getText().trim()),
+						Double.parseDouble(lonInputField.getText().trim()), 0);
+			} catch (NumberFormatException e) {
+				return null;
+			}
 		}
 
 		private void makePanel(Dimension size) {
@@ -445,25 +737,91 @@ public class KMLViewer extends ApplicationTemplate {
 			});
 			pauseButton.setEnabled(false);
 
-			exportKMLButton = new JButton("Export KML");
+			exportKMLButton = new JButton("Export");
 			exportKMLButton.addActionListener(new ActionListener() {
 
 				@Override
 				public void actionPerformed(ActionEvent e) {
 
-					CustomFileChooser cfc = new CustomFileChooser("kml");
+					String[] extensions = PlacemarkExporters.getFileExtensions();
+					CustomFileChooser cfc = new CustomFileChooser(extensions);
+
+					// formats checked here are written next to the chosen
+					// file, in the same pass over the placemarks
+					JPanel alsoPanel = new JPanel(new GridLayout(0, 1));
+					alsoPanel.setBorder(BorderFactory.createTitledBorder("Also write"));
+					List<JCheckBox> alsoBoxes = new ArrayList<JCheckBox>();
+					for (String extension : extensions) {
+						JCheckBox box = new JCheckBox(extension);
+						alsoPanel.add(box);
+						alsoBoxes.add(box);
+					}
+					cfc.setAccessory(alsoPanel);
+
 					if (cfc.showSaveDialog(LinePanel.this) == CustomFileChooser.APPROVE_OPTION) {
-						File file = cfc.getSelectedFile();
+						String path = cfc.getSelectedFile().getAbsolutePath();
+						if (PlacemarkExporters.forPath(path) == null)
+							path += ".kml";
+						String base = path.substring(0, path.lastIndexOf('.'));
+
+						List<String> paths = new ArrayList<String>();
+						paths.add(path);
+						for (JCheckBox box : alsoBoxes) {
+							String other = base + "." + box.getText();
+							if (box.isSelected() && !paths.contains(other))
+								paths.add(other);
+						}
 
 						lineBuilder.getAllPlacemarks();
-						lineBuilder.exportKML(file.getAbsolutePath(),
-								AppFrame.names);
+						lineBuilder.export(paths);
 					}
 
 				}
 			});
 			lowerButtPanel.add(exportKMLButton);
 
+			// Exports sample the terrain under every point when checked,
+			// otherwise the points are clamped to the ground
+			exportElevations.addItemListener(new ItemListener() {
+
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					if (e.getStateChange() == ItemEvent.DESELECTED) {
+						lineBuilder.setElevationSource(null);
+						return;
+					}
+
+					try {
+						lineBuilder.setElevationSource(ModelElevationSource
+								.create(LinePanel.this.wwd));
+					} catch (IOException ex) {
+						Logging.logger().log(Level.SEVERE,
+								"Unable to open the elevation file", ex);
+						JOptionPane.showMessageDialog(LinePanel.this,
+								"Unable to open the elevation file: "
+										+ ex.getMessage(),
+								"Export Elevations",
+								JOptionPane.ERROR_MESSAGE);
+						exportElevations.setSelected(false);
+					}
+				}
+			});
+			lowerButtPanel.add(exportElevations);
+
+			// clicks near an imported placemark take its location, so
+			// features re-digitized from a reference file line up with it
+			snapToImported.setToolTipText("Snap clicks within "
+					+ lineBuilder.getSnapTolerance()
+					+ " pixels of an imported placemark onto it");
+			snapToImported.addItemListener(new ItemListener() {
+
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					lineBuilder.setSnapping(e.getStateChange() == ItemEvent.SELECTED);
+				}
+			});
+			lowerButtPanel.add(snapToImported);
+
 			clearPoints = new JButton("Clear All Points");
 			clearPoints.addActionListener(new ActionListener() {
 
@@ -648,15 +1006,10 @@ public class KMLViewer extends ApplicationTemplate {
 					JSlider source = (JSlider) e.getSource();
 					if (!source.getValueIsAdjusting()) {
 
-						for (String name : AppFrame.names) {
-							wwd.getModel()
-									.getLayers()
-									.getLayerByName(name)
-									.setOpacity(
-											(double) source.getValue() / 100);
-						}
+						AppFrame.getImportedLayers().setOpacity(
+								(double) source.getValue() / 100);
 
-						wwd.redraw();
+						RedrawScheduler.of(wwd).requestRedraw();
 					}
 
 				}
@@ -668,18 +1021,17 @@ public class KMLViewer extends ApplicationTemplate {
 				@Override
 				public void actionPerformed(ActionEvent e) {
 
-					for (String name : AppFrame.names) {
-						// System.out.println(name);
+					// Take every imported layer out in one pass, then rebuild
+					// the tree and redraw once. Their points stay in the
+					// export.
+					if (AppFrame.getImportedLayers().removeAll(
+							wwd.getModel().getLayers()).isEmpty())
+						return;
 
-						wwd.getModel().getLayers().getLayerByName(name)
-								.dispose();
+					AppFrame.refreshLayerTree(wwd.getModel().getLayers());
+					lineBuilder.refreshSnapPreview();
 
-						AppFrame.getLayerTree().getModel()
-								.refresh(wwd.getModel().getLayers());
-
-					}
-
-					wwd.redraw();
+					RedrawScheduler.of(wwd).requestRedraw();
 
 				}
 			});
@@ -728,6 +1080,21 @@ public class KMLViewer extends ApplicationTemplate {
 		 * in. Initialized during construction.
 		 */
 		protected AppFrame appFrame;
+		/**
+		 * Runs the tasks that hand loaded content to the
+		 * <code>AppFrame</code>. Defaults to the EDT. Initialized during
+		 * construction.
+		 */
+		protected Executor handOff;
+		/**
+		 * The source number of the loaded points in the placemark store, or
+		 * -1 until one is taken.
+		 */
+		protected volatile int placemarkSource = -1;
+		/** The points read so far. */
+		protected volatile int pointsRead = 0;
+		/** Hands streamed points on while a points-only import runs. */
+		protected volatile PointBatcher batcher;
 
 		/**
 		 * Creates a new worker thread from a specified <code>kmlSource</code>
@@ -742,8 +1109,28 @@ public class KMLViewer extends ApplicationTemplate {
 		 *            source.
 		 */
 		public WorkerThread(Object kmlSource, AppFrame appFrame) {
+			this(kmlSource, appFrame, EDT_EXECUTOR);
+		}
+
+		/**
+		 * Creates a new worker thread that hands loaded content to the
+		 * <code>appFrame</code> through <code>handOff</code>, which must run
+		 * its tasks on the EDT in submission order.
+		 *
+		 * @param kmlSource
+		 *            the source of the KML file to load.
+		 * @param appFrame
+		 *            the <code>AppFrame</code> in which to display the KML
+		 *            source.
+		 * @param handOff
+		 *            runs the tasks that add loaded content to the
+		 *            <code>appFrame</code>.
+		 */
+		public WorkerThread(Object kmlSource, AppFrame appFrame,
+				Executor handOff) {
 			this.kmlSource = kmlSource;
 			this.appFrame = appFrame;
+			this.handOff = handOff;
 		}
 
 		/**
@@ -754,32 +1141,108 @@ public class KMLViewer extends ApplicationTemplate {
 		 * <code>AVKey.DISPLAY_NAME</code> field contains a display name created
 		 * from either the KML source or the KML root feature name.
 		 * <p/>
-		 * If loading the KML source fails, this prints the exception and its
-		 * stack trace to the standard error stream, but otherwise does nothing.
+		 * If loading the KML source fails, this logs the exception and counts
+		 * the failure in {@link ViewerMetrics}, but otherwise does nothing.
 		 */
 		public void run() {
 			try {
-				KMLRoot kmlRoot = this.parse();
-
-				// Set the document's display name
-				kmlRoot.setField(AVKey.DISPLAY_NAME,
-						formName(this.kmlSource, kmlRoot));
+				this.load();
+			} catch (Exception e) {
+				String name = formName(this.kmlSource, (String) null);
+				ViewerMetrics.get().importFailed(name, e);
+				Logging.logger().log(Level.WARNING, "Unable to import " + name,
+						e);
+			}
+		}
 
-				// Schedule a task on the EDT to add the parsed document to a
-				// layer
-				final KMLRoot finalKMLRoot = kmlRoot;
+		/**
+		 * Returns the source number this worker's points are stored under.
+		 *
+		 * @return the source number, or -1 if none has been taken yet.
+		 */
+		public int getPlacemarkSource() {
+			return this.placemarkSource;
+		}
 
-				SwingUtilities.invokeLater(new Runnable() {
-					public void run() {
-						appFrame.addKMLLayer(finalKMLRoot);
+		/**
+		 * Returns the number of point placemarks read so far, for showing
+		 * progress while the source loads.
+		 *
+		 * @return the number of points.
+		 */
+		public int getPointsRead() {
+			PointBatcher batcher = this.batcher;
+			return batcher != null ? batcher.getCount() : this.pointsRead;
+		}
 
-					}
-				});
-			} catch (Exception e) {
-				e.printStackTrace();
+		/**
+		 * Loads this worker thread's KML source and hands it to the
+		 * <code>AppFrame</code>, as {@link #run()} does, but lets any failure
+		 * propagate to the caller.
+		 *
+		 * @throws Exception
+		 *             if the KML source cannot be loaded.
+		 */
+		public void load() throws Exception {
+			ViewerEvents.ImportEvent event = new ViewerEvents.ImportEvent();
+			event.begin();
+			long start = System.nanoTime();
+
+			boolean pointsOnly = this.appFrame.isPointsOnlyImport();
+			int count = pointsOnly ? this.streamPoints() : this.loadDocument();
+
+			ViewerMetrics.get().importFinished(System.nanoTime() - start,
+					count);
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.source = formName(this.kmlSource, (String) null);
+				event.placemarks = count;
+				event.pointsOnly = pointsOnly;
+				event.commit();
 			}
 		}
 
+		/**
+		 * Parses this worker thread's KML source and hands the document and
+		 * its points to the <code>AppFrame</code>.
+		 *
+		 * @return the number of point placemarks in the document.
+		 *
+		 * @throws IOException
+		 *             if the document cannot be read.
+		 * @throws XMLStreamException
+		 *             if document cannot be parsed.
+		 */
+		protected int loadDocument() throws IOException, XMLStreamException {
+			KMLRoot kmlRoot = this.parse();
+
+			// Set the document's display name
+			kmlRoot.setField(AVKey.DISPLAY_NAME,
+					formName(this.kmlSource, kmlRoot));
+
+			// Pull the points out while still off the EDT
+			final PlacemarkStore points = KMLPointCollector
+					.collect(kmlRoot);
+			this.pointsRead = points.size();
+			Globe.deduplicate(points);
+
+			// Schedule a task on the EDT to add the parsed document to a
+			// layer
+			final KMLRoot finalKMLRoot = kmlRoot;
+			final int source = Globe.nextSource();
+			this.placemarkSource = source;
+
+			this.handOff.execute(new PointsHandOff(points) {
+				public void run() {
+					appFrame.addKMLLayer(finalKMLRoot, points, source);
+
+				}
+			});
+
+			return points.size();
+		}
+
 		/**
 		 * Parse the KML document.
 		 *
@@ -797,15 +1260,149 @@ public class KMLViewer extends ApplicationTemplate {
 			// unaware parser. Note that this second
 			// step may require the document to be read from the network again
 			// if the kmlSource is a stream.
-			return KMLRoot.createAndParse(this.kmlSource);
+			ViewerEvents.ParseEvent event = new ViewerEvents.ParseEvent();
+			event.begin();
+
+			KMLRoot kmlRoot = KMLRoot.createAndParse(this.kmlSource);
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.source = formName(this.kmlSource, (String) null);
+				event.commit();
+			}
+			return kmlRoot;
+		}
+
+		/**
+		 * Streams the point placemarks out of the KML document without
+		 * building the KML object model, handing them to the
+		 * <code>AppFrame</code> in batches as they are read.
+		 *
+		 * @return the number of points read.
+		 *
+		 * @throws IOException
+		 *             if the document cannot be read.
+		 * @throws XMLStreamException
+		 *             if document cannot be parsed.
+		 */
+		protected int streamPoints() throws IOException, XMLStreamException {
+			int source = Globe.nextSource();
+			this.placemarkSource = source;
+			final PlacemarkLayer layer = new PlacemarkLayer(
+					Globe.getPlacemarkStore(), Globe.getSourceIndex(source),
+					source);
+			final String displayName = formName(this.kmlSource, (String) null);
+
+			this.handOff.execute(new Runnable() {
+				public void run() {
+					appFrame.addPointLayer(layer, displayName);
+				}
+			});
+
+			PointBatcher batcher = new PointBatcher(layer, this.appFrame,
+					this.handOff);
+			this.batcher = batcher;
+			KMLPointReader.read(this.kmlSource, batcher);
+			batcher.flush();
+			return batcher.getCount();
+		}
+	}
+
+	/**
+	 * Runs tasks on the EDT.
+	 */
+	protected static final Executor EDT_EXECUTOR = new Executor() {
+		public void execute(Runnable command) {
+			SwingUtilities.invokeLater(command);
+		}
+	};
+
+	/**
+	 * Hands a batch of imported points to the <code>AppFrame</code>. If the
+	 * import is cancelled before the task runs it is discarded instead, so
+	 * later imports are no longer checked against its points.
+	 */
+	protected abstract static class PointsHandOff implements Runnable {
+		protected final PlacemarkStore points;
+
+		protected PointsHandOff(PlacemarkStore points) {
+			this.points = points;
+		}
+
+		/**
+		 * Drops the points without adding them.
+		 */
+		public void discard() {
+			Globe.dropImported(this.points);
+		}
+	}
+
+	/**
+	 * Collects streamed points into small stores and hands them to the EDT
+	 * in fixed size batches, so an import never holds more than one batch
+	 * beyond what has been added.
+	 */
+	protected static class PointBatcher implements KMLPointReader.PointHandler {
+		protected static final int BATCH_SIZE = 10000;
+
+		protected final PlacemarkLayer layer;
+		protected final AppFrame appFrame;
+		protected final Executor handOff;
+		protected PlacemarkStore batch = new PlacemarkStore();
+		// read on the EDT for progress
+		protected volatile int count = 0;
+
+		public PointBatcher(PlacemarkLayer layer, AppFrame appFrame,
+				Executor handOff) {
+			this.layer = layer;
+			this.appFrame = appFrame;
+			this.handOff = handOff;
+		}
+
+		public void point(String name, double longitude, double latitude,
+				double altitude) {
+			this.batch.add(latitude, longitude, altitude, name,
+					PlacemarkStore.SESSION_SOURCE);
+			this.count++;
+			if (this.batch.size() >= BATCH_SIZE)
+				this.flush();
+		}
+
+		public int getCount() {
+			return this.count;
+		}
+
+		/**
+		 * Hands the points collected so far to the EDT.
+		 */
+		public void flush() {
+			if (this.batch.size() == 0)
+				return;
+
+			final PlacemarkStore points = this.batch;
+			this.batch = new PlacemarkStore();
+			// duplicates of earlier imports are dropped here rather than
+			// holding up the EDT
+			Globe.deduplicate(points);
+
+			this.handOff.execute(new PointsHandOff(points) {
+				public void run() {
+					appFrame.addPoints(layer, points);
+				}
+			});
 		}
 	}
 
 	protected static String formName(Object kmlSource, KMLRoot kmlRoot) {
 		KMLAbstractFeature rootFeature = kmlRoot.getFeature();
 
-		if (rootFeature != null && !WWUtil.isEmpty(rootFeature.getName()))
-			return rootFeature.getName();
+		return formName(kmlSource,
+				rootFeature != null ? rootFeature.getName() : null);
+	}
+
+	protected static String formName(Object kmlSource, String rootName) {
+		if (!WWUtil.isEmpty(rootName))
+			return rootName;
 
 		if (kmlSource instanceof File)
 			return ((File) kmlSource).getName();
@@ -847,9 +1444,8 @@ public class KMLViewer extends ApplicationTemplate {
 				try {
 					int status = fileChooser.showOpenDialog(appFrame);
 					if (status == JFileChooser.APPROVE_OPTION) {
-						for (File file : fileChooser.getSelectedFiles()) {
-							new WorkerThread(file, appFrame).start();
-						}
+						appFrame.importKML(Arrays.asList(fileChooser
+								.getSelectedFiles()));
 					}
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -871,7 +1467,7 @@ public class KMLViewer extends ApplicationTemplate {
 					String status = JOptionPane
 							.showInputDialog(appFrame, "URL");
 					if (!WWUtil.isEmpty(status)) {
-						new WorkerThread(status.trim(), appFrame).start();
+						appFrame.importKML(Arrays.asList(status.trim()));
 					}
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -881,6 +1477,76 @@ public class KMLViewer extends ApplicationTemplate {
 
 		fileMenu.add(openURLMenuItem);
 
+		final JFileChooser scanChooser = new JFileChooser();
+		scanChooser.setFileFilter(new FileNameExtensionFilter(
+				"Scanned Map (PNG, JPEG, TIFF)", "png", "jpg", "jpeg", "tif",
+				"tiff"));
+
+		JMenuItem openScanMenuItem = new JMenuItem(new AbstractAction(
+				"Open Scanned Map...") {
+			private static final long serialVersionUID = 6180475239514875104L;
+
+			public void actionPerformed(ActionEvent actionEvent) {
+				if (scanChooser.showOpenDialog(appFrame) == JFileChooser.APPROVE_OPTION)
+					appFrame.openScannedMap(scanChooser.getSelectedFile());
+			}
+		});
+
+		fileMenu.add(openScanMenuItem);
+
+		JMenuItem controlPointMenuItem = new JMenuItem(new AbstractAction(
+				"Control Points...") {
+			private static final long serialVersionUID = -1358029563816437240L;
+
+			public void actionPerformed(ActionEvent actionEvent) {
+				appFrame.showControlPointDialog();
+			}
+		});
+
+		fileMenu.add(controlPointMenuItem);
+
+		JMenuItem deduplicationMenuItem = new JMenuItem(new AbstractAction(
+				"Duplicate Placemarks...") {
+			private static final long serialVersionUID = 2934465017742683914L;
+
+			public void actionPerformed(ActionEvent actionEvent) {
+				appFrame.showDeduplicationOptions();
+			}
+		});
+
+		fileMenu.add(deduplicationMenuItem);
+
+		fileMenu.addSeparator();
+
+		// Points only imports skip styles and the feature tree, which is much
+		// faster and lighter for large reference documents
+		final JCheckBoxMenuItem pointsOnlyMenuItem = new JCheckBoxMenuItem(
+				"Import Points Only");
+		pointsOnlyMenuItem.setSelected(appFrame.isPointsOnlyImport());
+		pointsOnlyMenuItem.addItemListener(new ItemListener() {
+
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				appFrame.setPointsOnlyImport(pointsOnlyMenuItem.isSelected());
+			}
+		});
+
+		fileMenu.add(pointsOnlyMenuItem);
+
+		fileMenu.addSeparator();
+
+		// Download the imagery of a region while online, for the field
+		JMenuItem prefetchMenuItem = new JMenuItem(new AbstractAction(
+				"Prefetch Imagery...") {
+			private static final long serialVersionUID = -4710523890641337852L;
+
+			public void actionPerformed(ActionEvent actionEvent) {
+				appFrame.showPrefetchDialog();
+			}
+		});
+
+		fileMenu.add(prefetchMenuItem);
+
 		// Popup about message
 		JMenuItem mntmAbout = new JMenuItem("About");
 		mntmAbout.addMouseListener(new MouseAdapter() {
@@ -0,0 +1,51 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports placemarks as a KMZ archive holding a single doc.kml. The document is deflated as it is written, on all
+ * cores once there are enough placemarks for it to pay, so it is never held in memory.
+ */
+public class KMZExporter extends KMLExporter
+{
+    /** Exports of at least this many placemarks are compressed on all cores. */
+    public static final int PARALLEL_THRESHOLD = 50000;
+
+    public String getName()
+    {
+        return "KMZ";
+    }
+
+    public String[] getFileExtensions()
+    {
+        return new String[] {"kmz"};
+    }
+
+    public Output open(OutputStream out, long placemarkCount, boolean absoluteAltitudes) throws IOException
+    {
+        return this.open(out, placemarkCount >= PARALLEL_THRESHOLD, absoluteAltitudes);
+    }
+
+    /**
+     * Opens an output on a stream.
+     *
+     * @param out               the stream to write the archive to. It is closed when the output is closed.
+     * @param parallel          true to deflate blocks of the document on all cores, false to use a single zip stream.
+     * @param absoluteAltitudes true if the altitudes are above sea level, false to clamp the placemarks to the ground.
+     *
+     * @return the output.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    public Output open(OutputStream out, boolean parallel, boolean absoluteAltitudes) throws IOException
+    {
+        if (parallel)
+            return new KMLOutput(new ParallelKMZOutputStream(out, "doc.kml",
+                Runtime.getRuntime().availableProcessors()), absoluteAltitudes);
+
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.putNextEntry(new ZipEntry("doc.kml"));
+        return new KMLOutput(zip, absoluteAltitudes);
+    }
+}
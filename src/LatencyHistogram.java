@@ -0,0 +1,132 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in log-linear buckets so percentiles can be read at any time without keeping the samples.
+ * <p/>
+ * Latencies are recorded in microseconds. Below 64 us every microsecond has its own bucket; above that each power of
+ * two is split into 32 buckets, so a percentile is within about 3% of the true value. Latencies over an hour land in
+ * the last bucket. Recording is lock-free and safe from any thread.
+ */
+public class LatencyHistogram
+{
+    protected static final int SUB_BUCKETS = 32;
+    protected static final int SUB_BUCKET_BITS = 5;
+    protected static final long MAX_MICROS = 3600000000L;
+
+    protected final AtomicLongArray counts = new AtomicLongArray(bucketOf(MAX_MICROS) + 1);
+    protected final AtomicLong count = new AtomicLong();
+    protected final AtomicLong totalMicros = new AtomicLong();
+    protected final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    public void record(long nanos)
+    {
+        long micros = Math.min(Math.max(0, nanos / 1000), MAX_MICROS);
+
+        this.counts.incrementAndGet(bucketOf(micros));
+        this.count.incrementAndGet();
+        this.totalMicros.addAndGet(micros);
+
+        long max = this.maxMicros.get();
+        while (micros > max && !this.maxMicros.compareAndSet(max, micros))
+        {
+            max = this.maxMicros.get();
+        }
+    }
+
+    public long getCount()
+    {
+        return this.count.get();
+    }
+
+    /**
+     * Returns the latency that a fraction of the recorded latencies are at or below.
+     *
+     * @param percentile the percentile, from 0 to 100.
+     *
+     * @return the latency in microseconds, the upper edge of the bucket holding the percentile, or 0 if nothing has
+     *         been recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        long total = this.getCount();
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < this.counts.length(); bucket++)
+        {
+            seen += this.counts.get(bucket);
+            if (seen >= rank)
+                return Math.min(upperEdgeOf(bucket), this.getMax());
+        }
+        return this.getMax();
+    }
+
+    /**
+     * Returns the mean latency.
+     *
+     * @return the mean in microseconds, or 0 if nothing has been recorded.
+     */
+    public double getMean()
+    {
+        long total = this.getCount();
+        return total == 0 ? 0 : (double) this.totalMicros.get() / total;
+    }
+
+    /**
+     * Returns the longest latency recorded.
+     *
+     * @return the longest latency in microseconds.
+     */
+    public long getMax()
+    {
+        return this.maxMicros.get();
+    }
+
+    /**
+     * Forgets everything recorded. Latencies recorded while this runs may be partly kept.
+     */
+    public void reset()
+    {
+        for (int bucket = 0; bucket < this.counts.length(); bucket++)
+        {
+            this.counts.set(bucket, 0);
+        }
+        this.count.set(0);
+        this.totalMicros.set(0);
+        this.maxMicros.set(0);
+    }
+
+    public String toString()
+    {
+        return String.format("count=%d, p50=%dus, p99=%dus, max=%dus", this.getCount(), this.getPercentile(50),
+            this.getPercentile(99), this.getMax());
+    }
+
+    protected static int bucketOf(long micros)
+    {
+        if (micros < 2 * SUB_BUCKETS)
+            return (int) micros;
+
+        // shift brings the value into [32, 64)
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((micros >> shift) - SUB_BUCKETS);
+    }
+
+    protected static long upperEdgeOf(int bucket)
+    {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+
+        int shift = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+        long sub = (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
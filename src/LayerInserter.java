@@ -0,0 +1,310 @@
+import gov.nasa.worldwind.layers.CompassLayer;
+import gov.nasa.worldwind.layers.Layer;
+import gov.nasa.worldwind.layers.LayerList;
+import gov.nasa.worldwind.layers.placename.PlaceNameLayer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts layers into a layer list relative to anchor layers such as the compass and the place names, without
+ * searching the list on every insertion.
+ * <p/>
+ * The position of each anchor is found once and cached. Before the cache is used it is checked with a single indexed
+ * read, and it is shifted whenever this inserter adds layers ahead of the anchor, so finding an anchor costs O(1). The
+ * list is only searched again when something else has moved the anchor. What remains is the insertion itself, one
+ * array copy in World Wind's copy-on-write layer list. {@link #insertAll(Anchor, boolean, Collection)} adds many layers
+ * with a single copy and a single layer list change event.
+ * <p/>
+ * There is one inserter per layer list, kept in the list's attributes and returned by {@link #of(LayerList)}. The
+ * static helpers in {@link ApplicationTemplate} go through it.
+ */
+public class LayerInserter
+{
+    /** The attribute key the inserter is kept under in its layer list. */
+    public static final String INSERTER_KEY = LayerInserter.class.getName();
+
+    /**
+     * A layer that others are inserted next to, and its cached position.
+     */
+    public abstract static class Anchor
+    {
+        // true to anchor to the last matching layer, as the compass and place name helpers always have
+        protected final boolean last;
+        protected Layer layer;
+        protected int index = -1;
+
+        protected Anchor(boolean last)
+        {
+            this.last = last;
+        }
+
+        protected abstract boolean matches(Layer layer);
+    }
+
+    protected static class TypeAnchor extends Anchor
+    {
+        protected final Class<? extends Layer> type;
+
+        protected TypeAnchor(Class<? extends Layer> type)
+        {
+            super(true);
+            this.type = type;
+        }
+
+        protected boolean matches(Layer layer)
+        {
+            return this.type.isInstance(layer);
+        }
+    }
+
+    protected static class NameAnchor extends Anchor
+    {
+        protected final String name;
+
+        protected NameAnchor(String name)
+        {
+            super(false);
+            this.name = name;
+        }
+
+        protected boolean matches(Layer layer)
+        {
+            return layer.getName() != null && layer.getName().indexOf(this.name) != -1;
+        }
+    }
+
+    protected final LayerList layers;
+    protected final Anchor compass = new TypeAnchor(CompassLayer.class);
+    protected final Anchor placeNames = new TypeAnchor(PlaceNameLayer.class);
+    protected final Map<String, Anchor> named = new HashMap<String, Anchor>();
+
+    protected LayerInserter(LayerList layers)
+    {
+        this.layers = layers;
+    }
+
+    /**
+     * Returns the inserter for a layer list, creating it on first use.
+     *
+     * @param layers the layer list.
+     *
+     * @return the list's inserter.
+     */
+    public static synchronized LayerInserter of(LayerList layers)
+    {
+        LayerInserter inserter = (LayerInserter) layers.getValue(INSERTER_KEY);
+        if (inserter == null)
+        {
+            inserter = new LayerInserter(layers);
+            layers.setValue(INSERTER_KEY, inserter);
+        }
+        return inserter;
+    }
+
+    public LayerList getLayers()
+    {
+        return this.layers;
+    }
+
+    public Anchor getCompassAnchor()
+    {
+        return this.compass;
+    }
+
+    public Anchor getPlaceNamesAnchor()
+    {
+        return this.placeNames;
+    }
+
+    /**
+     * Returns the anchor for the first layer whose name contains a string.
+     *
+     * @param name the string to look for.
+     *
+     * @return the anchor.
+     */
+    public synchronized Anchor getNameAnchor(String name)
+    {
+        Anchor anchor = this.named.get(name);
+        if (anchor == null)
+        {
+            anchor = new NameAnchor(name);
+            this.named.put(name, anchor);
+        }
+        return anchor;
+    }
+
+    public void insertBeforeCompass(Layer layer)
+    {
+        this.insert(this.compass, true, layer);
+    }
+
+    public void insertBeforePlacenames(Layer layer)
+    {
+        this.insert(this.placeNames, true, layer);
+    }
+
+    public void insertAfterPlacenames(Layer layer)
+    {
+        this.insert(this.placeNames, false, layer);
+    }
+
+    public void insertBeforeLayerName(Layer layer, String targetName)
+    {
+        this.insert(this.getNameAnchor(targetName), true, layer);
+    }
+
+    public void insertAllBeforeCompass(Collection<? extends Layer> layers)
+    {
+        this.insertAll(this.compass, true, layers);
+    }
+
+    public void insertAllBeforePlacenames(Collection<? extends Layer> layers)
+    {
+        this.insertAll(this.placeNames, true, layers);
+    }
+
+    public void insertAllAfterPlacenames(Collection<? extends Layer> layers)
+    {
+        this.insertAll(this.placeNames, false, layers);
+    }
+
+    /**
+     * Inserts a layer next to an anchor, or at the start of the list if the anchor is not in it.
+     *
+     * @param anchor the anchor.
+     * @param before true to insert before the anchor, false to insert after it.
+     * @param layer  the layer to insert.
+     */
+    public void insert(Anchor anchor, boolean before, Layer layer)
+    {
+        this.insertAll(anchor, before, Collections.singletonList(layer));
+    }
+
+    /**
+     * Inserts layers next to an anchor in their iteration order, or at the start of the list if the anchor is not in
+     * it. The list is changed once, however many layers are inserted.
+     *
+     * @param anchor the anchor.
+     * @param before true to insert before the anchor, false to insert after it.
+     * @param layers the layers to insert.
+     */
+    public synchronized void insertAll(Anchor anchor, boolean before, Collection<? extends Layer> layers)
+    {
+        if (layers.isEmpty())
+            return;
+
+        ViewerEvents.LayerInsertEvent event = new ViewerEvents.LayerInsertEvent();
+        event.begin();
+        boolean searched = !this.isCached(anchor);
+
+        int index = this.locate(anchor);
+        int position = index < 0 ? 0 : before ? index : index + 1;
+
+        if (layers.size() == 1)
+            this.layers.add(position, layers.iterator().next());
+        else
+            this.layers.addAll(position, new ArrayList<Layer>(layers));
+
+        // Everything cached at or after the insertion point moved down by the layers inserted
+        this.shift(this.compass, position, layers.size());
+        this.shift(this.placeNames, position, layers.size());
+        for (Anchor a : this.named.values())
+        {
+            this.shift(a, position, layers.size());
+        }
+
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.inserted = layers.size();
+            event.layers = this.layers.size();
+            event.searched = searched;
+            event.commit();
+        }
+    }
+
+    /**
+     * Removes a layer from the list, keeping the cached anchor positions.
+     *
+     * @param layer the layer to remove.
+     *
+     * @return true if the layer was in the list.
+     */
+    public synchronized boolean remove(Layer layer)
+    {
+        int index = this.layers.indexOf(layer);
+        if (index < 0)
+            return false;
+
+        this.layers.remove(index);
+
+        this.unshift(this.compass, index, layer);
+        this.unshift(this.placeNames, index, layer);
+        for (Anchor a : this.named.values())
+        {
+            this.unshift(a, index, layer);
+        }
+        return true;
+    }
+
+    /**
+     * Returns an anchor's position in the list, searching the list only if the cached position no longer holds it.
+     *
+     * @param anchor the anchor.
+     *
+     * @return the anchor's position, or -1 if no layer in the list matches it.
+     */
+    protected int locate(Anchor anchor)
+    {
+        if (this.isCached(anchor))
+            return anchor.index;
+
+        // Take a snapshot, the copy-on-write list may change while it is searched
+        List<Layer> snapshot = new ArrayList<Layer>(this.layers);
+        anchor.layer = null;
+        anchor.index = -1;
+        for (int i = 0; i < snapshot.size(); i++)
+        {
+            if (anchor.matches(snapshot.get(i)))
+            {
+                anchor.layer = snapshot.get(i);
+                anchor.index = i;
+                if (!anchor.last)
+                    break;
+            }
+        }
+
+        return anchor.index;
+    }
+
+    protected boolean isCached(Anchor anchor)
+    {
+        return anchor.layer != null && anchor.index < this.layers.size()
+            && this.layers.get(anchor.index) == anchor.layer;
+    }
+
+    protected void shift(Anchor anchor, int position, int count)
+    {
+        if (anchor.layer != null && anchor.index >= position)
+            anchor.index += count;
+    }
+
+    protected void unshift(Anchor anchor, int position, Layer removed)
+    {
+        if (anchor.layer == removed)
+        {
+            anchor.layer = null;
+            anchor.index = -1;
+        }
+        else if (anchor.layer != null && anchor.index > position)
+        {
+            anchor.index--;
+        }
+    }
+}
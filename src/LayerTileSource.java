@@ -0,0 +1,97 @@
+import gov.nasa.worldwind.avlist.AVKey;
+import gov.nasa.worldwind.formats.dds.DDSCompressor;
+import gov.nasa.worldwind.geom.LatLon;
+import gov.nasa.worldwind.geom.Sector;
+import gov.nasa.worldwind.layers.TiledImageLayer;
+import gov.nasa.worldwind.util.Level;
+import gov.nasa.worldwind.util.LevelSet;
+import gov.nasa.worldwind.util.Tile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+/**
+ * The tiles of a World Wind tiled image layer, such as the Bing imagery the viewer turns on.
+ * <p/>
+ * Tiles are requested from the layer's own service and kept at the paths the layer reads them from in World Wind's
+ * file store, so a prefetched tile is drawn from disk exactly as one the layer had downloaded itself. Layers that keep
+ * their tiles as DDS textures get the downloaded images compressed the same way.
+ */
+public class LayerTileSource implements TileSource
+{
+    protected final LevelSet levels;
+    protected final String imageFormat;
+    protected final boolean dds;
+
+    /**
+     * Creates a source for a layer.
+     *
+     * @param layer the layer.
+     *
+     * @throws IllegalArgumentException if the layer's tiles are not laid out from -90, -180.
+     */
+    public LayerTileSource(TiledImageLayer layer)
+    {
+        this.levels = layer.getLevels();
+
+        LatLon origin = this.levels.getTileOrigin();
+        if (origin.getLatitude().degrees != -90 || origin.getLongitude().degrees != -180)
+            throw new IllegalArgumentException("Unsupported tile origin " + origin + " of " + layer.getName());
+
+        this.imageFormat = (String) layer.getValue(AVKey.IMAGE_FORMAT);
+        this.dds = ".dds".equalsIgnoreCase(this.levels.getFirstLevel().getFormatSuffix());
+    }
+
+    public int getLevelCount()
+    {
+        return this.levels.getNumLevels();
+    }
+
+    public double getTileHeight(int level)
+    {
+        return this.levels.getLevel(level).getTileDelta().getLatitude().degrees;
+    }
+
+    public double getTileWidth(int level)
+    {
+        return this.levels.getLevel(level).getTileDelta().getLongitude().degrees;
+    }
+
+    public URL getTileURL(int level, int row, int column) throws IOException
+    {
+        Level l = this.levels.getLevel(level);
+        if (l.isEmpty())
+            return null;
+
+        return l.getTileResourceURL(this.createTile(l, row, column), this.imageFormat);
+    }
+
+    public String getCachePath(int level, int row, int column)
+    {
+        Level l = this.levels.getLevel(level);
+        return this.createTile(l, row, column).getPath();
+    }
+
+    public byte[] toCacheFormat(byte[] image) throws IOException
+    {
+        if (!this.dds)
+            return image;
+
+        ByteBuffer buffer = DDSCompressor.compressImageStream(new ByteArrayInputStream(image));
+        byte[] compressed = new byte[buffer.remaining()];
+        buffer.get(compressed);
+        return compressed;
+    }
+
+    protected Tile createTile(Level level, int row, int column)
+    {
+        double height = level.getTileDelta().getLatitude().degrees;
+        double width = level.getTileDelta().getLongitude().degrees;
+        Sector sector = Sector.fromDegrees(-90 + row * height, -90 + (row + 1) * height,
+            -180 + column * width, -180 + (column + 1) * width);
+
+        return new Tile(sector, level, row, column);
+    }
+}
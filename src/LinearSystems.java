@@ -0,0 +1,184 @@
+/**
+ * Solves the small dense linear systems behind fitting transforms to control points. The systems have a few dozen
+ * unknowns at most, so plain arrays and textbook algorithms are all that is needed.
+ */
+public final class LinearSystems
+{
+    /** Pivots smaller than this, relative to the largest entry, mark a system as singular. */
+    private static final double SINGULAR_TOLERANCE = 1e-12;
+
+    private LinearSystems()
+    {
+    }
+
+    /**
+     * Solves <code>a x = b</code> for a square <code>a</code> by Gaussian elimination with partial pivoting.
+     *
+     * @param a the n by n matrix. It is not modified.
+     * @param b the n by k right hand sides. It is not modified.
+     *
+     * @return the n by k solution.
+     *
+     * @throws IllegalArgumentException if the system is singular.
+     */
+    public static double[][] solve(double[][] a, double[][] b)
+    {
+        int n = a.length;
+        int k = b[0].length;
+        double[][] m = new double[n][];
+        double[][] x = new double[n][];
+        double scale = 0;
+        for (int i = 0; i < n; i++)
+        {
+            m[i] = a[i].clone();
+            x[i] = b[i].clone();
+            for (int j = 0; j < n; j++)
+            {
+                scale = Math.max(scale, Math.abs(m[i][j]));
+            }
+        }
+
+        for (int col = 0; col < n; col++)
+        {
+            int pivot = col;
+            for (int row = col + 1; row < n; row++)
+            {
+                if (Math.abs(m[row][col]) > Math.abs(m[pivot][col]))
+                    pivot = row;
+            }
+            if (Math.abs(m[pivot][col]) <= SINGULAR_TOLERANCE * scale)
+                throw new IllegalArgumentException("The system is singular");
+
+            double[] swap = m[col];
+            m[col] = m[pivot];
+            m[pivot] = swap;
+            swap = x[col];
+            x[col] = x[pivot];
+            x[pivot] = swap;
+
+            for (int row = col + 1; row < n; row++)
+            {
+                double factor = m[row][col] / m[col][col];
+                if (factor == 0)
+                    continue;
+                for (int j = col; j < n; j++)
+                {
+                    m[row][j] -= factor * m[col][j];
+                }
+                for (int j = 0; j < k; j++)
+                {
+                    x[row][j] -= factor * x[col][j];
+                }
+            }
+        }
+
+        for (int row = n - 1; row >= 0; row--)
+        {
+            for (int j = 0; j < k; j++)
+            {
+                double sum = x[row][j];
+                for (int c = row + 1; c < n; c++)
+                {
+                    sum -= m[row][c] * x[c][j];
+                }
+                x[row][j] = sum / m[row][row];
+            }
+        }
+
+        return x;
+    }
+
+    /**
+     * Finds the <code>x</code> minimizing the squared error of <code>a x = b</code> by Householder QR decomposition,
+     * which stays accurate where the normal equations would square the condition number.
+     *
+     * @param a the m by n matrix, with m at least n. It is not modified.
+     * @param b the m by k right hand sides. It is not modified.
+     *
+     * @return the n by k solution.
+     *
+     * @throws IllegalArgumentException if the columns of <code>a</code> are linearly dependent.
+     */
+    public static double[][] leastSquares(double[][] a, double[][] b)
+    {
+        int rows = a.length;
+        int n = a[0].length;
+        int k = b[0].length;
+        if (rows < n)
+            throw new IllegalArgumentException("Fewer equations than unknowns");
+
+        double[][] r = new double[rows][];
+        double[][] y = new double[rows][];
+        double scale = 0;
+        for (int i = 0; i < rows; i++)
+        {
+            r[i] = a[i].clone();
+            y[i] = b[i].clone();
+            for (int j = 0; j < n; j++)
+            {
+                scale = Math.max(scale, Math.abs(r[i][j]));
+            }
+        }
+
+        double[] v = new double[rows];
+        for (int col = 0; col < n; col++)
+        {
+            // the reflection taking column col below the diagonal to a multiple of the unit vector
+            double norm = 0;
+            for (int i = col; i < rows; i++)
+            {
+                norm += r[i][col] * r[i][col];
+            }
+            norm = Math.sqrt(norm);
+            if (norm <= SINGULAR_TOLERANCE * scale)
+                throw new IllegalArgumentException("The system is rank deficient");
+
+            double alpha = r[col][col] > 0 ? -norm : norm;
+            double vNorm = 0;
+            for (int i = col; i < rows; i++)
+            {
+                v[i] = r[i][col] - (i == col ? alpha : 0);
+                vNorm += v[i] * v[i];
+            }
+
+            for (int j = col; j < n; j++)
+            {
+                reflect(r, j, v, col, rows, vNorm);
+            }
+            for (int j = 0; j < k; j++)
+            {
+                reflect(y, j, v, col, rows, vNorm);
+            }
+        }
+
+        double[][] x = new double[n][k];
+        for (int row = n - 1; row >= 0; row--)
+        {
+            for (int j = 0; j < k; j++)
+            {
+                double sum = y[row][j];
+                for (int c = row + 1; c < n; c++)
+                {
+                    sum -= r[row][c] * x[c][j];
+                }
+                x[row][j] = sum / r[row][row];
+            }
+        }
+
+        return x;
+    }
+
+    private static void reflect(double[][] m, int column, double[] v, int from, int rows, double vNorm)
+    {
+        double dot = 0;
+        for (int i = from; i < rows; i++)
+        {
+            dot += v[i] * m[i][column];
+        }
+        double factor = 2 * dot / vNorm;
+        for (int i = from; i < rows; i++)
+        {
+            m[i][column] -= factor * v[i];
+        }
+    }
+}
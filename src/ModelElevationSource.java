@@ -0,0 +1,110 @@
+import gov.nasa.worldwind.WorldWindow;
+import gov.nasa.worldwind.geom.LatLon;
+import gov.nasa.worldwind.geom.Sector;
+import gov.nasa.worldwind.terrain.ElevationModel;
+import gov.nasa.worldwind.terrain.LocalElevationModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Samples elevations from a World Wind elevation model: the globe's own, or a local elevation file such as a GeoTIFF
+ * loaded into a <code>LocalElevationModel</code>.
+ * <p/>
+ * The model is sampled on a global grid, one tile of samples per <code>ElevationModel.getElevations</code> call, and
+ * the tiles are cached. The globe's model returns the best data it holds locally; areas never viewed may only have
+ * the coarse levels, since sampling does not wait for tiles to be downloaded.
+ */
+public class ModelElevationSource extends TiledElevationSource
+{
+    /** Grid spacing used by default, one arc second, about 30 meters. */
+    public static final double DEFAULT_RESOLUTION = 1d / 3600;
+
+    protected final ElevationModel model;
+
+    /**
+     * Creates a source sampling a model on a grid.
+     *
+     * @param model      the elevation model.
+     * @param resolution the grid spacing in degrees.
+     */
+    public ModelElevationSource(ElevationModel model, double resolution)
+    {
+        super(90, -180, resolution, resolution, (int) Math.ceil(180 / resolution) + 1,
+            (int) Math.ceil(360 / resolution) + 1, DEFAULT_TILE_SIZE, DEFAULT_CACHE_TILES);
+        this.model = model;
+    }
+
+    /**
+     * Returns a source for a viewer: the file named by the <code>kmlviewer.elevation.file</code> system property if it
+     * is set, read directly if it is a BIL file or through a <code>LocalElevationModel</code> otherwise, or else the
+     * World Window's globe. The grid spacing is <code>kmlviewer.elevation.resolution</code> arc seconds, 1 by default.
+     *
+     * @param wwd the World Window.
+     *
+     * @return the source.
+     *
+     * @throws IOException if the elevation file cannot be read.
+     */
+    public static ElevationSource create(WorldWindow wwd) throws IOException
+    {
+        double resolution = Double.parseDouble(System.getProperty("kmlviewer.elevation.resolution", "1")) / 3600;
+
+        String path = System.getProperty("kmlviewer.elevation.file");
+        if (path == null)
+            return new ModelElevationSource(wwd.getModel().getGlobe().getElevationModel(), resolution);
+
+        File file = new File(path);
+        if (file.getName().toLowerCase().endsWith(".bil"))
+            return BILElevationSource.open(file);
+
+        LocalElevationModel model = new LocalElevationModel();
+        model.addElevations(file);
+        return new ModelElevationSource(model, resolution);
+    }
+
+    protected float[] readTile(int tileRow, int tileColumn)
+    {
+        int firstRow = tileRow * this.tileSize;
+        int firstColumn = tileColumn * this.tileSize;
+        int height = Math.min(this.tileSize, this.rows - firstRow);
+        int width = Math.min(this.tileSize, this.columns - firstColumn);
+
+        List<LatLon> locations = new ArrayList<LatLon>(height * width);
+        for (int r = 0; r < height; r++)
+        {
+            for (int c = 0; c < width; c++)
+            {
+                locations.add(LatLon.fromDegrees(
+                    Math.max(-90, this.originLatitude - (firstRow + r) * this.latitudeSpacing),
+                    Math.min(180, this.originLongitude + (firstColumn + c) * this.longitudeSpacing)));
+            }
+        }
+
+        Sector sector = Sector.fromDegrees(
+            Math.max(-90, this.originLatitude - (firstRow + height - 1) * this.latitudeSpacing),
+            this.originLatitude - firstRow * this.latitudeSpacing,
+            this.originLongitude + firstColumn * this.longitudeSpacing,
+            Math.min(180, this.originLongitude + (firstColumn + width - 1) * this.longitudeSpacing));
+
+        double[] elevations = new double[locations.size()];
+        this.model.getElevations(sector, locations, Math.toRadians(this.latitudeSpacing), elevations);
+
+        float[] tile = new float[this.tileSize * this.tileSize];
+        Arrays.fill(tile, Float.NaN);
+        double missing = this.model.getMissingDataSignal();
+        for (int r = 0; r < height; r++)
+        {
+            for (int c = 0; c < width; c++)
+            {
+                double elevation = elevations[r * width + c];
+                tile[r * this.tileSize + c] = elevation == missing ? Float.NaN : (float) elevation;
+            }
+        }
+
+        return tile;
+    }
+}
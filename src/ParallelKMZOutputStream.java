@@ -0,0 +1,313 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Calendar;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a single-entry zip archive, such as a KMZ holding one KML document, compressing the entry on several cores.
+ * <p/>
+ * Bytes written to this stream are cut into fixed size blocks that are deflated concurrently. Every block but the last
+ * ends with a sync flush, so the compressed blocks concatenate into one valid deflate stream, and each block is primed
+ * with the last 32 KB of the block before it so the compression ratio stays close to that of a single deflater. Only a
+ * bounded number of blocks are in flight at once, which keeps memory constant however large the entry grows.
+ * <p/>
+ * The entry's CRC and sizes are not known until the stream is closed, so they follow the data in a data descriptor.
+ * Archives larger than 4 GB are not supported.
+ */
+public class ParallelKMZOutputStream extends OutputStream
+{
+    protected static final int BLOCK_SIZE = 128 * 1024;
+    protected static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int FLAGS = 0x0808; // sizes in data descriptor, UTF-8 name
+    private static final int DEFLATED = 8;
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int level;
+    private final int maxInFlight;
+    private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<Future<byte[]>>();
+
+    private final byte[] name;
+    private final int dosTime;
+    private final int dosDate;
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+    private byte[] previousBlock;
+
+    private long uncompressedSize = 0;
+    private long compressedSize = 0;
+    private long written = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a stream that writes one deflated entry.
+     *
+     * @param out       the stream the archive is written to. It is closed when this stream is closed.
+     * @param entryName the name of the entry, for example <code>doc.kml</code>.
+     * @param threads   the number of blocks compressed at once.
+     *
+     * @throws IOException if the entry header cannot be written.
+     */
+    public ParallelKMZOutputStream(OutputStream out, String entryName, int threads) throws IOException
+    {
+        this.out = new BufferedOutputStream(out, BLOCK_SIZE);
+        this.level = Deflater.DEFAULT_COMPRESSION;
+        this.maxInFlight = Math.max(1, threads) * 2;
+        this.executor = ParallelTasks.newPool("KMZ deflate", threads);
+
+        this.name = entryName.getBytes(StandardCharsets.UTF_8);
+
+        Calendar now = Calendar.getInstance();
+        this.dosTime = now.get(Calendar.HOUR_OF_DAY) << 11 | now.get(Calendar.MINUTE) << 5
+            | now.get(Calendar.SECOND) >> 1;
+        this.dosDate = (now.get(Calendar.YEAR) - 1980) << 9 | (now.get(Calendar.MONTH) + 1) << 5
+            | now.get(Calendar.DAY_OF_MONTH);
+
+        this.writeInt(LOCAL_HEADER_SIGNATURE);
+        this.writeShort(VERSION);
+        this.writeShort(FLAGS);
+        this.writeShort(DEFLATED);
+        this.writeShort(this.dosTime);
+        this.writeShort(this.dosDate);
+        this.writeInt(0); // crc, compressed and uncompressed sizes follow the data
+        this.writeInt(0);
+        this.writeInt(0);
+        this.writeShort(this.name.length);
+        this.writeShort(0);
+        this.writeBytes(this.name, 0, this.name.length);
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        this.block[this.blockLength++] = (byte) b;
+        if (this.blockLength == BLOCK_SIZE)
+            this.submitBlock(false);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            int n = Math.min(len, BLOCK_SIZE - this.blockLength);
+            System.arraycopy(b, off, this.block, this.blockLength, n);
+            this.blockLength += n;
+            off += n;
+            len -= n;
+
+            if (this.blockLength == BLOCK_SIZE)
+                this.submitBlock(false);
+        }
+    }
+
+    /**
+     * Compresses the remaining data and writes the data descriptor, central directory and end record.
+     *
+     * @throws IOException if the archive cannot be written.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (this.closed)
+            return;
+        this.closed = true;
+
+        try
+        {
+            this.submitBlock(true);
+            while (!this.inFlight.isEmpty())
+            {
+                this.writeNextBlock();
+            }
+
+            if (this.uncompressedSize > 0xFFFFFFFFL || this.written > 0xFFFFFFFFL)
+                throw new IOException("KMZ entry is too large for a zip archive without zip64 extensions");
+
+            this.writeInt(DATA_DESCRIPTOR_SIGNATURE);
+            this.writeInt((int) this.crc.getValue());
+            this.writeInt((int) this.compressedSize);
+            this.writeInt((int) this.uncompressedSize);
+
+            long centralOffset = this.written;
+            this.writeInt(CENTRAL_HEADER_SIGNATURE);
+            this.writeShort(VERSION);
+            this.writeShort(VERSION);
+            this.writeShort(FLAGS);
+            this.writeShort(DEFLATED);
+            this.writeShort(this.dosTime);
+            this.writeShort(this.dosDate);
+            this.writeInt((int) this.crc.getValue());
+            this.writeInt((int) this.compressedSize);
+            this.writeInt((int) this.uncompressedSize);
+            this.writeShort(this.name.length);
+            this.writeShort(0); // extra field length
+            this.writeShort(0); // comment length
+            this.writeShort(0); // disk number
+            this.writeShort(0); // internal attributes
+            this.writeInt(0); // external attributes
+            this.writeInt(0); // local header offset
+            this.writeBytes(this.name, 0, this.name.length);
+            long centralSize = this.written - centralOffset;
+
+            this.writeInt(END_SIGNATURE);
+            this.writeShort(0);
+            this.writeShort(0);
+            this.writeShort(1);
+            this.writeShort(1);
+            this.writeInt((int) centralSize);
+            this.writeInt((int) centralOffset);
+            this.writeShort(0);
+        }
+        finally
+        {
+            this.executor.shutdownNow();
+            this.out.close();
+        }
+    }
+
+    /**
+     * Returns the size of the entry before compression.
+     *
+     * @return the number of bytes written to this stream.
+     */
+    public long getUncompressedSize()
+    {
+        return this.uncompressedSize;
+    }
+
+    /**
+     * Returns the size of the compressed entry data. Complete once the stream is closed.
+     *
+     * @return the number of compressed bytes written so far.
+     */
+    public long getCompressedSize()
+    {
+        return this.compressedSize;
+    }
+
+    private void submitBlock(final boolean last) throws IOException
+    {
+        final byte[] data = this.block;
+        final int length = this.blockLength;
+        final byte[] dictionary = this.previousBlock;
+
+        this.crc.update(data, 0, length);
+        this.uncompressedSize += length;
+
+        this.inFlight.add(this.executor.submit(new Callable<byte[]>()
+        {
+            public byte[] call()
+            {
+                return deflate(data, length, dictionary, last);
+            }
+        }));
+
+        // The block just submitted is the next block's dictionary, so it cannot be reused until then.
+        this.previousBlock = length >= DICTIONARY_SIZE ? data : null;
+        this.block = new byte[BLOCK_SIZE];
+        this.blockLength = 0;
+
+        while (this.inFlight.size() > this.maxInFlight)
+        {
+            this.writeNextBlock();
+        }
+    }
+
+    private byte[] deflate(byte[] data, int length, byte[] dictionary, boolean last)
+    {
+        Deflater deflater = new Deflater(this.level, true);
+        try
+        {
+            if (dictionary != null)
+                deflater.setDictionary(dictionary, BLOCK_SIZE - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            deflater.setInput(data, 0, length);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+            byte[] buffer = new byte[length / 2 + 64];
+            if (last)
+            {
+                deflater.finish();
+                while (!deflater.finished())
+                {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            }
+            else
+            {
+                // A sync flush ends the block on a byte boundary without marking the stream as finished.
+                int n;
+                do
+                {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                }
+                while (n == buffer.length);
+            }
+
+            return compressed.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    private void writeNextBlock() throws IOException
+    {
+        byte[] compressed;
+        try
+        {
+            compressed = this.inFlight.remove().get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Unable to compress", e.getCause());
+        }
+
+        this.writeBytes(compressed, 0, compressed.length);
+        this.compressedSize += compressed.length;
+    }
+
+    private void writeBytes(byte[] b, int off, int len) throws IOException
+    {
+        this.out.write(b, off, len);
+        this.written += len;
+    }
+
+    private void writeShort(int v) throws IOException
+    {
+        this.out.write(v & 0xff);
+        this.out.write((v >>> 8) & 0xff);
+        this.written += 2;
+    }
+
+    private void writeInt(int v) throws IOException
+    {
+        this.writeShort(v & 0xffff);
+        this.writeShort((v >>> 16) & 0xffff);
+    }
+}
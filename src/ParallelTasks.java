@@ -0,0 +1,138 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs work on a short-lived pool of daemon threads and waits for it, the pattern shared by exports, imports, tiling
+ * and transforms.
+ * <p/>
+ * Each call makes its own pool and shuts it down before returning, so nothing is left running between operations and
+ * a caller that is interrupted or fails part way stops the rest of its work. Failures come back as the
+ * <code>ExecutionException</code> of the first task that failed, for the caller to turn into its own exception.
+ */
+public class ParallelTasks
+{
+    /**
+     * Work over a range of items.
+     */
+    public interface Chunk<T>
+    {
+        /**
+         * Processes the items from <code>from</code> up to but not including <code>to</code>.
+         *
+         * @return the chunk's result, or null.
+         */
+        T run(int from, int to) throws Exception;
+    }
+
+    /**
+     * Creates a fixed pool of daemon threads, for work that submits tasks as it goes. The caller shuts it down.
+     *
+     * @param name    the name of the pool's threads.
+     * @param threads the number of threads, at least one.
+     *
+     * @return the pool.
+     */
+    public static ExecutorService newPool(final String name, int threads)
+    {
+        return Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Runs tasks on a pool of daemon threads and waits for all of them.
+     *
+     * @param name    the name of the pool's threads.
+     * @param threads the number of threads.
+     * @param tasks   the tasks.
+     *
+     * @return the tasks' results, in the order of the tasks.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting; the tasks are interrupted too.
+     * @throws ExecutionException   if a task fails; the tasks still running are interrupted.
+     */
+    public static <T> List<T> invokeAll(String name, int threads, List<? extends Callable<T>> tasks)
+        throws InterruptedException, ExecutionException
+    {
+        ExecutorService executor = newPool(name, Math.min(threads, tasks.size()));
+        try
+        {
+            List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+            for (Callable<T> task : tasks)
+            {
+                futures.add(executor.submit(task));
+            }
+
+            List<T> results = new ArrayList<T>(tasks.size());
+            for (Future<T> future : futures)
+            {
+                results.add(future.get());
+            }
+            return results;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Splits <code>count</code> items into chunks and runs them on a pool of daemon threads. With one thread, or no
+     * more items than a chunk, the work is done on the calling thread instead.
+     *
+     * @param name      the name of the pool's threads.
+     * @param threads   the number of threads.
+     * @param count     the number of items.
+     * @param chunkSize the number of items in a chunk.
+     * @param chunk     the work on one chunk.
+     *
+     * @return the chunks' results, in the order of the items.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     * @throws ExecutionException   if a chunk fails.
+     */
+    public static <T> List<T> inChunks(String name, int threads, int count, int chunkSize, final Chunk<T> chunk)
+        throws InterruptedException, ExecutionException
+    {
+        if (threads <= 1 || count <= chunkSize)
+        {
+            List<T> results = new ArrayList<T>(1);
+            try
+            {
+                results.add(chunk.run(0, count));
+            }
+            catch (Exception e)
+            {
+                throw new ExecutionException(e);
+            }
+            return results;
+        }
+
+        List<Callable<T>> tasks = new ArrayList<Callable<T>>();
+        for (int first = 0; first < count; first += chunkSize)
+        {
+            final int from = first;
+            final int to = Math.min(first + chunkSize, count);
+            tasks.add(new Callable<T>()
+            {
+                public T call() throws Exception
+                {
+                    return chunk.run(from, to);
+                }
+            });
+        }
+        return invokeAll(name, threads, tasks);
+    }
+}
@@ -0,0 +1,552 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Drops imported placemarks that duplicate ones already imported, so importing a file twice or files that overlap does
+ * not export the same placemark twice.
+ * <p/>
+ * Imported placemarks are hashed by grid cell: by their exact stored location when only exact copies are merged, or by
+ * a cell twice the tolerance across otherwise, so a placemark is only compared with those in the few cells within the
+ * tolerance of it. The cells are kept between imports and extended with each one, so an import costs time in
+ * proportion to its own size rather than to everything imported before it. Checking a large batch against earlier
+ * imports is split across threads; duplicates within the batch are then found in order, keeping the first of each.
+ * <p/>
+ * The cells hold the ids of the placemarks in the store they were imported into, so nothing is copied. A batch is
+ * checked on the thread that read it, before it is handed to the event dispatch thread, while that thread goes on
+ * changing the store: the store is only read under the read half of the lock its owner changes it under, and a batch
+ * checked but not yet added is compared with in its own store until {@link #added(PlacemarkStore, int)} says where it
+ * went. Batches are checked one at a time, in the order they arrive. Digitized points are never merged and are not
+ * compared with.
+ */
+public class PlacemarkDeduplicator
+{
+    /**
+     * What makes two placemarks duplicates.
+     */
+    public enum Mode
+    {
+        /** The same label, altitude and stored location. */
+        EXACT("Exact copies"),
+        /** The same label and within the tolerance of each other. */
+        LABEL_AND_POSITION("Same label within tolerance"),
+        /** Within the tolerance of each other, whatever their labels. */
+        DISTANCE("Any within tolerance");
+
+        private final String label;
+
+        Mode(String label)
+        {
+            this.label = label;
+        }
+
+        public String toString()
+        {
+            return this.label;
+        }
+    }
+
+    /** Batches of at least this many placemarks are checked against earlier imports on several threads. */
+    public static final int PARALLEL_THRESHOLD = 50000;
+
+    /** The smallest tolerance, a few times the stored precision of a location. */
+    public static final double MIN_TOLERANCE = 0.05;
+
+    protected static final int CHUNK_SIZE = 8192;
+
+    protected static final double METERS_PER_DEGREE = PlacemarkIndex.EARTH_RADIUS * Math.PI / 180;
+
+    // the ids of imported placemarks read per hold of the store's read lock, so its owner waits at most that long
+    protected static final int LOCKED_CHUNK_SIZE = 1024;
+
+    protected final Mode mode;
+    protected final double tolerance;
+    protected final double cellDegrees;
+    // cells around a parallel, each 360 / columnCount degrees wide so the last ends at the antimeridian
+    protected final int columnCount;
+    protected final double columnDegrees;
+
+    protected final PlacemarkStore store;
+    protected final ReadWriteLock storeLock;
+    // the store's placemarks imported so far, hashed by cell, as of a generation of the store
+    protected final CellTable cells = new CellTable();
+    protected int generation;
+    // batches checked but not yet added to the store, each with its kept placemarks hashed by cell
+    protected final List<Pending> pending = new ArrayList<Pending>();
+    // batches added to the store, batches dropped and resets, in the order they happened
+    protected final ConcurrentLinkedQueue<Arrival> arrivals = new ConcurrentLinkedQueue<Arrival>();
+    // held while a batch is checked, or while arrivals are applied
+    protected final ReentrantLock checking = new ReentrantLock();
+    protected volatile long mergedCount = 0;
+
+    /**
+     * Creates a deduplicator for the placemarks imported into a store, starting from the ones it already holds. Call
+     * it on the thread that owns the store.
+     *
+     * @param store     the store imports are added to.
+     * @param storeLock the lock the store's owner holds for writing while changing the store.
+     * @param mode      what makes placemarks duplicates.
+     * @param tolerance the furthest apart in meters duplicates may be, not used for exact copies.
+     */
+    public PlacemarkDeduplicator(PlacemarkStore store, ReadWriteLock storeLock, Mode mode, double tolerance)
+    {
+        this.store = store;
+        this.storeLock = storeLock;
+        this.mode = mode;
+        this.tolerance = Math.max(tolerance, MIN_TOLERANCE);
+        this.cellDegrees = 2 * this.tolerance / METERS_PER_DEGREE;
+        this.columnCount = (int) Math.ceil(360 / this.cellDegrees);
+        this.columnDegrees = 360.0 / this.columnCount;
+
+        this.generation = store.getGeneration();
+        for (int id = 0; id < store.size(); id++)
+        {
+            if (!store.isDeleted(id) && store.getSource(id) != PlacemarkStore.SESSION_SOURCE)
+                this.cells.insert(this.key(store.getLatitude(id), store.getLongitude(id)), id);
+        }
+    }
+
+    public Mode getMode()
+    {
+        return this.mode;
+    }
+
+    public double getTolerance()
+    {
+        return this.tolerance;
+    }
+
+    /**
+     * Returns the number of placemarks dropped as duplicates.
+     *
+     * @return the count since the deduplicator was made.
+     */
+    public long getMergedCount()
+    {
+        return this.mergedCount;
+    }
+
+    /**
+     * Removes from a batch about to be imported the placemarks that duplicate earlier imports or earlier placemarks of
+     * the batch, and remembers the rest as imported. Call it once for each batch, from any thread, before the batch is
+     * added to the store; the batch itself must not be used elsewhere meanwhile.
+     *
+     * @param batch   the batch, whose duplicates are marked deleted.
+     * @param threads the number of threads to check a large batch on.
+     *
+     * @return the number of placemarks removed.
+     */
+    public int deduplicate(PlacemarkStore batch, int threads)
+    {
+        this.checking.lock();
+        try
+        {
+            this.applyArrivals();
+            return this.check(batch, threads);
+        }
+        finally
+        {
+            this.checking.unlock();
+            // batches added while this one was checked
+            this.applyArrivalsIfIdle();
+        }
+    }
+
+    protected int check(PlacemarkStore batch, int threads)
+    {
+        // against earlier imports, which are only read, so a large batch can be split across threads
+        final boolean[] duplicate = new boolean[batch.size()];
+        if (batch.size() < PARALLEL_THRESHOLD || threads <= 1)
+            this.findImported(batch, duplicate, 0, batch.size());
+        else
+            this.findImportedInParallel(batch, duplicate, threads);
+
+        // within the batch, in order, so the first of a group is the one kept
+        CellTable kept = new CellTable();
+        int merged = 0;
+        for (int i = 0; i < batch.size(); i++)
+        {
+            if (batch.isDeleted(i))
+                continue;
+
+            if (duplicate[i] || this.hasMatch(batch, i, batch, kept))
+            {
+                batch.remove(i);
+                merged++;
+            }
+            else
+            {
+                kept.insert(this.key(batch.getLatitude(i), batch.getLongitude(i)), i);
+            }
+        }
+
+        this.pending.add(new Pending(batch, kept));
+        this.mergedCount += merged;
+        return merged;
+    }
+
+    /**
+     * Says a checked batch has been added to the store, so its placemarks are compared with there from the next batch
+     * on. Call it on the thread that owns the store, right after adding the batch; a batch that was never checked may
+     * be passed too, and is compared with all the same.
+     *
+     * @param batch the batch added.
+     * @param first the id in the store of the batch's first live placemark, live placemarks following in order.
+     */
+    public void added(PlacemarkStore batch, int first)
+    {
+        this.arrive(new Arrival(batch, first));
+    }
+
+    /**
+     * Says a checked batch will never be added to the store, such as when its import is cancelled, so it is no longer
+     * compared with.
+     *
+     * @param batch the batch dropped.
+     */
+    public void dropped(PlacemarkStore batch)
+    {
+        this.arrive(new Arrival(batch, -1));
+    }
+
+    /**
+     * Forgets every placemark imported so far, for when the store they were imported into is cleared. Returns at once;
+     * the placemarks are dropped before the next batch is checked.
+     */
+    public void reset()
+    {
+        this.arrive(new Arrival(null, -1));
+    }
+
+    /**
+     * Queues an arrival, and applies it at once unless a batch is being checked, so a batch added is not held on to
+     * until the next one comes.
+     */
+    protected void arrive(Arrival arrival)
+    {
+        this.arrivals.add(arrival);
+        this.applyArrivalsIfIdle();
+    }
+
+    protected void applyArrivalsIfIdle()
+    {
+        while (!this.arrivals.isEmpty() && this.checking.tryLock())
+        {
+            try
+            {
+                this.applyArrivals();
+            }
+            finally
+            {
+                this.checking.unlock();
+            }
+        }
+    }
+
+    /**
+     * Moves the batches added to the store from the pending list to the cells, in the order they were added, and
+     * forgets the store's earlier placemarks where it was cleared. Runs holding the checking lock.
+     */
+    protected void applyArrivals()
+    {
+        Arrival arrival;
+        while ((arrival = this.arrivals.poll()) != null)
+        {
+            if (arrival.batch == null)
+            {
+                this.cells.clear();
+                Lock lock = this.storeLock.readLock();
+                lock.lock();
+                try
+                {
+                    this.generation = this.store.getGeneration();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+                continue;
+            }
+
+            for (Iterator<Pending> it = this.pending.iterator(); it.hasNext(); )
+            {
+                if (it.next().batch == arrival.batch)
+                {
+                    it.remove();
+                    break;
+                }
+            }
+            if (arrival.first < 0)
+                continue;
+
+            // the store copies the live placemarks in order, so the id of each follows from the one before
+            int id = arrival.first;
+            for (int i = 0; i < arrival.batch.size(); i++)
+            {
+                if (arrival.batch.isDeleted(i))
+                    continue;
+                this.cells.insert(this.key(arrival.batch.getLatitude(i), arrival.batch.getLongitude(i)), id++);
+            }
+        }
+    }
+
+    protected void findImported(PlacemarkStore batch, boolean[] duplicate, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (batch.isDeleted(i))
+                continue;
+            for (Pending p : this.pending)
+            {
+                if (this.hasMatch(batch, i, p.batch, p.cells))
+                {
+                    duplicate[i] = true;
+                    break;
+                }
+            }
+        }
+
+        Lock lock = this.storeLock.readLock();
+        for (int chunk = from; chunk < to; chunk += LOCKED_CHUNK_SIZE)
+        {
+            lock.lock();
+            try
+            {
+                // a store cleared since the cells were filled no longer holds what they point at
+                if (this.store.getGeneration() != this.generation)
+                    return;
+
+                for (int i = chunk; i < Math.min(chunk + LOCKED_CHUNK_SIZE, to); i++)
+                {
+                    if (!duplicate[i] && !batch.isDeleted(i))
+                        duplicate[i] = this.hasMatch(batch, i, this.store, this.cells);
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    protected void findImportedInParallel(final PlacemarkStore batch, final boolean[] duplicate, int threads)
+    {
+        try
+        {
+            ParallelTasks.inChunks("Placemark deduplication", threads, batch.size(), CHUNK_SIZE,
+                new ParallelTasks.Chunk<Void>()
+                {
+                    public Void run(int from, int to)
+                    {
+                        findImported(batch, duplicate, from, to);
+                        return null;
+                    }
+                });
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while finding duplicate placemarks", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Unable to find duplicate placemarks", e.getCause());
+        }
+    }
+
+    /**
+     * Tells whether a placemark duplicates one hashed in a table of another store's placemarks.
+     */
+    protected boolean hasMatch(PlacemarkStore from, int id, PlacemarkStore target, CellTable table)
+    {
+        double lat = from.getLatitude(id);
+        double lon = from.getLongitude(id);
+
+        if (this.mode == Mode.EXACT)
+        {
+            for (int j = table.head(this.key(lat, lon)); j >= 0; j = table.next(j))
+            {
+                if (j < target.size() && !target.isDeleted(j) && target.getLatitude(j) == lat
+                    && target.getLongitude(j) == lon && target.getAltitude(j) == from.getAltitude(id)
+                    && from.hasSameLabel(id, target, j))
+                    return true;
+            }
+            return false;
+        }
+
+        // cells are twice the tolerance across, so only the cells the tolerance reaches into, usually two by two,
+        // are searched; a longitude cell narrows toward the poles, so the tolerance spans more of them there
+        double y = (lat + 90) / this.cellDegrees;
+        double x = (lon + 180) / this.columnDegrees;
+        double poleward = Math.min(90, Math.abs(lat) + this.cellDegrees);
+        double reach = 0.5 * this.cellDegrees / this.columnDegrees / Math.cos(Math.toRadians(poleward));
+        int firstRow = (int) Math.floor(y - 0.5);
+        int lastRow = (int) Math.floor(y + 0.5);
+        int first = (int) Math.floor(x - reach);
+        int last = (int) Math.floor(x + reach);
+        if (!(reach < this.columnCount / 2) || last - first + 1 >= this.columnCount)
+        {
+            first = 0;
+            last = this.columnCount - 1;
+        }
+
+        for (int r = firstRow; r <= lastRow; r++)
+        {
+            for (int c = first; c <= last; c++)
+            {
+                int wrapped = ((c % this.columnCount) + this.columnCount) % this.columnCount;
+                for (int j = table.head(cellKey(r, wrapped)); j >= 0; j = table.next(j))
+                {
+                    if (j >= target.size() || target.isDeleted(j))
+                        continue;
+                    if (this.mode == Mode.LABEL_AND_POSITION && !from.hasSameLabel(id, target, j))
+                        continue;
+                    if (PlacemarkIndex.distance(lat, lon, target.getLatitude(j), target.getLongitude(j))
+                        <= this.tolerance)
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    protected long key(double lat, double lon)
+    {
+        if (this.mode == Mode.EXACT)
+            return cellKey(PlacemarkStore.latitudeToFixed(lat), PlacemarkStore.longitudeToFixed(lon));
+
+        return cellKey(this.row(lat), this.column(lon));
+    }
+
+    protected int row(double lat)
+    {
+        return (int) Math.floor((lat + 90) / this.cellDegrees);
+    }
+
+    protected int column(double lon)
+    {
+        int column = (int) Math.floor((lon + 180) / this.columnDegrees);
+        return ((column % this.columnCount) + this.columnCount) % this.columnCount;
+    }
+
+    protected static long cellKey(int row, int column)
+    {
+        return (long) row << 32 | (column & 0xffffffffL);
+    }
+
+    protected static class Pending
+    {
+        protected final PlacemarkStore batch;
+        protected final CellTable cells;
+
+        protected Pending(PlacemarkStore batch, CellTable cells)
+        {
+            this.batch = batch;
+            this.cells = cells;
+        }
+    }
+
+    /**
+     * A batch added to the store at an id, a batch dropped if the id is negative, or a reset if there is no batch.
+     */
+    protected static class Arrival
+    {
+        protected final PlacemarkStore batch;
+        protected final int first;
+
+        protected Arrival(PlacemarkStore batch, int first)
+        {
+            this.batch = batch;
+            this.first = first;
+        }
+    }
+
+    /**
+     * A hash table from cell keys to the ids in each cell, chained through an array indexed by id so that a cell costs
+     * no object and an id four bytes.
+     */
+    protected static class CellTable
+    {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] keys = emptyKeys(1024);
+        private int[] heads = new int[1024];
+        private int[] next = new int[1024];
+        private int used = 0;
+
+        public int head(long key)
+        {
+            int slot = this.find(key);
+            return this.keys[slot] == EMPTY ? -1 : this.heads[slot];
+        }
+
+        public int next(int id)
+        {
+            return this.next[id];
+        }
+
+        public void insert(long key, int id)
+        {
+            if (id >= this.next.length)
+                this.next = Arrays.copyOf(this.next, Math.max(id + 1, this.next.length * 2));
+            if ((this.used + 1) * 2 > this.keys.length)
+                this.rehash();
+
+            int slot = this.find(key);
+            if (this.keys[slot] == EMPTY)
+            {
+                this.keys[slot] = key;
+                this.heads[slot] = -1;
+                this.used++;
+            }
+            this.next[id] = this.heads[slot];
+            this.heads[slot] = id;
+        }
+
+        public void clear()
+        {
+            Arrays.fill(this.keys, EMPTY);
+            this.used = 0;
+        }
+
+        private int find(long key)
+        {
+            int mask = this.keys.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while (this.keys[slot] != EMPTY && this.keys[slot] != key)
+            {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash()
+        {
+            long[] oldKeys = this.keys;
+            int[] oldHeads = this.heads;
+            this.keys = emptyKeys(oldKeys.length * 2);
+            this.heads = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                if (oldKeys[i] == EMPTY)
+                    continue;
+                int slot = this.find(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.heads[slot] = oldHeads[i];
+            }
+        }
+
+        private static long[] emptyKeys(int size)
+        {
+            long[] keys = new long[size];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+    }
+}
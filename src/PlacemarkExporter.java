@@ -0,0 +1,74 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A file format placemarks can be exported to. Formats are found by {@link PlacemarkExporters}, which has the built-in
+ * ones and any others named in a <code>META-INF/services/PlacemarkExporter</code> file on the class path.
+ * <p/>
+ * An exporter opens an {@link Output} on a stream, which is handed the placemarks one at a time and must write each
+ * straight through, holding nothing but a buffer, so several outputs can be fed from one pass over the placemarks and
+ * memory stays constant however many there are.
+ */
+public interface PlacemarkExporter
+{
+    /**
+     * Returns the name shown for the format, such as <code>GeoJSON</code>.
+     *
+     * @return the format name.
+     */
+    String getName();
+
+    /**
+     * Returns the file extensions of the format, without dots and in lower case, the usual one first.
+     *
+     * @return the extensions.
+     */
+    String[] getFileExtensions();
+
+    /**
+     * Opens an output on a stream.
+     *
+     * @param out               the stream to write to. It is closed when the output is closed.
+     * @param placemarkCount    about how many placemarks will be written, to pick how to write them.
+     * @param absoluteAltitudes true if the altitudes are above sea level, false to clamp the placemarks to the ground.
+     *
+     * @return the output.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    Output open(OutputStream out, long placemarkCount, boolean absoluteAltitudes) throws IOException;
+
+    /**
+     * Writes placemarks in one format. Usage is <code>start</code>, any number of <code>write</code> calls, then
+     * <code>end</code> and <code>close</code>.
+     */
+    interface Output extends Closeable
+    {
+        /**
+         * Writes whatever comes before the first placemark.
+         *
+         * @throws IOException if the stream cannot be written.
+         */
+        void start() throws IOException;
+
+        /**
+         * Writes one point placemark.
+         *
+         * @param name      the placemark name, or null to leave it unnamed.
+         * @param longitude the longitude in degrees.
+         * @param latitude  the latitude in degrees.
+         * @param altitude  the altitude in meters.
+         *
+         * @throws IOException if the stream cannot be written.
+         */
+        void write(String name, double longitude, double latitude, double altitude) throws IOException;
+
+        /**
+         * Writes whatever comes after the last placemark and flushes the stream.
+         *
+         * @throws IOException if the stream cannot be written.
+         */
+        void end() throws IOException;
+    }
+}
@@ -0,0 +1,96 @@
+import gov.nasa.worldwind.util.Logging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Finds the formats placemarks can be exported to: KML, KMZ, GeoJSON, CSV and GPX, then any {@link PlacemarkExporter}
+ * registered as a service on the class path. A registered format whose extension is already taken is still listed,
+ * but files are matched to the one found first.
+ */
+public final class PlacemarkExporters
+{
+    private static List<PlacemarkExporter> exporters;
+
+    private PlacemarkExporters()
+    {
+    }
+
+    /**
+     * Returns every format, the built-in ones first.
+     *
+     * @return the exporters, which cannot be changed.
+     */
+    public static synchronized List<PlacemarkExporter> getAll()
+    {
+        if (exporters == null)
+        {
+            List<PlacemarkExporter> found = new ArrayList<PlacemarkExporter>();
+            found.add(new KMLExporter());
+            found.add(new KMZExporter());
+            found.add(new GeoJSONExporter());
+            found.add(new CSVExporter());
+            found.add(new GPXExporter());
+
+            try
+            {
+                for (PlacemarkExporter exporter : ServiceLoader.load(PlacemarkExporter.class))
+                {
+                    found.add(exporter);
+                }
+            }
+            catch (ServiceConfigurationError e)
+            {
+                Logging.logger().warning("Unable to load placemark exporters: " + e.getMessage());
+            }
+
+            exporters = Collections.unmodifiableList(found);
+        }
+        return exporters;
+    }
+
+    /**
+     * Returns the format a file is written in, by its extension.
+     *
+     * @param path the file name or path.
+     *
+     * @return the exporter, or null if no format has the file's extension.
+     */
+    public static PlacemarkExporter forPath(String path)
+    {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0)
+            return null;
+
+        String extension = path.substring(dot + 1).toLowerCase(Locale.ROOT);
+        for (PlacemarkExporter exporter : getAll())
+        {
+            for (String candidate : exporter.getFileExtensions())
+            {
+                if (candidate.equals(extension))
+                    return exporter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the usual extension of every format, in order, for a file chooser.
+     *
+     * @return the extensions.
+     */
+    public static String[] getFileExtensions()
+    {
+        List<PlacemarkExporter> all = getAll();
+        String[] extensions = new String[all.size()];
+        for (int i = 0; i < extensions.length; i++)
+        {
+            extensions[i] = all.get(i).getFileExtensions()[0];
+        }
+        return extensions;
+    }
+}
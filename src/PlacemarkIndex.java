@@ -0,0 +1,714 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * A quadtree over latitude and longitude that answers range, nearest neighbor and radius queries on a changing set of
+ * points.
+ * <p/>
+ * Points are identified by a non-negative integer id chosen by the caller, usually their position in a list. Leaves
+ * split once they hold more than a few dozen points, so a query touches a handful of small nodes even with millions of
+ * points. Range queries accept a longitude interval that crosses the antimeridian, and distances are great-circle
+ * distances, so nearest neighbor and radius queries find points on the far side of the antimeridian or near the poles.
+ * <p/>
+ * This class is not thread safe.
+ */
+public class PlacemarkIndex
+{
+    /** The mean radius of the Earth in meters, used to turn angular distances into meters. */
+    public static final double EARTH_RADIUS = 6371008.8;
+
+    protected static final int LEAF_CAPACITY = 32;
+    protected static final int MAX_DEPTH = 24;
+
+    private static final int[] NO_IDS = new int[0];
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    protected static final class Node
+    {
+        final double minLat;
+        final double minLon;
+        final double maxLat;
+        final double maxLon;
+        final int depth;
+
+        int[] ids = new int[4];
+        int count;
+        // points in the node and everything below it
+        int total;
+        Node[] children;
+
+        Node(double minLat, double minLon, double maxLat, double maxLon, int depth)
+        {
+            this.minLat = minLat;
+            this.minLon = minLon;
+            this.maxLat = maxLat;
+            this.maxLon = maxLon;
+            this.depth = depth;
+        }
+
+        Node child(double lat, double lon)
+        {
+            int quadrant = (lat >= (this.minLat + this.maxLat) / 2 ? 2 : 0)
+                + (lon >= (this.minLon + this.maxLon) / 2 ? 1 : 0);
+            return this.children[quadrant];
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    // Coordinates by id, in degrees, so points can be removed and measured without asking the caller. They are kept
+    // in pages of ids allocated on first use, so an index over a few ids late in a large store stays small and adding
+    // a point never copies the coordinates already held.
+    private double[][] lats = new double[16][];
+    private double[][] lons = new double[16][];
+    private boolean[][] present = new boolean[16][];
+
+    public PlacemarkIndex()
+    {
+        this.clear();
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Removes every point.
+     */
+    public void clear()
+    {
+        this.root = new Node(-90, -180, 90, 180, 0);
+        this.size = 0;
+        Arrays.fill(this.lats, null);
+        Arrays.fill(this.lons, null);
+        Arrays.fill(this.present, null);
+    }
+
+    /**
+     * Adds a point. An id that is already present is moved to the new location.
+     *
+     * @param id  the point's id.
+     * @param lat the latitude in degrees.
+     * @param lon the longitude in degrees.
+     */
+    public void insert(int id, double lat, double lon)
+    {
+        if (id < 0)
+            throw new IllegalArgumentException("Negative id " + id);
+
+        this.remove(id);
+        this.ensurePage(id >>> PAGE_SHIFT);
+
+        lat = clampLatitude(lat);
+        lon = normalizeLongitude(lon);
+        int page = id >>> PAGE_SHIFT;
+        int slot = id & PAGE_MASK;
+        this.lats[page][slot] = lat;
+        this.lons[page][slot] = lon;
+        this.present[page][slot] = true;
+        this.size++;
+
+        Node node = this.root;
+        while (node.children != null)
+        {
+            node.total++;
+            node = node.child(lat, lon);
+        }
+        this.addToLeaf(node, id);
+    }
+
+    /**
+     * Removes a point.
+     *
+     * @param id the point's id.
+     *
+     * @return true if the point was present.
+     */
+    public boolean remove(int id)
+    {
+        int page = id >>> PAGE_SHIFT;
+        int slot = id & PAGE_MASK;
+        if (id < 0 || page >= this.present.length || this.present[page] == null || !this.present[page][slot])
+            return false;
+
+        Node node = this.root;
+        while (node.children != null)
+        {
+            node.total--;
+            node = node.child(this.lats[page][slot], this.lons[page][slot]);
+        }
+        node.total--;
+
+        for (int i = 0; i < node.count; i++)
+        {
+            if (node.ids[i] == id)
+            {
+                node.ids[i] = node.ids[--node.count];
+                break;
+            }
+        }
+
+        this.present[page][slot] = false;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Finds the points inside a latitude/longitude box. If <code>minLon</code> is greater than <code>maxLon</code>
+     * the box is taken to cross the antimeridian.
+     *
+     * @param minLat the southern edge in degrees.
+     * @param minLon the western edge in degrees.
+     * @param maxLat the northern edge in degrees.
+     * @param maxLon the eastern edge in degrees.
+     *
+     * @return the ids of the points in the box, in no particular order.
+     */
+    public int[] range(double minLat, double minLon, double maxLat, double maxLon)
+    {
+        IdBuffer result = new IdBuffer();
+        minLon = normalizeLongitude(minLon);
+        maxLon = normalizeLongitude(maxLon);
+
+        if (minLon <= maxLon)
+        {
+            this.range(this.root, minLat, minLon, maxLat, maxLon, result);
+        }
+        else
+        {
+            this.range(this.root, minLat, minLon, maxLat, 180, result);
+            this.range(this.root, minLat, -180, maxLat, maxLon, result);
+        }
+
+        return result.toArray();
+    }
+
+    /**
+     * Finds an evenly spread sample of the points inside a latitude/longitude box, for drawing a view that holds more
+     * points than can be drawn. Every point is returned if there are no more than <code>limit</code>; otherwise every
+     * n-th point in the quadtree's order, about <code>limit</code> of them. Subtrees with no sampled point are skipped
+     * by their point count, so the cost follows the size of the sample rather than the number of points in the box.
+     *
+     * @param minLat the southern edge in degrees.
+     * @param minLon the western edge in degrees.
+     * @param maxLat the northern edge in degrees.
+     * @param maxLon the eastern edge in degrees.
+     * @param limit  the most points to return.
+     *
+     * @return the ids of the sampled points, in no particular order.
+     */
+    public int[] range(double minLat, double minLon, double maxLat, double maxLon, int limit)
+    {
+        minLon = normalizeLongitude(minLon);
+        maxLon = normalizeLongitude(maxLon);
+        double[][] boxes = minLon <= maxLon
+            ? new double[][] {{minLat, minLon, maxLat, maxLon}}
+            : new double[][] {{minLat, minLon, maxLat, 180}, {minLat, -180, maxLat, maxLon}};
+
+        long count = 0;
+        for (double[] box : boxes)
+        {
+            count += this.count(this.root, box[0], box[1], box[2], box[3]);
+        }
+
+        Sampler sampler = new Sampler(count <= limit ? 1 : (double) count / limit);
+        for (double[] box : boxes)
+        {
+            this.sample(this.root, box[0], box[1], box[2], box[3], sampler);
+        }
+        return sampler.result.toArray();
+    }
+
+    /**
+     * Finds the points closest to a location.
+     *
+     * @param lat the latitude in degrees.
+     * @param lon the longitude in degrees.
+     * @param k   the number of points to find.
+     *
+     * @return the ids of at most <code>k</code> points, nearest first.
+     */
+    public int[] nearest(double lat, double lon, int k)
+    {
+        return this.nearest(lat, lon, k, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Finds the points closest to a location that are no further than a given distance.
+     *
+     * @param lat         the latitude in degrees.
+     * @param lon         the longitude in degrees.
+     * @param k           the number of points to find.
+     * @param maxDistance the largest distance in meters.
+     *
+     * @return the ids of at most <code>k</code> points, nearest first.
+     */
+    public int[] nearest(double lat, double lon, int k, double maxDistance)
+    {
+        if (k <= 0 || this.size == 0)
+            return NO_IDS;
+
+        double phi = Math.toRadians(clampLatitude(lat));
+        double lambda = Math.toRadians(normalizeLongitude(lon));
+        double limit = maxDistance / EARTH_RADIUS;
+
+        // Best-first search: nodes come off the queue in order of their distance, and the search stops when the next
+        // node is further than the k-th best point found so far.
+        NearestHeap best = new NearestHeap(k);
+        PriorityQueue<NodeDistance> queue = new PriorityQueue<NodeDistance>();
+        queue.add(new NodeDistance(this.root, 0));
+
+        while (!queue.isEmpty())
+        {
+            NodeDistance next = queue.poll();
+            if (next.distance > limit || (best.isFull() && next.distance > best.worst()))
+                break;
+
+            Node node = next.node;
+            if (node.children == null)
+            {
+                for (int i = 0; i < node.count; i++)
+                {
+                    int id = node.ids[i];
+                    double d = angle(phi, lambda, Math.toRadians(this.lat(id)), Math.toRadians(this.lon(id)));
+                    if (d <= limit)
+                        best.offer(id, d);
+                }
+            }
+            else
+            {
+                for (Node child : node.children)
+                {
+                    if (child.count > 0 || child.children != null)
+                        queue.add(new NodeDistance(child, minAngle(phi, lambda, child)));
+                }
+            }
+        }
+
+        return best.toSortedArray();
+    }
+
+    /**
+     * Finds the points within a distance of a location.
+     *
+     * @param lat    the latitude in degrees.
+     * @param lon    the longitude in degrees.
+     * @param meters the distance in meters.
+     *
+     * @return the ids of the points, in no particular order.
+     */
+    public int[] withinRadius(double lat, double lon, double meters)
+    {
+        IdBuffer result = new IdBuffer();
+        this.withinRadius(this.root, Math.toRadians(clampLatitude(lat)), Math.toRadians(normalizeLongitude(lon)),
+            meters / EARTH_RADIUS, result);
+        return result.toArray();
+    }
+
+    /**
+     * Computes the great-circle distance between two locations.
+     *
+     * @param lat1 the first latitude in degrees.
+     * @param lon1 the first longitude in degrees.
+     * @param lat2 the second latitude in degrees.
+     * @param lon2 the second longitude in degrees.
+     *
+     * @return the distance in meters.
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2)
+    {
+        return EARTH_RADIUS * angle(Math.toRadians(lat1), Math.toRadians(lon1), Math.toRadians(lat2),
+            Math.toRadians(lon2));
+    }
+
+    private double lat(int id)
+    {
+        return this.lats[id >>> PAGE_SHIFT][id & PAGE_MASK];
+    }
+
+    private double lon(int id)
+    {
+        return this.lons[id >>> PAGE_SHIFT][id & PAGE_MASK];
+    }
+
+    private void ensurePage(int page)
+    {
+        if (page >= this.present.length)
+        {
+            // only the directory of pages is copied, a reference for every few thousand ids
+            int length = Math.max(page + 1, this.present.length * 2);
+            this.lats = Arrays.copyOf(this.lats, length);
+            this.lons = Arrays.copyOf(this.lons, length);
+            this.present = Arrays.copyOf(this.present, length);
+        }
+
+        if (this.present[page] == null)
+        {
+            this.lats[page] = new double[PAGE_SIZE];
+            this.lons[page] = new double[PAGE_SIZE];
+            this.present[page] = new boolean[PAGE_SIZE];
+        }
+    }
+
+    private void addToLeaf(Node leaf, int id)
+    {
+        if (leaf.count == leaf.ids.length)
+            leaf.ids = Arrays.copyOf(leaf.ids, leaf.ids.length * 2);
+        leaf.ids[leaf.count++] = id;
+        leaf.total++;
+
+        if (leaf.count <= LEAF_CAPACITY || leaf.depth >= MAX_DEPTH)
+            return;
+
+        double midLat = (leaf.minLat + leaf.maxLat) / 2;
+        double midLon = (leaf.minLon + leaf.maxLon) / 2;
+        int depth = leaf.depth + 1;
+        leaf.children = new Node[] {
+            new Node(leaf.minLat, leaf.minLon, midLat, midLon, depth),
+            new Node(leaf.minLat, midLon, midLat, leaf.maxLon, depth),
+            new Node(midLat, leaf.minLon, leaf.maxLat, midLon, depth),
+            new Node(midLat, midLon, leaf.maxLat, leaf.maxLon, depth)};
+
+        int[] ids = leaf.ids;
+        int count = leaf.count;
+        leaf.ids = null;
+        leaf.count = 0;
+        for (int i = 0; i < count; i++)
+        {
+            this.addToLeaf(leaf.child(this.lat(ids[i]), this.lon(ids[i])), ids[i]);
+        }
+    }
+
+    private void range(Node node, double minLat, double minLon, double maxLat, double maxLon, IdBuffer result)
+    {
+        if (node.minLat > maxLat || node.maxLat < minLat || node.minLon > maxLon || node.maxLon < minLon)
+            return;
+
+        if (node.children != null)
+        {
+            for (Node child : node.children)
+            {
+                this.range(child, minLat, minLon, maxLat, maxLon, result);
+            }
+            return;
+        }
+
+        boolean contained = node.minLat >= minLat && node.maxLat <= maxLat && node.minLon >= minLon
+            && node.maxLon <= maxLon;
+        for (int i = 0; i < node.count; i++)
+        {
+            int id = node.ids[i];
+            if (contained || this.inBox(id, minLat, minLon, maxLat, maxLon))
+                result.add(id);
+        }
+    }
+
+    private long count(Node node, double minLat, double minLon, double maxLat, double maxLon)
+    {
+        if (node.minLat > maxLat || node.maxLat < minLat || node.minLon > maxLon || node.maxLon < minLon)
+            return 0;
+
+        if (node.minLat >= minLat && node.maxLat <= maxLat && node.minLon >= minLon && node.maxLon <= maxLon)
+            return node.total;
+
+        long count = 0;
+        if (node.children != null)
+        {
+            for (Node child : node.children)
+            {
+                count += this.count(child, minLat, minLon, maxLat, maxLon);
+            }
+            return count;
+        }
+
+        for (int i = 0; i < node.count; i++)
+        {
+            if (this.inBox(node.ids[i], minLat, minLon, maxLat, maxLon))
+                count++;
+        }
+        return count;
+    }
+
+    private void sample(Node node, double minLat, double minLon, double maxLat, double maxLon, Sampler sampler)
+    {
+        if (node.minLat > maxLat || node.maxLat < minLat || node.minLon > maxLon || node.maxLon < minLon)
+            return;
+
+        // a subtree wholly inside the box that the next sample lies beyond is counted past without visiting it
+        boolean contained = node.minLat >= minLat && node.maxLat <= maxLat && node.minLon >= minLon
+            && node.maxLon <= maxLon;
+        if (contained && sampler.seen + node.total <= sampler.next)
+        {
+            sampler.seen += node.total;
+            return;
+        }
+
+        if (node.children != null)
+        {
+            for (Node child : node.children)
+            {
+                this.sample(child, minLat, minLon, maxLat, maxLon, sampler);
+            }
+            return;
+        }
+
+        for (int i = 0; i < node.count; i++)
+        {
+            int id = node.ids[i];
+            if (contained || this.inBox(id, minLat, minLon, maxLat, maxLon))
+                sampler.offer(id);
+        }
+    }
+
+    private boolean inBox(int id, double minLat, double minLon, double maxLat, double maxLon)
+    {
+        double lat = this.lat(id);
+        double lon = this.lon(id);
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    private void withinRadius(Node node, double phi, double lambda, double limit, IdBuffer result)
+    {
+        if (minAngle(phi, lambda, node) > limit)
+            return;
+
+        if (node.children != null)
+        {
+            for (Node child : node.children)
+            {
+                this.withinRadius(child, phi, lambda, limit, result);
+            }
+            return;
+        }
+
+        for (int i = 0; i < node.count; i++)
+        {
+            int id = node.ids[i];
+            if (angle(phi, lambda, Math.toRadians(this.lat(id)), Math.toRadians(this.lon(id))) <= limit)
+                result.add(id);
+        }
+    }
+
+    /**
+     * Computes the smallest angular distance from a location to any point of a node's box.
+     */
+    protected static double minAngle(double phi, double lambda, Node node)
+    {
+        double minPhi = Math.toRadians(node.minLat);
+        double maxPhi = Math.toRadians(node.maxLat);
+        double minLambda = Math.toRadians(node.minLon);
+        double maxLambda = Math.toRadians(node.maxLon);
+
+        if (lambda >= minLambda && lambda <= maxLambda)
+            return Math.max(0, Math.max(minPhi - phi, phi - maxPhi));
+
+        // Longitude separation to the nearest meridian edge, going either way around the antimeridian.
+        double toMin = wrap(minLambda - lambda);
+        double toMax = wrap(lambda - maxLambda);
+        double deltaLambda = Math.min(Math.abs(toMin), Math.abs(toMax));
+
+        double edgeLambda = Math.abs(toMin) <= Math.abs(toMax) ? minLambda : maxLambda;
+        double cornerDistance = Math.min(angle(phi, lambda, minPhi, edgeLambda), angle(phi, lambda, maxPhi,
+            edgeLambda));
+        if (deltaLambda >= Math.PI / 2)
+            return cornerDistance;
+
+        // The closest point of the edge's great circle; if it lies on the edge it is the nearest point of the box.
+        double footPhi = Math.atan(Math.tan(phi) / Math.cos(deltaLambda));
+        if (footPhi >= minPhi && footPhi <= maxPhi)
+            return Math.asin(Math.min(1, Math.cos(phi) * Math.sin(deltaLambda)));
+
+        return cornerDistance;
+    }
+
+    /**
+     * Computes the central angle between two locations given in radians, using the haversine formula.
+     */
+    protected static double angle(double phi1, double lambda1, double phi2, double lambda2)
+    {
+        double sinHalfPhi = Math.sin((phi2 - phi1) / 2);
+        double sinHalfLambda = Math.sin((lambda2 - lambda1) / 2);
+        double a = sinHalfPhi * sinHalfPhi + Math.cos(phi1) * Math.cos(phi2) * sinHalfLambda * sinHalfLambda;
+        return 2 * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static double wrap(double radians)
+    {
+        while (radians > Math.PI)
+            radians -= 2 * Math.PI;
+        while (radians < -Math.PI)
+            radians += 2 * Math.PI;
+        return radians;
+    }
+
+    private static double clampLatitude(double lat)
+    {
+        return Math.max(-90, Math.min(90, lat));
+    }
+
+    private static double normalizeLongitude(double lon)
+    {
+        if (lon >= -180 && lon <= 180)
+            return lon;
+
+        lon = ((lon + 180) % 360 + 360) % 360 - 180;
+        return lon;
+    }
+
+    private static final class NodeDistance implements Comparable<NodeDistance>
+    {
+        final Node node;
+        final double distance;
+
+        NodeDistance(Node node, double distance)
+        {
+            this.node = node;
+            this.distance = distance;
+        }
+
+        public int compareTo(NodeDistance that)
+        {
+            return Double.compare(this.distance, that.distance);
+        }
+    }
+
+    /** A bounded max-heap of the closest ids seen so far. */
+    private static final class NearestHeap
+    {
+        final int[] ids;
+        final double[] distances;
+        int count;
+
+        NearestHeap(int k)
+        {
+            this.ids = new int[k];
+            this.distances = new double[k];
+        }
+
+        boolean isFull()
+        {
+            return this.count == this.ids.length;
+        }
+
+        double worst()
+        {
+            return this.distances[0];
+        }
+
+        void offer(int id, double distance)
+        {
+            if (this.isFull())
+            {
+                if (distance >= this.distances[0])
+                    return;
+                this.ids[0] = id;
+                this.distances[0] = distance;
+                this.siftDown(0);
+                return;
+            }
+
+            int i = this.count++;
+            this.ids[i] = id;
+            this.distances[i] = distance;
+            while (i > 0)
+            {
+                int parent = (i - 1) / 2;
+                if (this.distances[parent] >= this.distances[i])
+                    break;
+                this.swap(i, parent);
+                i = parent;
+            }
+        }
+
+        int[] toSortedArray()
+        {
+            int n = this.count;
+            int[] sorted = new int[n];
+            while (this.count > 0)
+            {
+                sorted[this.count - 1] = this.ids[0];
+                this.count--;
+                this.ids[0] = this.ids[this.count];
+                this.distances[0] = this.distances[this.count];
+                this.siftDown(0);
+            }
+            return sorted;
+        }
+
+        private void siftDown(int i)
+        {
+            while (true)
+            {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < this.count && this.distances[left] > this.distances[largest])
+                    largest = left;
+                if (right < this.count && this.distances[right] > this.distances[largest])
+                    largest = right;
+                if (largest == i)
+                    return;
+                this.swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int a, int b)
+        {
+            int id = this.ids[a];
+            this.ids[a] = this.ids[b];
+            this.ids[b] = id;
+            double d = this.distances[a];
+            this.distances[a] = this.distances[b];
+            this.distances[b] = d;
+        }
+    }
+
+    /** Takes every n-th point offered, where n need not be whole. */
+    private static final class Sampler
+    {
+        final double step;
+        final IdBuffer result = new IdBuffer();
+        // points offered or skipped so far, and the position of the next one to take
+        long seen;
+        double next;
+
+        Sampler(double step)
+        {
+            this.step = step;
+        }
+
+        void offer(int id)
+        {
+            if (this.seen++ >= this.next)
+            {
+                this.result.add(id);
+                this.next += this.step;
+            }
+        }
+    }
+
+    /** A growable list of ids. */
+    private static final class IdBuffer
+    {
+        int[] ids = new int[16];
+        int count;
+
+        void add(int id)
+        {
+            if (this.count == this.ids.length)
+                this.ids = Arrays.copyOf(this.ids, this.count * 2);
+            this.ids[this.count++] = id;
+        }
+
+        int[] toArray()
+        {
+            return Arrays.copyOf(this.ids, this.count);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import gov.nasa.worldwind.WorldWind;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Sector;
+import gov.nasa.worldwind.layers.AbstractLayer;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.PointPlacemark;
+
+import java.awt.Point;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Displays the points of one source in a {@link PlacemarkStore}, such as every point of a digitizing session or every
+ * point of a streamed import.
+ * <p/>
+ * The store holds the points; this layer only creates point placemarks for the ones inside the visible sector, found
+ * through a {@link PlacemarkIndex} over the source's points alone, so other sources add nothing to its cost. The
+ * placemarks are cached by point id and reused until they leave the view, and the visible set is only looked up again
+ * when the view sector or the store changes. When more than {@link #MAX_DISPLAYED} imported points are in view an
+ * evenly spread subset of them is drawn, sampled in the index without visiting the rest; digitized points are always
+ * all drawn, so a new click is never left out. All use is expected on the event dispatch thread, which is also where
+ * World Wind renders.
+ */
+public class PlacemarkLayer extends AbstractLayer
+{
+    /** The most imported placemarks drawn at once. */
+    protected static final int MAX_DISPLAYED = 5000;
+
+    protected final PlacemarkStore store;
+    protected final PlacemarkIndex index;
+    protected final int source;
+
+    protected Map<Integer, PointPlacemark> displayed = new HashMap<Integer, PointPlacemark>();
+    protected PointPlacemark[] visible = new PointPlacemark[0];
+    protected Sector visibleSector;
+    protected int storeModCount = -1;
+    protected int storeGeneration;
+
+    /**
+     * Creates a layer showing one source of a store.
+     *
+     * @param store  the store holding the points.
+     * @param index  the spatial index over the ids of the source's points.
+     * @param source the source whose points are shown.
+     */
+    public PlacemarkLayer(PlacemarkStore store, PlacemarkIndex index, int source)
+    {
+        this.store = store;
+        this.index = index;
+        this.source = source;
+        this.storeGeneration = store.getGeneration();
+    }
+
+    public int getSource()
+    {
+        return this.source;
+    }
+
+    /**
+     * Returns the number of placemarks created for the current view.
+     *
+     * @return the number of placemarks drawn each frame.
+     */
+    public int getDisplayedCount()
+    {
+        return this.visible.length;
+    }
+
+    /**
+     * Drops the cached placemarks. They are created again for whatever is in view on the next frame.
+     */
+    @Override
+    public void dispose()
+    {
+        this.displayed.clear();
+        this.visible = new PointPlacemark[0];
+        this.visibleSector = null;
+    }
+
+    @Override
+    protected void doRender(DrawContext dc)
+    {
+        for (PointPlacemark placemark : this.update(dc))
+        {
+            placemark.render(dc);
+        }
+    }
+
+    @Override
+    protected void doPick(DrawContext dc, Point point)
+    {
+        for (PointPlacemark placemark : this.update(dc))
+        {
+            placemark.render(dc);
+        }
+    }
+
+    protected PointPlacemark[] update(DrawContext dc)
+    {
+        return this.update(dc.getVisibleSector());
+    }
+
+    /**
+     * Returns the placemarks to draw for a view, looking them up again only if the sector or the store has changed.
+     *
+     * @param sector the visible sector, or null if nothing is visible.
+     *
+     * @return the placemarks in the sector.
+     */
+    protected PointPlacemark[] update(Sector sector)
+    {
+        if (sector == null)
+            return new PointPlacemark[0];
+
+        if (sector.equals(this.visibleSector) && this.storeModCount == this.store.getModCount())
+            return this.visible;
+
+        // Ids refer to different points once the store has been cleared
+        if (this.storeGeneration != this.store.getGeneration())
+        {
+            this.displayed.clear();
+            this.storeGeneration = this.store.getGeneration();
+        }
+
+        int[] ids = this.index.range(sector.getMinLatitude().degrees, sector.getMinLongitude().degrees,
+            sector.getMaxLatitude().degrees, sector.getMaxLongitude().degrees,
+            this.source == PlacemarkStore.SESSION_SOURCE ? Integer.MAX_VALUE : MAX_DISPLAYED);
+
+        PointPlacemark[] placemarks = new PointPlacemark[ids.length];
+        Map<Integer, PointPlacemark> kept = new HashMap<Integer, PointPlacemark>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++)
+        {
+            int id = ids[i];
+            PointPlacemark placemark = this.displayed.get(id);
+            if (placemark == null)
+                placemark = this.createPlacemark(id);
+            else if (this.isMoved(placemark, id))
+                placemark.setPosition(Position.fromDegrees(this.store.getLatitude(id), this.store.getLongitude(id),
+                    this.store.getAltitude(id)));
+
+            kept.put(id, placemark);
+            placemarks[i] = placemark;
+        }
+
+        this.displayed = kept;
+        this.visible = placemarks;
+        this.visibleSector = sector;
+        this.storeModCount = this.store.getModCount();
+
+        return placemarks;
+    }
+
+    /**
+     * Tells whether a point has been moved in the store, such as by reprojecting, since its placemark was made.
+     */
+    protected boolean isMoved(PointPlacemark placemark, int id)
+    {
+        Position position = placemark.getPosition();
+        return position.getLatitude().degrees != this.store.getLatitude(id)
+            || position.getLongitude().degrees != this.store.getLongitude(id);
+    }
+
+    protected PointPlacemark createPlacemark(int id)
+    {
+        PointPlacemark placemark = new PointPlacemark(Position.fromDegrees(this.store.getLatitude(id),
+            this.store.getLongitude(id), this.store.getAltitude(id)));
+        placemark.setLabelText(this.store.getLabel(id));
+        placemark.setLineEnabled(false);
+        placemark.setAltitudeMode(WorldWind.CLAMP_TO_GROUND);
+
+        return placemark;
+    }
+}
@@ -0,0 +1,516 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds point placemarks in primitive columns instead of as World Wind objects.
+ * <p/>
+ * Latitude and longitude are stored as fixed-point integers in units of 1e-7 degrees (about a centimeter), with
+ * latitudes clamped to the poles and longitudes wrapped into -180 to 180 so that they fit, altitude as a float, and
+ * each label as a reference into a shared UTF-8 label pool plus an optional number, so sequential labels such as P1,
+ * P2, P3 share a single pooled prefix. A point costs 25 bytes plus its share of the pool, and renderable placemarks
+ * are only created for the points that are actually displayed.
+ * <p/>
+ * Each point has an id, its position in the store, and a source: {@link #SESSION_SOURCE} for points digitized in this
+ * session, or a number identifying the import it came from. Ids are never reused while points are removed: a removed
+ * point leaves a deleted slot behind until the store is cleared, which starts a new {@link #getGeneration() generation}.
+ * <p/>
+ * The columns are kept in pages of 65536 points. Only the last page grows by copying, so adding a point
+ * never copies more than one page, however large the store, and a click on a store of millions of imported points
+ * does not stall the event dispatch thread while the whole store is copied.
+ * <p/>
+ * This class is not thread safe.
+ */
+public class PlacemarkStore
+{
+    /** The source of points digitized in the current session. */
+    public static final int SESSION_SOURCE = 0;
+
+    /** The label number of a point whose label has no number. */
+    public static final int NO_NUMBER = -1;
+
+    protected static final double FIXED_POINT_SCALE = 1e7;
+
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MIN_GROWTH = 16;
+    private static final int INTERN_CACHE_SIZE = 4096;
+
+    // Columns by page, then by point within the page. Every page but the last allocated is full.
+    private int[][] lats;
+    private int[][] lons;
+    private float[][] alts;
+    private int[][] labels;
+    private int[][] numbers;
+    private int[][] sources;
+    private byte[][] flags;
+    private int capacity = 0;
+    private int size = 0;
+    private int deleted = 0;
+    private int modCount = 0;
+    private int generation = 0;
+
+    private static final byte DELETED = 1;
+
+    // Label text, each entry a two byte length followed by UTF-8 bytes. Offset 0 is the empty label.
+    private byte[] pool;
+    private int poolSize = 2;
+    // Recently pooled labels, so repeated prefixes are stored once without keeping every label in a map.
+    private final Map<String, Integer> internCache = new LinkedHashMap<String, Integer>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest)
+        {
+            return this.size() > INTERN_CACHE_SIZE;
+        }
+    };
+
+    public PlacemarkStore()
+    {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates a store with room for a number of points before it grows. A store made with no room costs a few hundred
+     * bytes until points are added, for when many small stores are made and most stay empty.
+     *
+     * @param capacity the number of points to make room for.
+     */
+    public PlacemarkStore(int capacity)
+    {
+        int pages = Math.max(1, (capacity + PAGE_MASK) >>> PAGE_SHIFT);
+        this.lats = new int[pages][];
+        this.lons = new int[pages][];
+        this.alts = new float[pages][];
+        this.labels = new int[pages][];
+        this.numbers = new int[pages][];
+        this.sources = new int[pages][];
+        this.flags = new byte[pages][];
+        this.ensureCapacity(capacity);
+        this.pool = new byte[capacity == 0 ? 2 : 1024];
+    }
+
+    /**
+     * Adds a point whose label is stored as given. A label ending in digits is split into a pooled prefix and a
+     * number, so imported sequences share their prefix too.
+     *
+     * @param lat    the latitude in degrees.
+     * @param lon    the longitude in degrees.
+     * @param alt    the altitude in meters.
+     * @param label  the label, or null for none.
+     * @param source the source of the point.
+     *
+     * @return the id of the new point.
+     */
+    public int add(double lat, double lon, double alt, String label, int source)
+    {
+        if (label == null)
+            return this.add(lat, lon, alt, "", NO_NUMBER, source);
+
+        // Split off up to nine trailing digits. Leading zeros stay in the prefix so the label is rebuilt exactly.
+        int end = label.length();
+        int start = end;
+        while (start > 0 && end - start < 9 && label.charAt(start - 1) >= '0' && label.charAt(start - 1) <= '9')
+        {
+            start--;
+        }
+        while (start < end - 1 && label.charAt(start) == '0')
+        {
+            start++;
+        }
+
+        if (start == end)
+            return this.add(lat, lon, alt, label, NO_NUMBER, source);
+
+        return this.add(lat, lon, alt, label.substring(0, start), Integer.parseInt(label.substring(start)), source);
+    }
+
+    /**
+     * Adds a point with a numbered label, such as a digitized point labeled with a prefix and sequence number.
+     *
+     * @param lat    the latitude in degrees.
+     * @param lon    the longitude in degrees.
+     * @param alt    the altitude in meters.
+     * @param prefix the label text before the number.
+     * @param number the label number, or {@link #NO_NUMBER} if the label is just the prefix.
+     * @param source the source of the point.
+     *
+     * @return the id of the new point.
+     *
+     * @throws IllegalArgumentException if the latitude or longitude is not a finite number.
+     */
+    public int add(double lat, double lon, double alt, String prefix, int number, int source)
+    {
+        checkLocation(lat, lon);
+        this.ensureCapacity(this.size + 1);
+
+        int id = this.size++;
+        int page = id >>> PAGE_SHIFT;
+        int i = id & PAGE_MASK;
+        this.lats[page][i] = latitudeToFixed(lat);
+        this.lons[page][i] = longitudeToFixed(lon);
+        this.alts[page][i] = (float) alt;
+        this.labels[page][i] = this.intern(prefix);
+        this.numbers[page][i] = number;
+        this.sources[page][i] = source;
+        this.flags[page][i] = 0;
+        this.modCount++;
+
+        return id;
+    }
+
+    /**
+     * Appends the live points of another store. The other store may be this one, which appends a copy of its live
+     * points.
+     *
+     * @param other  the store to copy from.
+     * @param source the source given to every copied point.
+     *
+     * @return the id of the first copied point.
+     */
+    public int addAll(PlacemarkStore other, int source)
+    {
+        int first = this.size;
+        // read before appending, since appending a store to itself grows the other store too
+        int n = other.size;
+        this.ensureCapacity(this.size + other.count());
+
+        for (int i = 0; i < n; i++)
+        {
+            if (other.isDeleted(i))
+                continue;
+
+            int id = this.size++;
+            int page = id >>> PAGE_SHIFT;
+            int j = id & PAGE_MASK;
+            int otherPage = i >>> PAGE_SHIFT;
+            int otherJ = i & PAGE_MASK;
+            this.lats[page][j] = other.lats[otherPage][otherJ];
+            this.lons[page][j] = other.lons[otherPage][otherJ];
+            this.alts[page][j] = other.alts[otherPage][otherJ];
+            this.labels[page][j] = this == other ? other.labels[otherPage][otherJ]
+                : this.intern(other.getLabelPrefix(i));
+            this.numbers[page][j] = other.numbers[otherPage][otherJ];
+            this.sources[page][j] = source;
+            this.flags[page][j] = 0;
+        }
+        this.modCount++;
+
+        return first;
+    }
+
+    /**
+     * Removes a point, leaving a deleted slot so that its id is not given to another point.
+     *
+     * @param id the point to remove.
+     */
+    public void remove(int id)
+    {
+        if (id < 0 || id >= this.size || this.isDeleted(id))
+            return;
+
+        this.flags[id >>> PAGE_SHIFT][id & PAGE_MASK] = DELETED;
+        this.deleted++;
+        this.modCount++;
+    }
+
+    /**
+     * Moves a point, keeping its id, label and altitude.
+     *
+     * @param id  the point to move.
+     * @param lat the new latitude in degrees.
+     * @param lon the new longitude in degrees.
+     *
+     * @throws IllegalArgumentException if the latitude or longitude is not a finite number.
+     */
+    public void setLocation(int id, double lat, double lon)
+    {
+        if (id < 0 || id >= this.size || this.isDeleted(id))
+            return;
+
+        checkLocation(lat, lon);
+        this.lats[id >>> PAGE_SHIFT][id & PAGE_MASK] = latitudeToFixed(lat);
+        this.lons[id >>> PAGE_SHIFT][id & PAGE_MASK] = longitudeToFixed(lon);
+        this.modCount++;
+    }
+
+    /**
+     * Removes every point and empties the label pool. Ids handed out before this are reused afterwards.
+     */
+    public void clear()
+    {
+        this.size = 0;
+        this.deleted = 0;
+        this.poolSize = 2;
+        this.internCache.clear();
+        this.modCount++;
+        this.generation++;
+    }
+
+    /**
+     * Returns the number of id slots in use, including deleted ones. Valid ids are 0 to <code>size() - 1</code>.
+     *
+     * @return the number of slots.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of points that have not been removed.
+     *
+     * @return the live point count.
+     */
+    public int count()
+    {
+        return this.size - this.deleted;
+    }
+
+    /**
+     * Returns a number that changes whenever points are added, moved or removed, so views can tell when to refresh.
+     *
+     * @return the modification count.
+     */
+    public int getModCount()
+    {
+        return this.modCount;
+    }
+
+    /**
+     * Returns a number that changes whenever the store is cleared, after which ids may refer to different points.
+     *
+     * @return the generation.
+     */
+    public int getGeneration()
+    {
+        return this.generation;
+    }
+
+    public boolean isDeleted(int id)
+    {
+        return this.flags[id >>> PAGE_SHIFT][id & PAGE_MASK] == DELETED;
+    }
+
+    public double getLatitude(int id)
+    {
+        return this.lats[id >>> PAGE_SHIFT][id & PAGE_MASK] / FIXED_POINT_SCALE;
+    }
+
+    public double getLongitude(int id)
+    {
+        return this.lons[id >>> PAGE_SHIFT][id & PAGE_MASK] / FIXED_POINT_SCALE;
+    }
+
+    public double getAltitude(int id)
+    {
+        return this.alts[id >>> PAGE_SHIFT][id & PAGE_MASK];
+    }
+
+    public int getSource(int id)
+    {
+        return this.sources[id >>> PAGE_SHIFT][id & PAGE_MASK];
+    }
+
+    public int getLabelNumber(int id)
+    {
+        return this.numbers[id >>> PAGE_SHIFT][id & PAGE_MASK];
+    }
+
+    public String getLabelPrefix(int id)
+    {
+        int offset = this.labels[id >>> PAGE_SHIFT][id & PAGE_MASK];
+        int length = (this.pool[offset] & 0xff) << 8 | (this.pool[offset + 1] & 0xff);
+        return new String(this.pool, offset + 2, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a point's label.
+     *
+     * @param id the point.
+     *
+     * @return the label prefix followed by the label number, if it has one.
+     */
+    public String getLabel(int id)
+    {
+        String prefix = this.getLabelPrefix(id);
+        int number = this.getLabelNumber(id);
+        return number == NO_NUMBER ? prefix : prefix + number;
+    }
+
+    /**
+     * Tells whether a point has the same label as a point of another store, without decoding either label.
+     *
+     * @param id      the point in this store.
+     * @param other   the other store, which may be this one.
+     * @param otherId the point in the other store.
+     *
+     * @return true if the prefixes and numbers are equal.
+     */
+    public boolean hasSameLabel(int id, PlacemarkStore other, int otherId)
+    {
+        if (this.getLabelNumber(id) != other.getLabelNumber(otherId))
+            return false;
+
+        int offset = this.labels[id >>> PAGE_SHIFT][id & PAGE_MASK];
+        int otherOffset = other.labels[otherId >>> PAGE_SHIFT][otherId & PAGE_MASK];
+        int length = (this.pool[offset] & 0xff) << 8 | (this.pool[offset + 1] & 0xff);
+        int otherLength = (other.pool[otherOffset] & 0xff) << 8 | (other.pool[otherOffset + 1] & 0xff);
+        if (length != otherLength)
+            return false;
+
+        for (int i = 2; i < length + 2; i++)
+        {
+            if (this.pool[offset + i] != other.pool[otherOffset + i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the heap used by the store's arrays, including spare capacity.
+     *
+     * @return the size in bytes.
+     */
+    public long getMemoryBytes()
+    {
+        long perPoint = 4 + 4 + 4 + 4 + 4 + 4 + 1;
+        return perPoint * this.capacity + this.pool.length;
+    }
+
+    /**
+     * Releases spare capacity once a store has been filled.
+     */
+    public void trimToSize()
+    {
+        int capacity = Math.max(this.size, 1);
+        int lastPage = (capacity - 1) >>> PAGE_SHIFT;
+        for (int page = lastPage + 1; page < this.lats.length; page++)
+        {
+            this.resizePage(page, 0);
+        }
+        this.resizePage(lastPage, capacity - (lastPage << PAGE_SHIFT));
+        this.capacity = capacity;
+        this.pool = Arrays.copyOf(this.pool, this.poolSize);
+    }
+
+    /**
+     * Converts a latitude to fixed point, clamping it to the poles.
+     */
+    protected static int latitudeToFixed(double lat)
+    {
+        return (int) Math.round(Math.max(-90, Math.min(90, lat)) * FIXED_POINT_SCALE);
+    }
+
+    /**
+     * Converts a longitude to fixed point, wrapping it into -180 to 180 first. Longitudes from 0 to 360, or pushed
+     * past the antimeridian by a reprojection, would otherwise overflow an int beyond about 214.7 degrees.
+     */
+    protected static int longitudeToFixed(double lon)
+    {
+        if (lon < -180 || lon > 180)
+        {
+            lon = (lon + 180) % 360;
+            if (lon < 0)
+                lon += 360;
+            lon -= 180;
+        }
+        return (int) Math.round(lon * FIXED_POINT_SCALE);
+    }
+
+    private static void checkLocation(double lat, double lon)
+    {
+        if (Double.isNaN(lat) || Double.isInfinite(lat) || Double.isNaN(lon) || Double.isInfinite(lon))
+            throw new IllegalArgumentException("Location " + lat + ", " + lon + " is not a number");
+    }
+
+    private int intern(String text)
+    {
+        if (text.isEmpty())
+            return 0;
+
+        Integer offset = this.internCache.get(text);
+        if (offset != null)
+            return offset;
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 0xffff);
+        if (this.poolSize + 2 + length > this.pool.length)
+            this.pool = Arrays.copyOf(this.pool, Math.max(this.pool.length * 2, this.poolSize + 2 + length));
+
+        int start = this.poolSize;
+        this.pool[start] = (byte) (length >>> 8);
+        this.pool[start + 1] = (byte) length;
+        System.arraycopy(bytes, 0, this.pool, start + 2, length);
+        this.poolSize += 2 + length;
+
+        this.internCache.put(text, start);
+        return start;
+    }
+
+    /**
+     * Makes room for a number of points. The last allocated page grows by half again until it is full, and further
+     * pages are allocated whole, so no page but one is ever copied.
+     */
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity <= this.capacity)
+            return;
+
+        int lastPage = (capacity - 1) >>> PAGE_SHIFT;
+        if (lastPage >= this.lats.length)
+            this.resizeDirectory(Math.max(lastPage + 1, this.lats.length * 2));
+
+        for (int page = this.capacity == 0 ? 0 : (this.capacity - 1) >>> PAGE_SHIFT; page <= lastPage; page++)
+        {
+            int length = this.lats[page] == null ? 0 : this.lats[page].length;
+            int needed = page < lastPage ? PAGE_SIZE : capacity - (page << PAGE_SHIFT);
+            if (length < needed)
+            {
+                int grown = Math.max(MIN_GROWTH, length + (length >> 1));
+                this.resizePage(page, Math.min(PAGE_SIZE, Math.max(needed, grown)));
+            }
+        }
+        this.capacity = (lastPage << PAGE_SHIFT) + this.lats[lastPage].length;
+    }
+
+    private void resizeDirectory(int pages)
+    {
+        this.lats = Arrays.copyOf(this.lats, pages);
+        this.lons = Arrays.copyOf(this.lons, pages);
+        this.alts = Arrays.copyOf(this.alts, pages);
+        this.labels = Arrays.copyOf(this.labels, pages);
+        this.numbers = Arrays.copyOf(this.numbers, pages);
+        this.sources = Arrays.copyOf(this.sources, pages);
+        this.flags = Arrays.copyOf(this.flags, pages);
+    }
+
+    private void resizePage(int page, int length)
+    {
+        if (length == 0)
+        {
+            this.lats[page] = null;
+            this.lons[page] = null;
+            this.alts[page] = null;
+            this.labels[page] = null;
+            this.numbers[page] = null;
+            this.sources[page] = null;
+            this.flags[page] = null;
+            return;
+        }
+
+        this.lats[page] = this.lats[page] == null ? new int[length] : Arrays.copyOf(this.lats[page], length);
+        this.lons[page] = this.lons[page] == null ? new int[length] : Arrays.copyOf(this.lons[page], length);
+        this.alts[page] = this.alts[page] == null ? new float[length] : Arrays.copyOf(this.alts[page], length);
+        this.labels[page] = this.labels[page] == null ? new int[length] : Arrays.copyOf(this.labels[page], length);
+        this.numbers[page] = this.numbers[page] == null ? new int[length] : Arrays.copyOf(this.numbers[page], length);
+        this.sources[page] = this.sources[page] == null ? new int[length] : Arrays.copyOf(this.sources[page], length);
+        this.flags[page] = this.flags[page] == null ? new byte[length] : Arrays.copyOf(this.flags[page], length);
+    }
+}
@@ -0,0 +1,113 @@
+import java.util.List;
+
+/**
+ * A polynomial transform of order 1 (affine), 2 or 3, fitted to control points by least squares. The polynomial in x
+ * and y has every term up to its order: 3, 6 or 10 of them.
+ */
+public class PolynomialTransform extends ControlPointTransform
+{
+    protected final int order;
+    protected final double[] xCoefficients;
+    protected final double[] yCoefficients;
+
+    /**
+     * Fits a polynomial.
+     *
+     * @param type   the type, for reporting.
+     * @param points the control points, at least as many as the polynomial has terms.
+     * @param order  the order, 1 to 3.
+     *
+     * @throws IllegalArgumentException if the points do not determine the polynomial.
+     */
+    public PolynomialTransform(Type type, List<ControlPoint> points, int order)
+    {
+        super(type, points);
+        this.order = order;
+
+        int terms = termCount(order);
+        double[][] a = new double[points.size()][terms];
+        double[][] b = new double[points.size()][2];
+        for (int i = 0; i < points.size(); i++)
+        {
+            ControlPoint point = points.get(i);
+            terms(order, this.normalizeSourceX(point), this.normalizeSourceY(point), a[i]);
+            b[i][0] = this.normalizeTargetX(point);
+            b[i][1] = this.normalizeTargetY(point);
+        }
+
+        double[][] solution;
+        try
+        {
+            solution = LinearSystems.leastSquares(a, b);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("The control points do not determine a " + type
+                + "; spread them over the map rather than along a line", e);
+        }
+
+        this.xCoefficients = new double[terms];
+        this.yCoefficients = new double[terms];
+        for (int t = 0; t < terms; t++)
+        {
+            this.xCoefficients[t] = solution[t][0];
+            this.yCoefficients[t] = solution[t][1];
+        }
+    }
+
+    public int getOrder()
+    {
+        return this.order;
+    }
+
+    protected void transformFitted(double x, double y, double[] result)
+    {
+        double[] c = this.xCoefficients;
+        double[] d = this.yCoefficients;
+
+        double rx = c[0] + c[1] * x + c[2] * y;
+        double ry = d[0] + d[1] * x + d[2] * y;
+        if (this.order >= 2)
+        {
+            double xx = x * x, xy = x * y, yy = y * y;
+            rx += c[3] * xx + c[4] * xy + c[5] * yy;
+            ry += d[3] * xx + d[4] * xy + d[5] * yy;
+            if (this.order >= 3)
+            {
+                rx += c[6] * xx * x + c[7] * xx * y + c[8] * x * yy + c[9] * yy * y;
+                ry += d[6] * xx * x + d[7] * xx * y + d[8] * x * yy + d[9] * yy * y;
+            }
+        }
+
+        result[0] = rx;
+        result[1] = ry;
+    }
+
+    protected static int termCount(int order)
+    {
+        return (order + 1) * (order + 2) / 2;
+    }
+
+    /**
+     * Fills in the polynomial's terms at a point, in the order {@link #transformFitted} uses the coefficients.
+     */
+    protected static void terms(int order, double x, double y, double[] terms)
+    {
+        terms[0] = 1;
+        terms[1] = x;
+        terms[2] = y;
+        if (order >= 2)
+        {
+            terms[3] = x * x;
+            terms[4] = x * y;
+            terms[5] = y * y;
+        }
+        if (order >= 3)
+        {
+            terms[6] = x * x * x;
+            terms[7] = x * x * y;
+            terms[8] = x * y * y;
+            terms[9] = y * y * y;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Spaces out requests shared by several threads so that no more than a given number start each second.
+ * <p/>
+ * Each caller reserves the next free slot and sleeps until it comes, outside any lock, so waiting threads do not block
+ * one another. There are no bursts: a limiter idle for a while starts again at its steady rate.
+ */
+public class RateLimiter
+{
+    protected final long intervalNanos;
+    protected long nextSlot;
+
+    /**
+     * Creates a limiter.
+     *
+     * @param permitsPerSecond the most requests to start each second.
+     *
+     * @throws IllegalArgumentException if the rate is not positive.
+     */
+    public RateLimiter(double permitsPerSecond)
+    {
+        if (!(permitsPerSecond > 0))
+            throw new IllegalArgumentException("The rate must be positive: " + permitsPerSecond);
+
+        this.intervalNanos = (long) (1e9 / permitsPerSecond);
+        this.nextSlot = System.nanoTime();
+    }
+
+    /**
+     * Waits until the caller may start a request.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException
+    {
+        long wait = this.reserve();
+        if (wait > 0)
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+    }
+
+    protected synchronized long reserve()
+    {
+        long now = System.nanoTime();
+        long slot = Math.max(this.nextSlot, now);
+        this.nextSlot = slot + this.intervalNanos;
+        return slot - now;
+    }
+}
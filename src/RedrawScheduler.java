@@ -0,0 +1,267 @@
+import gov.nasa.worldwind.WorldWindow;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Coalesces redraw requests for a World Window into at most one redraw per display frame.
+ * <p/>
+ * Code that changes what is shown calls {@link #requestRedraw()} instead of <code>WorldWindow.redraw()</code>. The
+ * first request after a redraw queues one on the event dispatch thread, held back until a frame interval has passed
+ * since the last one, and later requests before it happens are folded into it. A burst of clicks or a loop over
+ * hundreds of layers therefore repaints once per frame at most.
+ * <p/>
+ * {@link #suspend()} and {@link #resume()} hold redraws back entirely for the length of a batch, nesting as needed;
+ * requests made meanwhile become a single redraw when the last batch ends. {@link #runSuspended(Runnable)} does both
+ * around a task.
+ * <p/>
+ * The frame interval is 16 ms, about 60 Hz, or the <code>kmlviewer.redraw.frameMillis</code> system property. There is
+ * one scheduler per World Window, kept in its attributes and returned by {@link #of(WorldWindow)}. Requests may come
+ * from any thread.
+ */
+public class RedrawScheduler
+{
+    /** The attribute key the scheduler is kept under in its World Window. */
+    public static final String SCHEDULER_KEY = RedrawScheduler.class.getName();
+
+    public static final long DEFAULT_FRAME_MILLIS = 16;
+
+    /** The number of whole seconds {@link #getPerformedPerSecond()} averages over. */
+    public static final int RATE_WINDOW_SECONDS = 5;
+
+    protected final WorldWindow wwd;
+    protected final long frameNanos;
+    protected final Timer timer;
+
+    // a redraw has been requested and not yet performed
+    protected final AtomicBoolean pending = new AtomicBoolean(false);
+    // a flush is queued on the event dispatch thread or waiting on the timer
+    protected final AtomicBoolean scheduled = new AtomicBoolean(false);
+    protected final AtomicInteger suspended = new AtomicInteger(0);
+
+    protected final AtomicLong requestedCount = new AtomicLong();
+    protected final AtomicLong performedCount = new AtomicLong();
+
+    // when the last redraw was performed; only used on the event dispatch thread
+    protected long lastRedrawNanos;
+
+    // redraws performed in each of the last few seconds, in slots by second, and the second each slot counts; one
+    // slot more than the window, so the second being counted is never one being read
+    protected final AtomicLongArray secondCounts = new AtomicLongArray(RATE_WINDOW_SECONDS + 1);
+    protected final AtomicLongArray slotSeconds = new AtomicLongArray(RATE_WINDOW_SECONDS + 1);
+
+    protected final Runnable flushTask = new Runnable()
+    {
+        public void run()
+        {
+            flush();
+        }
+    };
+
+    public RedrawScheduler(WorldWindow wwd, long frameMillis)
+    {
+        this.wwd = wwd;
+        this.frameNanos = frameMillis * 1000000L;
+        this.lastRedrawNanos = System.nanoTime() - this.frameNanos;
+
+        this.timer = new Timer(0, new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                flush();
+            }
+        });
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Returns the scheduler for a World Window, creating it on first use.
+     *
+     * @param wwd the World Window.
+     *
+     * @return the window's scheduler.
+     */
+    public static synchronized RedrawScheduler of(WorldWindow wwd)
+    {
+        RedrawScheduler scheduler = (RedrawScheduler) wwd.getValue(SCHEDULER_KEY);
+        if (scheduler == null)
+        {
+            scheduler = new RedrawScheduler(wwd, Long.getLong("kmlviewer.redraw.frameMillis", DEFAULT_FRAME_MILLIS));
+            wwd.setValue(SCHEDULER_KEY, scheduler);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Asks for the World Window to be redrawn. Returns at once; the redraw happens on the event dispatch thread, no
+     * sooner than a frame interval after the previous one, and not while redraws are suspended.
+     */
+    public void requestRedraw()
+    {
+        this.requestedCount.incrementAndGet();
+        this.pending.set(true);
+        this.schedule();
+    }
+
+    /**
+     * Holds back redraws until a matching call to {@link #resume()}.
+     */
+    public void suspend()
+    {
+        this.suspended.incrementAndGet();
+    }
+
+    /**
+     * Ends a {@link #suspend()}. When the last suspension ends, any redraw requested meanwhile is scheduled.
+     *
+     * @throws IllegalStateException if redraws are not suspended.
+     */
+    public void resume()
+    {
+        int depth = this.suspended.decrementAndGet();
+        if (depth < 0)
+        {
+            this.suspended.incrementAndGet();
+            throw new IllegalStateException("Redraws are not suspended");
+        }
+
+        if (depth == 0 && this.pending.get())
+            this.schedule();
+    }
+
+    /**
+     * Runs a task with redraws suspended, so everything it requests becomes at most one redraw afterwards.
+     *
+     * @param task the task to run.
+     */
+    public void runSuspended(Runnable task)
+    {
+        this.suspend();
+        try
+        {
+            task.run();
+        }
+        finally
+        {
+            this.resume();
+        }
+    }
+
+    public boolean isSuspended()
+    {
+        return this.suspended.get() > 0;
+    }
+
+    /**
+     * Returns the number of redraws asked for with {@link #requestRedraw()}.
+     *
+     * @return the number of requests.
+     */
+    public long getRequestedCount()
+    {
+        return this.requestedCount.get();
+    }
+
+    /**
+     * Returns the number of times the World Window has actually been redrawn.
+     *
+     * @return the number of redraws.
+     */
+    public long getPerformedCount()
+    {
+        return this.performedCount.get();
+    }
+
+    /**
+     * Returns the redraw rate over the last {@link #RATE_WINDOW_SECONDS} whole seconds. The rate only depends on when
+     * the redraws happened, not on when or how often it is read.
+     *
+     * @return the redraws per second.
+     */
+    public double getPerformedPerSecond()
+    {
+        long current = Math.floorDiv(System.nanoTime(), 1000000000L);
+        long redraws = 0;
+        for (long second = current - RATE_WINDOW_SECONDS; second < current; second++)
+        {
+            int slot = (int) Math.floorMod(second, (long) this.slotSeconds.length());
+            if (this.slotSeconds.get(slot) == second)
+                redraws += this.secondCounts.get(slot);
+        }
+        return redraws / (double) RATE_WINDOW_SECONDS;
+    }
+
+    /**
+     * Returns the number of requests that were folded into another redraw.
+     *
+     * @return the requests less the redraws.
+     */
+    public long getCoalescedCount()
+    {
+        return this.getRequestedCount() - this.getPerformedCount();
+    }
+
+    protected void schedule()
+    {
+        if (this.suspended.get() == 0 && this.scheduled.compareAndSet(false, true))
+            SwingUtilities.invokeLater(this.flushTask);
+    }
+
+    /**
+     * Performs a pending redraw if a frame interval has passed since the last one, or waits on the timer until it has.
+     * Runs on the event dispatch thread.
+     */
+    protected void flush()
+    {
+        long wait = this.lastRedrawNanos + this.frameNanos - System.nanoTime();
+        if (wait > 0)
+        {
+            this.timer.setInitialDelay((int) Math.max(1, wait / 1000000L));
+            this.timer.restart();
+            return;
+        }
+
+        this.scheduled.set(false);
+
+        // A suspension keeps the redraw pending; resume schedules it again
+        if (this.isSuspended() || !this.pending.getAndSet(false))
+            return;
+
+        ViewerEvents.RedrawEvent event = new ViewerEvents.RedrawEvent();
+        event.begin();
+
+        this.lastRedrawNanos = System.nanoTime();
+        this.performedCount.incrementAndGet();
+        this.countSecond(this.lastRedrawNanos);
+        this.wwd.redraw();
+
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.coalesced = this.getCoalescedCount();
+            event.commit();
+        }
+    }
+
+    /**
+     * Counts a redraw in its second's slot, starting the slot over when it last counted an earlier second.
+     */
+    protected void countSecond(long nanos)
+    {
+        long second = Math.floorDiv(nanos, 1000000000L);
+        int slot = (int) Math.floorMod(second, (long) this.slotSeconds.length());
+        if (this.slotSeconds.get(slot) != second)
+        {
+            this.secondCounts.set(slot, 0);
+            this.slotSeconds.set(slot, second);
+        }
+        this.secondCounts.incrementAndGet(slot);
+    }
+}
@@ -0,0 +1,233 @@
+import gov.nasa.worldwind.View;
+import gov.nasa.worldwind.geom.LatLon;
+import gov.nasa.worldwind.geom.Sector;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Globe;
+import gov.nasa.worldwind.layers.AbstractLayer;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.SurfaceImage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Draws a {@link ScannedImagePyramid} on the globe where an {@link ImageGeoreference} places it.
+ * <p/>
+ * Each frame the pyramid is walked from its single coarsest tile, refining only the visible tiles whose pixels would
+ * appear larger than a screen pixel, so only the tiles the view needs are drawn and a zoomed out scan costs a handful
+ * of tiles however large it is. The walk goes a level at a time, and a tile is only replaced by its children while
+ * they fit in the frame's tile budget; past that the tile itself is drawn, so a view across a huge scan is coarser
+ * but never has holes. Each tile is drawn as a <code>SurfaceImage</code> stretched between the locations of
+ * its corners, which World Wind loads from the tile file in the background; the images are kept in a least recently
+ * used cache so their textures survive panning back and forth.
+ */
+public class ScannedImageLayer extends AbstractLayer
+{
+    /** Tiles drawn at most in a frame, which bounds the cost of a view looking across a huge scan. */
+    protected static final int MAX_TILES_PER_FRAME = 256;
+
+    /** Tile images kept between frames. */
+    protected static final int CACHED_TILES = 512;
+
+    /** How much larger than a screen pixel a tile's pixel may be before finer tiles are drawn. */
+    protected static final double DETAIL_TOLERANCE = 1.5;
+
+    protected final ScannedImagePyramid pyramid;
+    protected ImageGeoreference georeference;
+    protected final List<SurfaceImage> visibleTiles = new ArrayList<SurfaceImage>();
+    protected final Map<Long, SurfaceImage> tileImages = new LinkedHashMap<Long, SurfaceImage>(16, 0.75f, true)
+    {
+        protected boolean removeEldestEntry(Map.Entry<Long, SurfaceImage> eldest)
+        {
+            return this.size() > CACHED_TILES;
+        }
+    };
+
+    public ScannedImageLayer(ScannedImagePyramid pyramid, ImageGeoreference georeference)
+    {
+        this.pyramid = pyramid;
+        this.georeference = georeference;
+    }
+
+    public ScannedImagePyramid getPyramid()
+    {
+        return this.pyramid;
+    }
+
+    public ImageGeoreference getGeoreference()
+    {
+        return this.georeference;
+    }
+
+    /**
+     * Places the scan with a different georeference.
+     *
+     * @param georeference the new georeference.
+     */
+    public void setGeoreference(ImageGeoreference georeference)
+    {
+        this.georeference = georeference;
+        this.tileImages.clear();
+    }
+
+    /**
+     * A tile of the pyramid found visible, with the locations of its corners.
+     */
+    protected static class Tile
+    {
+        protected final int level;
+        protected final int row;
+        protected final int column;
+        protected final List<LatLon> corners;
+
+        protected Tile(int level, int row, int column, List<LatLon> corners)
+        {
+            this.level = level;
+            this.row = row;
+            this.column = column;
+            this.corners = corners;
+        }
+    }
+
+    @Override
+    protected void doPreRender(DrawContext dc)
+    {
+        this.visibleTiles.clear();
+        this.addTiles(dc);
+
+        for (SurfaceImage image : this.visibleTiles)
+        {
+            image.setOpacity(this.getOpacity());
+            image.preRender(dc);
+        }
+    }
+
+    @Override
+    protected void doRender(DrawContext dc)
+    {
+        for (SurfaceImage image : this.visibleTiles)
+        {
+            image.render(dc);
+        }
+    }
+
+    /**
+     * Chooses the tiles to draw, breadth first. A tile needing more detail is replaced by its visible children only if
+     * the tiles chosen so far plus those children stay within {@link #MAX_TILES_PER_FRAME}.
+     */
+    protected void addTiles(DrawContext dc)
+    {
+        List<Tile> level = new ArrayList<Tile>();
+        Tile root = this.visibleTile(dc, 0, 0, 0);
+        if (root != null)
+            level.add(root);
+
+        // the tiles drawn plus those still to be looked at, which is what the budget bounds
+        int count = level.size();
+        while (!level.isEmpty())
+        {
+            List<Tile> next = new ArrayList<Tile>();
+            for (Tile tile : level)
+            {
+                if (tile.level < this.pyramid.getLevelCount() - 1 && this.needsMoreDetail(dc, tile.corners))
+                {
+                    List<Tile> children = this.visibleChildren(dc, tile);
+                    if (count - 1 + children.size() <= MAX_TILES_PER_FRAME)
+                    {
+                        count += children.size() - 1;
+                        next.addAll(children);
+                        continue;
+                    }
+                }
+
+                this.visibleTiles.add(this.getTileImage(tile.level, tile.row, tile.column, tile.corners));
+            }
+            level = next;
+        }
+    }
+
+    protected List<Tile> visibleChildren(DrawContext dc, Tile parent)
+    {
+        List<Tile> children = new ArrayList<Tile>(4);
+        for (int i = 0; i < 4; i++)
+        {
+            int childRow = 2 * parent.row + i / 2;
+            int childColumn = 2 * parent.column + i % 2;
+            if (childRow >= this.pyramid.getRowCount(parent.level + 1)
+                || childColumn >= this.pyramid.getColumnCount(parent.level + 1))
+                continue;
+
+            Tile child = this.visibleTile(dc, parent.level + 1, childRow, childColumn);
+            if (child != null)
+                children.add(child);
+        }
+        return children;
+    }
+
+    /**
+     * Locates a tile's corners on the globe.
+     *
+     * @return the tile, or null if it is outside the visible sector.
+     */
+    protected Tile visibleTile(DrawContext dc, int level, int row, int column)
+    {
+        // the whole tile, including any transparent part past the image, so its texture is not stretched
+        double extent = (double) this.pyramid.getTileSize() * this.pyramid.getScale(level);
+        double left = column * extent;
+        double top = row * extent;
+        List<LatLon> corners = Arrays.asList(
+            this.georeference.toGeographic(left, top + extent),
+            this.georeference.toGeographic(left + extent, top + extent),
+            this.georeference.toGeographic(left + extent, top),
+            this.georeference.toGeographic(left, top));
+
+        Sector visible = dc.getVisibleSector();
+        if (visible != null && !Sector.boundingSector(corners).intersects(visible))
+            return null;
+
+        return new Tile(level, row, column, corners);
+    }
+
+    /**
+     * Compares the size of a tile's pixels on the ground with the size of a screen pixel at the tile's nearest
+     * distance from the eye.
+     */
+    protected boolean needsMoreDetail(DrawContext dc, List<LatLon> corners)
+    {
+        Globe globe = dc.getGlobe();
+        View view = dc.getView();
+
+        Vec4 lowerLeft = globe.computePointFromLocation(corners.get(0));
+        Vec4 upperRight = globe.computePointFromLocation(corners.get(2));
+        double diagonal = lowerLeft.distanceTo3(upperRight);
+        double texelSize = diagonal / Math.sqrt(2) / this.pyramid.getTileSize();
+
+        LatLon center = LatLon.fromDegrees(
+            (corners.get(0).getLatitude().degrees + corners.get(2).getLatitude().degrees) / 2,
+            (corners.get(0).getLongitude().degrees + corners.get(2).getLongitude().degrees) / 2);
+        double distance = view.getEyePoint().distanceTo3(globe.computePointFromLocation(center)) - diagonal / 2;
+
+        return texelSize > DETAIL_TOLERANCE * view.computePixelSizeAtDistance(Math.max(1, distance));
+    }
+
+    protected SurfaceImage getTileImage(int level, int row, int column, List<LatLon> corners)
+    {
+        Long key = ((long) level << 56) | ((long) row << 28) | column;
+        SurfaceImage image = this.tileImages.get(key);
+        if (image == null)
+        {
+            image = new SurfaceImage(this.pyramid.getTile(level, row, column).getPath(), corners);
+            this.tileImages.put(key, image);
+        }
+        return image;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.getName() != null ? this.getName() : "Scanned map";
+    }
+}
@@ -0,0 +1,469 @@
+import gov.nasa.worldwind.util.Logging;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A multi-resolution pyramid of tiles cut from a large scanned map or image, kept in a cache directory so that the scan
+ * is only decoded once.
+ * <p/>
+ * Levels are numbered as World Wind numbers them, from 0, the coarsest, which fits in a single tile, to the last, the
+ * full resolution image; each level halves the one after it. Tiles are <code>TILE_SIZE</code> pixels square PNG files at
+ * <code>level/row/row_column.png</code>, with rows counted down from the top of the image and columns across from its
+ * left edge, and are transparent where they run past the image.
+ * <p/>
+ * The scan is never decoded into a single image. It is read in strips the full width of the image, as tall as the
+ * memory budget allows, with <code>ImageReadParam.setSourceRegion</code>; the tiles of each strip are cut and written on
+ * all cores, and then each coarser level is built from the level below it, also on all cores. TIFF readers read a
+ * region directly, but PNG and JPEG readers decode from the top of the image for every strip, which is why strips are as
+ * tall as the budget allows rather than a single tile tall.
+ * <p/>
+ * The pyramid's description is written last, so a build that fails or is cancelled leaves no pyramid to be reused, and
+ * a finished one is reused as long as the scan's size and modification time are unchanged.
+ */
+public class ScannedImagePyramid
+{
+    public static final int TILE_SIZE = 512;
+
+    /** Bytes of decoded scan held at once while building, 256 MB by default. */
+    public static final long STRIP_BYTES = Long.getLong("kmlviewer.scan.stripBytes", 256L << 20);
+
+    protected static final String INFO_FILE = "pyramid.properties";
+
+    protected final File directory;
+    protected final int width;
+    protected final int height;
+    protected final int tileSize;
+    protected final int levelCount;
+
+    protected ScannedImagePyramid(File directory, int width, int height, int tileSize)
+    {
+        this.directory = directory;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+
+        int levels = 1;
+        while ((Math.max(width, height) - 1) >> (levels - 1) >= tileSize)
+        {
+            levels++;
+        }
+        this.levelCount = levels;
+    }
+
+    /**
+     * Returns the cache directory of a scan's pyramid, named after the scan and a hash of its path.
+     *
+     * @param image     the scan.
+     * @param cacheRoot the directory holding every pyramid.
+     *
+     * @return the scan's directory.
+     */
+    public static File directoryFor(File image, File cacheRoot)
+    {
+        String name = image.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(cacheRoot, name + "-" + Integer.toHexString(image.getAbsolutePath().hashCode()));
+    }
+
+    /**
+     * Opens the cached pyramid of a scan.
+     *
+     * @param image     the scan.
+     * @param directory the pyramid's directory.
+     *
+     * @return the pyramid, or null if there is none or the scan has changed since it was built.
+     */
+    public static ScannedImagePyramid openCached(File image, File directory)
+    {
+        File info = new File(directory, INFO_FILE);
+        if (!info.exists())
+            return null;
+
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(info))
+        {
+            properties.load(in);
+
+            if (Long.parseLong(properties.getProperty("source.length")) != image.length()
+                || Long.parseLong(properties.getProperty("source.modified")) != image.lastModified())
+                return null;
+
+            return new ScannedImagePyramid(directory, Integer.parseInt(properties.getProperty("width")),
+                Integer.parseInt(properties.getProperty("height")),
+                Integer.parseInt(properties.getProperty("tileSize")));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Logging.logger().warning("Unable to read the cached pyramid " + info + ", rebuilding it: " + e);
+            return null;
+        }
+    }
+
+    public File getDirectory()
+    {
+        return this.directory;
+    }
+
+    public int getWidth()
+    {
+        return this.width;
+    }
+
+    public int getHeight()
+    {
+        return this.height;
+    }
+
+    public int getTileSize()
+    {
+        return this.tileSize;
+    }
+
+    public int getLevelCount()
+    {
+        return this.levelCount;
+    }
+
+    /**
+     * Returns the number of full resolution pixels across one pixel of a level.
+     *
+     * @param level the level.
+     *
+     * @return the level's scale, a power of two.
+     */
+    public int getScale(int level)
+    {
+        return 1 << (this.levelCount - 1 - level);
+    }
+
+    public int getRowCount(int level)
+    {
+        return (this.height - 1) / (this.tileSize * this.getScale(level)) + 1;
+    }
+
+    public int getColumnCount(int level)
+    {
+        return (this.width - 1) / (this.tileSize * this.getScale(level)) + 1;
+    }
+
+    /**
+     * Returns the file of a tile.
+     *
+     * @param level  the level.
+     * @param row    the row, counted from the top.
+     * @param column the column, counted from the left.
+     *
+     * @return the tile's PNG file.
+     */
+    public File getTile(int level, int row, int column)
+    {
+        return new File(this.directory, level + File.separator + row + File.separator + row + "_" + column + ".png");
+    }
+
+    /**
+     * Builds the pyramid of a scan. Create one per build; it can be cancelled and polled for progress from another
+     * thread.
+     */
+    public static class Builder
+    {
+        protected final File image;
+        protected final File directory;
+        protected final int threads;
+        protected final AtomicInteger built = new AtomicInteger();
+        protected volatile int total;
+        protected volatile boolean cancelled;
+
+        /**
+         * Creates a builder.
+         *
+         * @param image     the scan, a PNG, JPEG, TIFF or any other image ImageIO can read.
+         * @param directory the directory to build the pyramid in.
+         * @param threads   the number of threads to cut and write tiles on.
+         */
+        public Builder(File image, File directory, int threads)
+        {
+            this.image = image;
+            this.directory = directory;
+            this.threads = threads;
+        }
+
+        /**
+         * Returns the cached pyramid if it is still current, or builds it.
+         *
+         * @return the pyramid.
+         *
+         * @throws IOException if the scan cannot be read or the pyramid cannot be written, or the build is cancelled.
+         */
+        public ScannedImagePyramid open() throws IOException
+        {
+            ScannedImagePyramid cached = openCached(this.image, this.directory);
+            if (cached != null)
+            {
+                Logging.logger().info("Reusing the cached pyramid of " + this.image + " in " + this.directory);
+                return cached;
+            }
+
+            return this.build();
+        }
+
+        /**
+         * Builds the pyramid, replacing any there.
+         *
+         * @return the pyramid.
+         *
+         * @throws IOException if the scan cannot be read or the pyramid cannot be written, or the build is cancelled.
+         */
+        public ScannedImagePyramid build() throws IOException
+        {
+            long start = System.nanoTime();
+            // the old description goes first, so a partial build is never taken for a finished one
+            Files.deleteIfExists(new File(this.directory, INFO_FILE).toPath());
+
+            ExecutorService executor = ParallelTasks.newPool("Scanned map tiler", this.threads);
+
+            try (ImageInputStream in = ImageIO.createImageInputStream(this.image))
+            {
+                Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+                if (readers == null || !readers.hasNext())
+                    throw new IOException("Unsupported image format: " + this.image);
+
+                ImageReader reader = readers.next();
+                try
+                {
+                    reader.setInput(in, true, true);
+                    ScannedImagePyramid pyramid = new ScannedImagePyramid(this.directory, reader.getWidth(0),
+                        reader.getHeight(0), TILE_SIZE);
+
+                    int tiles = 0;
+                    for (int level = 0; level < pyramid.levelCount; level++)
+                    {
+                        tiles += pyramid.getRowCount(level) * pyramid.getColumnCount(level);
+                    }
+                    this.total = tiles;
+
+                    this.buildBaseLevel(pyramid, reader, executor);
+                    for (int level = pyramid.levelCount - 2; level >= 0; level--)
+                    {
+                        this.buildLevel(pyramid, level, executor);
+                    }
+
+                    this.writeInfo(pyramid);
+
+                    Logging.logger().info(String.format("Built the %d level pyramid of %s, %d by %d, in %.1f s",
+                        pyramid.levelCount, this.image, pyramid.width, pyramid.height,
+                        (System.nanoTime() - start) / 1e9));
+
+                    return pyramid;
+                }
+                finally
+                {
+                    reader.dispose();
+                }
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * Stops the build once the tiles being written finish; {@link #build()} then throws.
+         */
+        public void cancel()
+        {
+            this.cancelled = true;
+        }
+
+        public int getBuiltCount()
+        {
+            return this.built.get();
+        }
+
+        /**
+         * Returns the number of tiles in the pyramid, or 0 until the scan's size has been read.
+         *
+         * @return the number of tiles.
+         */
+        public int getTotalCount()
+        {
+            return this.total;
+        }
+
+        protected void buildBaseLevel(final ScannedImagePyramid pyramid, ImageReader reader, ExecutorService executor)
+            throws IOException
+        {
+            final int level = pyramid.levelCount - 1;
+            final int tileSize = pyramid.tileSize;
+            int stripTiles = (int) Math.max(1, STRIP_BYTES / ((long) pyramid.width * 4 * tileSize));
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            for (int firstRow = 0; firstRow < pyramid.getRowCount(level); firstRow += stripTiles)
+            {
+                this.checkCancelled();
+
+                int top = firstRow * tileSize;
+                int rows = Math.min(stripTiles * tileSize, pyramid.height - top);
+                param.setSourceRegion(new Rectangle(0, top, pyramid.width, rows));
+                final BufferedImage strip = reader.read(0, param);
+
+                List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+                for (int row = firstRow; row < pyramid.getRowCount(level) && (row - firstRow) * tileSize < rows; row++)
+                {
+                    for (int column = 0; column < pyramid.getColumnCount(level); column++)
+                    {
+                        final int y = (row - firstRow) * tileSize;
+                        final int x = column * tileSize;
+                        final File file = pyramid.getTile(level, row, column);
+                        tasks.add(new Callable<Void>()
+                        {
+                            public Void call() throws IOException
+                            {
+                                checkCancelled();
+
+                                BufferedImage tile = new BufferedImage(tileSize, tileSize,
+                                    BufferedImage.TYPE_INT_ARGB);
+                                Graphics2D g = tile.createGraphics();
+                                g.drawImage(strip.getSubimage(x, y, Math.min(tileSize, strip.getWidth() - x),
+                                    Math.min(tileSize, strip.getHeight() - y)), 0, 0, null);
+                                g.dispose();
+
+                                writeTile(tile, file);
+                                return null;
+                            }
+                        });
+                    }
+                }
+
+                this.runAll(executor, tasks);
+            }
+        }
+
+        protected void buildLevel(final ScannedImagePyramid pyramid, final int level, ExecutorService executor)
+            throws IOException
+        {
+            final int tileSize = pyramid.tileSize;
+            final int half = tileSize / 2;
+
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int row = 0; row < pyramid.getRowCount(level); row++)
+            {
+                for (int column = 0; column < pyramid.getColumnCount(level); column++)
+                {
+                    final int r = row;
+                    final int c = column;
+                    tasks.add(new Callable<Void>()
+                    {
+                        public Void call() throws IOException
+                        {
+                            checkCancelled();
+
+                            BufferedImage tile = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+                            Graphics2D g = tile.createGraphics();
+                            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                            for (int i = 0; i < 4; i++)
+                            {
+                                int childRow = 2 * r + i / 2;
+                                int childColumn = 2 * c + i % 2;
+                                if (childRow >= pyramid.getRowCount(level + 1)
+                                    || childColumn >= pyramid.getColumnCount(level + 1))
+                                    continue;
+
+                                BufferedImage child = ImageIO.read(pyramid.getTile(level + 1, childRow, childColumn));
+                                g.drawImage(child, (i % 2) * half, (i / 2) * half, half, half, null);
+                            }
+                            g.dispose();
+
+                            writeTile(tile, pyramid.getTile(level, r, c));
+                            return null;
+                        }
+                    });
+                }
+            }
+
+            this.runAll(executor, tasks);
+        }
+
+        protected void runAll(ExecutorService executor, List<Callable<Void>> tasks) throws IOException
+        {
+            try
+            {
+                for (Future<Void> future : executor.invokeAll(tasks))
+                {
+                    future.get();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while building the pyramid of " + this.image);
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException("Unable to build the pyramid of " + this.image, e.getCause());
+            }
+        }
+
+        protected void writeTile(BufferedImage tile, File file) throws IOException
+        {
+            File directory = file.getParentFile();
+            Files.createDirectories(directory.toPath());
+
+            File temp = new File(directory, file.getName() + ".tmp");
+            if (!ImageIO.write(tile, "png", temp))
+                throw new IOException("No PNG writer for " + file);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            this.built.incrementAndGet();
+        }
+
+        protected void writeInfo(ScannedImagePyramid pyramid) throws IOException
+        {
+            Properties properties = new Properties();
+            properties.setProperty("width", Integer.toString(pyramid.width));
+            properties.setProperty("height", Integer.toString(pyramid.height));
+            properties.setProperty("tileSize", Integer.toString(pyramid.tileSize));
+            properties.setProperty("source", this.image.getAbsolutePath());
+            properties.setProperty("source.length", Long.toString(this.image.length()));
+            properties.setProperty("source.modified", Long.toString(this.image.lastModified()));
+
+            try (OutputStream out = new FileOutputStream(new File(this.directory, INFO_FILE)))
+            {
+                properties.store(out, "Scanned map pyramid");
+            }
+        }
+
+        protected void checkCancelled() throws InterruptedIOException
+        {
+            if (this.cancelled)
+                throw new InterruptedIOException("Cancelled building the pyramid of " + this.image);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+import gov.nasa.worldwind.WorldWindow;
+import gov.nasa.worldwind.geom.LatLon;
+import gov.nasa.worldwind.util.Logging;
+
+import java.awt.Component;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.logging.Level;
+
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Opens a large scanned map or image for digitizing: asks for the locations of its corners, builds or reuses its tile
+ * pyramid off the event dispatch thread while showing progress, and adds a {@link ScannedImageLayer} for it below the
+ * place names. The corners are saved beside the pyramid, so reopening a scan offers them again.
+ */
+public class ScannedMapImporter
+{
+    protected static final int REFRESH_MILLIS = 250;
+
+    protected static final String GEOREFERENCE_FILE = "georeference.properties";
+
+    protected static final String[] CORNER_NAMES = {"Upper left", "Upper right", "Lower right", "Lower left"};
+
+    protected final Component owner;
+    protected final WorldWindow wwd;
+    protected final File cacheRoot;
+
+    /**
+     * Creates an importer.
+     *
+     * @param owner     the window dialogs are shown over.
+     * @param wwd       the World Window to add scans to.
+     * @param cacheRoot the directory holding the pyramids.
+     */
+    public ScannedMapImporter(Component owner, WorldWindow wwd, File cacheRoot)
+    {
+        this.owner = owner;
+        this.wwd = wwd;
+        this.cacheRoot = cacheRoot;
+    }
+
+    /**
+     * Imports a scan. Call on the event dispatch thread; it returns once the pyramid build has started.
+     *
+     * @param image  the scan.
+     * @param center where to place a scan opened for the first time, or null.
+     */
+    public void importScan(final File image, LatLon center)
+    {
+        final File directory = ScannedImagePyramid.directoryFor(image, this.cacheRoot);
+        final LatLon[] corners = this.askCorners(image, new File(directory, GEOREFERENCE_FILE), center);
+        if (corners == null)
+            return;
+
+        final ScannedImagePyramid.Builder builder = new ScannedImagePyramid.Builder(image, directory,
+            Runtime.getRuntime().availableProcessors());
+        final ProgressMonitor monitor = new ProgressMonitor(this.owner, "Building the tiles of " + image.getName(),
+            null, 0, 1);
+        monitor.setMillisToDecideToPopup(REFRESH_MILLIS);
+
+        final Timer refreshTimer = new Timer(REFRESH_MILLIS, new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                if (monitor.isCanceled())
+                    builder.cancel();
+                monitor.setMaximum(Math.max(1, builder.getTotalCount()));
+                monitor.setProgress(builder.getBuiltCount());
+                monitor.setNote(builder.getBuiltCount() + " of " + builder.getTotalCount() + " tiles");
+            }
+        });
+        refreshTimer.start();
+
+        Thread thread = new Thread("Scanned map import")
+        {
+            public void run()
+            {
+                ScannedImageLayer layer = null;
+                try
+                {
+                    ScannedImagePyramid pyramid = builder.open();
+                    CornerGeoreference georeference = new CornerGeoreference(pyramid.getWidth(),
+                        pyramid.getHeight(), corners[0], corners[1], corners[2], corners[3]);
+                    georeference.write(new File(directory, GEOREFERENCE_FILE));
+
+                    layer = new ScannedImageLayer(pyramid, georeference);
+                    layer.setName(image.getName());
+                }
+                catch (InterruptedIOException e)
+                {
+                    Logging.logger().info(e.getMessage());
+                }
+                catch (Exception e)
+                {
+                    Logging.logger().log(Level.SEVERE, "Unable to open the scanned map " + image, e);
+                    showError("Unable to open " + image.getName() + ": " + e.getMessage());
+                }
+
+                final ScannedImageLayer finished = layer;
+                SwingUtilities.invokeLater(new Runnable()
+                {
+                    public void run()
+                    {
+                        refreshTimer.stop();
+                        monitor.close();
+                        if (finished != null)
+                            addLayer(finished);
+                    }
+                });
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    protected void addLayer(ScannedImageLayer layer)
+    {
+        LayerInserter.of(this.wwd.getModel().getLayers()).insertBeforePlacenames(layer);
+        KMLViewer.AppFrame.refreshLayerTree(this.wwd.getModel().getLayers());
+        RedrawScheduler.of(this.wwd).requestRedraw();
+    }
+
+    /**
+     * Asks for the locations of the scan's corners, offering those it was last opened with, or a small box around a
+     * location.
+     *
+     * @return the upper left, upper right, lower right and lower left corners, or null if the user cancelled.
+     */
+    protected LatLon[] askCorners(File image, File saved, LatLon center)
+    {
+        String[] defaults = new String[4];
+        try
+        {
+            // the size does not matter for reading back the corners
+            CornerGeoreference previous = CornerGeoreference.read(saved, 1, 1);
+            for (int i = 0; previous != null && i < 4; i++)
+            {
+                LatLon corner = previous.getCorner(i);
+                defaults[i] = corner.getLatitude().degrees + ", " + corner.getLongitude().degrees;
+            }
+        }
+        catch (IOException e)
+        {
+            Logging.logger().warning("Unable to read the saved corners of " + image + ": " + e);
+        }
+
+        if (defaults[0] == null && center != null)
+        {
+            double lat = center.getLatitude().degrees;
+            double lon = center.getLongitude().degrees;
+            double margin = 0.05;
+            defaults[0] = (lat + margin) + ", " + (lon - margin);
+            defaults[1] = (lat + margin) + ", " + (lon + margin);
+            defaults[2] = (lat - margin) + ", " + (lon + margin);
+            defaults[3] = (lat - margin) + ", " + (lon - margin);
+        }
+
+        JTextField[] fields = new JTextField[4];
+        JPanel panel = new JPanel(new GridLayout(5, 2, 5, 5));
+        panel.add(new JLabel("Corner"));
+        panel.add(new JLabel("Latitude, longitude"));
+        for (int i = 0; i < 4; i++)
+        {
+            fields[i] = new JTextField(defaults[i] != null ? defaults[i] : "", 20);
+            panel.add(new JLabel(CORNER_NAMES[i]));
+            panel.add(fields[i]);
+        }
+
+        while (true)
+        {
+            int reply = JOptionPane.showConfirmDialog(this.owner, panel, "Place " + image.getName(),
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (reply != JOptionPane.OK_OPTION)
+                return null;
+
+            LatLon[] corners = new LatLon[4];
+            for (int i = 0; i < 4; i++)
+            {
+                corners[i] = parseLocation(fields[i].getText());
+                if (corners[i] == null)
+                {
+                    JOptionPane.showMessageDialog(this.owner, CORNER_NAMES[i]
+                        + " must be a latitude and longitude in degrees, separated by a comma.",
+                        "Place " + image.getName(), JOptionPane.ERROR_MESSAGE);
+                    break;
+                }
+            }
+
+            if (corners[3] != null)
+                return corners;
+        }
+    }
+
+    protected static LatLon parseLocation(String text)
+    {
+        String[] fields = text.split(",");
+        if (fields.length != 2)
+            return null;
+
+        try
+        {
+            double lat = Double.parseDouble(fields[0].trim());
+            double lon = Double.parseDouble(fields[1].trim());
+            if (Math.abs(lat) > 90 || Math.abs(lon) > 180)
+                return null;
+
+            return LatLon.fromDegrees(lat, lon);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    protected void showError(final String message)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                JOptionPane.showMessageDialog(owner, message, "Open Scanned Map", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+}
@@ -0,0 +1,587 @@
+import gov.nasa.worldwind.util.Logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file recording the points of a digitizing session, so the session survives the application dying
+ * before it is exported.
+ * <p/>
+ * Every added point, undo and clear becomes a small checksummed record. The caller only encodes the record and queues
+ * it; a background thread appends queued records to the file and forces them to disk at most once every
+ * {@link #SYNC_MILLIS} milliseconds, so clicking never waits on the disk and a crash loses at most that much of the
+ * session. Opening a journal replays it, stopping at the first torn or corrupt record, and rewrites it with only the
+ * points still in the session. A clear truncates the file, and the writer compacts it again whenever undone points
+ * make up most of it, so the journal stays proportional to the session. {@link #close() Closing} the journal, which
+ * the viewer does when its window is closed, truncates it too, so only a session cut short by a crash, a kill or a
+ * logoff is recovered at the next launch; the shutdown hook only writes what is queued.
+ * <p/>
+ * A journal is held by one process at a time, through a lock on a <code>.lock</code> file beside it, so a second
+ * viewer never replays or rewrites the session of one still running. The default file is <code>session.journal</code>
+ * in <code>.kmlviewer</code> under the user's home directory, or <code>session-2.journal</code> and so on when other
+ * viewers hold the ones before, and can be set with the <code>kmlviewer.journal</code> system property.
+ */
+public class SessionJournal implements Closeable
+{
+    /** The longest a record waits before it is forced to disk, in milliseconds. */
+    protected static final long SYNC_MILLIS = 200;
+
+    /** The writer compacts once the file holds at least this many records... */
+    protected static final int COMPACT_MIN_RECORDS = 10000;
+    /** ...and more than this many records for each point still in the session. */
+    protected static final int COMPACT_RATIO = 2;
+
+    private static final int MAGIC = 0x4b4d4c4a; // "KMLJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE_LAST = 2;
+    private static final byte CLEAR = 3;
+
+    // The most default journals tried, one for each viewer running at once
+    private static final int MAX_DEFAULT_JOURNALS = 16;
+
+    // Queued by close() and the shutdown hook to stop the writer, truncating the file or leaving it to be recovered.
+    // Interrupting the writer instead could close the file channel mid-write.
+    private static final byte[] CLOSE = new byte[0];
+    private static final byte[] STOP = new byte[0];
+
+    /**
+     * A point recorded in the journal.
+     */
+    public static class Entry
+    {
+        public final double latitude;
+        public final double longitude;
+        public final double altitude;
+        public final String prefix;
+        public final int number;
+
+        public Entry(double latitude, double longitude, double altitude, String prefix, int number)
+        {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.altitude = altitude;
+            this.prefix = prefix;
+            this.number = number;
+        }
+    }
+
+    protected final File file;
+    protected final List<Entry> recovered;
+    protected final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+    protected final Thread writer;
+    protected final FileLock lock;
+
+    private FileOutputStream fileOut;
+    private BufferedOutputStream out;
+    private long records;
+    private long live;
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the first journal at the default location that no other viewer holds.
+     *
+     * @return the journal.
+     *
+     * @throws IOException if the journal cannot be read or created, or every default journal is held.
+     */
+    public static SessionJournal openDefault() throws IOException
+    {
+        String path = System.getProperty("kmlviewer.journal");
+        if (path != null)
+            return new SessionJournal(new File(path));
+
+        File directory = new File(System.getProperty("user.home"), ".kmlviewer");
+        for (int i = 1; i <= MAX_DEFAULT_JOURNALS; i++)
+        {
+            File file = new File(directory, i == 1 ? "session.journal" : "session-" + i + ".journal");
+            FileLock lock = tryLock(file);
+            if (lock != null)
+                return new SessionJournal(file, lock);
+        }
+
+        throw new IOException("Every session journal in " + directory + " is held by another viewer");
+    }
+
+    /**
+     * Opens a journal, replaying and compacting any session it already holds.
+     *
+     * @param file the journal file. It and its parent directory are created if needed.
+     *
+     * @throws IOException if the journal cannot be read or created, or another viewer holds it.
+     */
+    public SessionJournal(File file) throws IOException
+    {
+        this(file, lockOrThrow(file));
+    }
+
+    private SessionJournal(File file, FileLock lock) throws IOException
+    {
+        this.file = file;
+        this.lock = lock;
+
+        long start = System.nanoTime();
+        try
+        {
+            this.recovered = replay(file);
+            this.rewrite(this.recovered);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            lock.channel().close();
+            throw e;
+        }
+
+        if (!this.recovered.isEmpty())
+        {
+            Logging.logger().info(String.format("Recovered %d points from %s in %.1f ms", this.recovered.size(), file,
+                (System.nanoTime() - start) / 1e6));
+        }
+
+        this.writer = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                writeLoop();
+            }
+        }, "Session journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+
+        // Write what is queued however the process ends. The journal is only emptied by close(), so a session ended
+        // by a kill or a logoff is still recovered.
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+        {
+            public void run()
+            {
+                stop(STOP);
+            }
+        }));
+    }
+
+    /**
+     * Locks a journal file for this process, through a <code>.lock</code> file beside it, creating its directory if
+     * needed.
+     *
+     * @param file the journal file.
+     *
+     * @return the lock, or null if another viewer, or another journal in this one, holds it.
+     *
+     * @throws IOException if the lock file cannot be created.
+     */
+    protected static FileLock tryLock(File file) throws IOException
+    {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Unable to create " + parent);
+
+        FileChannel channel = FileChannel.open(new File(file.getPath() + ".lock").toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE);
+        try
+        {
+            FileLock lock = channel.tryLock();
+            if (lock != null)
+                return lock;
+        }
+        catch (OverlappingFileLockException e)
+        {
+            // held by this process
+        }
+        channel.close();
+        return null;
+    }
+
+    private static FileLock lockOrThrow(File file) throws IOException
+    {
+        FileLock lock = tryLock(file);
+        if (lock == null)
+            throw new IOException(file + " is held by another viewer");
+        return lock;
+    }
+
+    /**
+     * Returns the points of the session found in the journal when it was opened.
+     *
+     * @return the recovered points, in the order they were added.
+     */
+    public List<Entry> getRecovered()
+    {
+        return this.recovered;
+    }
+
+    /**
+     * Records an added point.
+     *
+     * @param latitude  the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     * @param altitude  the altitude in meters.
+     * @param prefix    the label prefix.
+     * @param number    the label number, or {@link PlacemarkStore#NO_NUMBER}.
+     */
+    public void add(double latitude, double longitude, double altitude, String prefix, int number)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try
+        {
+            writeAdd(new DataOutputStream(bytes), latitude, longitude, altitude, prefix, number);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e); // not thrown by an in-memory stream
+        }
+
+        this.enqueue(bytes.toByteArray());
+    }
+
+    /**
+     * Records that the most recently added point was removed.
+     */
+    public void removeLast()
+    {
+        this.enqueue(new byte[] {REMOVE_LAST});
+    }
+
+    /**
+     * Records that every point was removed.
+     */
+    public void clear()
+    {
+        this.enqueue(new byte[] {CLEAR});
+    }
+
+    /**
+     * Ends the session: writes the queued records, stops the writer, truncates the journal, since a session that
+     * ends normally has nothing to recover, and lets another viewer open it. Later records are ignored.
+     */
+    public void close()
+    {
+        this.stop(CLOSE);
+    }
+
+    /**
+     * Writes the queued records and stops the writer, truncating the journal if <code>marker</code> is
+     * {@link #CLOSE}, then releases the lock.
+     */
+    protected synchronized void stop(byte[] marker)
+    {
+        if (this.closed)
+            return;
+        this.closed = true;
+
+        try
+        {
+            this.queue.add(marker);
+            this.writer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        try
+        {
+            this.lock.channel().close();
+        }
+        catch (IOException e)
+        {
+            Logging.logger().warning("Unable to unlock session journal " + this.file + ": " + e);
+        }
+    }
+
+    protected void enqueue(byte[] record)
+    {
+        if (!this.closed)
+            this.queue.add(record);
+    }
+
+    protected void writeLoop()
+    {
+        List<byte[]> batch = new ArrayList<byte[]>();
+        boolean dirty = false;
+        long syncDue = 0;
+
+        boolean closing = false;
+        boolean clean = false;
+
+        while (!closing)
+        {
+            try
+            {
+                // Wait for records, or until the written ones are due to be forced to disk
+                byte[] first = dirty ? this.queue.poll(Math.max(0, syncDue - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS) : this.queue.take();
+                if (first != null)
+                {
+                    batch.add(first);
+                    this.queue.drainTo(batch);
+                    clean = batch.remove(CLOSE);
+                    closing = batch.remove(STOP) || clean;
+                    this.write(batch);
+                    batch.clear();
+
+                    if (!dirty)
+                        syncDue = System.currentTimeMillis() + SYNC_MILLIS;
+                    dirty = true;
+                }
+
+                if (dirty && (closing || System.currentTimeMillis() >= syncDue))
+                {
+                    this.sync();
+                    dirty = false;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                closing = true;
+            }
+            catch (IOException e)
+            {
+                batch.clear();
+                Logging.logger().severe("Unable to write session journal " + this.file + ": " + e);
+            }
+        }
+
+        try
+        {
+            if (clean)
+            {
+                this.out.flush();
+                this.fileOut.getChannel().truncate(HEADER_SIZE);
+                this.fileOut.getChannel().force(false);
+            }
+            this.out.close();
+        }
+        catch (IOException e)
+        {
+            Logging.logger().severe("Unable to close session journal " + this.file + ": " + e);
+        }
+    }
+
+    protected void write(List<byte[]> batch) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        for (byte[] record : batch)
+        {
+            if (record[0] == CLEAR)
+            {
+                // Nothing before a clear is needed again
+                this.out.flush();
+                this.fileOut.getChannel().truncate(HEADER_SIZE);
+                this.records = 0;
+                this.live = 0;
+                continue;
+            }
+
+            crc.reset();
+            crc.update(record, 0, record.length);
+            this.out.write(record);
+            writeInt(this.out, (int) crc.getValue());
+
+            this.records++;
+            this.live = record[0] == ADD ? this.live + 1 : Math.max(0, this.live - 1);
+        }
+
+        if (this.records >= COMPACT_MIN_RECORDS && this.records > this.live * COMPACT_RATIO)
+            this.compact();
+    }
+
+    protected void sync() throws IOException
+    {
+        this.out.flush();
+        this.fileOut.getChannel().force(false);
+    }
+
+    protected void compact() throws IOException
+    {
+        long start = System.nanoTime();
+        long before = this.records;
+
+        this.sync();
+        this.out.close();
+        try
+        {
+            this.rewrite(replay(this.file));
+        }
+        catch (IOException e)
+        {
+            // keep appending to the uncompacted file rather than failing every later record
+            this.fileOut = new FileOutputStream(this.file, true);
+            this.out = new BufferedOutputStream(this.fileOut, 65536);
+            throw e;
+        }
+
+        Logging.logger().info(String.format("Compacted session journal from %d to %d records in %.1f ms", before,
+            this.records, (System.nanoTime() - start) / 1e6));
+    }
+
+    /**
+     * Replaces the journal file with one holding just the given points, and opens it for appending.
+     *
+     * @param entries the points of the session.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    protected void rewrite(List<Entry> entries) throws IOException
+    {
+        File temp = new File(this.file.getPath() + ".tmp");
+        FileOutputStream tempOut = new FileOutputStream(temp);
+        try (BufferedOutputStream buffered = new BufferedOutputStream(tempOut, 65536))
+        {
+            writeInt(buffered, MAGIC);
+            writeInt(buffered, VERSION);
+
+            CRC32 crc = new CRC32();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream data = new DataOutputStream(bytes);
+            for (Entry entry : entries)
+            {
+                bytes.reset();
+                writeAdd(data, entry.latitude, entry.longitude, entry.altitude, entry.prefix, entry.number);
+
+                crc.reset();
+                crc.update(bytes.toByteArray());
+                bytes.writeTo(buffered);
+                writeInt(buffered, (int) crc.getValue());
+            }
+
+            buffered.flush();
+            tempOut.getChannel().force(false);
+        }
+
+        Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+
+        this.fileOut = new FileOutputStream(this.file, true);
+        this.out = new BufferedOutputStream(this.fileOut, 65536);
+        this.records = entries.size();
+        this.live = entries.size();
+    }
+
+    /**
+     * Reads the points of the session recorded in a journal file. Reading stops at the first record that is
+     * incomplete or fails its checksum, which is where a crash interrupted the writer.
+     *
+     * @param file the journal file.
+     *
+     * @return the points still in the session, in the order they were added. Empty if the file does not exist.
+     *
+     * @throws IOException if the file cannot be read or is not a journal.
+     */
+    public static List<Entry> replay(File file) throws IOException
+    {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        if (!file.exists() || file.length() == 0)
+            return entries;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536)))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a session journal");
+
+            CRC32 crc = new CRC32();
+            byte[] record = new byte[19 + 0xffff];
+            while (true)
+            {
+                int type = in.read();
+                if (type < 0)
+                    break;
+
+                record[0] = (byte) type;
+                int length = 1;
+                if (type == ADD)
+                {
+                    in.readFully(record, 1, 18);
+                    int labelLength = (record[17] & 0xff) << 8 | (record[18] & 0xff);
+                    in.readFully(record, 19, labelLength);
+                    length = 19 + labelLength;
+                }
+                else if (type != REMOVE_LAST)
+                {
+                    Logging.logger().warning("Session journal " + file + " has an unknown record; ignoring the rest");
+                    break;
+                }
+
+                crc.reset();
+                crc.update(record, 0, length);
+                if (in.readInt() != (int) crc.getValue())
+                {
+                    Logging.logger().warning("Session journal " + file + " has a corrupt record; ignoring the rest");
+                    break;
+                }
+
+                if (type == REMOVE_LAST)
+                {
+                    if (!entries.isEmpty())
+                        entries.remove(entries.size() - 1);
+                    continue;
+                }
+
+                entries.add(new Entry(readInt(record, 1) / PlacemarkStore.FIXED_POINT_SCALE,
+                    readInt(record, 5) / PlacemarkStore.FIXED_POINT_SCALE,
+                    Float.intBitsToFloat(readInt(record, 9)), new String(record, 19, length - 19,
+                    StandardCharsets.UTF_8), readInt(record, 13)));
+            }
+        }
+        catch (EOFException e)
+        {
+            // The last record was only partly written
+        }
+
+        return entries;
+    }
+
+    /**
+     * Encodes an added point. Labels are cut to the 65535 bytes a record's length field holds, as the store cuts them.
+     */
+    private static void writeAdd(DataOutputStream data, double latitude, double longitude, double altitude,
+        String prefix, int number) throws IOException
+    {
+        byte[] label = prefix.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(label.length, 0xffff);
+        data.writeByte(ADD);
+        data.writeInt(PlacemarkStore.latitudeToFixed(latitude));
+        data.writeInt(PlacemarkStore.longitudeToFixed(longitude));
+        data.writeFloat((float) altitude);
+        data.writeInt(number);
+        data.writeShort(length);
+        data.write(label, 0, length);
+    }
+
+    private static int readInt(byte[] b, int offset)
+    {
+        return (b[offset] & 0xff) << 24 | (b[offset + 1] & 0xff) << 16 | (b[offset + 2] & 0xff) << 8
+            | (b[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(OutputStream out, int v) throws IOException
+    {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+}
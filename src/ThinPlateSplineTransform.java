@@ -0,0 +1,231 @@
+import java.util.List;
+
+/**
+ * A thin plate spline through control points: an affine transform plus a radial term for each point, bending the map
+ * as little as possible while taking every control point exactly to its target. It suits scans with uneven local
+ * distortion, such as a folded or shrunken sheet, that no single polynomial fits.
+ * <p/>
+ * Fitting solves one dense system of the number of points plus three unknowns, and each transformed location costs a
+ * logarithm per control point. Large batches are instead transformed exactly at the nodes of a grid over their extent
+ * and interpolated bicubically between them, except near control points where the spline bends sharply, which keeps
+ * them within a few centimeters of the exact spline on a sheet a degree across while costing a fixed number of
+ * logarithms however many points there are.
+ */
+public class ThinPlateSplineTransform extends ControlPointTransform
+{
+    /** Nodes along each side of the interpolation grid. */
+    protected static final int GRID_SIZE = 129;
+
+    /** Batches at least this large are interpolated from the grid, about four times its node count. */
+    protected static final int GRID_THRESHOLD = 4 * GRID_SIZE * GRID_SIZE;
+
+    protected final double[] pointX;
+    protected final double[] pointY;
+    protected final double[] xWeights;
+    protected final double[] yWeights;
+    protected final double[] xAffine = new double[3];
+    protected final double[] yAffine = new double[3];
+
+    /**
+     * Fits a spline.
+     *
+     * @param points the control points, at least three and not all in a line.
+     *
+     * @throws IllegalArgumentException if two points share a source location or all lie in a line.
+     */
+    public ThinPlateSplineTransform(List<ControlPoint> points)
+    {
+        super(Type.THIN_PLATE_SPLINE, points);
+
+        int n = points.size();
+        this.pointX = new double[n];
+        this.pointY = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            this.pointX[i] = this.normalizeSourceX(points.get(i));
+            this.pointY[i] = this.normalizeSourceY(points.get(i));
+        }
+
+        // [K P; P' 0] [w; a] = [target; 0], with K the radial basis between points and P their affine terms
+        double[][] a = new double[n + 3][n + 3];
+        double[][] b = new double[n + 3][2];
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = i + 1; j < n; j++)
+            {
+                double u = radial(square(this.pointX[i] - this.pointX[j]) + square(this.pointY[i] - this.pointY[j]));
+                a[i][j] = u;
+                a[j][i] = u;
+            }
+            a[i][n] = 1;
+            a[i][n + 1] = this.pointX[i];
+            a[i][n + 2] = this.pointY[i];
+            a[n][i] = 1;
+            a[n + 1][i] = this.pointX[i];
+            a[n + 2][i] = this.pointY[i];
+
+            b[i][0] = this.normalizeTargetX(points.get(i));
+            b[i][1] = this.normalizeTargetY(points.get(i));
+        }
+
+        double[][] solution;
+        try
+        {
+            solution = LinearSystems.solve(a, b);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("The control points do not determine a thin plate spline; "
+                + "remove points at the same place and spread them over the map rather than along a line", e);
+        }
+
+        this.xWeights = new double[n];
+        this.yWeights = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            this.xWeights[i] = solution[i][0];
+            this.yWeights[i] = solution[i][1];
+        }
+        for (int i = 0; i < 3; i++)
+        {
+            this.xAffine[i] = solution[n + i][0];
+            this.yAffine[i] = solution[n + i][1];
+        }
+    }
+
+    @Override
+    public void transformAll(final double[] lats, final double[] lons, int threads)
+    {
+        if (lats.length < GRID_THRESHOLD)
+        {
+            super.transformAll(lats, lons, threads);
+            return;
+        }
+
+        double minLat = Double.POSITIVE_INFINITY, minLon = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < lats.length; i++)
+        {
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            minLon = Math.min(minLon, lons[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+        }
+
+        // the grid's nodes, transformed exactly, with a ring of nodes outside the extent for the cubic's neighbors
+        final int nodes = GRID_SIZE + 2;
+        final double south = minLat, west = minLon;
+        final double latStep = Math.max(maxLat - minLat, 1e-9) / (GRID_SIZE - 1);
+        final double lonStep = Math.max(maxLon - minLon, 1e-9) / (GRID_SIZE - 1);
+        final double[] nodeLats = new double[nodes * nodes];
+        final double[] nodeLons = new double[nodes * nodes];
+        for (int row = 0; row < nodes; row++)
+        {
+            for (int column = 0; column < nodes; column++)
+            {
+                nodeLats[row * nodes + column] = south + (row - 1) * latStep;
+                nodeLons[row * nodes + column] = west + (column - 1) * lonStep;
+            }
+        }
+        super.transformAll(nodeLats, nodeLons, threads);
+
+        // the spline bends sharply right at a control point, so cells interpolated from nodes around one are exact
+        final boolean[] exact = new boolean[GRID_SIZE * GRID_SIZE];
+        for (int i = 0; i < this.pointX.length; i++)
+        {
+            double lat = this.sourceY + this.pointY[i] * this.sourceScale;
+            double lon = this.sourceX + this.pointX[i] * this.sourceScale;
+            int row = (int) Math.floor((lat - south) / latStep);
+            int column = (int) Math.floor((lon - west) / lonStep);
+            for (int r = row - 1; r <= row + 2; r++)
+            {
+                for (int c = column - 1; c <= column + 2; c++)
+                {
+                    if (r >= 0 && c >= 0 && r < GRID_SIZE && c < GRID_SIZE)
+                        exact[r * GRID_SIZE + c] = true;
+                }
+            }
+        }
+
+        inChunks(lats.length, threads, new Chunk()
+        {
+            public void run(int from, int to)
+            {
+                for (int i = from; i < to; i++)
+                {
+                    double y = (lats[i] - south) / latStep;
+                    double x = (lons[i] - west) / lonStep;
+                    int row = Math.min((int) y, GRID_SIZE - 2);
+                    int column = Math.min((int) x, GRID_SIZE - 2);
+                    if (exact[row * GRID_SIZE + column])
+                    {
+                        transform(lats, lons, i, i + 1);
+                        continue;
+                    }
+
+                    // the four by four nodes around the cell, starting one row and column before it
+                    int index = row * nodes + column;
+                    lats[i] = interpolate(nodeLats, index, nodes, x - column, y - row);
+                    lons[i] = interpolate(nodeLons, index, nodes, x - column, y - row);
+                }
+            }
+        });
+    }
+
+    /**
+     * Interpolates bicubically between the four by four grid nodes starting at <code>index</code>, at a fraction of
+     * the way across the middle cell.
+     */
+    protected static double interpolate(double[] values, int index, int stride, double fx, double fy)
+    {
+        double r0 = cubic(values, index, fx);
+        double r1 = cubic(values, index + stride, fx);
+        double r2 = cubic(values, index + 2 * stride, fx);
+        double r3 = cubic(values, index + 3 * stride, fx);
+        return cubic(r0, r1, r2, r3, fy);
+    }
+
+    private static double cubic(double[] values, int index, double t)
+    {
+        return cubic(values[index], values[index + 1], values[index + 2], values[index + 3], t);
+    }
+
+    /**
+     * The Catmull-Rom cubic through four evenly spaced values, between the middle two.
+     */
+    private static double cubic(double p0, double p1, double p2, double p3, double t)
+    {
+        return p1 + 0.5 * t * (p2 - p0 + t * (2 * p0 - 5 * p1 + 4 * p2 - p3 + t * (3 * (p1 - p2) + p3 - p0)));
+    }
+
+    protected void transformFitted(double x, double y, double[] result)
+    {
+        double rx = this.xAffine[0] + this.xAffine[1] * x + this.xAffine[2] * y;
+        double ry = this.yAffine[0] + this.yAffine[1] * x + this.yAffine[2] * y;
+
+        double[] px = this.pointX;
+        double[] py = this.pointY;
+        for (int i = 0; i < px.length; i++)
+        {
+            double u = radial(square(x - px[i]) + square(y - py[i]));
+            rx += this.xWeights[i] * u;
+            ry += this.yWeights[i] * u;
+        }
+
+        result[0] = rx;
+        result[1] = ry;
+    }
+
+    /**
+     * The thin plate radial basis, r squared times the log of r squared, taken from r squared.
+     */
+    protected static double radial(double r2)
+    {
+        return r2 > 0 ? r2 * Math.log(r2) : 0;
+    }
+
+    private static double square(double value)
+    {
+        return value * value;
+    }
+}
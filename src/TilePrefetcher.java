@@ -0,0 +1,550 @@
+import gov.nasa.worldwind.util.Logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Downloads the imagery tiles covering a region over a range of levels into a tile cache ahead of time, so a later
+ * session can draw the region from disk with no network.
+ * <p/>
+ * Tiles are fetched on several threads, with a {@link RateLimiter} shared by all of them keeping the tile server from
+ * being flooded. Coarse levels are fetched first, so a prefetch that is cancelled or cut short still leaves a usable
+ * overview. Tiles already in the cache are skipped, and each tile is written to a temporary file and then renamed, so
+ * the cache never holds a partial tile. Tiles the server does not have, answered with 404 or 204 or a non-image
+ * response, are counted as missing rather than failed.
+ * <p/>
+ * Usage: <code>java TilePrefetcher [options] --url template --box minLat,minLon,maxLat,maxLon --levels first-last
+ * --cache dir</code>, where the template's <code>{level}</code>, <code>{row}</code> and <code>{column}</code> are
+ * replaced by each tile's as {@link URLTileSource} describes, and the options are <ul> <li><code>--name dir</code> for
+ * the cache directory of the tiles, <code>tiles</code> by default,</li> <li><code>--level-zero degrees</code> for the
+ * size of the level 0 tiles, 36 by default,</li> <li><code>--rate n</code> for the most requests a second,</li>
+ * <li><code>--threads n</code> for the number of downloads at once, and</li> <li><code>--max-tiles n</code> for the
+ * largest prefetch allowed.</li> </ul> This makes it easy to exercise against a local tile server or a stand-in for
+ * one. The exit status is 0 if every tile was cached, 1 if any failed, and 2 for a usage error.
+ */
+public class TilePrefetcher
+{
+    /**
+     * Told of a prefetch's progress, from the downloading threads.
+     */
+    public interface Listener
+    {
+        /**
+         * Called as each tile is downloaded, found in the cache, found missing or fails.
+         *
+         * @param finished the tiles finished so far.
+         * @param total    the tiles in the prefetch.
+         */
+        void tileFinished(long finished, long total);
+    }
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final double DEFAULT_REQUESTS_PER_SECOND = 20;
+    public static final long DEFAULT_MAX_TILES = 100000;
+
+    protected static final int TIMEOUT_MILLIS = 30000;
+
+    protected final TileSource source;
+    protected final File cacheRoot;
+    protected int threads = Integer.getInteger("kmlviewer.prefetch.threads", DEFAULT_THREADS);
+    protected double requestsPerSecond = Double.parseDouble(
+        System.getProperty("kmlviewer.prefetch.rate", Double.toString(DEFAULT_REQUESTS_PER_SECOND)));
+    protected long maxTiles = Long.getLong("kmlviewer.prefetch.maxTiles", DEFAULT_MAX_TILES);
+
+    protected volatile boolean cancelled;
+    protected volatile long total;
+    protected final AtomicLong finished = new AtomicLong();
+    protected final AtomicLong downloaded = new AtomicLong();
+    protected final AtomicLong cached = new AtomicLong();
+    protected final AtomicLong missing = new AtomicLong();
+    protected final AtomicLong failed = new AtomicLong();
+    protected final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Creates a prefetcher.
+     *
+     * @param source    the tiles.
+     * @param cacheRoot the root of the tile cache, such as World Wind's file store write location.
+     */
+    public TilePrefetcher(TileSource source, File cacheRoot)
+    {
+        this.source = source;
+        this.cacheRoot = cacheRoot;
+    }
+
+    public static void main(String[] args)
+    {
+        String template = null;
+        String name = "tiles";
+        String cache = null;
+        double levelZero = 36;
+        double[] box = null;
+        int[] levels = null;
+        Double rate = null;
+        Integer threads = null;
+        Long maxTiles = null;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                String arg = args[i];
+                if (arg.equals("--url"))
+                    template = value(args, ++i, arg);
+                else if (arg.equals("--name"))
+                    name = value(args, ++i, arg);
+                else if (arg.equals("--cache"))
+                    cache = value(args, ++i, arg);
+                else if (arg.equals("--level-zero"))
+                    levelZero = numbers(value(args, ++i, arg), ",", 1, arg)[0];
+                else if (arg.equals("--box"))
+                    box = numbers(value(args, ++i, arg), ",", 4, arg);
+                else if (arg.equals("--levels"))
+                {
+                    double[] range = numbers(value(args, ++i, arg), "-", 2, arg);
+                    levels = new int[] {(int) range[0], (int) range[1]};
+                }
+                else if (arg.equals("--rate"))
+                    rate = numbers(value(args, ++i, arg), ",", 1, arg)[0];
+                else if (arg.equals("--threads"))
+                    threads = (int) numbers(value(args, ++i, arg), ",", 1, arg)[0];
+                else if (arg.equals("--max-tiles"))
+                    maxTiles = (long) numbers(value(args, ++i, arg), ",", 1, arg)[0];
+                else
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+
+            if (template == null || box == null || levels == null || cache == null)
+                throw new IllegalArgumentException("--url, --box, --levels and --cache are required");
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java TilePrefetcher [--name dir] [--level-zero degrees] [--rate n] "
+                + "[--threads n] [--max-tiles n] --url template --box minLat,minLon,maxLat,maxLon --levels first-last "
+                + "--cache dir");
+            System.exit(2);
+            return;
+        }
+
+        TilePrefetcher prefetcher = new TilePrefetcher(
+            new URLTileSource(template, name, levelZero, levels[1] + 1), new File(cache));
+        if (rate != null)
+            prefetcher.setRequestsPerSecond(rate);
+        if (threads != null)
+            prefetcher.setThreads(threads);
+        if (maxTiles != null)
+            prefetcher.setMaxTiles(maxTiles);
+
+        try
+        {
+            prefetcher.prefetch(box[0], box[1], box[2], box[3], levels[0], levels[1], null);
+            System.exit(prefetcher.getFailedCount() > 0 ? 1 : 0);
+        }
+        catch (Exception e)
+        {
+            System.err.println("TilePrefetcher failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setRequestsPerSecond(double requestsPerSecond)
+    {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    public long getMaxTiles()
+    {
+        return this.maxTiles;
+    }
+
+    /**
+     * Sets the largest number of tiles a prefetch may cover, to catch a level range that would download far more than
+     * intended.
+     *
+     * @param maxTiles the most tiles.
+     */
+    public void setMaxTiles(long maxTiles)
+    {
+        this.maxTiles = maxTiles;
+    }
+
+    public TileSource getTileSource()
+    {
+        return this.source;
+    }
+
+    /**
+     * Counts the tiles covering a region over a range of levels.
+     *
+     * @param minLat     the southern edge, in degrees.
+     * @param minLon     the western edge, in degrees.
+     * @param maxLat     the northern edge, in degrees.
+     * @param maxLon     the eastern edge, in degrees.
+     * @param firstLevel the first level.
+     * @param lastLevel  the last level.
+     *
+     * @return the number of tiles.
+     */
+    public long countTiles(double minLat, double minLon, double maxLat, double maxLon, int firstLevel, int lastLevel)
+    {
+        long count = 0;
+        for (int level = firstLevel; level <= lastLevel; level++)
+        {
+            int[] range = this.tileRange(level, minLat, minLon, maxLat, maxLon);
+            count += (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Downloads every tile covering a region over a range of levels that is not already cached, and returns when they
+     * have all finished or the prefetch is cancelled. A tile that fails is logged and counted, and the rest go on.
+     *
+     * @param minLat     the southern edge, in degrees.
+     * @param minLon     the western edge, in degrees.
+     * @param maxLat     the northern edge, in degrees.
+     * @param maxLon     the eastern edge, in degrees.
+     * @param firstLevel the first level.
+     * @param lastLevel  the last level.
+     * @param listener   told of the progress, or null.
+     *
+     * @return the number of tiles downloaded.
+     *
+     * @throws IllegalArgumentException if the region or levels are invalid or cover more than the maximum tiles.
+     * @throws InterruptedException     if the calling thread is interrupted.
+     */
+    public long prefetch(double minLat, double minLon, double maxLat, double maxLon, int firstLevel, int lastLevel,
+        final Listener listener) throws InterruptedException
+    {
+        if (minLat > maxLat || minLon > maxLon || minLat < -90 || maxLat > 90 || minLon < -180 || maxLon > 180)
+            throw new IllegalArgumentException("Invalid region " + minLat + "," + minLon + " to " + maxLat + ","
+                + maxLon);
+        if (firstLevel < 0 || firstLevel > lastLevel || lastLevel >= this.source.getLevelCount())
+            throw new IllegalArgumentException("Invalid levels " + firstLevel + " to " + lastLevel);
+
+        long count = this.countTiles(minLat, minLon, maxLat, maxLon, firstLevel, lastLevel);
+        if (count > this.maxTiles)
+            throw new IllegalArgumentException(String.format(
+                "The region covers %d tiles, more than the limit of %d", count, this.maxTiles));
+
+        this.cancelled = false;
+        this.total = count;
+        this.finished.set(0);
+        this.downloaded.set(0);
+        this.cached.set(0);
+        this.missing.set(0);
+        this.failed.set(0);
+        this.bytes.set(0);
+
+        final TileIterator tiles = new TileIterator(firstLevel, lastLevel, minLat, minLon, maxLat, maxLon);
+        final RateLimiter limiter = new RateLimiter(this.requestsPerSecond);
+        long start = System.nanoTime();
+
+        // Each worker takes the next tile until none are left, so tiles are never all queued at once
+        Callable<Void> worker = new Callable<Void>()
+        {
+            public Void call() throws InterruptedException
+            {
+                int[] tile;
+                while (!cancelled && (tile = tiles.next()) != null)
+                {
+                    fetch(tile[0], tile[1], tile[2], limiter);
+                    long done = finished.incrementAndGet();
+                    if (listener != null)
+                        listener.tileFinished(done, total);
+                }
+                return null;
+            }
+        };
+
+        try
+        {
+            ParallelTasks.invokeAll("Tile prefetcher", this.threads, Collections.nCopies(this.threads, worker));
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Tile prefetch failed", e.getCause());
+        }
+
+        Logging.logger().info(String.format(
+            "Prefetched %d of %d tiles in %.1f s: %d downloaded (%d bytes), %d already cached, %d missing, %d failed%s",
+            this.finished.get(), count, (System.nanoTime() - start) / 1e9, this.downloaded.get(), this.bytes.get(),
+            this.cached.get(), this.missing.get(), this.failed.get(), this.cancelled ? ", cancelled" : ""));
+
+        return this.downloaded.get();
+    }
+
+    /**
+     * Stops a running prefetch once the tiles being downloaded finish.
+     */
+    public void cancel()
+    {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return this.cancelled;
+    }
+
+    public long getTotalCount()
+    {
+        return this.total;
+    }
+
+    public long getFinishedCount()
+    {
+        return this.finished.get();
+    }
+
+    public long getDownloadedCount()
+    {
+        return this.downloaded.get();
+    }
+
+    public long getCachedCount()
+    {
+        return this.cached.get();
+    }
+
+    public long getMissingCount()
+    {
+        return this.missing.get();
+    }
+
+    public long getFailedCount()
+    {
+        return this.failed.get();
+    }
+
+    public long getDownloadedBytes()
+    {
+        return this.bytes.get();
+    }
+
+    protected void fetch(int level, int row, int column, RateLimiter limiter) throws InterruptedException
+    {
+        File file = new File(this.cacheRoot, this.source.getCachePath(level, row, column));
+        if (file.exists())
+        {
+            this.cached.incrementAndGet();
+            return;
+        }
+
+        URL url = null;
+        try
+        {
+            url = this.source.getTileURL(level, row, column);
+            if (url == null)
+            {
+                this.missing.incrementAndGet();
+                return;
+            }
+
+            limiter.acquire();
+            byte[] image = download(url);
+            if (image == null)
+            {
+                this.missing.incrementAndGet();
+                return;
+            }
+
+            byte[] data = this.source.toCacheFormat(image);
+            store(file, data);
+            this.downloaded.incrementAndGet();
+            this.bytes.addAndGet(data.length);
+        }
+        catch (IOException e)
+        {
+            if (this.failed.incrementAndGet() == 1)
+                Logging.logger().log(Level.WARNING, "Unable to prefetch tile " + (url != null ? url : file), e);
+            else
+                Logging.logger().fine("Unable to prefetch tile " + (url != null ? url : file) + ": " + e);
+        }
+    }
+
+    /**
+     * Downloads a tile, returning null if the server has no image there.
+     */
+    protected static byte[] download(URL url) throws IOException
+    {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+
+        if (connection instanceof HttpURLConnection)
+        {
+            int code = ((HttpURLConnection) connection).getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_NO_CONTENT)
+                return null;
+            if (code != HttpURLConnection.HTTP_OK)
+                throw new IOException("HTTP " + code + " from " + url);
+        }
+
+        try (InputStream in = connection.getInputStream())
+        {
+            // Map servers answer requests they cannot serve with an XML or HTML error document
+            String contentType = connection.getContentType();
+            if (contentType != null && (contentType.startsWith("text/") || contentType.contains("xml")))
+                return null;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(connection.getContentLength(), 16384));
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+            {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    protected static void store(File file, byte[] data) throws IOException
+    {
+        File directory = file.getParentFile();
+        Files.createDirectories(directory.toPath());
+
+        File temp = File.createTempFile("prefetch", ".tmp", directory);
+        try
+        {
+            try (OutputStream out = new FileOutputStream(temp))
+            {
+                out.write(data);
+            }
+
+            try
+            {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Returns the first row, first column, last row and last column of a level's tiles covering a region.
+     */
+    protected int[] tileRange(int level, double minLat, double minLon, double maxLat, double maxLon)
+    {
+        double height = this.source.getTileHeight(level);
+        double width = this.source.getTileWidth(level);
+        int rows = (int) Math.ceil(180 / height);
+        int columns = (int) Math.ceil(360 / width);
+
+        return new int[] {
+            Math.min((int) ((minLat + 90) / height), rows - 1),
+            Math.min((int) ((minLon + 180) / width), columns - 1),
+            Math.min((int) ((maxLat + 90) / height), rows - 1),
+            Math.min((int) ((maxLon + 180) / width), columns - 1)};
+    }
+
+    /**
+     * Hands out the tiles of a prefetch one at a time to the downloading threads, level by level.
+     */
+    protected class TileIterator
+    {
+        protected final int lastLevel;
+        protected final double minLat, minLon, maxLat, maxLon;
+        protected int level;
+        protected int[] range;
+        protected int row, column;
+
+        protected TileIterator(int firstLevel, int lastLevel, double minLat, double minLon, double maxLat,
+            double maxLon)
+        {
+            this.lastLevel = lastLevel;
+            this.minLat = minLat;
+            this.minLon = minLon;
+            this.maxLat = maxLat;
+            this.maxLon = maxLon;
+            this.startLevel(firstLevel);
+        }
+
+        /**
+         * Returns the level, row and column of the next tile, or null when there are no more.
+         */
+        protected synchronized int[] next()
+        {
+            if (this.level > this.lastLevel)
+                return null;
+
+            int[] tile = new int[] {this.level, this.row, this.column};
+
+            if (++this.column > this.range[3])
+            {
+                this.column = this.range[1];
+                if (++this.row > this.range[2])
+                    this.startLevel(this.level + 1);
+            }
+
+            return tile;
+        }
+
+        protected void startLevel(int level)
+        {
+            this.level = level;
+            if (level > this.lastLevel)
+                return;
+
+            this.range = tileRange(level, this.minLat, this.minLon, this.maxLat, this.maxLon);
+            this.row = this.range[0];
+            this.column = this.range[1];
+        }
+    }
+
+    private static String value(String[] args, int i, String option)
+    {
+        if (i >= args.length)
+            throw new IllegalArgumentException(option + " needs a value");
+
+        return args[i];
+    }
+
+    private static double[] numbers(String value, String separator, int count, String option)
+    {
+        String[] fields = value.split(separator);
+        if (fields.length != count)
+            throw new IllegalArgumentException(option + " needs " + count + " numbers separated by " + separator);
+
+        double[] numbers = new double[count];
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                numbers[i] = Double.parseDouble(fields[i].trim());
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException(option + " needs numbers: " + value);
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * A pyramid of imagery tiles that {@link TilePrefetcher} can download ahead of time.
+ * <p/>
+ * Tiles are laid out as World Wind's level sets lay them out: each level is a grid of tiles of a fixed size in degrees,
+ * with rows counted north from -90 latitude and columns east from -180 longitude, and each level usually halving the
+ * size of the one before it.
+ */
+public interface TileSource
+{
+    /**
+     * Returns the number of levels, numbered from 0, the coarsest.
+     *
+     * @return the number of levels.
+     */
+    int getLevelCount();
+
+    /**
+     * Returns the height of a level's tiles.
+     *
+     * @param level the level.
+     *
+     * @return the degrees of latitude a tile covers.
+     */
+    double getTileHeight(int level);
+
+    /**
+     * Returns the width of a level's tiles.
+     *
+     * @param level the level.
+     *
+     * @return the degrees of longitude a tile covers.
+     */
+    double getTileWidth(int level);
+
+    /**
+     * Returns where a tile is downloaded from.
+     *
+     * @param level  the level.
+     * @param row    the tile's row.
+     * @param column the tile's column.
+     *
+     * @return the tile's URL, or null if the source has no tile there.
+     *
+     * @throws IOException if the URL cannot be formed.
+     */
+    URL getTileURL(int level, int row, int column) throws IOException;
+
+    /**
+     * Returns where a tile is kept, relative to the root of the tile cache.
+     *
+     * @param level  the level.
+     * @param row    the tile's row.
+     * @param column the tile's column.
+     *
+     * @return the tile's path, with '/' separating directories.
+     */
+    String getCachePath(int level, int row, int column);
+
+    /**
+     * Converts a downloaded image to the form kept in the cache.
+     *
+     * @param image the downloaded bytes.
+     *
+     * @return the bytes to store, which may be <code>image</code> itself.
+     *
+     * @throws IOException if the image cannot be converted.
+     */
+    byte[] toCacheFormat(byte[] image) throws IOException;
+}
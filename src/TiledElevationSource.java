@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An elevation source over a regular latitude/longitude grid of samples, read a square tile at a time and kept in a
+ * least recently used cache.
+ * <p/>
+ * Row 0 of the grid is its northern edge and column 0 its western edge; rows run south and columns east. Elevations
+ * between samples are interpolated bilinearly from the four around them, or taken from the nearest sample when one of
+ * the four has no data. Subclasses read the tiles; a tile is <code>tileSize</code> by <code>tileSize</code> samples in
+ * row order, with <code>Float.NaN</code> where there is no data or the tile runs past the grid.
+ * <p/>
+ * The cache is shared by all threads. A tile missing from it is read without holding the cache lock, so two threads
+ * may occasionally read the same tile; the second copy simply replaces the first.
+ */
+public abstract class TiledElevationSource implements ElevationSource
+{
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    /** Tiles kept by default; 64 tiles of 256 by 256 floats take 16 MB. */
+    public static final int DEFAULT_CACHE_TILES = 64;
+
+    protected final double originLatitude;
+    protected final double originLongitude;
+    protected final double latitudeSpacing;
+    protected final double longitudeSpacing;
+    protected final int rows;
+    protected final int columns;
+    protected final int tileSize;
+
+    protected final Map<Long, float[]> cache;
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a source over a grid.
+     *
+     * @param originLatitude   the latitude of row 0, in degrees.
+     * @param originLongitude  the longitude of column 0, in degrees.
+     * @param latitudeSpacing  the degrees of latitude between rows.
+     * @param longitudeSpacing the degrees of longitude between columns.
+     * @param rows             the number of rows.
+     * @param columns          the number of columns.
+     * @param tileSize         the rows and columns in a tile.
+     * @param cacheTiles       the most tiles kept in the cache.
+     */
+    protected TiledElevationSource(double originLatitude, double originLongitude, double latitudeSpacing,
+        double longitudeSpacing, int rows, int columns, int tileSize, final int cacheTiles)
+    {
+        this.originLatitude = originLatitude;
+        this.originLongitude = originLongitude;
+        this.latitudeSpacing = latitudeSpacing;
+        this.longitudeSpacing = longitudeSpacing;
+        this.rows = rows;
+        this.columns = columns;
+        this.tileSize = tileSize;
+
+        this.cache = new LinkedHashMap<Long, float[]>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<Long, float[]> eldest)
+            {
+                return this.size() > cacheTiles;
+            }
+        };
+    }
+
+    public double getElevation(double latitude, double longitude) throws IOException
+    {
+        double row = (this.originLatitude - latitude) / this.latitudeSpacing;
+        double column = (longitude - this.originLongitude) / this.longitudeSpacing;
+        if (row < 0 || column < 0 || row > this.rows - 1 || column > this.columns - 1)
+            return Double.NaN;
+
+        int r0 = (int) row;
+        int c0 = (int) column;
+        int r1 = Math.min(r0 + 1, this.rows - 1);
+        int c1 = Math.min(c0 + 1, this.columns - 1);
+        double fr = row - r0;
+        double fc = column - c0;
+
+        float e00, e01, e10, e11;
+        if (r0 / this.tileSize == r1 / this.tileSize && c0 / this.tileSize == c1 / this.tileSize)
+        {
+            // All four samples are in one tile, the usual case
+            float[] tile = this.getTile(r0 / this.tileSize, c0 / this.tileSize);
+            e00 = tile[this.offset(r0, c0)];
+            e01 = tile[this.offset(r0, c1)];
+            e10 = tile[this.offset(r1, c0)];
+            e11 = tile[this.offset(r1, c1)];
+        }
+        else
+        {
+            e00 = this.getSample(r0, c0);
+            e01 = this.getSample(r0, c1);
+            e10 = this.getSample(r1, c0);
+            e11 = this.getSample(r1, c1);
+        }
+
+        if (Float.isNaN(e00) || Float.isNaN(e01) || Float.isNaN(e10) || Float.isNaN(e11))
+        {
+            int nearestRow = fr < 0.5 ? r0 : r1;
+            int nearestColumn = fc < 0.5 ? c0 : c1;
+            return this.getSample(nearestRow, nearestColumn);
+        }
+
+        double north = e00 + (e01 - e00) * fc;
+        double south = e10 + (e11 - e10) * fc;
+        return north + (south - north) * fr;
+    }
+
+    /**
+     * Returns the number of elevation lookups whose tile was already cached.
+     *
+     * @return the cache hits.
+     */
+    public long getCacheHits()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * Returns the number of tiles read because they were not cached.
+     *
+     * @return the cache misses.
+     */
+    public long getCacheMisses()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * Reads one tile of samples.
+     *
+     * @param tileRow    the tile's row, counting tiles from the northern edge.
+     * @param tileColumn the tile's column, counting tiles from the western edge.
+     *
+     * @return <code>tileSize</code> squared samples in row order, NaN where there is no data.
+     *
+     * @throws IOException if the tile cannot be read.
+     */
+    protected abstract float[] readTile(int tileRow, int tileColumn) throws IOException;
+
+    protected float getSample(int row, int column) throws IOException
+    {
+        return this.getTile(row / this.tileSize, column / this.tileSize)[this.offset(row, column)];
+    }
+
+    protected int offset(int row, int column)
+    {
+        return (row % this.tileSize) * this.tileSize + column % this.tileSize;
+    }
+
+    protected float[] getTile(int tileRow, int tileColumn) throws IOException
+    {
+        Long key = ((long) tileRow << 32) | tileColumn;
+        float[] tile;
+        synchronized (this.cache)
+        {
+            tile = this.cache.get(key);
+        }
+        if (tile != null)
+        {
+            this.hits.incrementAndGet();
+            return tile;
+        }
+
+        this.misses.incrementAndGet();
+        tile = this.readTile(tileRow, tileColumn);
+        synchronized (this.cache)
+        {
+            this.cache.put(key, tile);
+        }
+        return tile;
+    }
+}
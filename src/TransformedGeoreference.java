@@ -0,0 +1,82 @@
+import gov.nasa.worldwind.geom.LatLon;
+
+/**
+ * Re-places a scan by passing the locations of another georeference through a {@link ControlPointTransform}, so a scan
+ * first placed by its corners can be corrected with control points picked on the globe.
+ * <p/>
+ * The layer asks for the corners of its tiles every frame, and a thin plate spline costs a logarithm per control point
+ * for each, so the corners of the finest tiles are transformed once up front, split across threads, and looked up
+ * afterwards. Coarser tiles' corners lie on the same grid; any other point is transformed when asked for.
+ */
+public class TransformedGeoreference implements ImageGeoreference
+{
+    protected final ImageGeoreference base;
+    protected final ControlPointTransform transform;
+    protected final int spacing;
+    protected final int columns;
+    protected final int rows;
+    protected final double[] lats;
+    protected final double[] lons;
+
+    /**
+     * Transforms the corners of a pyramid's tiles.
+     *
+     * @param base      the georeference being corrected.
+     * @param transform the correction, from the base placement to the true one.
+     * @param pyramid   the pyramid the georeference places.
+     * @param threads   the number of threads to transform the tile corners on.
+     */
+    public TransformedGeoreference(ImageGeoreference base, ControlPointTransform transform,
+        ScannedImagePyramid pyramid, int threads)
+    {
+        this.base = base;
+        this.transform = transform;
+        this.spacing = pyramid.getTileSize();
+        this.columns = pyramid.getColumnCount(pyramid.getLevelCount() - 1) + 1;
+        this.rows = pyramid.getRowCount(pyramid.getLevelCount() - 1) + 1;
+        this.lats = new double[this.columns * this.rows];
+        this.lons = new double[this.columns * this.rows];
+
+        for (int row = 0; row < this.rows; row++)
+        {
+            for (int column = 0; column < this.columns; column++)
+            {
+                LatLon location = base.toGeographic(column * this.spacing, row * this.spacing);
+                this.lats[row * this.columns + column] = location.getLatitude().degrees;
+                this.lons[row * this.columns + column] = location.getLongitude().degrees;
+            }
+        }
+
+        transform.transformAll(this.lats, this.lons, threads);
+    }
+
+    /**
+     * Returns the georeference being corrected, to go back to it or to correct it afresh.
+     *
+     * @return the base georeference.
+     */
+    public ImageGeoreference getBase()
+    {
+        return this.base;
+    }
+
+    public ControlPointTransform getTransform()
+    {
+        return this.transform;
+    }
+
+    public LatLon toGeographic(double x, double y)
+    {
+        int column = (int) (x / this.spacing);
+        int row = (int) (y / this.spacing);
+        if (x >= 0 && y >= 0 && column < this.columns && row < this.rows
+            && column * this.spacing == x && row * this.spacing == y)
+        {
+            int index = row * this.columns + column;
+            return LatLon.fromDegrees(this.lats[index], this.lons[index]);
+        }
+
+        LatLon location = this.base.toGeographic(x, y);
+        return this.transform.transform(location.getLatitude().degrees, location.getLongitude().degrees);
+    }
+}
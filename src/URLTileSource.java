@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Tiles downloaded from URLs made from a template, such as a local tile server or a test stand-in for one.
+ * <p/>
+ * The template's <code>{level}</code>, <code>{row}</code> and <code>{column}</code> are replaced by the tile's. Level 0
+ * tiles are a given number of degrees square and each level halves them, and tiles are cached as World Wind caches
+ * them: <code>name/level/row/row_column.suffix</code>, with the suffix taken from the template.
+ */
+public class URLTileSource implements TileSource
+{
+    protected final String template;
+    protected final String cacheName;
+    protected final double levelZeroDelta;
+    protected final int levelCount;
+    protected final String suffix;
+
+    /**
+     * Creates a source.
+     *
+     * @param template       the tile URL template.
+     * @param cacheName      the directory tiles are cached in, relative to the cache root.
+     * @param levelZeroDelta the size of the level 0 tiles, in degrees.
+     * @param levelCount     the number of levels.
+     */
+    public URLTileSource(String template, String cacheName, double levelZeroDelta, int levelCount)
+    {
+        this.template = template;
+        this.cacheName = cacheName;
+        this.levelZeroDelta = levelZeroDelta;
+        this.levelCount = levelCount;
+
+        int dot = template.lastIndexOf('.');
+        this.suffix = dot > template.lastIndexOf('/') ? template.substring(dot) : "";
+    }
+
+    public int getLevelCount()
+    {
+        return this.levelCount;
+    }
+
+    public double getTileHeight(int level)
+    {
+        return this.levelZeroDelta / (1 << level);
+    }
+
+    public double getTileWidth(int level)
+    {
+        return this.levelZeroDelta / (1 << level);
+    }
+
+    public URL getTileURL(int level, int row, int column) throws IOException
+    {
+        return new URL(this.template.replace("{level}", Integer.toString(level))
+            .replace("{row}", Integer.toString(row))
+            .replace("{column}", Integer.toString(column)));
+    }
+
+    public String getCachePath(int level, int row, int column)
+    {
+        return this.cacheName + "/" + level + "/" + row + "/" + row + "_" + column + this.suffix;
+    }
+
+    public byte[] toCacheFormat(byte[] image)
+    {
+        return image;
+    }
+}
@@ -0,0 +1,179 @@
+import gov.nasa.worldwind.event.RenderingEvent;
+import gov.nasa.worldwind.event.RenderingListener;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the viewer's hot paths, so a recording shows how a sluggish station splits its time
+ * between parsing, layer management, digitizing, exporting and rendering.
+ * <p/>
+ * Each event times one operation and carries its item counts and sizes. Call sites follow the usual JFR pattern:
+ * <code>begin()</code>, the work, <code>end()</code>, and the fields are only filled in when <code>shouldCommit()</code>
+ * says the event is enabled and over its threshold. With no recording running the JIT reduces the calls to nothing.
+ * Every event is in the "KML Viewer" category and named <code>kmlviewer.*</code>, so it can be enabled in a
+ * <code>.jfc</code> file or with <code>jcmd JFR.start</code>.
+ */
+public class ViewerEvents
+{
+    @Name("kmlviewer.Import")
+    @Label("KML Import")
+    @Category({"KML Viewer", "Import"})
+    @Description("Loading one KML or KMZ source, from reading to handing its content to the display")
+    public static class ImportEvent extends Event
+    {
+        @Label("Source")
+        public String source;
+
+        @Label("Placemarks")
+        public int placemarks;
+
+        @Label("Points Only")
+        public boolean pointsOnly;
+    }
+
+    @Name("kmlviewer.Parse")
+    @Label("KML Parse")
+    @Category({"KML Viewer", "Import"})
+    @Description("Building the KML object model of a document")
+    public static class ParseEvent extends Event
+    {
+        @Label("Source")
+        public String source;
+    }
+
+    @Name("kmlviewer.CollectPoints")
+    @Label("Collect Points")
+    @Category({"KML Viewer", "Import"})
+    @Description("Walking a parsed document for its point placemarks")
+    public static class CollectPointsEvent extends Event
+    {
+        @Label("Placemarks")
+        public int placemarks;
+    }
+
+    @Name("kmlviewer.AddLayer")
+    @Label("Add Layer")
+    @Category({"KML Viewer", "Layers"})
+    @Description("Adding an imported document's layer, points and tree node on the event dispatch thread")
+    public static class AddLayerEvent extends Event
+    {
+        @Label("Layer")
+        public String layer;
+
+        @Label("Placemarks")
+        public int placemarks;
+
+        @Label("Layers")
+        @Description("Layers in the model after the addition")
+        public int layers;
+    }
+
+    @Name("kmlviewer.LayerInsert")
+    @Label("Layer Insert")
+    @Category({"KML Viewer", "Layers"})
+    @Description("Inserting layers next to an anchor layer such as the compass")
+    public static class LayerInsertEvent extends Event
+    {
+        @Label("Inserted")
+        public int inserted;
+
+        @Label("Layers")
+        @Description("Layers in the list after the insertion")
+        public int layers;
+
+        @Label("Searched")
+        @Description("Whether the anchor had to be searched for")
+        public boolean searched;
+    }
+
+    @Name("kmlviewer.LayerTreeRefresh")
+    @Label("Layer Tree Refresh")
+    @Category({"KML Viewer", "Layers"})
+    @Description("Rebuilding the on-screen layer tree from the layer list")
+    public static class LayerTreeRefreshEvent extends Event
+    {
+        @Label("Layers")
+        public int layers;
+    }
+
+    @Name("kmlviewer.Click")
+    @Label("Click")
+    @Category({"KML Viewer", "Digitizing"})
+    @Description("Storing a digitizing click in the session")
+    public static class ClickEvent extends Event
+    {
+        @Label("Placemarks")
+        @Description("Placemarks in the session after the click")
+        public int placemarks;
+    }
+
+    @Name("kmlviewer.Export")
+    @Label("Export")
+    @Category({"KML Viewer", "Export"})
+    @Description("Writing the placemarks to an exported file")
+    public static class ExportEvent extends Event
+    {
+        @Label("Path")
+        public String path;
+
+        @Label("Format")
+        @Description("The exporter's name, such as KMZ or GeoJSON")
+        public String format;
+
+        @Label("Placemarks")
+        public long placemarks;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Compressed")
+        public boolean compressed;
+    }
+
+    @Name("kmlviewer.Redraw")
+    @Label("Redraw Request")
+    @Category({"KML Viewer", "Rendering"})
+    @Description("A redraw performed by the redraw scheduler")
+    public static class RedrawEvent extends Event
+    {
+        @Label("Coalesced")
+        @Description("Requests folded into redraws so far")
+        public long coalesced;
+    }
+
+    @Name("kmlviewer.Frame")
+    @Label("Frame")
+    @Category({"KML Viewer", "Rendering"})
+    @Description("Drawing one frame of the World Window, up to the buffer swap")
+    public static class FrameEvent extends Event
+    {
+    }
+
+    /**
+     * Records a {@link FrameEvent} for each frame a World Window draws. Register it as a rendering listener.
+     */
+    public static class FrameRecorder implements RenderingListener
+    {
+        protected FrameEvent frame;
+
+        public void stageChanged(RenderingEvent event)
+        {
+            if (RenderingEvent.BEFORE_RENDERING.equals(event.getStage()))
+            {
+                this.frame = new FrameEvent();
+                this.frame.begin();
+            }
+            else if (RenderingEvent.AFTER_BUFFER_SWAP.equals(event.getStage()) && this.frame != null)
+            {
+                this.frame.commit();
+                this.frame = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,476 @@
+import gov.nasa.worldwind.util.Logging;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counts what the viewer does and publishes it as JMX MBeans, so a digitizing station left running can be watched with
+ * JConsole, VisualVM or any other JMX client.
+ * <p/>
+ * Four MBeans are registered under the <code>kmlviewer</code> domain: <code>type=Imports</code> for files imported,
+ * failures, placemarks and per-file latency; <code>type=Exports</code> for exports, their duration and bytes written;
+ * <code>type=Session</code> for digitized and imported placemark counts and click latency; and
+ * <code>type=Rendering</code> for the number of layers and the redraw rate. Latencies are read from {@link
+ * LatencyHistogram}s.
+ * <p/>
+ * Imports and exports report to the shared instance from {@link #get()}. The session, its click latencies and a
+ * {@link RenderingProvider} are attached once they exist, so nothing here depends on a World Window and the headless
+ * session can report without one. Registration can be turned off with the <code>kmlviewer.jmx</code> system property
+ * set to false.
+ */
+public class ViewerMetrics
+{
+    public static final String DOMAIN = "kmlviewer";
+
+    public interface ImportsMBean
+    {
+        long getFilesImported();
+
+        long getFilesFailed();
+
+        long getPlacemarksImported();
+
+        /** Placemarks imported per second spent importing, over all files. */
+        double getPlacemarksPerSecond();
+
+        double getLatencyMeanMillis();
+
+        long getLatencyP50Millis();
+
+        long getLatencyP99Millis();
+
+        long getLatencyMaxMillis();
+
+        String getLastFailure();
+
+        void reset();
+    }
+
+    public interface ExportsMBean
+    {
+        long getExports();
+
+        long getExportFailures();
+
+        long getPlacemarksExported();
+
+        long getBytesWritten();
+
+        long getLastExportMillis();
+
+        long getLastExportBytes();
+
+        double getExportMeanMillis();
+
+        String getLastFailure();
+
+        void reset();
+    }
+
+    public interface SessionMBean
+    {
+        int getDigitizedPlacemarks();
+
+        int getImportedPlacemarks();
+
+        long getPlacemarkMemoryBytes();
+
+        long getClickStoredP50Micros();
+
+        long getClickStoredP99Micros();
+
+        long getClickVisibleP50Micros();
+
+        long getClickVisibleP99Micros();
+    }
+
+    public interface RenderingMBean
+    {
+        int getLayers();
+
+        long getRedrawsRequested();
+
+        long getRedrawsPerformed();
+
+        /** Redraws performed per second over the last few whole seconds, however often it is read. */
+        double getRedrawsPerSecond();
+    }
+
+    /**
+     * Supplies the rendering figures, so the metrics need not know about the World Window. Called from JMX threads.
+     */
+    public interface RenderingProvider
+    {
+        int getLayerCount();
+
+        long getRedrawsRequested();
+
+        long getRedrawsPerformed();
+
+        double getRedrawsPerSecond();
+    }
+
+    protected static class Imports implements ImportsMBean
+    {
+        protected final AtomicLong files = new AtomicLong();
+        protected final AtomicLong failures = new AtomicLong();
+        protected final AtomicLong placemarks = new AtomicLong();
+        protected final AtomicLong nanos = new AtomicLong();
+        protected final LatencyHistogram latency = new LatencyHistogram();
+        protected volatile String lastFailure;
+
+        public long getFilesImported()
+        {
+            return this.files.get();
+        }
+
+        public long getFilesFailed()
+        {
+            return this.failures.get();
+        }
+
+        public long getPlacemarksImported()
+        {
+            return this.placemarks.get();
+        }
+
+        public double getPlacemarksPerSecond()
+        {
+            long nanos = this.nanos.get();
+            return nanos == 0 ? 0 : this.placemarks.get() / (nanos / 1e9);
+        }
+
+        public double getLatencyMeanMillis()
+        {
+            return this.latency.getMean() / 1000;
+        }
+
+        public long getLatencyP50Millis()
+        {
+            return this.latency.getPercentile(50) / 1000;
+        }
+
+        public long getLatencyP99Millis()
+        {
+            return this.latency.getPercentile(99) / 1000;
+        }
+
+        public long getLatencyMaxMillis()
+        {
+            return this.latency.getMax() / 1000;
+        }
+
+        public String getLastFailure()
+        {
+            return this.lastFailure;
+        }
+
+        public void reset()
+        {
+            this.files.set(0);
+            this.failures.set(0);
+            this.placemarks.set(0);
+            this.nanos.set(0);
+            this.latency.reset();
+            this.lastFailure = null;
+        }
+    }
+
+    protected static class Exports implements ExportsMBean
+    {
+        protected final AtomicLong exports = new AtomicLong();
+        protected final AtomicLong failures = new AtomicLong();
+        protected final AtomicLong placemarks = new AtomicLong();
+        protected final AtomicLong bytes = new AtomicLong();
+        protected final AtomicLong nanos = new AtomicLong();
+        protected volatile long lastNanos;
+        protected volatile long lastBytes;
+        protected volatile String lastFailure;
+
+        public long getExports()
+        {
+            return this.exports.get();
+        }
+
+        public long getExportFailures()
+        {
+            return this.failures.get();
+        }
+
+        public long getPlacemarksExported()
+        {
+            return this.placemarks.get();
+        }
+
+        public long getBytesWritten()
+        {
+            return this.bytes.get();
+        }
+
+        public long getLastExportMillis()
+        {
+            return this.lastNanos / 1000000L;
+        }
+
+        public long getLastExportBytes()
+        {
+            return this.lastBytes;
+        }
+
+        public double getExportMeanMillis()
+        {
+            long exports = this.exports.get();
+            return exports == 0 ? 0 : this.nanos.get() / 1e6 / exports;
+        }
+
+        public String getLastFailure()
+        {
+            return this.lastFailure;
+        }
+
+        public void reset()
+        {
+            this.exports.set(0);
+            this.failures.set(0);
+            this.placemarks.set(0);
+            this.bytes.set(0);
+            this.nanos.set(0);
+            this.lastNanos = 0;
+            this.lastBytes = 0;
+            this.lastFailure = null;
+        }
+    }
+
+    protected static class Session implements SessionMBean
+    {
+        protected volatile DigitizingSession session;
+        protected volatile LatencyHistogram clickStored;
+        protected volatile LatencyHistogram clickVisible;
+
+        public int getDigitizedPlacemarks()
+        {
+            DigitizingSession session = this.session;
+            return session != null ? session.getDigitizedCount() : 0;
+        }
+
+        public int getImportedPlacemarks()
+        {
+            DigitizingSession session = this.session;
+            return session != null ? session.getPlacemarkStore().count() - session.getDigitizedCount() : 0;
+        }
+
+        public long getPlacemarkMemoryBytes()
+        {
+            DigitizingSession session = this.session;
+            return session != null ? session.getPlacemarkStore().getMemoryBytes() : 0;
+        }
+
+        public long getClickStoredP50Micros()
+        {
+            LatencyHistogram latency = this.clickStored;
+            return latency != null ? latency.getPercentile(50) : 0;
+        }
+
+        public long getClickStoredP99Micros()
+        {
+            LatencyHistogram latency = this.clickStored;
+            return latency != null ? latency.getPercentile(99) : 0;
+        }
+
+        public long getClickVisibleP50Micros()
+        {
+            LatencyHistogram latency = this.clickVisible;
+            return latency != null ? latency.getPercentile(50) : 0;
+        }
+
+        public long getClickVisibleP99Micros()
+        {
+            LatencyHistogram latency = this.clickVisible;
+            return latency != null ? latency.getPercentile(99) : 0;
+        }
+    }
+
+    protected static class Rendering implements RenderingMBean
+    {
+        protected volatile RenderingProvider provider;
+
+        public int getLayers()
+        {
+            RenderingProvider provider = this.provider;
+            return provider != null ? provider.getLayerCount() : 0;
+        }
+
+        public long getRedrawsRequested()
+        {
+            RenderingProvider provider = this.provider;
+            return provider != null ? provider.getRedrawsRequested() : 0;
+        }
+
+        public long getRedrawsPerformed()
+        {
+            RenderingProvider provider = this.provider;
+            return provider != null ? provider.getRedrawsPerformed() : 0;
+        }
+
+        public double getRedrawsPerSecond()
+        {
+            RenderingProvider provider = this.provider;
+            return provider != null ? provider.getRedrawsPerSecond() : 0;
+        }
+    }
+
+    private static final ViewerMetrics instance = new ViewerMetrics();
+
+    protected final Imports imports = new Imports();
+    protected final Exports exports = new Exports();
+    protected final Session session = new Session();
+    protected final Rendering rendering = new Rendering();
+
+    public static ViewerMetrics get()
+    {
+        return instance;
+    }
+
+    /**
+     * Registers the MBeans with the platform MBean server, unless they are registered already or
+     * <code>kmlviewer.jmx</code> is false. Failures are logged, not thrown.
+     */
+    public synchronized void register()
+    {
+        if (!Boolean.parseBoolean(System.getProperty("kmlviewer.jmx", "true")))
+            return;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            register(server, "Imports", new StandardMBean(this.imports, ImportsMBean.class));
+            register(server, "Exports", new StandardMBean(this.exports, ExportsMBean.class));
+            register(server, "Session", new StandardMBean(this.session, SessionMBean.class));
+            register(server, "Rendering", new StandardMBean(this.rendering, RenderingMBean.class));
+        }
+        catch (JMException e)
+        {
+            Logging.logger().log(Level.WARNING, "Unable to register the viewer's MBeans", e);
+        }
+    }
+
+    protected static void register(MBeanServer server, String type, StandardMBean mbean) throws JMException
+    {
+        ObjectName name = new ObjectName(DOMAIN, "type", type);
+        if (!server.isRegistered(name))
+            server.registerMBean(mbean, name);
+    }
+
+    /**
+     * Attaches the digitizing session.
+     *
+     * @param session the session.
+     */
+    public void setSession(DigitizingSession session)
+    {
+        this.session.session = session;
+    }
+
+    /**
+     * Attaches the latencies of clicks fed to the session, such as those a {@link ClickPipeline} keeps.
+     *
+     * @param stored  the time from a click to its placemark being stored, or null.
+     * @param visible the time from a click to the end of the frame showing it, or null.
+     */
+    public void setClickLatency(LatencyHistogram stored, LatencyHistogram visible)
+    {
+        this.session.clickStored = stored;
+        this.session.clickVisible = visible;
+    }
+
+    /**
+     * Attaches the source of the layer count and redraw figures.
+     *
+     * @param provider the provider, or null to report zeros.
+     */
+    public void setRendering(RenderingProvider provider)
+    {
+        this.rendering.provider = provider;
+    }
+
+    /**
+     * Records a file imported.
+     *
+     * @param nanos      how long the import took.
+     * @param placemarks the number of point placemarks it held.
+     */
+    public void importFinished(long nanos, long placemarks)
+    {
+        this.imports.files.incrementAndGet();
+        this.imports.placemarks.addAndGet(placemarks);
+        this.imports.nanos.addAndGet(nanos);
+        this.imports.latency.record(nanos);
+    }
+
+    /**
+     * Records a file that could not be imported.
+     *
+     * @param name  the file's name.
+     * @param error why it failed.
+     */
+    public void importFailed(String name, Throwable error)
+    {
+        this.imports.failures.incrementAndGet();
+        this.imports.lastFailure = name + ": " + error;
+    }
+
+    /**
+     * Records an export written.
+     *
+     * @param nanos      how long the export took.
+     * @param bytes      the size of the file written.
+     * @param placemarks the number of placemarks written.
+     */
+    public void exportFinished(long nanos, long bytes, long placemarks)
+    {
+        this.exports.exports.incrementAndGet();
+        this.exports.placemarks.addAndGet(placemarks);
+        this.exports.bytes.addAndGet(bytes);
+        this.exports.nanos.addAndGet(nanos);
+        this.exports.lastNanos = nanos;
+        this.exports.lastBytes = bytes;
+    }
+
+    /**
+     * Records an export that could not be written.
+     *
+     * @param path  the file being written.
+     * @param error why it failed.
+     */
+    public void exportFailed(String path, Throwable error)
+    {
+        this.exports.failures.incrementAndGet();
+        this.exports.lastFailure = path + ": " + error;
+    }
+
+    public ImportsMBean getImports()
+    {
+        return this.imports;
+    }
+
+    public ExportsMBean getExports()
+    {
+        return this.exports;
+    }
+
+    public SessionMBean getSession()
+    {
+        return this.session;
+    }
+
+    public RenderingMBean getRendering()
+    {
+        return this.rendering;
+    }
+}